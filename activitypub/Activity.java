@@ -2,7 +2,6 @@ package it.polito.activitypub;
 
 import java.io.Serializable;
 import java.time.Instant;
-import java.util.UUID;
 
 public class Activity  implements Serializable {
     public final String id;
@@ -12,13 +11,21 @@ public class Activity  implements Serializable {
     public final Instant timestamp;
 
     public Activity(ActivityType type, String actor, String content) {
-        this.id = UUID.randomUUID().toString();
+        this.id = ActivityIds.SHARED.next();
         this.type = type;
         this.actor = actor;
         this.content = content;
         this.timestamp = Instant.now();
     }
 
+    Activity(String id, ActivityType type, String actor, String content, Instant timestamp) {
+        this.id = id;
+        this.type = type;
+        this.actor = actor;
+        this.content = content;
+        this.timestamp = timestamp;
+    }
+
     public String getId() {
         return id;
     }
@@ -38,4 +45,14 @@ public class Activity  implements Serializable {
     public Instant getTimestamp() {
         return timestamp;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Activity other && id.equals(other.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
 }
@@ -0,0 +1,45 @@
+package it.polito.activitypub;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generator of time-ordered activity IDs, in the UUID version 7 layout:
+ * 48 bits of Unix milliseconds, a 12-bit counter within the millisecond,
+ * then 62 bits drawn once per generator, which tell apart the IDs of different servers.
+ * <p>
+ * The IDs of a generator are strictly increasing, both as UUIDs and as strings:
+ * the counter never goes back, and when more than 4096 IDs are taken in a millisecond
+ * it carries into the next one. Taking an ID is a single compare-and-set,
+ * with no {@link SecureRandom} call and no lock.
+ */
+final class ActivityIds {
+
+    // the generator of the activities created outside a server
+    static final ActivityIds SHARED = new ActivityIds();
+
+    private static final int COUNTER_BITS = 12;
+
+    private final long node;
+    // Unix milliseconds and counter of the last ID
+    private final AtomicLong last = new AtomicLong();
+
+    ActivityIds() {
+        // variant bits 10, then the random bits
+        this.node = new SecureRandom().nextLong() >>> 2 | 0x8000_0000_0000_0000L;
+    }
+
+    String next() {
+        long now = System.currentTimeMillis() << COUNTER_BITS;
+        long previous;
+        long state;
+        do {
+            previous = last.get();
+            state = Math.max(now, previous + 1);
+        } while (!last.compareAndSet(previous, state));
+        long millis = state >>> COUNTER_BITS;
+        long counter = state & ((1 << COUNTER_BITS) - 1);
+        return new UUID(millis << 16 | 0x7000 | counter, node).toString();
+    }
+}
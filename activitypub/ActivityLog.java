@@ -0,0 +1,205 @@
+package it.polito.activitypub;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Durable log of the activities created on and received by a server, stored in a {@link MappedLog}.
+ * <p>
+ * Each record is a record type followed by the activity, and the recipients for a received
+ * activity, in the {@link WireCodec} encoding, or by the ID and deletion time of an actor
+ * whose activities are hidden from the inboxes, or by the follower and author of a follow
+ * that started or ended while its author had a {@link FollowersTimeline}.
+ * Opening the log replays the records in order, so that a restarted server rebuilds its timelines
+ * from a sequential scan of the segments, and the follows at the same positions of the timelines.
+ * A record of an unknown type, or that cannot be decoded, ends the replay as a torn tail would.
+ * <p>
+ * When the timelines are bounded, the log is compacted once replayed if most of it holds activities
+ * the server no longer retains: a received activity is kept with only the recipients whose inboxes
+ * still retain it, the other records are kept, in their order.
+ */
+final class ActivityLog {
+
+    private static final int CREATED = 1;
+    private static final int RECEIVED = 2;
+    private static final int ACTOR_DELETED = 3;
+    private static final int FOLLOW_STARTED = 4;
+    private static final int FOLLOW_ENDED = 5;
+
+    private final MappedLog log;
+    private final String localSuffix;
+
+    private ActivityLog(MappedLog log, String serverName) {
+        this.log = log;
+        this.localSuffix = "@" + serverName;
+    }
+
+    /**
+     * Opens the log in a directory, creating it if needed, and replays its records.
+     *
+     * @param directory the directory of the segments
+     * @param segmentSize the size of each segment file, the largest record must fit in it
+     * @param commitInterval how long the committer waits for more records before each fsync
+     * @param serverName the name of the server, whose recipients are stored as bare usernames
+     * @param created receives the activities created on the server, in log order
+     * @param received receives the activities received by the server, in log order
+     * @param deleted receives the actors whose activities are hidden, with their deletion time
+     * @param followStarted receives the follower and author of the follows that started
+     * @param followEnded receives the follower and author of the follows that ended
+     * @param retained whether the server still retains an activity, by ID, or null if it retains them all
+     * @param inboxRetains whether the inbox of a recipient still retains an activity, by recipient and activity ID,
+     *        or null if it retains them all
+     * @return the log, positioned after the last valid record
+     * @throws IOException if the segments cannot be read or created
+     */
+    static ActivityLog open(Path directory, int segmentSize, Duration commitInterval, String serverName,
+            Consumer<Activity> created, Consumer<Delivery> received, BiConsumer<String, Instant> deleted,
+            BiConsumer<String, String> followStarted, BiConsumer<String, String> followEnded,
+            Predicate<String> retained, BiPredicate<String, String> inboxRetains) throws IOException {
+        String localSuffix = "@" + serverName;
+        // the same actors appear in many records: keep one string per actor ID
+        Map<String, String> actors = new HashMap<>();
+        MappedLog log = MappedLog.open(directory, segmentSize, commitInterval, "activity-log-" + serverName, 0, payload -> {
+            WireReader reader = new WireReader(payload, actors);
+            Runnable apply;
+            try {
+                apply = switch (reader.readByte()) {
+                    case CREATED -> {
+                        Activity activity = reader.readActivity();
+                        yield () -> created.accept(activity);
+                    }
+                    case RECEIVED -> {
+                        Delivery delivery = reader.readDelivery(localSuffix);
+                        yield () -> received.accept(delivery);
+                    }
+                    case ACTOR_DELETED -> {
+                        String actorId = reader.readString();
+                        Instant deletedAt = reader.readInstant();
+                        yield () -> deleted.accept(actorId, deletedAt);
+                    }
+                    case FOLLOW_STARTED -> follow(reader, followStarted);
+                    case FOLLOW_ENDED -> follow(reader, followEnded);
+                    default -> null;
+                };
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                apply = null;
+            }
+            if (apply == null) {
+                return false;
+            }
+            apply.run();
+            return true;
+        });
+        if (retained != null) {
+            log.compact(payload -> {
+                WireReader reader = new WireReader(payload.duplicate());
+                int type = reader.readByte();
+                if (type == CREATED) {
+                    return retained.test(reader.readActivity().getId()) ? payload : null;
+                }
+                if (type != RECEIVED) {
+                    return payload;
+                }
+                Delivery delivery = reader.readDelivery(localSuffix);
+                String activityId = delivery.getActivity().getId();
+                if (delivery.isToFollowers()) {
+                    return retained.test(activityId) ? payload : null;
+                }
+                // an evicted recipient must not get the activity back on the next restart
+                List<String> recipients = delivery.getRecipientIds();
+                String[] kept = recipients.stream().filter(id -> inboxRetains.test(id, activityId)).toArray(String[]::new);
+                if (kept.length == recipients.size()) {
+                    return payload;
+                }
+                return kept.length == 0 ? null : new WireWriter().writeByte(RECEIVED)
+                        .writeDelivery(localSuffix, new Delivery(delivery.getActivity(), kept)).toByteBuffer();
+            });
+        }
+        return new ActivityLog(log, serverName);
+    }
+
+    /**
+     * Decodes the follower and author of a follow record, to be passed on once the record is valid.
+     */
+    private static Runnable follow(WireReader reader, BiConsumer<String, String> follow) {
+        String followerId = reader.readString();
+        String authorId = reader.readString();
+        return () -> follow.accept(followerId, authorId);
+    }
+
+    /**
+     * Encodes the record of an activity created on the server, before the activity is published,
+     * so that an activity the log cannot hold is never seen.
+     *
+     * @return the record to pass to {@link #appendCreated(ByteBuffer)}
+     * @throws IllegalArgumentException if the record does not fit in a segment
+     */
+    ByteBuffer encodeCreated(Activity activity) {
+        return log.payload(new WireWriter().writeByte(CREATED).writeActivity(activity));
+    }
+
+    /**
+     * Appends an activity created on the server, encoded by {@link #encodeCreated(Activity)}.
+     *
+     * @return the log position to wait for with {@link #awaitDurable(long)}
+     */
+    long appendCreated(ByteBuffer record) {
+        return log.append(record);
+    }
+
+    /**
+     * Appends an activity received by the server, with the recipients it was stored for.
+     *
+     * @return the log position to wait for with {@link #awaitDurable(long)}
+     */
+    long append(Delivery delivery) {
+        return log.append(new WireWriter().writeByte(RECEIVED).writeDelivery(localSuffix, delivery));
+    }
+
+    /**
+     * Appends the deletion of an actor whose activities are hidden from the inboxes.
+     *
+     * @return the log position to wait for with {@link #awaitDurable(long)}
+     */
+    long appendDeletion(String actorId, Instant deletedAt) {
+        return log.append(new WireWriter().writeByte(ACTOR_DELETED).writeString(actorId).writeInstant(deletedAt));
+    }
+
+    /**
+     * Appends the start or the end of a follow of an actor with a timeline.
+     *
+     * @return the log position to wait for with {@link #awaitDurable(long)}
+     */
+    long appendFollow(boolean started, String followerId, String authorId) {
+        return log.append(new WireWriter().writeByte(started ? FOLLOW_STARTED : FOLLOW_ENDED)
+                .writeString(followerId).writeString(authorId));
+    }
+
+    /**
+     * Waits until the log is durable up to a position returned by an append.
+     *
+     * @param position the position
+     * @throws IllegalStateException if the log could not be forced to disk
+     */
+    void awaitDurable(long position) {
+        log.awaitDurable(position);
+    }
+
+    /**
+     * Closes the log once what was appended is durable.
+     */
+    void close() {
+        log.close();
+    }
+}
@@ -0,0 +1,38 @@
+package it.polito.activitypub;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A page of activities, as returned by {@link Server#getInbox(String, String, int)}.
+ * The cursor of the page is opaque: it can only be passed back to the server
+ * that returned it to read the activities older than this page.
+ */
+public class ActivityPage {
+    private final List<Activity> activities;
+    private final String nextCursor;
+
+    ActivityPage(List<Activity> activities, String nextCursor) {
+        this.activities = Collections.unmodifiableList(activities);
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Retrieves the activities of this page, most recent first.
+     *
+     * @return the list of activities
+     */
+    public List<Activity> getActivities() {
+        return activities;
+    }
+
+    /**
+     * Retrieves the cursor that reads the activities older than this page.
+     *
+     * @return the cursor, or an empty optional if this is the last page
+     */
+    public Optional<String> getNextCursor() {
+        return Optional.ofNullable(nextCursor);
+    }
+}
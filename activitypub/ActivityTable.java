@@ -0,0 +1,176 @@
+package it.polito.activitypub;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Per-server table of activities.
+ * Each activity created on or received by the server is stored once and identified
+ * by a dense integer handle, so inboxes and outboxes only hold handles
+ * (see {@link HandleLog}) instead of references.
+ * <p>
+ * A counting table instead keeps a reference count per activity, for {@link InboxRetention}:
+ * the entries of the timelines {@link #retain} and {@link #release} their activity, which is dropped
+ * from the table with its last entry, and charged with its estimated size to the
+ * {@link #chargedBytes() charged bytes} until then. The dropped activities are passed to the listener
+ * of the table, if any. Once all the activities of a chunk of handles are dropped, the chunk and its
+ * reference counts are freed, so a table only holds the chunks of handles still in use.
+ */
+final class ActivityTable {
+
+    private static final int CHUNK_BITS = AppendLog.CHUNK_BITS;
+    private static final int CHUNK_SIZE = AppendLog.CHUNK_SIZE;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    // slot of the reference counts of a chunk holding its number of dropped activities
+    private static final int DROPPED = CHUNK_SIZE;
+
+    private final AppendLog<Activity> activities = new AppendLog<>();
+    private final Map<String, Integer> handles = new ConcurrentHashMap<>();
+    // reference counts by chunk of handles, then the dropped count of the chunk; null for a table that does not count
+    private final AppendLog<AtomicIntegerArray> references;
+    private final AtomicLong chargedBytes = new AtomicLong();
+    // null when nothing needs to know about the dropped activities
+    private final Consumer<Activity> dropped;
+
+    ActivityTable() {
+        this(false, null);
+    }
+
+    ActivityTable(boolean counting, Consumer<Activity> dropped) {
+        this.references = counting ? new AppendLog<>() : null;
+        this.dropped = dropped;
+    }
+
+    /**
+     * Stores an activity in a table that does not count, unless an activity with the same ID is already stored.
+     *
+     * @param activity the activity
+     * @return the handle of the activity
+     */
+    int add(Activity activity) {
+        return handles.computeIfAbsent(activity.getId(), id -> activities.append(activity));
+    }
+
+    /**
+     * Stores an activity for a timeline entry of a counting table, or takes one more reference to it.
+     *
+     * @param activity the activity
+     * @return the handle of the activity
+     */
+    int retain(Activity activity) {
+        return handles.compute(activity.getId(), (id, handle) -> {
+            if (handle == null) {
+                int h = append(activity);
+                chargedBytes.addAndGet(estimatedSize(activity));
+                setCount(h, 1);
+                return h;
+            }
+            setCount(handle, count(handle) + 1);
+            return handle;
+        });
+    }
+
+    /**
+     * Drops a reference taken by {@link #retain}, and the activity with the last one.
+     */
+    void release(int handle) {
+        Activity activity = activities.get(handle);
+        if (activity == null) {
+            return;
+        }
+        boolean[] last = new boolean[1];
+        handles.computeIfPresent(activity.getId(), (id, h) -> {
+            if (h != handle) {
+                return h;
+            }
+            int count = count(h) - 1;
+            setCount(h, count);
+            if (count > 0) {
+                return h;
+            }
+            chargedBytes.addAndGet(-estimatedSize(activity));
+            activities.clear(h);
+            last[0] = true;
+            return null;
+        });
+        if (!last[0]) {
+            return;
+        }
+        // every handle is dropped once, and only after it was appended
+        if (references.get(handle >>> CHUNK_BITS).incrementAndGet(DROPPED) == CHUNK_SIZE) {
+            activities.free(handle);
+            references.clear(handle >>> CHUNK_BITS);
+        }
+        if (dropped != null) {
+            dropped.accept(activity);
+        }
+    }
+
+    /**
+     * Appends an activity, with room for its reference count.
+     */
+    private int append(Activity activity) {
+        int handle = activities.append(activity);
+        int chunk = handle >>> CHUNK_BITS;
+        if (references.size() <= chunk) {
+            synchronized (references) {
+                while (references.size() <= chunk) {
+                    references.append(new AtomicIntegerArray(CHUNK_SIZE + 1));
+                }
+            }
+        }
+        return handle;
+    }
+
+    private int count(int handle) {
+        return references.get(handle >>> CHUNK_BITS).get(handle & CHUNK_MASK);
+    }
+
+    private void setCount(int handle, int count) {
+        references.get(handle >>> CHUNK_BITS).set(handle & CHUNK_MASK, count);
+    }
+
+    /**
+     * @return whether an activity with the ID is stored
+     */
+    boolean contains(String activityId) {
+        return handles.containsKey(activityId);
+    }
+
+    /**
+     * @return the handle of the activity with the ID, or -1 if it is not stored
+     */
+    int handle(String activityId) {
+        return handles.getOrDefault(activityId, -1);
+    }
+
+    /**
+     * @return the activity, or null if it was dropped
+     */
+    Activity get(int handle) {
+        return activities.get(handle);
+    }
+
+    int size() {
+        return activities.size();
+    }
+
+    /**
+     * @return the estimated size of the charged activities, in bytes
+     */
+    long chargedBytes() {
+        return chargedBytes.get();
+    }
+
+    /**
+     * Estimates the heap taken by an activity: the activity with its timestamp and strings,
+     * its table slot and its entry in the ID map. An activity without content counts none.
+     */
+    static long estimatedSize(Activity activity) {
+        String content = activity.getContent();
+        return 200L + activity.getId().length() + activity.getActor().length() + (content != null ? content.length() : 0);
+    }
+}
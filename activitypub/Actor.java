@@ -7,17 +7,27 @@ public class Actor implements Serializable{
     public final String username;
     public final String displayName;
     public final String fullId;
+    private final ActorId actorId;
 
     Actor(String username, String displayName, String serverName) {
         this.username = username;
         this.displayName = displayName;
         this.fullId = fullId(username, serverName);
+        // null for a username that makes no valid ID, which getActorId reports
+        this.actorId = ActorId.parse(fullId);
     }
 
     public String getFullId() {
         return fullId;
     }
 
+    /**
+     * @return the parsed full ID of the actor
+     */
+    public ActorId getActorId() {
+        return actorId != null ? actorId : ActorId.of(fullId);
+    }
+
     public String getUsername() {
         return username;
     }
@@ -26,4 +36,14 @@ public class Actor implements Serializable{
         return displayName;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Actor other && fullId.equals(other.fullId);
+    }
+
+    @Override
+    public int hashCode() {
+        return fullId.hashCode();
+    }
+
 }
@@ -0,0 +1,94 @@
+package it.polito.activitypub;
+
+import java.io.Serializable;
+
+/**
+ * Full ID of an actor, {@code @username@server}, parsed once.
+ * The username, the server name and the hash are computed when the ID is created,
+ * so comparing, hashing and routing an ID never parses the string again.
+ * <p>
+ * Nothing is interned here: {@link #of(String)} parses a new ID on every call, and an {@link Actor}
+ * keeps its own. A server interns the IDs of the actors it knows, so that the IDs sent by peers
+ * are never retained.
+ */
+public final class ActorId implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String fullId;
+    private final String username;
+    private final String serverName;
+    private final int hash;
+
+    private ActorId(String fullId, int at) {
+        this.fullId = fullId;
+        this.username = fullId.substring(1, at);
+        this.serverName = fullId.substring(at + 1);
+        this.hash = fullId.hashCode();
+    }
+
+    /**
+     * Parses the ID of an actor.
+     *
+     * @param fullId the full ID, {@code @username@server}
+     * @return the ID
+     * @throws IllegalArgumentException if the ID is not a full actor ID
+     */
+    public static ActorId of(String fullId) {
+        ActorId id = parse(fullId);
+        if (id == null) {
+            throw new IllegalArgumentException("Not a full actor ID: " + fullId);
+        }
+        return id;
+    }
+
+    /**
+     * Builds the ID of an actor from its username and server.
+     *
+     * @param username the local username
+     * @param serverName the server name
+     * @return the ID
+     */
+    public static ActorId of(String username, String serverName) {
+        return of(ActivityPubUtilities.fullId(username, serverName));
+    }
+
+    /**
+     * Parses the ID of an actor, if the string is a full actor ID.
+     *
+     * @return the ID, or null for a bare username or a malformed ID
+     */
+    static ActorId parse(String fullId) {
+        int at = fullId.lastIndexOf('@');
+        if (at <= 1 || at == fullId.length() - 1 || fullId.charAt(0) != '@') {
+            return null;
+        }
+        return new ActorId(fullId, at);
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getServerName() {
+        return serverName;
+    }
+
+    /**
+     * @return the full ID, {@code @username@server}
+     */
+    @Override
+    public String toString() {
+        return fullId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o == this || o instanceof ActorId other && hash == other.hash && fullId.equals(other.fullId);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,68 @@
+package it.polito.activitypub;
+
+import java.util.Arrays;
+
+/**
+ * Append-only sequence that readers can scan while a writer appends.
+ * Items are stored in fixed-size chunks, so growing never copies the items
+ * already stored; appends are serialized on the log itself, reads take no lock.
+ * A chunk whose items were all cleared can be freed, and reads as nulls.
+ *
+ * @param <T> the type of the items
+ */
+final class AppendLog<T> {
+
+    static final int CHUNK_BITS = 10;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile Object[][] chunks = new Object[4][];
+    // published after the item is stored: readers never see a slot before its content
+    private volatile int size;
+
+    /**
+     * Appends an item.
+     *
+     * @param item the item
+     * @return the position of the item
+     */
+    synchronized int append(T item) {
+        int index = size;
+        int chunk = index >>> CHUNK_BITS;
+        Object[][] current = chunks;
+        if (chunk == current.length) {
+            current = Arrays.copyOf(current, chunk * 2);
+        }
+        if (current[chunk] == null) {
+            current[chunk] = new Object[CHUNK_SIZE];
+        }
+        current[chunk][index & CHUNK_MASK] = item;
+        chunks = current;
+        size = index + 1;
+        return index;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Drops the item at a position, which reads as null from then on.
+     */
+    void clear(int index) {
+        chunks[index >>> CHUNK_BITS][index & CHUNK_MASK] = null;
+    }
+
+    /**
+     * Frees the chunk of a position, whose items were all cleared and none is appended any more.
+     */
+    synchronized void free(int index) {
+        chunks[index >>> CHUNK_BITS] = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int index) {
+        Object[] chunk = chunks[index >>> CHUNK_BITS];
+        return chunk == null ? null : (T) chunk[index & CHUNK_MASK];
+    }
+}
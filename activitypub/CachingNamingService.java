@@ -0,0 +1,178 @@
+package it.polito.activitypub;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Naming service decorator that remembers the resolutions of another naming service.
+ * A server that was found is remembered for the TTL, a name that was not found
+ * for the usually shorter negative TTL, so that lookups of unknown servers are
+ * cheap too but a newly started server is found soon.
+ * Registering a server through this decorator invalidates its entry immediately.
+ * <p>
+ * Concurrent misses on the same name may each query the delegate:
+ * lookups are never serialized behind a slow directory. A miss only stores its resolution
+ * in place of the entry it found, expired or absent, so a miss that queried the delegate
+ * before an invalidation cannot bring back what the invalidation removed: invalidating
+ * replaces the entry with an expired one, which the miss does not expect.
+ * <p>
+ * The cache holds at most {@code maxEntries} names. An expired entry is removed by the next lookup
+ * of its name, and when the cache is full all the expired entries are removed at once, then if needed
+ * any others, down to three quarters of the bound, so that the sweeps are rare.
+ */
+public class CachingNamingService implements NamingService {
+
+    private static final class Entry {
+        private final Optional<Server> server;
+        private final long expiresAt;
+
+        private Entry(Optional<Server> server, long expiresAt) {
+            this.server = server;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // the bound of the caches created without one
+    private static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    private final NamingService delegate;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final int maxEntries;
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+    // incremented by invalidateAll, so that the misses started before do not store their resolutions
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates a caching decorator holding at most 10000 names.
+     *
+     * @param delegate the naming service queried on a miss
+     * @param ttl how long a server that was found is remembered
+     * @param negativeTtl how long a name that was not found is remembered, zero to never remember it
+     */
+    public CachingNamingService(NamingService delegate, Duration ttl, Duration negativeTtl) {
+        this(delegate, ttl, negativeTtl, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates a caching decorator.
+     *
+     * @param delegate the naming service queried on a miss
+     * @param ttl how long a server that was found is remembered
+     * @param negativeTtl how long a name that was not found is remembered, zero to never remember it
+     * @param maxEntries how many names are remembered at most
+     */
+    public CachingNamingService(NamingService delegate, Duration ttl, Duration negativeTtl, int maxEntries) {
+        if (ttl.isNegative() || negativeTtl.isNegative()) {
+            throw new IllegalArgumentException("TTLs must not be negative: " + ttl + ", " + negativeTtl);
+        }
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxEntries);
+        }
+        this.delegate = delegate;
+        this.ttlNanos = ttl.toNanos();
+        this.negativeTtlNanos = negativeTtl.toNanos();
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public void registerServer(String name, Server server) {
+        delegate.registerServer(name, server);
+        invalidate(name);
+    }
+
+    @Override
+    public Optional<Server> resolveServer(String name) {
+        long now = System.nanoTime();
+        Entry entry = cache.get(name);
+        if (entry != null && now - entry.expiresAt < 0) {
+            hits.increment();
+            return entry.server;
+        }
+        misses.increment();
+        long seenGeneration = generation.get();
+        Optional<Server> server = delegate.resolveServer(name);
+        long ttl = server.isPresent() ? ttlNanos : negativeTtlNanos;
+        Entry resolved = ttl > 0 ? new Entry(server, System.nanoTime() + ttl) : null;
+        if (resolved != null || entry != null) {
+            // removes the expired entry if the resolution is not remembered
+            cache.compute(name, (k, current) -> current == entry && generation.get() == seenGeneration ? resolved : current);
+            if (resolved != null && cache.size() > maxEntries) {
+                sweep();
+            }
+        }
+        return server;
+    }
+
+    /**
+     * Removes the expired entries, then any others if the cache is still too large.
+     */
+    private void sweep() {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long now = System.nanoTime();
+            cache.values().removeIf(entry -> now - entry.expiresAt >= 0);
+            int target = maxEntries - maxEntries / 4;
+            Iterator<Entry> entries = cache.values().iterator();
+            while (cache.size() > target && entries.hasNext()) {
+                entries.next();
+                entries.remove();
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    /**
+     * Forgets the resolution of a server, the next lookup queries the delegate.
+     *
+     * @param name the name of the server
+     */
+    public void invalidate(String name) {
+        // expired, so it is only there to tell the misses in progress that it was invalidated
+        cache.put(name, new Entry(Optional.empty(), System.nanoTime()));
+        if (cache.size() > maxEntries) {
+            sweep();
+        }
+    }
+
+    /**
+     * Forgets every resolution.
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.clear();
+    }
+
+    /**
+     * Returns the number of names remembered, including the expired entries not removed yet.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache, positive or negative.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that queried the delegate.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+}
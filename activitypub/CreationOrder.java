@@ -0,0 +1,171 @@
+package it.polito.activitypub;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Orders the activities created on a server without serializing their creation.
+ * <p>
+ * A creation takes its timestamp from a monotonic clock with a single compare-and-set, which also
+ * numbers it: the timestamps are distinct, and increase with the numbers. The activity is then built
+ * and stored by its own thread, in parallel with the others, and only the appends that must follow
+ * the timestamp order, to the timeline of all the activities and to the durable log, are run in the order
+ * of the numbers, by whichever thread finds the next one ready. A creation waits for its ordered append
+ * to be run, so the activity is visible when it returns; it only waits for the creations numbered before it.
+ * <p>
+ * Every number taken must be passed to {@link #append}, or the later ones wait forever.
+ */
+final class CreationOrder {
+
+    // creations numbered but not appended yet, beyond which a creation waits for the earlier ones
+    private static final int WINDOW = 1 << 10;
+
+    /**
+     * A timestamp of the clock, with the number of the creation it was taken for.
+     */
+    static final class Tick {
+        private final long nanos;
+        private final long number;
+
+        private Tick(long nanos, long number) {
+            this.nanos = nanos;
+            this.number = number;
+        }
+
+        Instant timestamp() {
+            return Instant.ofEpochSecond(0, nanos);
+        }
+    }
+
+    private static final class Pending {
+        private final Runnable append;
+        // guarded by the order
+        private boolean done;
+        private Throwable failure;
+
+        private Pending(Runnable append) {
+            this.append = append;
+        }
+    }
+
+    private final AtomicReference<Tick> clock = new AtomicReference<>(new Tick(0, 0));
+    // the appends ready to run, by number modulo the window
+    private final AtomicReferenceArray<Pending> ready = new AtomicReferenceArray<>(WINDOW);
+    // number of the last append run, written under the lock of the order; the numbers start at 1
+    private volatile long appended;
+
+    /**
+     * Takes the timestamp and the number of a creation.
+     */
+    Tick tick() {
+        long now = epochNanos(Instant.now());
+        while (true) {
+            Tick last = clock.get();
+            Tick tick = new Tick(Math.max(now, last.nanos + 1), last.number + 1);
+            if (clock.compareAndSet(last, tick)) {
+                return tick;
+            }
+        }
+    }
+
+    /**
+     * Takes a timestamp after every creation numbered so far and before the later ones, without numbering it.
+     */
+    Instant stamp() {
+        long now = epochNanos(Instant.now());
+        while (true) {
+            Tick last = clock.get();
+            Tick tick = new Tick(Math.max(now, last.nanos + 1), last.number);
+            if (clock.compareAndSet(last, tick)) {
+                return tick.timestamp();
+            }
+        }
+    }
+
+    /**
+     * Moves the clock to a timestamp taken before a restart, if it is behind it.
+     */
+    void advance(Instant timestamp) {
+        long nanos = epochNanos(timestamp);
+        while (true) {
+            Tick last = clock.get();
+            if (last.nanos >= nanos || clock.compareAndSet(last, new Tick(nanos, last.number))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Runs the ordered append of a creation after those of the creations numbered before it,
+     * and returns once it has run.
+     *
+     * @throws RuntimeException thrown by the append
+     * @throws Error thrown by the append
+     */
+    void append(Tick tick, Runnable append) {
+        long number = tick.number;
+        Pending pending = new Pending(append);
+        boolean interrupted = false;
+        if (number - appended > WINDOW) {
+            synchronized (this) {
+                while (number - appended > WINDOW) {
+                    // as many creations are still building their activities as the window holds
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+        }
+        ready.set((int) (number % WINDOW), pending);
+        synchronized (this) {
+            runReady();
+            while (!pending.done) {
+                // a creation numbered before is not ready yet, its thread runs this append
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (pending.failure instanceof RuntimeException e) {
+            throw e;
+        }
+        if (pending.failure instanceof Error e) {
+            throw e;
+        }
+        if (pending.failure != null) {
+            throw new IllegalStateException(pending.failure);
+        }
+    }
+
+    // guarded by this
+    private void runReady() {
+        boolean ran = false;
+        Pending pending;
+        while ((pending = ready.getAndSet((int) ((appended + 1) % WINDOW), null)) != null) {
+            try {
+                pending.append.run();
+            } catch (Throwable e) {
+                // the failure goes to the creation of the append, the later ones must still run
+                pending.failure = e;
+            }
+            pending.done = true;
+            appended++;
+            ran = true;
+        }
+        if (ran) {
+            notifyAll();
+        }
+    }
+
+    private static long epochNanos(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+}
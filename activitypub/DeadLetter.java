@@ -0,0 +1,55 @@
+package it.polito.activitypub;
+
+import java.time.Instant;
+
+/**
+ * A delivery that could not be performed, kept by {@link DeadLetters}.
+ */
+public final class DeadLetter {
+
+    private final String serverName;
+    private final Delivery delivery;
+    private final int attempts;
+    private final Instant failedAt;
+    private final String error;
+
+    DeadLetter(String serverName, Delivery delivery, int attempts, Instant failedAt, String error) {
+        this.serverName = serverName;
+        this.delivery = delivery;
+        this.attempts = attempts;
+        this.failedAt = failedAt;
+        this.error = error;
+    }
+
+    /**
+     * @return the destination server
+     */
+    public String getServerName() {
+        return serverName;
+    }
+
+    public Delivery getDelivery() {
+        return delivery;
+    }
+
+    /**
+     * @return the number of attempts made, 0 if the delivery was never sent
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return the time of the last failure
+     */
+    public Instant getFailedAt() {
+        return failedAt;
+    }
+
+    /**
+     * @return the description of the last failure
+     */
+    public String getError() {
+        return error;
+    }
+}
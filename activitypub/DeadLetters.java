@@ -0,0 +1,103 @@
+package it.polito.activitypub;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Bounded store of the deliveries of a server that failed all their attempts,
+ * available through {@link Server#getDeadLetters()}.
+ * When full, the oldest dead letter is discarded for each new one.
+ * Dead letters can be inspected, replayed through the delivery queues, or cleared.
+ */
+public final class DeadLetters {
+
+    private final int capacity;
+    private final BiConsumer<String, Delivery> resend;
+    private final Deque<DeadLetter> letters = new ArrayDeque<>();
+    private long discarded;
+
+    DeadLetters(int capacity, BiConsumer<String, Delivery> resend) {
+        this.capacity = capacity;
+        this.resend = resend;
+    }
+
+    void add(String serverName, List<Delivery> deliveries, int attempts, String error) {
+        Instant now = Instant.now();
+        synchronized (letters) {
+            for (Delivery delivery : deliveries) {
+                if (letters.size() == capacity) {
+                    discarded++;
+                    if (capacity == 0) {
+                        continue;
+                    }
+                    letters.removeFirst();
+                }
+                letters.addLast(new DeadLetter(serverName, delivery, attempts, now, error));
+            }
+        }
+    }
+
+    /**
+     * @return the dead letters, oldest first
+     */
+    public List<DeadLetter> list() {
+        synchronized (letters) {
+            return new ArrayList<>(letters);
+        }
+    }
+
+    public int size() {
+        synchronized (letters) {
+            return letters.size();
+        }
+    }
+
+    /**
+     * @return the number of dead letters discarded because the store was full
+     */
+    public long getDiscarded() {
+        synchronized (letters) {
+            return discarded;
+        }
+    }
+
+    /**
+     * Removes all the dead letters and queues their deliveries again, oldest first,
+     * each with a full set of attempts.
+     *
+     * @return the number of deliveries queued
+     */
+    public int replay() {
+        return replay(null);
+    }
+
+    /**
+     * Removes the dead letters of a destination server and queues their deliveries again.
+     *
+     * @param serverName the destination server
+     * @return the number of deliveries queued
+     */
+    public int replay(String serverName) {
+        List<DeadLetter> replayed = new ArrayList<>();
+        synchronized (letters) {
+            letters.removeIf(letter -> (serverName == null || letter.getServerName().equals(serverName)) && replayed.add(letter));
+        }
+        for (DeadLetter letter : replayed) {
+            resend.accept(letter.getServerName(), letter.getDelivery());
+        }
+        return replayed.size();
+    }
+
+    /**
+     * Discards all the dead letters.
+     */
+    public void clear() {
+        synchronized (letters) {
+            letters.clear();
+        }
+    }
+}
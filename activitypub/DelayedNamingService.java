@@ -0,0 +1,60 @@
+package it.polito.activitypub;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stand-in for a remote directory: a naming service that adds a fixed latency
+ * to every call of another naming service and counts the lookups.
+ * Meant for tests and benchmarks of the cost of name resolution.
+ */
+public class DelayedNamingService implements NamingService {
+
+    private final NamingService delegate;
+    private final long latencyNanos;
+    private final LongAdder lookups = new LongAdder();
+
+    /**
+     * Creates a delayed naming service.
+     *
+     * @param delegate the naming service holding the registrations
+     * @param latency the delay added to every call
+     */
+    public DelayedNamingService(NamingService delegate, Duration latency) {
+        if (latency.isNegative()) {
+            throw new IllegalArgumentException("Latency must not be negative: " + latency);
+        }
+        this.delegate = delegate;
+        this.latencyNanos = latency.toNanos();
+    }
+
+    private void delay() {
+        try {
+            TimeUnit.NANOSECONDS.sleep(latencyNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void registerServer(String name, Server server) {
+        delay();
+        delegate.registerServer(name, server);
+    }
+
+    @Override
+    public Optional<Server> resolveServer(String name) {
+        lookups.increment();
+        delay();
+        return delegate.resolveServer(name);
+    }
+
+    /**
+     * Returns the number of lookups received.
+     */
+    public long getLookups() {
+        return lookups.sum();
+    }
+}
@@ -0,0 +1,52 @@
+package it.polito.activitypub;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * An activity together with the recipients it must be delivered to on a server,
+ * as exchanged by {@link Server#receiveActivities(List)}.
+ */
+public class Delivery implements Serializable {
+    private final Activity activity;
+    private final List<String> recipientIds;
+    private final boolean toFollowers;
+
+    public Delivery(Activity activity, String... recipientIds) {
+        this(activity, List.of(recipientIds), false);
+    }
+
+    private Delivery(Activity activity, List<String> recipientIds, boolean toFollowers) {
+        this.activity = activity;
+        this.recipientIds = recipientIds;
+        this.toFollowers = toFollowers;
+    }
+
+    /**
+     * Creates a delivery addressed to all the followers of the author on the receiving server,
+     * as done for high-follower actors (see {@link Server#receiveFollowersActivity(Activity)}).
+     *
+     * @param activity the activity to deliver
+     * @return the delivery, with no explicit recipient
+     */
+    public static Delivery toFollowers(Activity activity) {
+        return new Delivery(activity, List.of(), true);
+    }
+
+    public Activity getActivity() {
+        return activity;
+    }
+
+    /**
+     * Retrieves the full IDs of the recipients.
+     *
+     * @return an unmodifiable list of actor IDs
+     */
+    public List<String> getRecipientIds() {
+        return recipientIds;
+    }
+
+    public boolean isToFollowers() {
+        return toFollowers;
+    }
+}
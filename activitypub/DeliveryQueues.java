@@ -0,0 +1,484 @@
+package it.polito.activitypub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outbound delivery subsystem of a server.
+ * Each destination server has its own bounded queue, drained by at most one worker
+ * at a time so that deliveries to the same server keep their order while a slow
+ * server never delays the others.
+ * The worker coalesces the queued deliveries into batches of at most {@code batchSize},
+ * waiting up to the linger time for a batch to fill, and sends each batch with a single call.
+ * <p>
+ * A failed batch is retried up to the maximum number of attempts: it stays at the head of its
+ * destination, whose worker is released and rescheduled after an exponential backoff with jitter,
+ * so the order of the deliveries is kept and a failing server holds no thread.
+ * A batch out of attempts goes to the {@link DeadLetters}.
+ * <p>
+ * A batch rejected because the destination is rate limiting or full is deferred instead:
+ * it is sent again after the wait asked by the destination, without using an attempt,
+ * and the deliveries queued meanwhile block their callers as with a full queue, since the destination is up.
+ * After {@link #MAX_DEFERRALS} deferrals in a row a rejection uses an attempt, so a destination
+ * that never admits a batch ends in the dead letters.
+ * A batch rejected because it has more recipients or deliveries than the destination admits in a call
+ * is split and sent again at once.
+ * <p>
+ * Closing the queues stops the retries and the workers, once their calls in progress return,
+ * and drops the deliveries not sent yet.
+ */
+class DeliveryQueues {
+
+    static final int MAX_DEFERRALS = 64;
+    // how long closing waits for the calls in progress
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    private final NamingService naming;
+    // null when metrics are disabled
+    private final ServerMetrics metrics;
+    private final int capacity;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final int maxAttempts;
+    private final long backoffNanos;
+    private final long maxBackoffNanos;
+    private final DeadLetters deadLetters;
+    private final ExecutorService workers;
+    // wakes up the destinations backing off or deferred, its thread is started by the first of them
+    private final ScheduledExecutorService retries;
+    private final Map<String, Destination> destinations = new ConcurrentHashMap<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final Object idle = new Object();
+    private volatile boolean closed;
+
+    DeliveryQueues(String serverName, ServerConfig config, ServerMetrics metrics) {
+        this.naming = config.getNamingService();
+        this.metrics = metrics;
+        this.capacity = config.getDeliveryQueueCapacity();
+        this.batchSize = config.getDeliveryBatchSize();
+        this.lingerNanos = config.getDeliveryLinger().toNanos();
+        this.maxAttempts = config.getDeliveryMaxAttempts();
+        this.backoffNanos = config.getDeliveryRetryBackoff().toNanos();
+        this.maxBackoffNanos = Math.max(backoffNanos, config.getDeliveryMaxRetryBackoff().toNanos());
+        this.deadLetters = new DeadLetters(config.getDeadLetterCapacity(), this::enqueue);
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newCachedThreadPool(task -> {
+            Thread t = new Thread(task, "delivery-" + serverName + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.retries = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread t = new Thread(task, "delivery-" + serverName + "-retry");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    DeadLetters deadLetters() {
+        return deadLetters;
+    }
+
+    /**
+     * Queues a delivery towards the given server.
+     * Blocks while the queue of that server is full, unless the server is backing off after a failure.
+     *
+     * @param serverName the destination server
+     * @param delivery the activity and its recipients on the destination server
+     */
+    void enqueue(String serverName, Delivery delivery) {
+        if (closed) {
+            if (metrics != null) {
+                metrics.dropped(serverName, 1);
+            }
+            return;
+        }
+        Destination destination = destinations.computeIfAbsent(serverName, Destination::new);
+        pending.incrementAndGet();
+        try {
+            if (destination.backingOff) {
+                // a failing server must not block the caller: the overflow waits in the dead letters
+                if (!destination.queue.offer(delivery)) {
+                    fail(serverName, List.of(delivery), 0, "Queue full while the server is failing");
+                    return;
+                }
+            } else {
+                destination.queue.put(delivery);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (metrics != null) {
+                metrics.dropped(serverName, 1);
+            }
+            done(1);
+            return;
+        }
+        destination.schedule();
+    }
+
+    /**
+     * Tells whether deliveries towards a server are queued or being sent: a delivery sent directly
+     * meanwhile would overtake them.
+     *
+     * @param serverName the destination server
+     */
+    boolean isBusy(String serverName) {
+        Destination destination = destinations.get(serverName);
+        return destination != null && (destination.scheduled.get() || !destination.queue.isEmpty());
+    }
+
+    /**
+     * Stops the retries at once and the workers once their calls in progress return,
+     * then drops the deliveries not sent, releasing the callers waiting in {@link #flush()}.
+     */
+    void close() {
+        closed = true;
+        retries.shutdownNow();
+        workers.shutdown();
+        boolean stopped = false;
+        try {
+            stopped = workers.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Destination destination : destinations.values()) {
+            destination.discard();
+            // the batch of a worker still calling is dropped by the worker
+            if (stopped && destination.retrying != null) {
+                if (metrics != null) {
+                    metrics.dropped(destination.serverName, destination.retryingUnits);
+                }
+                done(destination.retryingUnits);
+                destination.retrying = null;
+            }
+        }
+    }
+
+    /**
+     * Waits until every queued delivery has been performed.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void flush() throws InterruptedException {
+        synchronized (idle) {
+            while (pending.get() > 0) {
+                idle.wait();
+            }
+        }
+    }
+
+    private void fail(String serverName, List<Delivery> batch, int attempts, String error) {
+        fail(serverName, batch, batch.size(), attempts, error);
+    }
+
+    /**
+     * @param units the pending count of the batch, which split deliveries may outnumber
+     */
+    private void fail(String serverName, List<Delivery> batch, int units, int attempts, String error) {
+        deadLetters.add(serverName, batch, attempts, error);
+        if (metrics != null) {
+            metrics.dropped(serverName, units);
+        }
+        done(units);
+    }
+
+    private void done(int count) {
+        if (pending.addAndGet(-count) == 0) {
+            synchronized (idle) {
+                idle.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Sends a batch in order, over as many calls as the server asks: a rejection telling that a call
+     * carries more recipients or deliveries than the server admits lowers the limits of the next calls,
+     * splitting the deliveries with too many recipients, and the rest of the batch is sent again at once.
+     *
+     * @param unsent receives the deliveries not sent when a call fails, as split so far
+     * @return null if the whole batch was delivered, otherwise the failure of the first call not admitted
+     */
+    static RuntimeException send(Server server, List<Delivery> batch, List<Delivery> unsent) {
+        int maxRecipients = Integer.MAX_VALUE;
+        int maxDeliveries = Integer.MAX_VALUE;
+        List<Delivery> rest = batch;
+        while (!rest.isEmpty()) {
+            int size = 0;
+            long recipients = 0;
+            for (Delivery delivery : rest) {
+                int count = delivery.isToFollowers() ? 0 : delivery.getRecipientIds().size();
+                if (size > 0 && (size == maxDeliveries || recipients + count > maxRecipients)) {
+                    break;
+                }
+                size++;
+                recipients += count;
+            }
+            List<Delivery> call = rest.subList(0, size);
+            try {
+                call(server, call);
+                rest = rest.subList(size, rest.size());
+            } catch (DeliveryRejectedException e) {
+                if (e.getReason() == DeliveryRejectedException.Reason.TOO_MANY_RECIPIENTS
+                        && e.getMaxRecipients() < recipients) {
+                    maxRecipients = Math.max(1, e.getMaxRecipients());
+                    rest = split(rest, maxRecipients);
+                } else if (e.getReason() == DeliveryRejectedException.Reason.QUEUE_FULL
+                        && e.getMaxDeliveries() < size) {
+                    // the call alone outnumbers the queue of the server, waiting would not help
+                    maxDeliveries = Math.max(1, e.getMaxDeliveries());
+                } else {
+                    unsent.addAll(rest);
+                    return e;
+                }
+            } catch (RuntimeException e) {
+                unsent.addAll(rest);
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if a failed call should be sent again later without using an attempt
+     */
+    static boolean isDeferral(RuntimeException e) {
+        return e instanceof DeliveryRejectedException rejected
+                && rejected.getReason() != DeliveryRejectedException.Reason.TOO_MANY_RECIPIENTS;
+    }
+
+    /**
+     * Splits the deliveries with more than the given number of recipients, keeping their order.
+     */
+    static List<Delivery> split(List<Delivery> batch, int maxRecipients) {
+        List<Delivery> split = new ArrayList<>(batch.size());
+        for (Delivery delivery : batch) {
+            List<String> ids = delivery.getRecipientIds();
+            if (delivery.isToFollowers() || ids.size() <= maxRecipients) {
+                split.add(delivery);
+                continue;
+            }
+            for (int from = 0; from < ids.size(); from += maxRecipients) {
+                List<String> part = ids.subList(from, Math.min(ids.size(), from + maxRecipients));
+                split.add(new Delivery(delivery.getActivity(), part.toArray(new String[0])));
+            }
+        }
+        return split;
+    }
+
+    /**
+     * Performs a single call with the cheapest method: a single delivery keeps using
+     * {@link Server#receiveActivity} or {@link Server#receiveFollowersActivity},
+     * larger batches use {@link Server#receiveActivities}.
+     */
+    private static void call(Server server, List<Delivery> batch) {
+        if (batch.size() == 1) {
+            Delivery delivery = batch.get(0);
+            if (delivery.isToFollowers()) {
+                server.receiveFollowersActivity(delivery.getActivity());
+            } else {
+                server.receiveActivity(delivery.getActivity(), delivery.getRecipientIds().toArray(new String[0]));
+            }
+        } else {
+            server.receiveActivities(batch);
+        }
+    }
+
+    private class Destination {
+        private final String serverName;
+        private final BlockingQueue<Delivery> queue = new ArrayBlockingQueue<>(capacity);
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean backingOff;
+        // the batch waiting for its next attempt, only touched by the scheduled worker
+        private List<Delivery> retrying;
+        // the pending count of the batch waiting, which split deliveries may outnumber
+        private int retryingUnits;
+        private int attempts;
+        private int failures;
+        private int deferrals;
+
+        private Destination(String serverName) {
+            this.serverName = serverName;
+        }
+
+        private void schedule() {
+            if (closed) {
+                discard();
+                return;
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    workers.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // closed meanwhile
+                    scheduled.set(false);
+                    discard();
+                }
+            }
+        }
+
+        /**
+         * Drops the queued deliveries, once the queues are closed.
+         */
+        private void discard() {
+            List<Delivery> dropped = new ArrayList<>();
+            queue.drainTo(dropped);
+            if (!dropped.isEmpty()) {
+                if (metrics != null) {
+                    metrics.dropped(serverName, dropped.size());
+                }
+                done(dropped.size());
+            }
+        }
+
+        private void drain() {
+            List<Delivery> batch = new ArrayList<>(batchSize);
+            List<Delivery> unsent = new ArrayList<>();
+            while (!closed) {
+                int attempt;
+                int units;
+                if (retrying != null) {
+                    batch.addAll(retrying);
+                    units = retryingUnits;
+                    retrying = null;
+                    attempt = attempts + 1;
+                } else if (fill(batch)) {
+                    units = batch.size();
+                    attempt = 1;
+                } else {
+                    break;
+                }
+                RuntimeException failure = send(batch, unsent);
+                // the deliveries sent before the failure are done, the rest keeps at least one unit each
+                int left = Math.min(units, unsent.size());
+                if (left < units) {
+                    if (metrics != null) {
+                        metrics.delivered(serverName, units - left);
+                    }
+                    done(units - left);
+                }
+                if (failure == null) {
+                    failures = 0;
+                    deferrals = 0;
+                } else if (closed) {
+                    // nothing retries the batch any more
+                    if (metrics != null) {
+                        metrics.dropped(serverName, left);
+                    }
+                    done(left);
+                } else if (isDeferral(failure) && ++deferrals <= MAX_DEFERRALS) {
+                    // the destination is up but busy: wait as long as it asks, the attempt is not used
+                    retry(unsent, left, attempt - 1);
+                    if (metrics != null) {
+                        metrics.deferred(serverName, left);
+                    }
+                    long wait = Math.max(1, ((DeliveryRejectedException) failure).getRetryAfter().toNanos());
+                    retries.schedule(this::resume, wait + ThreadLocalRandom.current().nextLong(wait / 2 + 1), TimeUnit.NANOSECONDS);
+                    return;
+                } else if (attempt < maxAttempts) {
+                    // the worker stays scheduled, so nothing overtakes the batch while waiting
+                    retry(unsent, left, attempt);
+                    deferrals = 0;
+                    backingOff = true;
+                    if (metrics != null) {
+                        metrics.retried(serverName, left);
+                    }
+                    retries.schedule(this::resume, backoff(++failures), TimeUnit.NANOSECONDS);
+                    return;
+                } else {
+                    failures++;
+                    deferrals = 0;
+                    fail(serverName, List.copyOf(unsent), left, attempt, failure.toString());
+                }
+                batch.clear();
+                unsent.clear();
+            }
+            scheduled.set(false);
+            // a delivery may have been queued after the last poll but before the flag was reset
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void retry(List<Delivery> unsent, int units, int attempts) {
+            this.retrying = List.copyOf(unsent);
+            this.retryingUnits = units;
+            this.attempts = attempts;
+        }
+
+        private void resume() {
+            backingOff = false;
+            try {
+                workers.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // closed meanwhile, the batch is dropped by close
+            }
+        }
+
+        /**
+         * Sends a batch.
+         *
+         * @param unsent receives the deliveries not sent
+         * @return null if the batch was delivered, otherwise the failure
+         */
+        private RuntimeException send(List<Delivery> batch, List<Delivery> unsent) {
+            Optional<Server> server;
+            try {
+                server = naming.resolveServer(serverName);
+            } catch (RuntimeException e) {
+                // a failing server must not stop the deliveries queued behind it
+                unsent.addAll(batch);
+                return e;
+            }
+            if (server.isEmpty()) {
+                unsent.addAll(batch);
+                return new IllegalStateException("Unknown server " + serverName);
+            }
+            return DeliveryQueues.send(server.get(), List.copyOf(batch), unsent);
+        }
+
+        /**
+         * Computes the wait after consecutive failures: doubling from the first backoff up to the
+         * maximum, each wait drawn between its half and its whole so that servers do not retry in step.
+         */
+        private long backoff(int failures) {
+            // shifting no further than the leading zeros cannot overflow
+            int doublings = Math.min(failures - 1, Long.numberOfLeadingZeros(backoffNanos) - 1);
+            long wait = Math.min(maxBackoffNanos, backoffNanos << doublings);
+            return wait / 2 + ThreadLocalRandom.current().nextLong(wait / 2 + 1);
+        }
+
+        private boolean fill(List<Delivery> batch) {
+            queue.drainTo(batch, batchSize);
+            if (batch.isEmpty() || lingerNanos == 0) {
+                return !batch.isEmpty();
+            }
+            long deadline = System.nanoTime() + lingerNanos;
+            try {
+                while (batch.size() < batchSize) {
+                    Delivery next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }
+    }
+}
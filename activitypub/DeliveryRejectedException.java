@@ -0,0 +1,68 @@
+package it.polito.activitypub;
+
+import java.time.Duration;
+
+/**
+ * Thrown by the receive calls of a server that does not admit a delivery,
+ * see {@link ServerConfig#ingestRateLimit(double)}.
+ * Nothing of the rejected call was stored: the sender may send it again,
+ * after {@link #getRetryAfter()} or split under {@link #getMaxRecipients()} and {@link #getMaxDeliveries()}.
+ */
+public class DeliveryRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Why a delivery was rejected.
+     */
+    public enum Reason {
+        /** The origin sent more than its share: retry later. */
+        RATE_LIMITED,
+        /** The ingest queue of the server is full: retry later. */
+        QUEUE_FULL,
+        /** The call has more recipients than a call may carry: split it. */
+        TOO_MANY_RECIPIENTS
+    }
+
+    private final Reason reason;
+    private final Duration retryAfter;
+    private final int maxRecipients;
+    private final int maxDeliveries;
+
+    public DeliveryRejectedException(String message, Reason reason, Duration retryAfter, int maxRecipients) {
+        this(message, reason, retryAfter, maxRecipients, Integer.MAX_VALUE);
+    }
+
+    public DeliveryRejectedException(String message, Reason reason, Duration retryAfter, int maxRecipients, int maxDeliveries) {
+        super(message);
+        this.reason = reason;
+        this.retryAfter = retryAfter;
+        this.maxRecipients = maxRecipients;
+        this.maxDeliveries = maxDeliveries;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * @return how long the sender should wait before sending again, zero if it may split and resend now
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * @return the maximum number of recipients of a call accepted by the server, summed over its deliveries
+     */
+    public int getMaxRecipients() {
+        return maxRecipients;
+    }
+
+    /**
+     * @return the maximum number of deliveries of a call the server can queue, when it is idle
+     */
+    public int getMaxDeliveries() {
+        return maxDeliveries;
+    }
+}
@@ -0,0 +1,105 @@
+package it.polito.activitypub;
+
+/**
+ * Bounded memory of the deliveries received by a server, by activity ID and recipient,
+ * to ignore the copies of a delivery sent again by a retry.
+ * <p>
+ * Each delivery is stored as a 64-bit fingerprint in open-addressing tables of two generations:
+ * when the current generation is full it becomes the previous one, and the previous one is dropped.
+ * So the filter remembers at least the last {@code capacity} deliveries and at most twice that,
+ * in 32 bytes each. The fingerprints are striped by their bits to spread the locking.
+ * A false positive needs two deliveries with the same 64-bit hash.
+ */
+final class DuplicateFilter {
+
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    DuplicateFilter(int capacity) {
+        int perStripe = Math.max(1, (capacity + STRIPES - 1) / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+    }
+
+    /**
+     * Records a delivery.
+     *
+     * @param activityId the ID of the activity
+     * @param recipientId the recipient, or the empty string for a delivery to the followers of the author
+     * @return true if the delivery was not seen before
+     */
+    boolean firstSeen(String activityId, String recipientId) {
+        long fingerprint = fingerprint(activityId, recipientId);
+        return stripes[(int) (fingerprint >>> 60)].add(fingerprint);
+    }
+
+    /**
+     * Hashes the two strings with FNV-1a, then mixes the bits with the finalizer of MurmurHash3.
+     * The fingerprint is never 0, which marks the empty slots.
+     */
+    private static long fingerprint(String activityId, String recipientId) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < activityId.length(); i++) {
+            hash = (hash ^ activityId.charAt(i)) * 0x100000001b3L;
+        }
+        hash = (hash ^ ' ') * 0x100000001b3L;
+        for (int i = 0; i < recipientId.length(); i++) {
+            hash = (hash ^ recipientId.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash != 0 ? hash : 1;
+    }
+
+    private static final class Stripe {
+        private final int generationSize;
+        private final int mask;
+        // allocated on the first delivery, so idle servers pay nothing
+        private long[] current;
+        private long[] previous;
+        private int count;
+
+        private Stripe(int generationSize) {
+            this.generationSize = generationSize;
+            // load factor at most one half
+            this.mask = Integer.highestOneBit(generationSize * 2 - 1) * 2 - 1;
+        }
+
+        private synchronized boolean add(long fingerprint) {
+            if (current == null) {
+                current = new long[mask + 1];
+            }
+            if (contains(current, fingerprint) || previous != null && contains(previous, fingerprint)) {
+                return false;
+            }
+            if (count == generationSize) {
+                previous = current;
+                current = new long[mask + 1];
+                count = 0;
+            }
+            int slot = (int) fingerprint & mask;
+            while (current[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            current[slot] = fingerprint;
+            count++;
+            return true;
+        }
+
+        private boolean contains(long[] table, long fingerprint) {
+            int slot = (int) fingerprint & mask;
+            while (table[slot] != 0) {
+                if (table[slot] == fingerprint) {
+                    return true;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return false;
+        }
+    }
+}
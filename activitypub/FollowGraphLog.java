@@ -0,0 +1,311 @@
+package it.polito.activitypub;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable follow graph of a server: a binary snapshot of the follow maps
+ * plus a write-ahead log, in a {@link MappedLog}, of the edge changes since the snapshot.
+ * <p>
+ * A snapshot holds the interned actor IDs in number order, then every adjacency set as its
+ * size and the varint gaps between its sorted numbers, and ends with a CRC32C. It is written
+ * by a background thread without stopping the writers: the log first starts a new segment,
+ * then the maps are read, each set through its immutable snapshot. Every change logged before
+ * the new segment is already in the maps when they are read; the changes logged after it may
+ * or may not be in the snapshot, and are replayed on top of it. Replaying is idempotent because
+ * each change sets the final state of one edge, and changes to the same edge are logged
+ * in the order they are applied. Once the snapshot is on disk, the older segments are deleted.
+ * <p>
+ * Opening the graph loads the latest snapshot, then replays the log from the snapshot segment;
+ * a change of an unknown kind, or that cannot be decoded, ends the replay as a torn tail would.
+ */
+final class FollowGraphLog {
+
+    static final int FOLLOWING_ADDED = 1;
+    static final int FOLLOWING_REMOVED = 2;
+    static final int FOLLOWER_ADDED = 3;
+    static final int FOLLOWER_REMOVED = 4;
+
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final String SNAPSHOT = ".snapshot";
+
+    /**
+     * Applies a change read from the log to the follow maps.
+     */
+    @FunctionalInterface
+    interface Replay {
+        void apply(int change, String followerId, String targetId);
+    }
+
+    private final Path directory;
+    private final MappedLog log;
+    private final IdInterner interner;
+    private final ConcurrentMap<String, IntBitmap> following;
+    private final ConcurrentMap<String, ConcurrentMap<String, IntBitmap>> followers;
+    private final ScheduledExecutorService snapshots;
+    private int snapshotSegment;
+
+    private FollowGraphLog(Path directory, MappedLog log, int snapshotSegment, IdInterner interner,
+            ConcurrentMap<String, IntBitmap> following, ConcurrentMap<String, ConcurrentMap<String, IntBitmap>> followers,
+            Duration snapshotInterval, String serverName) {
+        this.directory = directory;
+        this.log = log;
+        this.snapshotSegment = snapshotSegment;
+        this.interner = interner;
+        this.following = following;
+        this.followers = followers;
+        this.snapshots = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread t = new Thread(task, "follow-snapshot-" + serverName);
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = snapshotInterval.toNanos();
+        snapshots.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot();
+            } catch (IOException | RuntimeException e) {
+                // the log keeps every change, the next snapshot will try again
+            }
+        }, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Loads the follow graph from a directory into empty maps, and opens it for changes.
+     *
+     * @param directory the directory of the snapshots and the log segments
+     * @param segmentSize the size of each log segment
+     * @param commitInterval how long the log waits for more changes before each fsync
+     * @param snapshotInterval the delay between the end of a snapshot and the start of the next one
+     * @param serverName the name of the server, for the background threads
+     * @param interner the interner of the server, empty
+     * @param following the followed actors of each local actor, empty
+     * @param followers the followers of each local actor by server, empty
+     * @param replay applies the changes logged after the snapshot
+     * @return the graph log
+     * @throws IOException if the snapshot or the log cannot be read
+     */
+    static FollowGraphLog open(Path directory, int segmentSize, Duration commitInterval, Duration snapshotInterval,
+            String serverName, IdInterner interner, ConcurrentMap<String, IntBitmap> following,
+            ConcurrentMap<String, ConcurrentMap<String, IntBitmap>> followers, Replay replay) throws IOException {
+        Files.createDirectories(directory);
+        int snapshotSegment = load(directory, interner, following, followers);
+        MappedLog log = MappedLog.open(directory, segmentSize, commitInterval, "follow-log-" + serverName, snapshotSegment, payload -> {
+            WireReader reader = new WireReader(payload);
+            int change;
+            String followerId;
+            String targetId;
+            try {
+                change = reader.readByte();
+                followerId = reader.readString();
+                targetId = reader.readString();
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                return false;
+            }
+            if (change < FOLLOWING_ADDED || change > FOLLOWER_REMOVED) {
+                return false;
+            }
+            replay.apply(change, followerId, targetId);
+            return true;
+        });
+        return new FollowGraphLog(directory, log, snapshotSegment, interner, following, followers, snapshotInterval, serverName);
+    }
+
+    /**
+     * Appends a change. It must be called while the change is applied, before any other
+     * change to the same edge, so that the log keeps the order of the changes.
+     *
+     * @return the log position to wait for with {@link #awaitDurable(long)}
+     */
+    long append(int change, String followerId, String targetId) {
+        return log.append(new WireWriter().writeByte(change).writeString(followerId).writeString(targetId));
+    }
+
+    void awaitDurable(long position) {
+        log.awaitDurable(position);
+    }
+
+    /**
+     * Stops the snapshots, waiting for one in progress, then closes the log once what was appended is durable.
+     */
+    void close() {
+        snapshots.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (snapshots.awaitTermination(1, TimeUnit.DAYS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+    }
+
+    private Path snapshotPath(int segment) {
+        return directory.resolve("%012d%s".formatted(segment, SNAPSHOT));
+    }
+
+    /**
+     * Writes a snapshot of the follow maps, unless nothing was logged since the last one,
+     * then deletes the log segments and the snapshot it replaces.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    synchronized void snapshot() throws IOException {
+        int segment = log.startSegment();
+        if (segment == snapshotSegment) {
+            return;
+        }
+
+        WireWriter out = new WireWriter(1 << 16).writeByte(SNAPSHOT_VERSION).writeVarInt(segment);
+        // numbers interned while the maps are read are not in the table, nor in the sets read
+        int ids = interner.size();
+        out.writeVarInt(ids);
+        for (int i = 0; i < ids; i++) {
+            out.writeString(interner.id(i));
+        }
+        List<Map.Entry<String, IntBitmap>> sets = new ArrayList<>(following.entrySet());
+        out.writeVarInt(sets.size());
+        for (Map.Entry<String, IntBitmap> entry : sets) {
+            out.writeString(entry.getKey());
+            writeSet(out, entry.getValue().toArray(), ids);
+        }
+        List<Map.Entry<String, ConcurrentMap<String, IntBitmap>>> groups = new ArrayList<>(followers.entrySet());
+        out.writeVarInt(groups.size());
+        for (Map.Entry<String, ConcurrentMap<String, IntBitmap>> entry : groups) {
+            out.writeString(entry.getKey());
+            List<Map.Entry<String, IntBitmap>> byServer = new ArrayList<>(entry.getValue().entrySet());
+            out.writeVarInt(byServer.size());
+            for (Map.Entry<String, IntBitmap> group : byServer) {
+                out.writeString(group.getKey());
+                writeSet(out, group.getValue().toArray(), ids);
+            }
+        }
+        ByteBuffer bytes = out.toByteBuffer();
+        CRC32C crc = new CRC32C();
+        crc.update(bytes.duplicate());
+        out.writeInt((int) crc.getValue());
+
+        Path temporary = directory.resolve(snapshotPath(segment).getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer content = out.toByteBuffer();
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, snapshotPath(segment), StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(snapshotPath(snapshotSegment));
+        snapshotSegment = segment;
+        log.deleteBefore(segment);
+    }
+
+    /**
+     * Writes the numbers of a set below the given bound, as a count followed by the gaps.
+     */
+    private static void writeSet(WireWriter out, int[] values, int bound) {
+        int count = 0;
+        while (count < values.length && values[count] < bound) {
+            count++;
+        }
+        out.writeVarInt(count);
+        int previous = -1;
+        for (int i = 0; i < count; i++) {
+            out.writeVarInt(values[i] - previous);
+            previous = values[i];
+        }
+    }
+
+    private static int[] readSet(WireReader in, int bound) {
+        int[] values = new int[in.readCount()];
+        int previous = -1;
+        for (int i = 0; i < values.length; i++) {
+            previous += in.readVarInt();
+            if (previous < 0 || previous >= bound) {
+                throw new IllegalArgumentException("Actor number " + previous + " out of the snapshot table");
+            }
+            values[i] = previous;
+        }
+        return values;
+    }
+
+    /**
+     * Loads the latest snapshot, if any.
+     *
+     * @return the first log segment to replay on top of it
+     */
+    private static int load(Path directory, IdInterner interner, ConcurrentMap<String, IntBitmap> following,
+            ConcurrentMap<String, ConcurrentMap<String, IntBitmap>> followers) throws IOException {
+        List<Path> snapshots;
+        try (Stream<Path> files = Files.list(directory)) {
+            snapshots = files.filter(p -> p.getFileName().toString().endsWith(SNAPSHOT))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(snapshots.get(snapshots.size() - 1)));
+        if (bytes.remaining() < 4) {
+            throw new IOException("Truncated follow graph snapshot");
+        }
+        ByteBuffer content = bytes.slice(0, bytes.remaining() - 4);
+        CRC32C crc = new CRC32C();
+        crc.update(content.duplicate());
+        if ((int) crc.getValue() != bytes.getInt(bytes.limit() - 4)) {
+            throw new IOException("Corrupt follow graph snapshot " + snapshots.get(snapshots.size() - 1));
+        }
+
+        WireReader in = new WireReader(content);
+        int version = in.readByte();
+        if (version != SNAPSHOT_VERSION) {
+            throw new IOException("Unsupported follow graph snapshot version " + version);
+        }
+        int segment = in.readVarInt();
+        int ids = in.readVarInt();
+        for (int i = 0; i < ids; i++) {
+            if (interner.intern(in.readString()) != i) {
+                throw new IllegalStateException("The interner must be empty to load a snapshot");
+            }
+        }
+        for (int n = in.readCount(); n > 0; n--) {
+            following.put(in.readString(), IntBitmap.of(readSet(in, ids)));
+        }
+        for (int n = in.readCount(); n > 0; n--) {
+            String target = in.readString();
+            ConcurrentMap<String, IntBitmap> byServer = new ConcurrentHashMap<>();
+            for (int g = in.readCount(); g > 0; g--) {
+                String server = in.readString();
+                IntBitmap set = IntBitmap.of(readSet(in, ids));
+                if (!set.isEmpty()) {
+                    byServer.put(server, set);
+                }
+            }
+            followers.put(target, byServer);
+        }
+        return segment;
+    }
+}
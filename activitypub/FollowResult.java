@@ -0,0 +1,18 @@
+package it.polito.activitypub;
+
+/**
+ * Outcome of one target of {@link Server#followAll} and {@link Server#unfollowAll},
+ * and of the federation calls {@link Server#addFollowers} and {@link Server#removeFollowers}.
+ */
+public enum FollowResult {
+    /** The relationship was created or removed. */
+    CHANGED,
+    /** The relationship was already in the requested state. */
+    UNCHANGED,
+    /** The target actor does not exist on its server. */
+    NO_SUCH_ACTOR,
+    /** The server of the target actor cannot be resolved. */
+    NO_SUCH_SERVER,
+    /** The call to the server of the target actor failed. */
+    FAILED
+}
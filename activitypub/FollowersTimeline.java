@@ -0,0 +1,80 @@
+package it.polito.activitypub;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Timeline of a high-follower actor, delivered once to a server and merged into the inboxes
+ * of its local followers when they are read.
+ * <p>
+ * A follower only reads the entries appended while it followed the actor, as if they had been
+ * pushed to its inbox: a new follow does not show the entries before it, and the entries of an
+ * ended follow stay in the inbox. The timeline keeps the periods of the follows that started or
+ * ended while it existed, as ranges of positions; a follow that started before the timeline
+ * has no period and covers all of it. The periods of a follower are changed under its follow lock.
+ */
+final class FollowersTimeline {
+
+    private static final int[] NO_PERIODS = {};
+
+    final HandleLog log;
+    // by follower, the pairs of [from, to) positions of its follows; to is Integer.MAX_VALUE while it follows
+    private final ConcurrentMap<String, int[]> periods = new ConcurrentHashMap<>();
+
+    FollowersTimeline(HandleLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Starts a follow at the current end of the timeline.
+     */
+    void started(String followerId) {
+        int from = log.size();
+        periods.compute(followerId, (k, current) -> {
+            int[] next = Arrays.copyOf(current != null ? current : NO_PERIODS, (current != null ? current.length : 0) + 2);
+            next[next.length - 2] = from;
+            next[next.length - 1] = Integer.MAX_VALUE;
+            return next;
+        });
+    }
+
+    /**
+     * Ends a follow at the current end of the timeline; a follow without a period started with the timeline.
+     */
+    void ended(String followerId) {
+        int to = log.size();
+        periods.compute(followerId, (k, current) -> {
+            int[] next = current != null ? current.clone() : new int[] { 0, Integer.MAX_VALUE };
+            if (next[next.length - 1] != Integer.MAX_VALUE) {
+                // already ended
+                return current;
+            }
+            next[next.length - 1] = to;
+            if (next[next.length - 2] == to) {
+                // nothing was appended during the follow
+                next = Arrays.copyOf(next, next.length - 2);
+            }
+            return next.length > 0 ? next : null;
+        });
+    }
+
+    /**
+     * Adds the ranges of the timeline visible to a follower.
+     *
+     * @param following whether the follower follows the actor now
+     */
+    void ranges(String followerId, boolean following, List<MergedTimeline.Range> ranges) {
+        int[] follows = periods.get(followerId);
+        if (follows == null) {
+            if (following) {
+                ranges.add(new MergedTimeline.Range(log, 0, Integer.MAX_VALUE));
+            }
+            return;
+        }
+        for (int i = 0; i < follows.length; i += 2) {
+            ranges.add(new MergedTimeline.Range(log, follows[i], follows[i + 1]));
+        }
+    }
+}
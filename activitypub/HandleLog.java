@@ -0,0 +1,161 @@
+package it.polito.activitypub;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Append-only sequence of activity handles of an {@link ActivityTable},
+ * used for inboxes, outboxes and timelines.
+ * Handles are stored in primitive chunks: the first chunk starts small and grows
+ * up to the chunk size, later chunks are allocated full, so growing never copies
+ * more than one chunk. Appends are serialized on the log itself, reads take no lock:
+ * a chunk is only grown into a new array of chunks, so a reader sees either the old chunk
+ * or the new one with its contents.
+ * <p>
+ * Inboxes can be trimmed from the front by {@link #evictTo}: positions stay absolute,
+ * so cursors remain valid, and the chunks entirely before the {@link #start()} are released.
+ * Reading an evicted position returns null, and so does reading an activity dropped from the table.
+ */
+final class HandleLog {
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int FIRST_CHUNK_SIZE = 4;
+
+    private final ActivityTable table;
+    private volatile int[][] chunks = { new int[FIRST_CHUNK_SIZE] };
+    // published after the handle is stored: readers never see a slot before its content
+    private volatile int size;
+    // position of the oldest entry not evicted
+    private volatile int start;
+
+    HandleLog(ActivityTable table) {
+        this.table = table;
+    }
+
+    synchronized void append(int handle) {
+        int index = size;
+        int chunk = index >>> CHUNK_BITS;
+        int offset = index & CHUNK_MASK;
+        int[][] current = chunks;
+        if (chunk == current.length) {
+            current = Arrays.copyOf(current, chunk * 2);
+        }
+        if (current[chunk] == null) {
+            current[chunk] = new int[CHUNK_SIZE];
+        } else if (offset == current[chunk].length) {
+            // a reader may still be reading the old chunk through the published array: the grown chunk
+            // is published in a copy of it, through the volatile write of chunks, never stored in place
+            if (current == chunks) {
+                current = current.clone();
+            }
+            current[chunk] = Arrays.copyOf(current[chunk], offset * 2);
+        }
+        current[chunk][offset] = handle;
+        chunks = current;
+        size = index + 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int start() {
+        return start;
+    }
+
+    /**
+     * @return the number of entries not evicted
+     */
+    int retained() {
+        return size - start;
+    }
+
+    int handle(int index) {
+        return chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+    }
+
+    /**
+     * @return the activity at a position, or null if it was evicted
+     */
+    Activity get(int index) {
+        int[] chunk = chunks[index >>> CHUNK_BITS];
+        return chunk == null ? null : table.get(chunk[index & CHUNK_MASK]);
+    }
+
+    /**
+     * Evicts the entries before a position, if not evicted yet.
+     *
+     * @param end the exclusive position to evict to, at most the size
+     * @param evicted receives the handle of each entry evicted, in order
+     * @return the number of entries evicted
+     */
+    synchronized int evictTo(int end, IntConsumer evicted) {
+        int from = start;
+        if (end <= from) {
+            return 0;
+        }
+        for (int i = from; i < end; i++) {
+            evicted.accept(handle(i));
+        }
+        start = end;
+        int[][] current = chunks;
+        for (int chunk = from >>> CHUNK_BITS; chunk < end >>> CHUNK_BITS; chunk++) {
+            current[chunk] = null;
+        }
+        return end - from;
+    }
+
+    /**
+     * Streams the activities in insertion order, up to the size seen when the stream is created.
+     */
+    Stream<Activity> stream() {
+        return stream(0, size);
+    }
+
+    /**
+     * Streams the activities in positions {@code [from, to)} in insertion order, skipping the evicted ones.
+     */
+    Stream<Activity> stream(int from, int to) {
+        return IntStream.range(Math.max(from, start), to).mapToObj(this::get).filter(Objects::nonNull);
+    }
+
+    /**
+     * Streams the activities from the most recent to the oldest, without copying them.
+     * The stream ends early at the entries evicted while it is read.
+     */
+    Stream<Activity> streamNewestFirst() {
+        int n = size;
+        return IntStream.range(0, n - start).mapToObj(i -> get(n - 1 - i)).takeWhile(Objects::nonNull);
+    }
+
+    /**
+     * Binary search over the first {@code end} activities, the evicted ones being before any other.
+     * The predicate must be monotone along the log: false for a prefix, true afterwards.
+     *
+     * @param end the number of activities to search, at most the size
+     * @param predicate the condition to look for
+     * @return the first position whose activity satisfies the predicate, or {@code end} if none does
+     */
+    int search(int end, Predicate<? super Activity> predicate) {
+        int low = Math.min(start, end);
+        int high = end;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Activity activity = get(mid);
+            if (activity != null && predicate.test(activity)) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,43 @@
+package it.polito.activitypub;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the full IDs of actors to dense ints, so the follow graph can store
+ * each edge as an int in an {@link IntBitmap} instead of a string reference.
+ * IDs are never released: an actor keeps its number for the life of the server.
+ */
+final class IdInterner {
+
+    private final Map<String, Integer> numbers = new ConcurrentHashMap<>();
+    private final AppendLog<String> ids = new AppendLog<>();
+
+    /**
+     * Retrieves the number of an ID, assigning a new one if needed.
+     */
+    int intern(String id) {
+        return numbers.computeIfAbsent(id, ids::append);
+    }
+
+    /**
+     * Retrieves the number of an ID without assigning it.
+     *
+     * @return the number, or -1 if the ID was never interned
+     */
+    int find(String id) {
+        Integer number = numbers.get(id);
+        return number == null ? -1 : number;
+    }
+
+    String id(int number) {
+        return ids.get(number);
+    }
+
+    /**
+     * Retrieves the number of IDs interned so far, numbered from 0.
+     */
+    int size() {
+        return ids.size();
+    }
+}
@@ -1,11 +1,11 @@
 package it.polito.activitypub;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class InMemoryNamingService implements NamingService {
-    private final Map<String, Server> servers = new HashMap<>();
+    private final Map<String, Server> servers = new ConcurrentHashMap<>();
 
     @Override
     public void registerServer(String name, Server server) {
@@ -0,0 +1,382 @@
+package it.polito.activitypub;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Bounds the timelines of a server: the entries of each inbox by number, the entries of every timeline
+ * (inboxes, outboxes, all the activities and the fan-out-on-read timelines) by age, and the estimated
+ * memory of all the timelines by a budget, evicting the oldest entries first.
+ * <p>
+ * Eviction is incremental: appending an entry evicts at most a few others, and reading
+ * a timeline evicts its expired entries, each entry being evicted once. Every entry retains
+ * its activity in the {@link ActivityTable}, which must be counting, and the evicted entries
+ * release it: an activity is dropped from the table with the last timeline holding it.
+ * <p>
+ * For the budget, every append also records the timeline number in a queue of the arrivals
+ * across all the timelines; evicting the head of the queue evicts the oldest entry of that timeline,
+ * since the entries of an inbox are queued in their order. The queue costs 4 bytes per queued arrival,
+ * counted in the budget with the 4 bytes of the entry itself. The arrivals of the entries evicted
+ * by number or age are dropped by compacting the queue once they are half of it,
+ * and the queue shrinks with its arrivals, so it never holds much more than the live entries.
+ * <p>
+ * The state of each timeline is kept here, not on the timeline: a discarded timeline is forgotten,
+ * and its number is given to a new timeline once the queue holds none of its arrivals.
+ */
+final class InboxRetention {
+
+    private static final long ENTRY_BYTES = 4;
+    private static final long QUEUE_BYTES = 4;
+    // work allowed to each append: expired entries checked, queued arrivals evicted
+    private static final int EXPIRED_PER_APPEND = 8;
+    private static final int EVICTIONS_PER_APPEND = 4;
+    private static final int MIN_QUEUE = 1024;
+
+    /**
+     * The retention state of a timeline.
+     */
+    private static final class Timeline {
+        private final HandleLog log;
+        // whether its entries are bounded by number, as those of an inbox
+        private final boolean capped;
+        // its number in the arrival queue, only with a budget
+        private int number = -1;
+        // the entries released by the budget, guarded by the queue lock
+        private int budgetReleased;
+
+        private Timeline(HandleLog log, boolean capped) {
+            this.log = log;
+            this.capped = capped;
+        }
+    }
+
+    private final ActivityTable table;
+    private final int maxEntries;
+    private final long maxAgeNanos;
+    private final long budget;
+    private final AtomicLong entries = new AtomicLong();
+    private final LongAdder evictedByCount = new LongAdder();
+    private final LongAdder evictedByAge = new LongAdder();
+    private final LongAdder evictedByBudget = new LongAdder();
+
+    private final Map<HandleLog, Timeline> timelines = new ConcurrentHashMap<>();
+    // timelines by number and arrival queue, only with a budget, guarded by the queue lock
+    private final boolean budgeted;
+    private final Object queueLock = new Object();
+    private Timeline[] numbered;
+    private int numbers;
+    // numbers of discarded timelines, free once a compaction dropped their arrivals
+    private final ArrayDeque<Integer> released = new ArrayDeque<>();
+    private final ArrayDeque<Integer> free = new ArrayDeque<>();
+    private int[] queue;
+    private long queueHead;
+    private long queueTail;
+    // arrivals of the entries evicted by number or age, an estimate since they are dequeued concurrently
+    private long staleArrivals;
+
+    InboxRetention(ActivityTable table, ServerConfig config) {
+        this.table = table;
+        this.maxEntries = config.getInboxMaxEntries();
+        Duration maxAge = config.getInboxMaxAge();
+        this.maxAgeNanos = maxAge == null ? Long.MAX_VALUE : maxAge.toNanos();
+        this.budget = config.getInboxMemoryBudget();
+        this.budgeted = budget != Long.MAX_VALUE;
+        this.numbered = budgeted ? new Timeline[16] : null;
+        this.queue = budgeted ? new int[MIN_QUEUE] : null;
+    }
+
+    /**
+     * @return whether the configuration bounds the inboxes
+     */
+    static boolean isEnabled(ServerConfig config) {
+        return config.getInboxMaxEntries() != Integer.MAX_VALUE || config.getInboxMaxAge() != null
+                || config.getInboxMemoryBudget() != Long.MAX_VALUE;
+    }
+
+    /**
+     * Creates an inbox to append to with {@link #append}, bounded by number too.
+     */
+    HandleLog newInbox() {
+        return track(true);
+    }
+
+    /**
+     * Creates another timeline to append to with {@link #append}.
+     */
+    HandleLog newTimeline() {
+        return track(false);
+    }
+
+    private HandleLog track(boolean capped) {
+        Timeline timeline = new Timeline(new HandleLog(table), capped);
+        if (budgeted) {
+            synchronized (queueLock) {
+                Integer number = free.poll();
+                if (number == null) {
+                    if (numbers == numbered.length) {
+                        numbered = Arrays.copyOf(numbered, numbers * 2);
+                    }
+                    number = numbers++;
+                }
+                timeline.number = number;
+                numbered[number] = timeline;
+            }
+        }
+        timelines.put(timeline.log, timeline);
+        return timeline.log;
+    }
+
+    /**
+     * Appends an activity to a timeline, then evicts the entries over the bounds.
+     *
+     * @return the handle of the activity
+     */
+    int append(HandleLog timeline, Activity activity) {
+        int handle = retain(timeline, activity);
+        evict(timeline);
+        return handle;
+    }
+
+    /**
+     * Appends an activity to a timeline without evicting, for the callers that append under a lock;
+     * they must call {@link #evict} after it.
+     *
+     * @return the handle of the activity
+     */
+    int retain(HandleLog timeline, Activity activity) {
+        int handle = table.retain(activity);
+        Timeline tracked = timelines.get(timeline);
+        synchronized (timeline) {
+            timeline.append(handle);
+            // a timeline discarded meanwhile is no longer read, its entries are not queued
+            if (budgeted && tracked != null) {
+                enqueue(tracked);
+            }
+        }
+        entries.incrementAndGet();
+        return handle;
+    }
+
+    /**
+     * Evicts a few entries over the bounds, after an append to a timeline.
+     */
+    void evict(HandleLog timeline) {
+        int excess = timeline.retained() - maxEntries;
+        if (excess > 0 && isCapped(timeline)) {
+            evictStale(timeline, timeline.start() + excess, evictedByCount);
+        }
+        if (maxAgeNanos != Long.MAX_VALUE) {
+            expire(timeline, EXPIRED_PER_APPEND);
+        }
+        if (budgeted) {
+            evictOverBudget(EVICTIONS_PER_APPEND);
+        }
+    }
+
+    private boolean isCapped(HandleLog timeline) {
+        Timeline tracked = timelines.get(timeline);
+        return tracked != null && tracked.capped;
+    }
+
+    /**
+     * Evicts all the entries of a timeline no longer read, releasing their activities, and forgets it.
+     */
+    void discard(HandleLog timeline) {
+        evictStale(timeline, timeline.size(), null);
+        Timeline tracked = timelines.remove(timeline);
+        if (tracked != null && budgeted) {
+            synchronized (queueLock) {
+                numbered[tracked.number] = null;
+                (queueHead == queueTail ? free : released).add(tracked.number);
+            }
+        }
+    }
+
+    /**
+     * Evicts the expired entries at the front of a timeline, before it is read.
+     */
+    void expire(HandleLog inbox) {
+        if (maxAgeNanos != Long.MAX_VALUE) {
+            expire(inbox, Integer.MAX_VALUE);
+        }
+    }
+
+    private void expire(HandleLog inbox, int limit) {
+        long cutoff = cutoffNanos();
+        int start = inbox.start();
+        int end = Math.min(inbox.size(), start + limit);
+        int position = start;
+        for (; position < end; position++) {
+            Activity activity = inbox.get(position);
+            if (activity != null && MergedTimeline.epochNanos(activity) >= cutoff) {
+                break;
+            }
+        }
+        evictStale(inbox, position, evictedByAge);
+    }
+
+    /**
+     * Returns the entries young enough to be read; entries arrived out of timestamp order
+     * can expire behind the front of their inbox, before they can be evicted.
+     *
+     * @return the filter, or null if the entries do not expire
+     */
+    Predicate<Activity> unexpired() {
+        if (maxAgeNanos == Long.MAX_VALUE) {
+            return null;
+        }
+        long cutoff = cutoffNanos();
+        return activity -> MergedTimeline.epochNanos(activity) >= cutoff;
+    }
+
+    private long cutoffNanos() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano() - maxAgeNanos;
+    }
+
+    private int evict(HandleLog inbox, int end, LongAdder cause) {
+        int evicted = inbox.evictTo(end, table::release);
+        if (evicted > 0) {
+            entries.addAndGet(-evicted);
+            if (cause != null) {
+                cause.add(evicted);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Evicts entries before the budget does, leaving their arrivals in the queue to be compacted.
+     */
+    private void evictStale(HandleLog inbox, int end, LongAdder cause) {
+        int evicted = evict(inbox, end, cause);
+        if (evicted > 0 && budgeted) {
+            synchronized (queueLock) {
+                staleArrivals += evicted;
+            }
+        }
+    }
+
+    private void enqueue(Timeline timeline) {
+        synchronized (queueLock) {
+            if (numbered[timeline.number] != timeline) {
+                // discarded meanwhile, its number may already be another's
+                return;
+            }
+            long queued = queueTail - queueHead;
+            if (staleArrivals * 2 > queued && queued >= MIN_QUEUE) {
+                compact();
+            } else if (queued == queue.length) {
+                resize(queue.length * 2);
+            }
+            queue[(int) (queueTail++ % queue.length)] = timeline.number;
+        }
+    }
+
+    /**
+     * Drops the arrivals of the entries already evicted, as if the budget had dequeued them:
+     * the arrivals of an inbox are its positions in order, from the position the budget evicted to,
+     * so those before the start of the inbox are evicted. The arrivals of the discarded timelines
+     * are dropped too, which frees their numbers.
+     */
+    // guarded by queueLock
+    private void compact() {
+        int kept = 0;
+        for (long i = queueHead; i < queueTail; i++) {
+            int number = queue[(int) (i % queue.length)];
+            Timeline timeline = numbered[number];
+            if (timeline == null) {
+                continue;
+            }
+            if (timeline.budgetReleased < timeline.log.start()) {
+                timeline.budgetReleased++;
+            } else {
+                queue[(int) ((queueHead + kept++) % queue.length)] = number;
+            }
+        }
+        queueTail = queueHead + kept;
+        staleArrivals = 0;
+        free.addAll(released);
+        released.clear();
+        int capacity = queue.length;
+        while (capacity > MIN_QUEUE && kept * 2 < capacity) {
+            capacity /= 2;
+        }
+        resize(Math.max(capacity, kept + 1));
+    }
+
+    // guarded by queueLock
+    private void resize(int capacity) {
+        if (capacity == queue.length) {
+            return;
+        }
+        int[] resized = new int[capacity];
+        for (long i = queueHead; i < queueTail; i++) {
+            resized[(int) (i % capacity)] = queue[(int) (i % queue.length)];
+        }
+        queue = resized;
+    }
+
+    /**
+     * Evicts the oldest entries across the inboxes while over budget, dequeuing at most
+     * {@code limit} arrivals: those of entries already evicted by number or age are skipped.
+     */
+    private void evictOverBudget(int limit) {
+        for (int i = 0; i < limit && usedBytes() > budget; i++) {
+            Timeline timeline;
+            int end;
+            // dequeue under the queue lock, evict under the inbox lock only: appends take them the other way
+            synchronized (queueLock) {
+                if (queueHead == queueTail) {
+                    return;
+                }
+                timeline = numbered[queue[(int) (queueHead++ % queue.length)]];
+                if (queueHead == queueTail) {
+                    free.addAll(released);
+                    released.clear();
+                }
+                if (queue.length > MIN_QUEUE && (queueTail - queueHead) * 4 < queue.length) {
+                    resize(queue.length / 2);
+                }
+                if (timeline == null) {
+                    // the arrival of a discarded timeline
+                    continue;
+                }
+                end = ++timeline.budgetReleased;
+            }
+            evict(timeline.log, end, evictedByBudget);
+        }
+    }
+
+    /**
+     * @return the estimated bytes of the timelines: entries, queued arrivals and the activities they hold
+     */
+    long usedBytes() {
+        long queued = 0;
+        if (budgeted) {
+            synchronized (queueLock) {
+                queued = queueTail - queueHead;
+            }
+        }
+        return entries.get() * ENTRY_BYTES + queued * QUEUE_BYTES + table.chargedBytes();
+    }
+
+    long getEvictedByCount() {
+        return evictedByCount.sum();
+    }
+
+    long getEvictedByAge() {
+        return evictedByAge.sum();
+    }
+
+    long getEvictedByBudget() {
+        return evictedByBudget.sum();
+    }
+}
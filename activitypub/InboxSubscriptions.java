@@ -0,0 +1,376 @@
+package it.polito.activitypub;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Subscriptions to the inboxes of the actors of a server, see {@link Server#subscribeInbox(String)}.
+ * <p>
+ * The activities stored in an inbox are offered to its subscriptions, which buffer them and pass them on as
+ * the subscribers request them. A subscription only holds a buffer while it has activities to pass on,
+ * and only takes a thread of the shared pool while passing them on, so an idle subscription is an object
+ * in a list; the receive calls check a single map when the server has no subscriptions at all.
+ * A subscription buffers at most {@code capacity} activities, dropping the others by the overflow policy,
+ * so a slow subscriber never slows down the receive calls nor holds more memory.
+ * <p>
+ * The activities of high-follower actors are offered to the subscribed actors that follow their author,
+ * found in an index by author kept for the subscribed actors only: it is changed under the follow lock
+ * of the follower, with the following edges, so it never misses a follow nor keeps an ended one.
+ */
+final class InboxSubscriptions {
+
+    private final int capacity;
+    private final SubscriptionOverflow overflow;
+    private final Map<String, List<InboxSubscription>> byActor = new ConcurrentHashMap<>();
+    // the subscribed actors following each author, changed under the follow lock of the actor
+    private final Map<String, Set<String>> subscribedFollowers = new ConcurrentHashMap<>();
+    private final Function<String, Object> followLock;
+    private final Function<String, String[]> following;
+    private final AtomicInteger count = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    // its threads are started by the first activities passed on and stop when idle
+    private final ExecutorService workers;
+
+    /**
+     * @param followLock the lock under which the following edges of an actor are changed
+     * @param following the IDs of the actors followed by an actor
+     */
+    InboxSubscriptions(String serverName, ServerConfig config, Function<String, Object> followLock, Function<String, String[]> following) {
+        this.followLock = followLock;
+        this.following = following;
+        this.capacity = config.getInboxSubscriptionBuffer();
+        this.overflow = config.getInboxSubscriptionOverflow();
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newCachedThreadPool(task -> {
+            Thread t = new Thread(task, "inbox-" + serverName + "-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    boolean isEmpty() {
+        return byActor.isEmpty();
+    }
+
+    /**
+     * Subscribes to the inbox of an actor, calling {@link Flow.Subscriber#onSubscribe} before returning.
+     */
+    void subscribe(String actorId, Flow.Subscriber<? super Activity> subscriber) {
+        InboxSubscription subscription = new InboxSubscription(actorId, subscriber);
+        synchronized (followLock.apply(actorId)) {
+            boolean[] first = { false };
+            byActor.compute(actorId, (k, subscriptions) -> {
+                first[0] = subscriptions == null;
+                List<InboxSubscription> list = first[0] ? new CopyOnWriteArrayList<>() : subscriptions;
+                list.add(subscription);
+                return list;
+            });
+            if (first[0]) {
+                for (String authorId : following.apply(actorId)) {
+                    followed(actorId, authorId);
+                }
+            }
+        }
+        count.incrementAndGet();
+        subscription.start();
+    }
+
+    /**
+     * Adds a following edge of an actor to the index, if the actor is subscribed.
+     * Called under the follow lock of the follower.
+     */
+    void followed(String followerId, String authorId) {
+        if (byActor.containsKey(followerId)) {
+            subscribedFollowers.computeIfAbsent(authorId, k -> ConcurrentHashMap.newKeySet()).add(followerId);
+        }
+    }
+
+    /**
+     * Removes a following edge of an actor from the index.
+     * Called under the follow lock of the follower.
+     */
+    void unfollowed(String followerId, String authorId) {
+        subscribedFollowers.computeIfPresent(authorId, (k, followers) -> {
+            followers.remove(followerId);
+            return followers.isEmpty() ? null : followers;
+        });
+    }
+
+    /**
+     * Removes the following edges of an actor from the index, once its last subscription is gone.
+     */
+    private void unsubscribed(String actorId) {
+        synchronized (followLock.apply(actorId)) {
+            if (byActor.containsKey(actorId)) {
+                // subscribed again meanwhile
+                return;
+            }
+            for (String authorId : following.apply(actorId)) {
+                unfollowed(actorId, authorId);
+            }
+        }
+    }
+
+    /**
+     * Offers an activity stored in the inbox of an actor to its subscriptions.
+     */
+    void publish(String actorId, Activity activity) {
+        List<InboxSubscription> subscriptions = byActor.get(actorId);
+        if (subscriptions != null) {
+            for (InboxSubscription subscription : subscriptions) {
+                subscription.offer(activity);
+            }
+        }
+    }
+
+    /**
+     * Offers an activity to the subscriptions of the actors following its author,
+     * as done for the activities of high-follower actors, which are merged into their inboxes when read.
+     */
+    void publishToFollowers(Activity activity) {
+        Set<String> followers = subscribedFollowers.get(activity.getActor());
+        if (followers != null) {
+            for (String actorId : followers) {
+                publish(actorId, activity);
+            }
+        }
+    }
+
+    /**
+     * Completes the subscriptions to the inbox of a deleted actor, once their buffered activities are passed on.
+     */
+    void complete(String actorId) {
+        List<InboxSubscription> subscriptions = byActor.remove(actorId);
+        if (subscriptions != null) {
+            unsubscribed(actorId);
+            for (InboxSubscription subscription : subscriptions) {
+                count.decrementAndGet();
+                subscription.complete();
+            }
+        }
+    }
+
+    /**
+     * Completes every subscription, once its buffered activities are passed on, then stops the workers
+     * when idle. The signals still to pass on afterwards, on demand, are passed on by the calling thread.
+     */
+    void close() {
+        for (String actorId : byActor.keySet()) {
+            complete(actorId);
+        }
+        workers.shutdown();
+    }
+
+    int subscriberCount() {
+        return count.get();
+    }
+
+    long droppedCount() {
+        return dropped.sum();
+    }
+
+    private void remove(InboxSubscription subscription) {
+        boolean[] last = { false };
+        byActor.computeIfPresent(subscription.actorId, (k, subscriptions) -> {
+            if (subscriptions.remove(subscription)) {
+                count.decrementAndGet();
+            }
+            last[0] = subscriptions.isEmpty();
+            return last[0] ? null : subscriptions;
+        });
+        if (last[0]) {
+            unsubscribed(subscription.actorId);
+        }
+    }
+
+    /**
+     * A subscription, whose signals are serialized by its {@code running} flag:
+     * only the thread that set it calls the subscriber.
+     */
+    private final class InboxSubscription implements Flow.Subscription {
+        private final String actorId;
+        private final Flow.Subscriber<? super Activity> subscriber;
+        // guarded by this
+        private ArrayDeque<Activity> buffer;
+        private long demand;
+        // set while the subscriber is being called, first by onSubscribe
+        private boolean running = true;
+        private boolean cancelled;
+        private boolean completed;
+        private Throwable error;
+
+        private InboxSubscription(String actorId, Flow.Subscriber<? super Activity> subscriber) {
+            this.actorId = actorId;
+            this.subscriber = subscriber;
+        }
+
+        private void start() {
+            try {
+                subscriber.onSubscribe(this);
+            } catch (RuntimeException e) {
+                cancel();
+                throw e;
+            }
+            resume();
+        }
+
+        private void offer(Activity activity) {
+            synchronized (this) {
+                if (cancelled || completed) {
+                    return;
+                }
+                if (buffer == null) {
+                    buffer = new ArrayDeque<>(Math.min(capacity, 16));
+                }
+                if (buffer.size() == capacity) {
+                    dropped.increment();
+                    if (overflow == SubscriptionOverflow.DROP_NEWEST) {
+                        return;
+                    }
+                    buffer.poll();
+                }
+                buffer.add(activity);
+                if (running || demand == 0) {
+                    return;
+                }
+                running = true;
+            }
+            dispatch();
+        }
+
+        private void complete() {
+            synchronized (this) {
+                if (cancelled || completed) {
+                    return;
+                }
+                completed = true;
+                if (running) {
+                    return;
+                }
+                running = true;
+            }
+            dispatch();
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                if (n <= 0) {
+                    error = new IllegalArgumentException("Non-positive request: " + n);
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+                if (running) {
+                    // called from the subscriber, the running thread will see the demand
+                    return;
+                }
+                running = true;
+            }
+            dispatch();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                buffer = null;
+            }
+            remove(this);
+        }
+
+        /**
+         * Passes the signals on from a worker, or from the calling thread once the workers are stopped.
+         */
+        private void dispatch() {
+            try {
+                workers.execute(this::run);
+            } catch (RejectedExecutionException e) {
+                run();
+            }
+        }
+
+        /**
+         * Releases the running flag after onSubscribe, passing on what came meanwhile.
+         */
+        private void resume() {
+            synchronized (this) {
+                if (!hasWork()) {
+                    running = false;
+                    return;
+                }
+            }
+            dispatch();
+        }
+
+        // guarded by this
+        private boolean hasWork() {
+            return !cancelled && (error != null || completed && (buffer == null || buffer.isEmpty())
+                    || demand > 0 && buffer != null && !buffer.isEmpty());
+        }
+
+        /**
+         * Passes on the buffered activities while there is demand, then the terminal signal if any.
+         */
+        private void run() {
+            while (true) {
+                Activity next = null;
+                Throwable failure = null;
+                boolean done = false;
+                synchronized (this) {
+                    if (!hasWork()) {
+                        running = false;
+                        if (buffer != null && buffer.isEmpty()) {
+                            // an idle subscription holds no buffer
+                            buffer = null;
+                        }
+                        return;
+                    }
+                    if (error != null) {
+                        failure = error;
+                    } else if (demand > 0 && buffer != null && !buffer.isEmpty()) {
+                        next = buffer.poll();
+                        if (demand != Long.MAX_VALUE) {
+                            demand--;
+                        }
+                    } else {
+                        done = true;
+                    }
+                    if (failure != null || done) {
+                        cancelled = true;
+                        buffer = null;
+                    }
+                }
+                try {
+                    if (failure != null) {
+                        remove(this);
+                        subscriber.onError(failure);
+                    } else if (done) {
+                        subscriber.onComplete();
+                    } else {
+                        subscriber.onNext(next);
+                    }
+                } catch (RuntimeException e) {
+                    // a failing subscriber is cancelled, it must not stop the others
+                    cancel();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package it.polito.activitypub;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Admission control of the deliveries received by a server.
+ * <p>
+ * A receive call is admitted only as a whole, after three checks: its deliveries have no more recipients
+ * in all than a call may carry, each origin has tokens left in its bucket, and the ingest queue has
+ * room for the deliveries. A call failing a check is rejected with a {@link DeliveryRejectedException}
+ * before anything is stored, and the tokens it took are given back. The rejection of a call with too
+ * many recipients, or with more deliveries than the whole queue holds, tells the sender how to split it.
+ * <p>
+ * The origin of a call read by a transport is its peer, such as the address of the connection,
+ * which the sender cannot choose; the calls made in the process are trusted to come from the servers
+ * of the actors of their activities. The buckets are kept for the most recently seen origins only,
+ * the least recently seen being forgotten in constant time.
+ * <p>
+ * Admitted deliveries are stored by the caller, or by the ingest workers when the queue is enabled.
+ * The batches of an origin always go to the same worker, so they are stored in the order they were received,
+ * and the workers only share the server with its own callers through the locks they already take,
+ * so a flood of deliveries does not hold the threads creating activities.
+ */
+final class IngestControl {
+
+    // the hint given to the senders when the queue is full, about the time to drain a few batches
+    private static final Duration QUEUE_RETRY_AFTER = Duration.ofMillis(50);
+    // above this number of origins, the least recently seen bucket is forgotten
+    private static final int MAX_ORIGINS = 1 << 16;
+
+    private final int maxRecipients;
+    // tokens per nanosecond, 0 when not limited
+    private final double rate;
+    private final double burst;
+    // in access order, guarded by itself
+    private final Map<String, Bucket> buckets = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+            return size() > MAX_ORIGINS;
+        }
+    };
+    private final int queueCapacity;
+    // null when the deliveries are stored by the receive calls
+    private final ExecutorService[] workers;
+    private final Consumer<List<Delivery>> ingest;
+    // null when metrics are disabled
+    private final ServerMetrics metrics;
+    private final AtomicLong queued = new AtomicLong();
+    private final Object idle = new Object();
+
+    IngestControl(String serverName, ServerConfig config, Consumer<List<Delivery>> ingest, ServerMetrics metrics) {
+        this.maxRecipients = config.getMaxRecipientsPerCall();
+        this.rate = config.getIngestRateLimit() / TimeUnit.SECONDS.toNanos(1);
+        this.burst = config.getIngestBurst();
+        this.queueCapacity = config.getIngestQueueCapacity();
+        this.ingest = ingest;
+        this.metrics = metrics;
+        if (queueCapacity > 0) {
+            workers = new ExecutorService[config.getIngestThreads()];
+            for (int i = 0; i < workers.length; i++) {
+                String threadName = "ingest-" + serverName + "-" + (i + 1);
+                // the thread is started by the first batch
+                workers[i] = Executors.newSingleThreadExecutor(task -> {
+                    Thread t = new Thread(task, threadName);
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+        } else {
+            workers = null;
+        }
+    }
+
+    /**
+     * @return true if the receive calls of a server with this configuration need admission control
+     */
+    static boolean isEnabled(ServerConfig config) {
+        return config.getIngestRateLimit() > 0 || config.getIngestQueueCapacity() > 0
+                || config.getMaxRecipientsPerCall() < Integer.MAX_VALUE;
+    }
+
+    /**
+     * Admits the deliveries of a receive call and stores them, or queues them for the ingest workers.
+     *
+     * @param peer the origin of the call identified by its transport, or null for a call made in the process
+     * @throws DeliveryRejectedException if the call is not admitted
+     */
+    void receive(List<Delivery> deliveries, String peer) {
+        String origin = peer;
+        Map<String, Integer> costs = null;
+        long recipients = 0;
+        for (Delivery delivery : deliveries) {
+            if (!delivery.isToFollowers()) {
+                recipients += delivery.getRecipientIds().size();
+            }
+            if (peer != null) {
+                continue;
+            }
+            // a batch almost always comes from a single origin, which needs no map
+            String from = origin(delivery);
+            if (origin == null) {
+                origin = from;
+            } else if (!origin.equals(from) && costs == null) {
+                costs = new HashMap<>();
+            }
+        }
+        if (recipients > maxRecipients) {
+            throw reject(DeliveryRejectedException.Reason.TOO_MANY_RECIPIENTS, Duration.ZERO,
+                    "The call has " + recipients + " recipients, at most " + maxRecipients + " are accepted");
+        }
+        if (rate > 0 && origin != null) {
+            if (costs == null) {
+                acquire(origin, cost(deliveries));
+            } else {
+                acquireAll(deliveries, costs);
+            }
+        }
+        if (workers == null) {
+            ingest.accept(deliveries);
+            return;
+        }
+        if (queued.addAndGet(deliveries.size()) > queueCapacity) {
+            done(deliveries.size());
+            refund(deliveries, costs, origin);
+            throw reject(DeliveryRejectedException.Reason.QUEUE_FULL, QUEUE_RETRY_AFTER,
+                    "The ingest queue is full");
+        }
+        List<Delivery> batch = List.copyOf(deliveries);
+        try {
+            workers[(origin != null ? origin.hashCode() & 0x7fffffff : 0) % workers.length].execute(() -> {
+                try {
+                    ingest.accept(batch);
+                } finally {
+                    done(batch.size());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            done(batch.size());
+            refund(deliveries, costs, origin);
+            throw new IllegalStateException("The server is closed");
+        }
+    }
+
+    /**
+     * Stops the ingest workers once they have stored the deliveries already queued;
+     * the receive calls that would queue more fail afterwards.
+     */
+    void close() {
+        if (workers == null) {
+            return;
+        }
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+        boolean interrupted = false;
+        for (ExecutorService worker : workers) {
+            while (true) {
+                try {
+                    worker.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the number of deliveries waiting for the ingest workers
+     */
+    long queued() {
+        return queued.get();
+    }
+
+    /**
+     * Waits until every queued delivery has been stored.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void flush() throws InterruptedException {
+        synchronized (idle) {
+            while (queued.get() > 0) {
+                idle.wait();
+            }
+        }
+    }
+
+    private void done(int count) {
+        if (queued.addAndGet(-count) == 0) {
+            synchronized (idle) {
+                idle.notifyAll();
+            }
+        }
+    }
+
+    private static String origin(Delivery delivery) {
+        ActorId author = ActorId.parse(delivery.getActivity().getActor());
+        return author != null ? author.getServerName() : "";
+    }
+
+    /**
+     * A delivery costs one token per inbox entry it adds: one per recipient,
+     * or one when addressed to the followers, which read it from a single timeline.
+     */
+    private static int cost(Delivery delivery) {
+        return delivery.isToFollowers() ? 1 : delivery.getRecipientIds().size();
+    }
+
+    private static int cost(List<Delivery> deliveries) {
+        int cost = 0;
+        for (Delivery delivery : deliveries) {
+            cost += cost(delivery);
+        }
+        return cost;
+    }
+
+    private void acquireAll(List<Delivery> deliveries, Map<String, Integer> costs) {
+        for (Delivery delivery : deliveries) {
+            costs.merge(origin(delivery), cost(delivery), Integer::sum);
+        }
+        Map<String, Integer> taken = new HashMap<>();
+        try {
+            for (Map.Entry<String, Integer> entry : costs.entrySet()) {
+                acquire(entry.getKey(), entry.getValue());
+                taken.put(entry.getKey(), entry.getValue());
+            }
+        } catch (DeliveryRejectedException e) {
+            taken.forEach((origin, cost) -> bucket(origin).refund(cost, burst));
+            throw e;
+        }
+    }
+
+    private void acquire(String origin, int cost) {
+        long wait = bucket(origin).take(cost, rate, burst, System.nanoTime());
+        if (wait > 0) {
+            throw reject(DeliveryRejectedException.Reason.RATE_LIMITED, Duration.ofNanos(wait),
+                    "Too many deliveries from " + origin);
+        }
+    }
+
+    private void refund(List<Delivery> deliveries, Map<String, Integer> costs, String origin) {
+        if (rate == 0 || origin == null) {
+            return;
+        }
+        if (costs == null) {
+            bucket(origin).refund(cost(deliveries), burst);
+        } else {
+            costs.forEach((from, cost) -> bucket(from).refund(cost, burst));
+        }
+    }
+
+    private Bucket bucket(String origin) {
+        synchronized (buckets) {
+            return buckets.computeIfAbsent(origin, k -> new Bucket(burst, System.nanoTime()));
+        }
+    }
+
+    private DeliveryRejectedException reject(DeliveryRejectedException.Reason reason, Duration retryAfter, String message) {
+        if (metrics != null) {
+            metrics.rejected(reason);
+        }
+        return new DeliveryRejectedException(message, reason, retryAfter, maxRecipients,
+                queueCapacity > 0 ? queueCapacity : Integer.MAX_VALUE);
+    }
+
+    /**
+     * Token bucket of an origin, refilled lazily when used.
+     */
+    private static final class Bucket {
+        private double tokens;
+        private long refilled;
+
+        private Bucket(double burst, long now) {
+            this.tokens = burst;
+            this.refilled = now;
+        }
+
+        /**
+         * Takes the tokens of a call. A call costing more than the whole bucket is admitted
+         * when the bucket is full, and leaves it in debt, so that it cannot be starved.
+         *
+         * @return 0 if the tokens were taken, otherwise the nanoseconds until they are available
+         */
+        private synchronized long take(int cost, double rate, double burst, long now) {
+            tokens = Math.min(burst, tokens + (now - refilled) * rate);
+            refilled = now;
+            double needed = Math.min(cost, burst);
+            if (tokens >= needed) {
+                tokens -= cost;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((needed - tokens) / rate));
+        }
+
+        private synchronized void refund(int cost, double burst) {
+            tokens = Math.min(burst, tokens + cost);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package it.polito.activitypub;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of non-negative ints, used for the adjacency lists of the follow graph.
+ * Values are split by their upper 16 bits into containers: a container holds the lower
+ * 16 bits either as a sorted {@code char[]} (up to 4096 values) or as a 65536-bit
+ * {@code long[]} bitmap, the same layout as Roaring bitmaps. Each container also stores
+ * its number of values, in its first char or its last word, and an array container keeps
+ * a quarter of spare room, so that adding a value seldom reallocates it.
+ * <p>
+ * Writers are serialized on the set and change the single container in place, replacing the arrays
+ * of keys and containers only when a container is added or removed. Readers take no lock: a writer
+ * makes the version odd while it changes the set, and readers check that it did not change while
+ * they read, as a seqlock, reading again under the lock of the set if a writer got in the way.
+ * The version costs 4 bytes per set, against the tens of a lock object.
+ */
+final class IntBitmap {
+
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1024;
+    private static final char[] NO_KEYS = {};
+    private static final Object[] NO_CONTAINERS = {};
+
+    // written under the lock of the set between two increments of version, read optimistically
+    private char[] keys = NO_KEYS;
+    private Object[] containers = NO_CONTAINERS;
+    private volatile int cardinality;
+    private volatile int version;
+
+    /**
+     * Creates a set of distinct values given in increasing order, building each container once.
+     */
+    static IntBitmap of(int[] values) {
+        char[] keys = new char[values.length == 0 ? 0 : (values[values.length - 1] >>> 16) - (values[0] >>> 16) + 1];
+        Object[] containers = new Object[keys.length];
+        int count = 0;
+        int start = 0;
+        while (start < values.length) {
+            char high = (char) (values[start] >>> 16);
+            int end = start;
+            while (end < values.length && (values[end] >>> 16) == high) {
+                end++;
+            }
+            char[] array = new char[end - start + 1];
+            array[0] = (char) (end - start);
+            for (int i = start; i < end; i++) {
+                array[i - start + 1] = (char) values[i];
+            }
+            keys[count] = high;
+            containers[count++] = end - start > ARRAY_MAX ? toBitmap(array) : array;
+            start = end;
+        }
+        IntBitmap set = new IntBitmap();
+        set.keys = Arrays.copyOf(keys, count);
+        set.containers = Arrays.copyOf(containers, count);
+        set.cardinality = values.length;
+        return set;
+    }
+
+    boolean contains(int value) {
+        int seen = version;
+        if ((seen & 1) == 0) {
+            try {
+                boolean found = contains(keys, containers, value);
+                if (validate(seen)) {
+                    return found;
+                }
+            } catch (RuntimeException e) {
+                // read while changed, the containers were inconsistent
+            }
+        }
+        synchronized (this) {
+            return contains(keys, containers, value);
+        }
+    }
+
+    int cardinality() {
+        return cardinality;
+    }
+
+    boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    synchronized boolean add(int value) {
+        char high = (char) (value >>> 16);
+        char low = (char) value;
+        beginWrite();
+        try {
+            int i = Arrays.binarySearch(keys, high);
+            if (i < 0) {
+                int at = -i - 1;
+                char[] grownKeys = new char[keys.length + 1];
+                Object[] grownContainers = new Object[grownKeys.length];
+                System.arraycopy(keys, 0, grownKeys, 0, at);
+                System.arraycopy(containers, 0, grownContainers, 0, at);
+                grownKeys[at] = high;
+                grownContainers[at] = new char[] { 1, low };
+                System.arraycopy(keys, at, grownKeys, at + 1, keys.length - at);
+                System.arraycopy(containers, at, grownContainers, at + 1, keys.length - at);
+                keys = grownKeys;
+                containers = grownContainers;
+            } else if (containers[i] instanceof char[] array) {
+                int count = array[0];
+                int j = Arrays.binarySearch(array, 1, count + 1, low);
+                if (j >= 0) {
+                    return false;
+                }
+                if (count == ARRAY_MAX) {
+                    long[] bits = toBitmap(array);
+                    bits[low >>> 6] |= 1L << low;
+                    bits[BITMAP_WORDS]++;
+                    containers[i] = bits;
+                } else {
+                    if (count + 1 == array.length) {
+                        array = Arrays.copyOf(array, Math.min(count + 2 + (count >>> 2), ARRAY_MAX + 1));
+                        containers[i] = array;
+                    }
+                    int at = -j - 1;
+                    System.arraycopy(array, at, array, at + 1, count + 1 - at);
+                    array[at] = low;
+                    array[0] = (char) (count + 1);
+                }
+            } else {
+                long[] bits = (long[]) containers[i];
+                if ((bits[low >>> 6] & (1L << low)) != 0) {
+                    return false;
+                }
+                bits[low >>> 6] |= 1L << low;
+                bits[BITMAP_WORDS]++;
+            }
+            cardinality++;
+            return true;
+        } finally {
+            endWrite();
+        }
+    }
+
+    synchronized boolean remove(int value) {
+        char low = (char) value;
+        beginWrite();
+        try {
+            int i = Arrays.binarySearch(keys, (char) (value >>> 16));
+            if (i < 0) {
+                return false;
+            }
+            if (containers[i] instanceof char[] array) {
+                int count = array[0];
+                int at = Arrays.binarySearch(array, 1, count + 1, low);
+                if (at < 0) {
+                    return false;
+                }
+                if (count == 1) {
+                    char[] shrunkKeys = new char[keys.length - 1];
+                    Object[] shrunkContainers = new Object[shrunkKeys.length];
+                    System.arraycopy(keys, 0, shrunkKeys, 0, i);
+                    System.arraycopy(containers, 0, shrunkContainers, 0, i);
+                    System.arraycopy(keys, i + 1, shrunkKeys, i, shrunkKeys.length - i);
+                    System.arraycopy(containers, i + 1, shrunkContainers, i, shrunkKeys.length - i);
+                    keys = shrunkKeys;
+                    containers = shrunkContainers;
+                } else {
+                    System.arraycopy(array, at + 1, array, at, count - at);
+                    int left = count - 1;
+                    array[0] = (char) left;
+                    if (left * 2 < array.length) {
+                        // half empty: give back the room, keeping a quarter spare
+                        containers[i] = Arrays.copyOf(array, left + 1 + (left >>> 2));
+                    }
+                }
+            } else {
+                long[] bits = (long[]) containers[i];
+                if ((bits[low >>> 6] & (1L << low)) == 0) {
+                    return false;
+                }
+                bits[low >>> 6] &= ~(1L << low);
+                // converted back well below the limit, so that a set at the limit does not convert at each change
+                if (--bits[BITMAP_WORDS] <= ARRAY_MAX / 2) {
+                    containers[i] = toArray(bits);
+                }
+            }
+            cardinality--;
+            return true;
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Calls the action on every value, in increasing order, as they were when the call started.
+     */
+    void forEach(IntConsumer action) {
+        for (int value : toArray()) {
+            action.accept(value);
+        }
+    }
+
+    /**
+     * Returns the values in increasing order.
+     */
+    int[] toArray() {
+        int seen = version;
+        if ((seen & 1) == 0) {
+            try {
+                int[] values = toArray(keys, containers, cardinality);
+                if (validate(seen)) {
+                    return values;
+                }
+            } catch (RuntimeException e) {
+                // read while changed, the containers were inconsistent
+            }
+        }
+        synchronized (this) {
+            return toArray(keys, containers, cardinality);
+        }
+    }
+
+    // guarded by this
+    private void beginWrite() {
+        version++;
+        // the changes must not be seen before the odd version
+        VarHandle.storeStoreFence();
+    }
+
+    // guarded by this
+    private void endWrite() {
+        version++;
+    }
+
+    /**
+     * @return whether nothing was changed since the version was read, once the reads are done
+     */
+    private boolean validate(int seen) {
+        VarHandle.loadLoadFence();
+        return version == seen;
+    }
+
+    private static boolean contains(char[] keys, Object[] containers, int value) {
+        int i = Arrays.binarySearch(keys, (char) (value >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        char low = (char) value;
+        if (containers[i] instanceof char[] array) {
+            return Arrays.binarySearch(array, 1, array[0] + 1, low) >= 0;
+        }
+        return (((long[]) containers[i])[low >>> 6] & (1L << low)) != 0;
+    }
+
+    private static int[] toArray(char[] keys, Object[] containers, int cardinality) {
+        int[] values = new int[cardinality];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            int high = keys[i] << 16;
+            if (containers[i] instanceof char[] array) {
+                for (int j = 1; j <= array[0]; j++) {
+                    values[n++] = high | array[j];
+                }
+            } else {
+                long[] bits = (long[]) containers[i];
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    long word = bits[w];
+                    while (word != 0) {
+                        values[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    private static long[] toBitmap(char[] array) {
+        long[] bits = new long[BITMAP_WORDS + 1];
+        for (int j = 1; j <= array[0]; j++) {
+            bits[array[j] >>> 6] |= 1L << array[j];
+        }
+        bits[BITMAP_WORDS] = array[0];
+        return bits;
+    }
+
+    private static char[] toArray(long[] bits) {
+        int count = (int) bits[BITMAP_WORDS];
+        char[] array = new char[count + 1 + (count >>> 2)];
+        array[0] = (char) count;
+        int n = 1;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+            long word = bits[w];
+            while (word != 0) {
+                array[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return array;
+    }
+}
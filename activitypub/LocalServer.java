@@ -0,0 +1,1285 @@
+package it.polito.activitypub;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Flow;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Server hosted in this JVM, as returned by {@link ActivityPubUtilities#createServer(String)}.
+ * All the methods can be called concurrently: the registries are concurrent maps,
+ * follow changes are serialized per follower through striped locks and the
+ * inboxes and outboxes are append logs that can be read while being written.
+ */
+final class LocalServer implements Server {
+
+    private static final int LOCK_STRIPES = 64;
+    private static final ConcurrentMap<String, IntBitmap> EMPTY_GROUPS = new ConcurrentHashMap<>();
+    private static final IntBitmap EMPTY_SET = new IntBitmap();
+
+    private final String name;
+    private final NamingService naming;
+
+    // R1 field
+    private final ConcurrentMap<String, Actor> actors = new ConcurrentHashMap<>();
+    // R2 fields, the edges hold the numbers assigned to the actor IDs by the interner
+    private final IdInterner interner = new IdInterner();
+    // parsed IDs of the actors known to the interner, which never releases them either
+    private final ConcurrentMap<String, ActorId> actorIds = new ConcurrentHashMap<>();
+    // followers of each local actor, grouped by the follower's home server
+    private final ConcurrentMap<String, ConcurrentMap<String, IntBitmap>> followersMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, IntBitmap> followingMap = new ConcurrentHashMap<>();
+    // every activity created or received, inboxes and outboxes only hold their handles
+    private final ActivityTable table;
+    // R3 fields, kept in timestamp order by the creation order
+    private final HandleLog allActivities;
+    private final ConcurrentMap<String, HandleLog> outboxes = new ConcurrentHashMap<>();
+    // R4 field
+    private final ConcurrentMap<String, HandleLog> inboxes = new ConcurrentHashMap<>();
+    // activities of high-follower actors, merged into the inboxes of their local followers when read
+    private final ConcurrentMap<String, FollowersTimeline> followersTimelines = new ConcurrentHashMap<>();
+    // authors of the timelines in which each local actor has follow periods
+    private final ConcurrentMap<String, Set<String>> periodAuthors = new ConcurrentHashMap<>();
+    private final int fanOutOnReadThreshold;
+    // deletion time of the actors whose activities are hidden from the inboxes
+    private final ConcurrentMap<String, Instant> deletedActors = new ConcurrentHashMap<>();
+    private final boolean purgeOnActorDeletion;
+    // bounds of the inboxes, null when they are not bounded
+    private final InboxRetention retention;
+    // index of the content of the activities, null when searches check every activity
+    private final SearchIndex searchIndex;
+    private final InboxSubscriptions subscriptions;
+    // durable record of the activities, null when the server keeps them in memory only
+    private final ActivityLog log;
+    // durable record of the follow maps, null when the server keeps them in memory only
+    private final FollowGraphLog graphLog;
+    // closes the logs if the server was not closed, null without them
+    private final Thread shutdownHook;
+    // outbound delivery, null when deliveries are performed on the caller's thread and never retried
+    private final DeliveryQueues deliveries;
+    private final boolean asyncDelivery;
+    // deliveries already received, null when duplicates are accepted
+    private final DuplicateFilter received;
+    // admission of the received deliveries, null when every receive call is admitted and stored by the caller
+    private final IngestControl ingestControl;
+    // null when metrics are disabled
+    private final ServerMetrics metrics;
+    // serializes the follow changes of the same local follower
+    private final Object[] followLocks = new Object[LOCK_STRIPES];
+    // orders the timestamps of the activities created on this server, and their appends to the shared timelines
+    private final CreationOrder creations = new CreationOrder();
+    // IDs of the activities created on this server
+    private final ActivityIds activityIds = new ActivityIds();
+
+    LocalServer(String name, ServerConfig config) {
+        this.name = name;
+        this.naming = config.getNamingService();
+        this.fanOutOnReadThreshold = config.getFanOutOnReadThreshold();
+        this.purgeOnActorDeletion = config.isPurgeInboxesOnActorDeletion();
+        boolean bounded = InboxRetention.isEnabled(config);
+        this.table = new ActivityTable(bounded, bounded && config.isSearchIndexEnabled() ? this::unindex : null);
+        this.retention = bounded ? new InboxRetention(table, config) : null;
+        this.allActivities = newTimeline();
+        this.searchIndex = config.isSearchIndexEnabled() ? new SearchIndex(table) : null;
+        this.subscriptions = new InboxSubscriptions(name, config, this::followLock,
+                id -> ids(followingMap.getOrDefault(id, EMPTY_SET)));
+        this.metrics = config.isMetricsEnabled()
+                ? new ServerMetrics(actors::size, this::edgeCount, this::inboxEntries, this::ingestQueued,
+                        retention, searchIndex, subscriptions)
+                : null;
+        this.asyncDelivery = config.isAsyncDelivery();
+        this.received = config.getReceiveDedupCapacity() > 0 ? new DuplicateFilter(config.getReceiveDedupCapacity()) : null;
+        this.deliveries = asyncDelivery || config.getDeliveryMaxAttempts() > 1
+                ? new DeliveryQueues(name, config, metrics)
+                : null;
+        this.ingestControl = IngestControl.isEnabled(config) ? new IngestControl(name, config, this::ingest, metrics) : null;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            followLocks[i] = new Object();
+        }
+        if (config.getDataDirectory() != null) {
+            try {
+                this.log = ActivityLog.open(config.getDataDirectory(), config.getLogSegmentSize(),
+                        config.getLogCommitInterval(), name, this::restoreCreated, this::restoreReceived, this::hide,
+                        (followerId, authorId) -> followPeriod(true, followerId, authorId),
+                        (followerId, authorId) -> followPeriod(false, followerId, authorId),
+                        retention != null ? table::contains : null, retention != null ? inboxRetention() : null);
+                // the changes are replayed while graphLog is still null, so they are not logged again
+                this.graphLog = FollowGraphLog.open(config.getDataDirectory().resolve("follows"), config.getLogSegmentSize(),
+                        config.getLogCommitInterval(), config.getFollowSnapshotInterval(), name,
+                        interner, followingMap, followersMap, this::restoreChange);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.shutdownHook = new Thread(this::closeLogs, "close-" + name);
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        } else {
+            this.log = null;
+            this.graphLog = null;
+            this.shutdownHook = null;
+        }
+    }
+
+    /**
+     * Tells whether an inbox still retains an activity once the log is replayed, for its compaction:
+     * the handles retained by an inbox are collected at the first question about it.
+     */
+    private BiPredicate<String, String> inboxRetention() {
+        Map<String, IntBitmap> retained = new HashMap<>();
+        return (recipientId, activityId) -> {
+            int handle = table.handle(activityId);
+            if (handle < 0) {
+                return false;
+            }
+            return retained.computeIfAbsent(recipientId, id -> {
+                HandleLog inbox = inboxes.get(id);
+                if (inbox == null) {
+                    return IntBitmap.of(new int[0]);
+                }
+                int[] handles = new int[inbox.retained()];
+                for (int i = inbox.start(); i < inbox.size(); i++) {
+                    handles[i - inbox.start()] = inbox.handle(i);
+                }
+                return IntBitmap.of(Arrays.stream(handles).sorted().distinct().toArray());
+            }).contains(handle);
+        };
+    }
+
+    @Override
+    public void close() {
+        if (deliveries != null) {
+            deliveries.close();
+        }
+        // the deliveries already admitted are stored before the logs close
+        if (ingestControl != null) {
+            ingestControl.close();
+        }
+        subscriptions.close();
+        if (shutdownHook == null) {
+            return;
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // already shutting down, the hook may be closing the logs too
+        }
+        closeLogs();
+    }
+
+    private void closeLogs() {
+        graphLog.close();
+        log.close();
+    }
+
+    private void restoreChange(int change, String followerId, String targetId) {
+        switch (change) {
+            case FollowGraphLog.FOLLOWING_ADDED -> addFollowing(followerId, targetId);
+            case FollowGraphLog.FOLLOWING_REMOVED -> removeFollowing(followerId, targetId);
+            case FollowGraphLog.FOLLOWER_ADDED -> addFollowerEdge(followerId, targetId);
+            case FollowGraphLog.FOLLOWER_REMOVED -> removeFollowerEdge(followerId, targetId);
+            default -> throw new IllegalArgumentException("Unknown follow log record " + change);
+        }
+    }
+
+    /**
+     * Rebuilds the timelines of an activity created before a restart.
+     */
+    private void restoreCreated(Activity activity) {
+        int handle = appendToOutbox(outboxes.computeIfAbsent(activity.getActor(), k -> newTimeline()), activity);
+        appendToAll(activity, handle);
+        index(handle, activity);
+        creations.advance(activity.getTimestamp());
+    }
+
+    /**
+     * Creates a timeline other than an inbox, bounded by the retention if any.
+     */
+    private HandleLog newTimeline() {
+        return retention != null ? retention.newTimeline() : new HandleLog(table);
+    }
+
+    /**
+     * Appends an activity created on this server to the outbox of its actor, in timestamp order.
+     *
+     * @return the handle of the activity
+     */
+    private int appendToOutbox(HandleLog outbox, Activity activity) {
+        if (retention != null) {
+            return retention.retain(outbox, activity);
+        }
+        int handle = table.add(activity);
+        outbox.append(handle);
+        return handle;
+    }
+
+    /**
+     * Appends an activity created on this server to the timeline of all the activities, in timestamp order.
+     */
+    private void appendToAll(Activity activity, int handle) {
+        if (retention != null) {
+            retention.retain(allActivities, activity);
+        } else {
+            allActivities.append(handle);
+        }
+    }
+
+    /**
+     * Evicts the expired entries of a timeline before it is read.
+     */
+    private HandleLog unexpired(HandleLog timeline) {
+        if (timeline != null && retention != null) {
+            retention.expire(timeline);
+        }
+        return timeline;
+    }
+
+    private String parseIdToServerName(String id) {
+        ActorId actorId = actorId(id);
+        return actorId != null ? actorId.getServerName() : getName();
+    }
+
+    /**
+     * Parses an actor ID, interning it if the follow graph knows the actor, so that routing the activities
+     * of a known actor does not parse its ID again; the IDs of unknown actors, such as those sent by peers,
+     * are parsed on every call and never retained.
+     *
+     * @return the ID, or null for a bare username or a malformed ID
+     */
+    private ActorId actorId(String id) {
+        ActorId actorId = actorIds.get(id);
+        if (actorId != null) {
+            return actorId;
+        }
+        actorId = ActorId.parse(id);
+        if (actorId != null && interner.find(id) >= 0) {
+            ActorId previous = actorIds.putIfAbsent(id, actorId);
+            return previous != null ? previous : actorId;
+        }
+        return actorId;
+    }
+
+    private String[] ids(IntBitmap numbers) {
+        int[] values = numbers.toArray();
+        String[] ids = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ids[i] = interner.id(values[i]);
+        }
+        return ids;
+    }
+
+    private Object followLock(String followerId) {
+        return followLocks[(followerId.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Optional<ServerMetrics> getMetrics() {
+        return Optional.ofNullable(metrics);
+    }
+
+    private long ingestQueued() {
+        return ingestControl != null ? ingestControl.queued() : 0;
+    }
+
+    private long edgeCount() {
+        long edges = 0;
+        for (IntBitmap following : followingMap.values()) {
+            edges += following.cardinality();
+        }
+        for (Map<String, IntBitmap> followersByServer : followersMap.values()) {
+            for (IntBitmap followers : followersByServer.values()) {
+                edges += followers.cardinality();
+            }
+        }
+        return edges;
+    }
+
+    private long inboxEntries() {
+        long entries = 0;
+        for (HandleLog inbox : inboxes.values()) {
+            entries += inbox.retained();
+        }
+        return entries;
+    }
+
+    @Override
+    public Actor createActor(String username, String displayName) throws ActivityPubException {
+        Actor newActor = new Actor(username, displayName, this.getName());
+        if (actors.putIfAbsent(username, newActor) != null) {
+            throw new ActivityPubException(
+                    "Actor with username '" + username + "' already exists on this server.");
+        }
+        return newActor;
+    }
+
+    @Override
+    public Optional<Actor> getActor(String id) {
+        ActorId actorId = actorId(id);
+        if (actorId != null) {
+            return getActor(actorId);
+        }
+        return id.indexOf('@') < 0 ? Optional.ofNullable(actors.get(id)) : Optional.empty();
+    }
+
+    @Override
+    public Optional<Actor> getActor(ActorId id) {
+        if (this.getName().equals(id.getServerName())) {
+            return Optional.ofNullable(actors.get(id.getUsername()));
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public List<Actor> listAllActors() {
+        return new ArrayList<>(actors.values());
+    }
+
+    @Override
+    public boolean deleteActor(String username) {
+        Actor actor = actors.remove(username);
+        if (actor == null) {
+            return false;
+        }
+        String id = actor.getFullId();
+        subscriptions.complete(id);
+        // the inbox goes with the actor, its entries no longer hold their activities
+        HandleLog inbox = inboxes.remove(id);
+        if (inbox != null && retention != null) {
+            retention.discard(inbox);
+        }
+        // the activities of an actor created again with the same username come after the deletion
+        Instant deletedAt = creations.stamp();
+
+        // the edges of the actor, grouped by the server of their other end, straight from the indexes
+        Map<String, List<String>> followedByServer = new HashMap<>();
+        Map<String, List<String>> followersByServer = new HashMap<>();
+        long change = 0;
+        synchronized (followLock(id)) {
+            for (String targetId : ids(followingMap.getOrDefault(id, EMPTY_SET))) {
+                followedByServer.computeIfAbsent(parseIdToServerName(targetId), k -> new ArrayList<>()).add(targetId);
+                change = Math.max(change, unfollowed(id, targetId));
+            }
+            followingMap.computeIfPresent(id, (k, following) -> following.isEmpty() ? null : following);
+        }
+        for (Map.Entry<String, IntBitmap> group : followersMap.getOrDefault(id, EMPTY_GROUPS).entrySet()) {
+            for (String followerId : ids(group.getValue())) {
+                followersByServer.computeIfAbsent(group.getKey(), k -> new ArrayList<>()).add(followerId);
+                change = Math.max(change, removeFollowerEdge(followerId, id));
+            }
+        }
+        followersMap.computeIfPresent(id, (k, groups) -> groups.isEmpty() ? null : groups);
+        awaitChange(change);
+
+        Set<String> servers = new HashSet<>(followedByServer.keySet());
+        servers.addAll(followersByServer.keySet());
+        for (String serverName : servers) {
+            List<String> followed = followedByServer.getOrDefault(serverName, List.of());
+            List<String> followers = followersByServer.getOrDefault(serverName, List.of());
+            if (serverName.equals(name)) {
+                actorDeleted(id, deletedAt, followed, followers);
+                continue;
+            }
+            try {
+                naming.resolveServer(serverName).ifPresent(server -> server.actorDeleted(id, deletedAt, followed, followers));
+            } catch (RuntimeException e) {
+                // an unreachable server keeps its edges, they point to an actor that no longer resolves
+            }
+        }
+        if (purgeOnActorDeletion && !servers.contains(name)) {
+            // the activities of the actor may also be in the inboxes of actors that did not follow it
+            actorDeleted(id, deletedAt, List.of(), List.of());
+        }
+        return true;
+    }
+
+    @Override
+    public void actorDeleted(String actorId, Instant deletedAt, Collection<String> followedIds, Collection<String> followerIds) {
+        long change = 0;
+        for (String targetId : followedIds) {
+            change = Math.max(change, removeFollowerEdge(actorId, targetId));
+        }
+        for (String followerId : followerIds) {
+            synchronized (followLock(followerId)) {
+                change = Math.max(change, unfollowed(followerId, actorId));
+            }
+        }
+        if (purgeOnActorDeletion) {
+            hide(actorId, deletedAt);
+            if (log != null) {
+                log.awaitDurable(log.appendDeletion(actorId, deletedAt));
+            }
+        }
+        awaitChange(change);
+    }
+
+    /**
+     * Hides the activities of an actor up to its deletion from the inboxes.
+     */
+    private void hide(String actorId, Instant deletedAt) {
+        deletedActors.merge(actorId, deletedAt, (a, b) -> a.isAfter(b) ? a : b);
+        // its followers no longer merge its timeline into their inboxes
+        FollowersTimeline timeline = followersTimelines.remove(actorId);
+        if (timeline != null && retention != null) {
+            retention.discard(timeline.log);
+        }
+    }
+
+    private boolean visible(Activity activity) {
+        Instant deletedAt = deletedActors.get(activity.getActor());
+        return deletedAt == null || activity.getTimestamp().isAfter(deletedAt);
+    }
+
+    /**
+     * Retrieves the filter of the activities of deleted actors and of the expired entries,
+     * null if there are none.
+     */
+    private Predicate<Activity> inboxFilter() {
+        Predicate<Activity> unexpired = retention != null ? retention.unexpired() : null;
+        if (deletedActors.isEmpty()) {
+            return unexpired;
+        }
+        return unexpired == null ? this::visible : unexpired.and(this::visible);
+    }
+
+    /**
+     * Retrieves the inbox of a local actor, after evicting its expired entries.
+     */
+    private HandleLog inboxOf(String actorId) {
+        return unexpired(inboxes.get(actorId));
+    }
+
+    @Override
+    public boolean follow(String followerId, String targetId) throws ActivityPubException {
+        long start = metrics != null ? System.nanoTime() : 0;
+        try {
+            return followActor(followerId, targetId);
+        } finally {
+            if (metrics != null) {
+                metrics.followLatency().record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private boolean followActor(String followerId, String targetId) throws ActivityPubException {
+        Actor follower = this.getActor(followerId).orElseThrow(() -> new ActivityPubException("Follower " + followerId + " not found on this server."));
+
+        String targetServerName = parseIdToServerName(targetId);
+        Server targetServer = naming.resolveServer(targetServerName).orElseThrow(() -> new ActivityPubException("Target server " + targetServerName + " not found."));
+
+        Actor target = targetServer.getActor(targetId).orElseThrow(() -> new ActivityPubException("Target actor " + targetId + " not found."));
+
+        long change;
+        synchronized (followLock(follower.getFullId())) {
+            if (!targetServer.addFollower(follower.getFullId(), target.getFullId())) {
+                return false;
+            }
+            change = followed(follower.getFullId(), target.getFullId());
+        }
+        awaitChange(change);
+        return true;
+    }
+
+    @Override
+    public boolean addFollower(String followerId, String targetId) throws ActivityPubException {
+        Actor target = this.getActor(targetId).orElseThrow(() -> new ActivityPubException("Target actor " + targetId + " does not exist on this server."));
+        return awaitChange(addFollowerEdge(followerId, target.getFullId()));
+    }
+
+    /*
+     * The edge changes below return the position of the change in the follow graph log,
+     * 0 if there is no log, or -1 if the edge was already in the requested state.
+     * They log from within the critical section of the change, so that the changes
+     * to an edge are logged in the order they are applied.
+     */
+
+    private long logChange(int change, String followerId, String targetId) {
+        return graphLog != null ? graphLog.append(change, followerId, targetId) : 0;
+    }
+
+    /**
+     * Waits for a change to be durable.
+     *
+     * @return whether the change modified the graph
+     */
+    private boolean awaitChange(long change) {
+        if (change > 0) {
+            graphLog.awaitDurable(change);
+        }
+        return change >= 0;
+    }
+
+    private long addFollowing(String followerId, String targetId) {
+        if (!followingMap.computeIfAbsent(followerId, k -> new IntBitmap()).add(interner.intern(targetId))) {
+            return -1;
+        }
+        return logChange(FollowGraphLog.FOLLOWING_ADDED, followerId, targetId);
+    }
+
+    private long removeFollowing(String followerId, String targetId) {
+        IntBitmap following = followingMap.get(followerId);
+        int number = interner.find(targetId);
+        if (following == null || number < 0 || !following.remove(number)) {
+            return -1;
+        }
+        return logChange(FollowGraphLog.FOLLOWING_REMOVED, followerId, targetId);
+    }
+
+    /**
+     * Adds a following edge changed by a caller, starting its period in the timeline of the target.
+     */
+    private long followed(String followerId, String targetId) {
+        long change = addFollowing(followerId, targetId);
+        if (change >= 0) {
+            subscriptions.followed(followerId, targetId);
+            followPeriod(true, followerId, targetId);
+        }
+        return change;
+    }
+
+    /**
+     * Removes a following edge changed by a caller, ending its period in the timeline of the target.
+     */
+    private long unfollowed(String followerId, String targetId) {
+        long change = removeFollowing(followerId, targetId);
+        if (change >= 0) {
+            subscriptions.unfollowed(followerId, targetId);
+            followPeriod(false, followerId, targetId);
+        }
+        return change;
+    }
+
+    /**
+     * Starts or ends the period of a follow in the timeline of its author, if the author has one on this server.
+     * Called under the follow lock of the follower, or while the activity log is replayed.
+     */
+    private void followPeriod(boolean started, String followerId, String authorId) {
+        FollowersTimeline timeline = followersTimelines.get(authorId);
+        if (timeline == null) {
+            return;
+        }
+        if (started) {
+            timeline.started(followerId);
+        } else {
+            timeline.ended(followerId);
+        }
+        periodAuthors.computeIfAbsent(followerId, k -> ConcurrentHashMap.newKeySet()).add(authorId);
+        if (log != null) {
+            // only the follows of high-follower actors get here, so the wait under the lock is rare
+            log.awaitDurable(log.appendFollow(started, followerId, authorId));
+        }
+    }
+
+    private long addFollowerEdge(String followerId, String targetId) {
+        int follower = interner.intern(followerId);
+        long[] change = { -1 };
+        followersMap.computeIfAbsent(targetId, k -> new ConcurrentHashMap<>())
+                .compute(parseIdToServerName(followerId), (serverName, followers) -> {
+                    IntBitmap set = followers != null ? followers : new IntBitmap();
+                    if (set.add(follower)) {
+                        change[0] = logChange(FollowGraphLog.FOLLOWER_ADDED, followerId, targetId);
+                    }
+                    return set;
+                });
+        return change[0];
+    }
+
+    private long removeFollowerEdge(String followerId, String targetId) {
+        Map<String, IntBitmap> followersByServer = followersMap.get(targetId);
+        int follower = interner.find(followerId);
+        if (followersByServer == null || follower < 0) {
+            return -1;
+        }
+        long[] change = { -1 };
+        // the group is dropped atomically with the removal of its last follower
+        followersByServer.computeIfPresent(parseIdToServerName(followerId), (serverName, followers) -> {
+            if (followers.remove(follower)) {
+                change[0] = logChange(FollowGraphLog.FOLLOWER_REMOVED, followerId, targetId);
+            }
+            return followers.isEmpty() ? null : followers;
+        });
+        return change[0];
+    }
+
+    @Override
+    public boolean unfollow(String followerId, String targetId) throws ActivityPubException {
+        Actor follower = this.getActor(followerId).orElseThrow(() -> new ActivityPubException("Follower " + followerId + " not found on this server."));
+
+        String targetServerName = parseIdToServerName(targetId);
+        Server targetServer = naming.resolveServer(targetServerName).orElseThrow(() -> new ActivityPubException("Target server " + targetServerName + " not found."));
+
+        Actor target = targetServer.getActor(targetId).orElseThrow(() -> new ActivityPubException("Target actor " + targetId + " not found."));
+
+        boolean removedFromTarget;
+        long change;
+        synchronized (followLock(follower.getFullId())) {
+            removedFromTarget = targetServer.removeFollower(follower.getFullId(), target.getFullId());
+            change = unfollowed(follower.getFullId(), target.getFullId());
+        }
+        boolean removedFromFollower = awaitChange(change);
+        return removedFromTarget || removedFromFollower;
+    }
+
+    @Override
+    public boolean removeFollower(String followerId, String targetId) throws ActivityPubException {
+        Actor target = this.getActor(targetId).orElseThrow(() -> new ActivityPubException("Target actor " + targetId + " does not exist on this server."));
+        return awaitChange(removeFollowerEdge(followerId, target.getFullId()));
+    }
+
+    @Override
+    public Map<String, FollowResult> followAll(String followerId, Collection<String> targetIds) throws ActivityPubException {
+        return changeAll(followerId, targetIds, true);
+    }
+
+    @Override
+    public Map<String, FollowResult> unfollowAll(String followerId, Collection<String> targetIds) throws ActivityPubException {
+        return changeAll(followerId, targetIds, false);
+    }
+
+    /**
+     * Follows or unfollows many targets, with a single federation call per target server.
+     * Each call holds the lock of the follower, as {@link #follow} does for a single target.
+     */
+    private Map<String, FollowResult> changeAll(String followerId, Collection<String> targetIds, boolean follow) throws ActivityPubException {
+        Actor follower = this.getActor(followerId).orElseThrow(() -> new ActivityPubException("Follower " + followerId + " not found on this server."));
+        String id = follower.getFullId();
+
+        Map<String, FollowResult> results = new LinkedHashMap<>();
+        Map<String, Set<String>> targetsByServer = new LinkedHashMap<>();
+        for (String targetId : targetIds) {
+            if (results.putIfAbsent(targetId, FollowResult.FAILED) == null) {
+                targetsByServer.computeIfAbsent(parseIdToServerName(targetId), k -> new LinkedHashSet<>()).add(targetId);
+            }
+        }
+
+        long change = 0;
+        for (Map.Entry<String, Set<String>> entry : targetsByServer.entrySet()) {
+            String serverName = entry.getKey();
+            Optional<Server> targetServer = naming.resolveServer(serverName);
+            if (targetServer.isEmpty()) {
+                entry.getValue().forEach(targetId -> results.put(targetId, FollowResult.NO_SUCH_SERVER));
+                continue;
+            }
+            synchronized (followLock(id)) {
+                Map<String, FollowResult> remote;
+                try {
+                    remote = follow
+                            ? targetServer.get().addFollowers(id, entry.getValue())
+                            : targetServer.get().removeFollowers(id, entry.getValue());
+                } catch (RuntimeException e) {
+                    // the targets keep their FAILED outcome, the other servers are still called
+                    continue;
+                }
+                for (String targetId : entry.getValue()) {
+                    FollowResult result = remote.getOrDefault(targetId, FollowResult.FAILED);
+                    ActorId parsed = actorId(targetId);
+                    String fullTargetId = parsed != null ? parsed.toString() : ActivityPubUtilities.fullId(targetId, serverName);
+                    if (follow && result == FollowResult.CHANGED) {
+                        change = Math.max(change, followed(id, fullTargetId));
+                    } else if (!follow && (result == FollowResult.CHANGED || result == FollowResult.UNCHANGED)) {
+                        // as in unfollow, the edge counts as removed if either side had it
+                        long removed = unfollowed(id, fullTargetId);
+                        change = Math.max(change, removed);
+                        result = removed >= 0 ? FollowResult.CHANGED : result;
+                    }
+                    results.put(targetId, result);
+                }
+            }
+        }
+        awaitChange(change);
+        return results;
+    }
+
+    @Override
+    public Map<String, FollowResult> addFollowers(String followerId, Collection<String> targetIds) {
+        return changeFollowers(followerId, targetIds, true);
+    }
+
+    @Override
+    public Map<String, FollowResult> removeFollowers(String followerId, Collection<String> targetIds) {
+        return changeFollowers(followerId, targetIds, false);
+    }
+
+    private Map<String, FollowResult> changeFollowers(String followerId, Collection<String> targetIds, boolean add) {
+        Map<String, FollowResult> results = new LinkedHashMap<>();
+        long change = 0;
+        for (String targetId : targetIds) {
+            if (results.containsKey(targetId)) {
+                continue;
+            }
+            Optional<Actor> target = this.getActor(targetId);
+            if (target.isEmpty()) {
+                results.put(targetId, FollowResult.NO_SUCH_ACTOR);
+                continue;
+            }
+            long edge = add
+                    ? addFollowerEdge(followerId, target.get().getFullId())
+                    : removeFollowerEdge(followerId, target.get().getFullId());
+            results.put(targetId, edge >= 0 ? FollowResult.CHANGED : FollowResult.UNCHANGED);
+            change = Math.max(change, edge);
+        }
+        // the log positions grow with the changes: waiting for the last one covers them all
+        awaitChange(change);
+        return results;
+    }
+
+    @Override
+    public List<Actor> getFollowers(String id) {
+        Optional<Actor> actorOpt = this.getActor(id);
+        if (actorOpt.isEmpty()) return Collections.emptyList();
+
+        Map<String, IntBitmap> followersByServer = followersMap.getOrDefault(actorOpt.get().getFullId(), EMPTY_GROUPS);
+        return followersByServer.entrySet().stream()
+            .flatMap(entry -> naming.resolveServer(entry.getKey())
+                    .map(s -> Arrays.stream(entry.getValue().toArray()).mapToObj(n -> s.getActor(interner.id(n))))
+                    .orElseGet(Stream::empty))
+            .filter(Optional::isPresent)
+            .map(Optional::get)
+            .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Actor> getFollowing(String id) {
+        Optional<Actor> actorOpt = this.getActor(id);
+        if (actorOpt.isEmpty()) return Collections.emptyList();
+
+        IntBitmap followingIds = followingMap.getOrDefault(actorOpt.get().getFullId(), EMPTY_SET);
+        return Arrays.stream(followingIds.toArray())
+            .mapToObj(interner::id)
+            .map(following -> {
+                String serverName = parseIdToServerName(following);
+                return naming.resolveServer(serverName)
+                        .flatMap(s -> s.getActor(following));
+            })
+            .filter(Optional::isPresent)
+            .map(Optional::get)
+            .collect(Collectors.toList());
+    }
+
+    @Override
+    public boolean isFollowing(String followerId, String targetId) {
+        Optional<Actor> followerOpt = this.getActor(followerId);
+        if (followerOpt.isEmpty()) {
+            return false;
+        }
+
+        String targetServerName = parseIdToServerName(targetId);
+        Optional<Server> targetServerOpt = naming.resolveServer(targetServerName);
+        if (targetServerOpt.isEmpty()) {
+            return false;
+        }
+        Optional<Actor> targetOpt = targetServerOpt.get().getActor(targetId);
+        if (targetOpt.isEmpty()) {
+            return false;
+        }
+
+        return isFollowingLocal(followerOpt.get().getFullId(), targetOpt.get().getFullId());
+    }
+
+    /**
+     * Checks the follow index of a local actor, without resolving the target.
+     */
+    private boolean isFollowingLocal(String followerId, String targetId) {
+        IntBitmap following = followingMap.get(followerId);
+        int target = interner.find(targetId);
+        return following != null && target >= 0 && following.contains(target);
+    }
+
+    @Override
+    public Activity createActivity(String actorId, ActivityType type, String content) {
+        Actor actor = this.getActor(actorId).orElseThrow(() -> new IllegalArgumentException("Actor " + actorId + " not found on this server."));
+        long start = metrics != null ? System.nanoTime() : 0;
+
+        HandleLog outbox = outboxes.computeIfAbsent(actor.getFullId(), k -> newTimeline());
+        CreationOrder.Tick tick;
+        Activity newActivity;
+        ByteBuffer record = null;
+        int handle;
+        // the timelines are kept in timestamp order, so they can be binary searched by time: the outbox
+        // by taking the timestamp under its lock, which only serializes the posts of the same actor,
+        // the timeline of all the activities and the log by the creation order, which only runs these appends in turn
+        synchronized (outbox) {
+            tick = creations.tick();
+            newActivity = new Activity(activityIds.next(), type, actor.getFullId(), content, tick.timestamp());
+            try {
+                // an activity the log cannot hold fails before it is in any timeline
+                if (log != null) {
+                    record = log.encodeCreated(newActivity);
+                }
+                handle = appendToOutbox(outbox, newActivity);
+            } catch (RuntimeException | Error e) {
+                // the later creations wait for this one
+                creations.append(tick, () -> { });
+                throw e;
+            }
+        }
+        Activity created = newActivity;
+        ByteBuffer createdRecord = record;
+        int createdHandle = handle;
+        long[] position = new long[1];
+        creations.append(tick, () -> {
+            if (log != null) {
+                position[0] = log.appendCreated(createdRecord);
+            }
+            appendToAll(created, createdHandle);
+        });
+        if (retention != null) {
+            retention.evict(allActivities);
+            retention.evict(outbox);
+        }
+        index(handle, newActivity);
+        if (log != null) {
+            log.awaitDurable(position[0]);
+        }
+
+        // followers are already grouped by server: one batch per server, no per-follower lookups
+        Map<String, IntBitmap> followersByServer = followersMap.getOrDefault(actor.getFullId(), EMPTY_GROUPS);
+        // above the threshold each server gets the activity once and its followers read it from there
+        boolean fanOutOnRead = followersByServer.values().stream().mapToInt(IntBitmap::cardinality).sum() >= fanOutOnReadThreshold;
+
+        for (Map.Entry<String, IntBitmap> entry : followersByServer.entrySet()) {
+            String serverName = entry.getKey();
+            Delivery delivery = fanOutOnRead
+                    ? Delivery.toFollowers(newActivity)
+                    : new Delivery(newActivity, ids(entry.getValue()));
+
+            if (asyncDelivery) {
+                deliveries.enqueue(serverName, delivery);
+            } else {
+                deliver(serverName, delivery);
+            }
+        }
+        if (metrics != null) {
+            metrics.activityCreated();
+            metrics.createActivityLatency().record(System.nanoTime() - start);
+        }
+        return newActivity;
+    }
+
+    /**
+     * Delivers an activity on the caller's thread, unless earlier deliveries to the same server
+     * are still queued for a retry: it then waits behind them, so the server gets them in order.
+     */
+    private void deliver(String serverName, Delivery delivery) {
+        if (deliveries != null && deliveries.isBusy(serverName)) {
+            deliveries.enqueue(serverName, delivery);
+            return;
+        }
+        Optional<Server> recipientServer = naming.resolveServer(serverName);
+        if (recipientServer.isEmpty()) {
+            if (deliveries != null) {
+                retry(serverName, delivery);
+            } else if (metrics != null) {
+                metrics.dropped(serverName, 1);
+            }
+            return;
+        }
+        List<Delivery> unsent = new ArrayList<>(1);
+        RuntimeException e = DeliveryQueues.send(recipientServer.get(), List.of(delivery), unsent);
+        if (e == null) {
+            if (metrics != null) {
+                metrics.delivered(serverName, 1);
+            }
+            return;
+        }
+        if (deliveries != null && DeliveryQueues.isDeferral(e)) {
+            // the queue waits as long as the recipient server asks
+            if (metrics != null) {
+                metrics.deferred(serverName, 1);
+            }
+            unsent.forEach(part -> deliveries.enqueue(serverName, part));
+            return;
+        }
+        if (deliveries != null) {
+            if (metrics != null) {
+                metrics.retried(serverName, 1);
+            }
+            // only the parts of a split delivery that were not sent are sent again
+            unsent.forEach(part -> deliveries.enqueue(serverName, part));
+            return;
+        }
+        if (metrics != null) {
+            metrics.dropped(serverName, 1);
+        }
+        throw e;
+    }
+
+    /**
+     * Hands a failed synchronous delivery to the delivery queues, which retry it.
+     */
+    private void retry(String serverName, Delivery delivery) {
+        if (metrics != null) {
+            metrics.retried(serverName, 1);
+        }
+        deliveries.enqueue(serverName, delivery);
+    }
+
+    @Override
+    public Optional<DeadLetters> getDeadLetters() {
+        return deliveries != null ? Optional.of(deliveries.deadLetters()) : Optional.empty();
+    }
+
+    @Override
+    public void flushDeliveries() throws InterruptedException {
+        if (deliveries != null) {
+            deliveries.flush();
+        }
+        if (ingestControl != null) {
+            ingestControl.flush();
+        }
+    }
+
+    @Override
+    public Flow.Publisher<Activity> subscribeInbox(String actorId) {
+        Actor actor = this.getActor(actorId).orElseThrow(() -> new IllegalArgumentException("Actor " + actorId + " not found on this server."));
+        String id = actor.getFullId();
+        return subscriber -> {
+            subscriptions.subscribe(id, subscriber);
+            if (actors.get(actor.getUsername()) != actor) {
+                // deleted while subscribing, after its subscriptions were completed
+                subscriptions.complete(id);
+            }
+        };
+    }
+
+    /**
+     * Pushes a stored activity to the subscriptions of the inboxes it was added to.
+     */
+    private void publish(Delivery delivery) {
+        Activity activity = delivery.getActivity();
+        if (!deletedActors.isEmpty() && !visible(activity)) {
+            return;
+        }
+        if (delivery.isToFollowers()) {
+            subscriptions.publishToFollowers(activity);
+        } else {
+            for (String id : delivery.getRecipientIds()) {
+                subscriptions.publish(id, activity);
+            }
+        }
+    }
+
+    @Override
+    public ActivityPage searchActivities(String query, String cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page limit must be positive: " + limit);
+        }
+        SearchQuery parsed = SearchQuery.parse(query);
+        // a cursor holds the handle of the oldest activity already returned
+        int before = SearchIndex.before(cursor);
+        Predicate<Activity> filter = deletedActors.isEmpty() ? null : this::visible;
+        return searchIndex != null
+                ? searchIndex.search(parsed, before, limit, filter)
+                : SearchIndex.scan(table, parsed, before, limit, filter);
+    }
+
+    private void index(int handle, Activity activity) {
+        if (searchIndex != null) {
+            searchIndex.add(handle, activity);
+        }
+    }
+
+    /**
+     * Removes from the search index an activity dropped with its last inbox entry.
+     */
+    private void unindex(Activity activity) {
+        searchIndex.removed(activity);
+    }
+
+    @Override
+    public Stream<Activity> getAllActivities() {
+        return unexpired(allActivities).stream();
+    }
+
+    @Override
+    public Stream<Activity> getAllActivities(Instant from, Instant to) {
+        return timeRange(unexpired(allActivities), from, to);
+    }
+
+    @Override
+    public Stream<Activity> getLatestActivities(int count) {
+        return unexpired(allActivities).streamNewestFirst().limit(count);
+    }
+
+    @Override
+    public Stream<Activity> getOutbox(String actorId) {
+        HandleLog outbox = outboxOf(actorId);
+        return outbox != null ? outbox.stream() : Stream.empty();
+    }
+
+    @Override
+    public Stream<Activity> getOutbox(String actorId, Instant from, Instant to) {
+        HandleLog outbox = outboxOf(actorId);
+        return outbox != null ? timeRange(outbox, from, to) : Stream.empty();
+    }
+
+    @Override
+    public Stream<Activity> getLatestOutbox(String actorId, int count) {
+        HandleLog outbox = outboxOf(actorId);
+        return outbox != null ? outbox.streamNewestFirst().limit(count) : Stream.empty();
+    }
+
+    private HandleLog outboxOf(String actorId) {
+        return this.getActor(actorId).map(actor -> unexpired(outboxes.get(actor.getFullId()))).orElse(null);
+    }
+
+    private static Stream<Activity> timeRange(HandleLog log, Instant from, Instant to) {
+        int size = log.size();
+        int start = from == null ? 0 : log.search(size, a -> !a.getTimestamp().isBefore(from));
+        int end = to == null ? size : log.search(size, a -> !a.getTimestamp().isBefore(to));
+        return start < end ? log.stream(start, end) : Stream.empty();
+    }
+
+    @Override
+    public Stream<Activity> getInbox(String actorId) {
+        Optional<Actor> actorOpt = this.getActor(actorId);
+        if (actorOpt.isEmpty()) return Stream.empty();
+
+        HandleLog inbox = inboxOf(actorOpt.get().getFullId());
+        List<MergedTimeline.Range> timelines = followedTimelines(actorOpt.get().getFullId());
+        Predicate<Activity> filter = inboxFilter();
+        if (timelines.isEmpty()) {
+            Stream<Activity> activities = inbox != null ? inbox.streamNewestFirst() : Stream.empty();
+            return filter != null ? activities.filter(filter) : activities;
+        }
+        return new MergedTimeline(inbox, Integer.MAX_VALUE, timelines, Long.MAX_VALUE, null, filter).stream();
+    }
+
+    @Override
+    public ActivityPage getInbox(String actorId, String cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page limit must be positive: " + limit);
+        }
+        // a cursor holds the inbox position, and the timestamp and ID of the oldest activity already returned:
+        // activities of different servers can share a timestamp, so the ID tells which of them were returned
+        int end = Integer.MAX_VALUE;
+        long olderThan = Long.MAX_VALUE;
+        String olderThanId = null;
+        if (cursor != null) {
+            try {
+                int dot = cursor.indexOf('.');
+                int idDot = cursor.indexOf('.', dot + 1);
+                end = Integer.parseInt(cursor.substring(0, dot), Character.MAX_RADIX);
+                olderThan = Long.parseLong(cursor.substring(dot + 1, idDot), Character.MAX_RADIX);
+                olderThanId = cursor.substring(idDot + 1);
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            if (end < 0 || olderThan < 0 || olderThanId.isEmpty()) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+        }
+
+        Optional<Actor> actorOpt = this.getActor(actorId);
+        if (actorOpt.isEmpty()) return new ActivityPage(Collections.emptyList(), null);
+
+        HandleLog inbox = inboxOf(actorOpt.get().getFullId());
+        MergedTimeline merge = new MergedTimeline(inbox, end, followedTimelines(actorOpt.get().getFullId()),
+                olderThan, olderThanId, inboxFilter());
+        List<Activity> page = merge.next(limit);
+        String nextCursor = merge.hasNext()
+                ? Integer.toString(merge.position(), Character.MAX_RADIX) + "." + Long.toString(merge.lastNanos(), Character.MAX_RADIX)
+                        + "." + merge.lastId()
+                : null;
+        return new ActivityPage(page, nextCursor);
+    }
+
+    /**
+     * Retrieves the ranges of the fan-out-on-read timelines that a local actor reads:
+     * those of the actors it follows, and of the follows it ended, since their periods started.
+     */
+    private List<MergedTimeline.Range> followedTimelines(String actorId) {
+        if (followersTimelines.isEmpty()) {
+            return Collections.emptyList();
+        }
+        IntBitmap following = followingMap.getOrDefault(actorId, EMPTY_SET);
+        List<MergedTimeline.Range> ranges = new ArrayList<>();
+        if (following.cardinality() <= followersTimelines.size()) {
+            following.forEach(target -> {
+                FollowersTimeline timeline = followersTimelines.get(interner.id(target));
+                if (timeline != null) {
+                    timeline.ranges(actorId, true, ranges);
+                }
+            });
+        } else {
+            followersTimelines.forEach((author, timeline) -> {
+                int number = interner.find(author);
+                if (number >= 0 && following.contains(number)) {
+                    timeline.ranges(actorId, true, ranges);
+                }
+            });
+        }
+        for (String author : periodAuthors.getOrDefault(actorId, Set.of())) {
+            int number = interner.find(author);
+            FollowersTimeline timeline = followersTimelines.get(author);
+            if (timeline != null && (number < 0 || !following.contains(number))) {
+                timeline.ranges(actorId, false, ranges);
+            }
+        }
+        return ranges;
+    }
+
+    @Override
+    public void receiveActivity(Activity activity, String... targetIds) {
+        receiveActivities(List.of(new Delivery(activity, targetIds)));
+    }
+
+    @Override
+    public void receiveFollowersActivity(Activity activity) {
+        receiveActivities(List.of(Delivery.toFollowers(activity)));
+    }
+
+    @Override
+    public void receiveActivities(List<Delivery> deliveries) {
+        receiveActivities(deliveries, null);
+    }
+
+    @Override
+    public void receiveActivities(List<Delivery> deliveries, String origin) {
+        long start = metrics != null ? System.nanoTime() : 0;
+        if (ingestControl != null) {
+            ingestControl.receive(deliveries, origin);
+        } else {
+            ingest(deliveries);
+        }
+        if (metrics != null) {
+            metrics.receiveActivityLatency().record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Stores admitted deliveries in the inboxes of their local recipients.
+     */
+    private void ingest(List<Delivery> deliveries) {
+        long position = 0;
+        for (Delivery delivery : deliveries) {
+            if (!delivery.isToFollowers()) {
+                delivery = localRecipients(delivery);
+                if (delivery == null) {
+                    continue;
+                }
+            }
+            if (received != null) {
+                delivery = firstReceived(delivery);
+                if (delivery == null) {
+                    continue;
+                }
+            }
+            if (log != null) {
+                position = log.append(delivery);
+            }
+            store(delivery);
+        }
+        // the whole batch is made durable at once
+        if (log != null) {
+            log.awaitDurable(position);
+        }
+    }
+
+    /**
+     * Restricts a delivery to the recipients that are actors of this server.
+     *
+     * @return the delivery, or null if none of its recipients is hosted here
+     */
+    private Delivery localRecipients(Delivery delivery) {
+        List<String> ids = delivery.getRecipientIds();
+        int valid = 0;
+        for (String id : ids) {
+            if (this.getActor(id).isPresent()) {
+                valid++;
+            }
+        }
+        if (valid == ids.size()) {
+            return valid > 0 ? delivery : null;
+        }
+        if (valid == 0) {
+            return null;
+        }
+        return new Delivery(delivery.getActivity(), ids.stream().filter(id -> this.getActor(id).isPresent()).toArray(String[]::new));
+    }
+
+    /**
+     * Restricts a delivery to the recipients that did not receive it yet.
+     *
+     * @return the delivery, or null if it is a duplicate for all its recipients
+     */
+    private Delivery firstReceived(Delivery delivery) {
+        String activityId = delivery.getActivity().getId();
+        if (delivery.isToFollowers()) {
+            return received.firstSeen(activityId, "") ? delivery : null;
+        }
+        List<String> ids = delivery.getRecipientIds();
+        List<String> fresh = null;
+        for (int i = 0; i < ids.size(); i++) {
+            boolean first = received.firstSeen(activityId, ids.get(i));
+            if (!first && fresh == null) {
+                fresh = new ArrayList<>(ids.subList(0, i));
+            } else if (first && fresh != null) {
+                fresh.add(ids.get(i));
+            }
+        }
+        if (fresh == null) {
+            return delivery;
+        }
+        return fresh.isEmpty() ? null : new Delivery(delivery.getActivity(), fresh.toArray(String[]::new));
+    }
+
+    /**
+     * Stores a delivery received before a restart, remembering it to ignore its duplicates.
+     */
+    private void restoreReceived(Delivery delivery) {
+        if (received != null) {
+            delivery = firstReceived(delivery);
+            if (delivery == null) {
+                return;
+            }
+        }
+        store(delivery);
+    }
+
+    /**
+     * Stores a received activity in the inboxes of its recipients,
+     * or in the timeline of its author for fan-out on read.
+     */
+    private void store(Delivery delivery) {
+        if (retention != null) {
+            int handle = -1;
+            if (delivery.isToFollowers()) {
+                FollowersTimeline timeline = followersTimelines.computeIfAbsent(delivery.getActivity().getActor(),
+                        k -> new FollowersTimeline(retention.newTimeline()));
+                handle = retention.append(timeline.log, delivery.getActivity());
+            } else {
+                for (String id : delivery.getRecipientIds()) {
+                    handle = retention.append(inboxes.computeIfAbsent(id, k -> retention.newInbox()), delivery.getActivity());
+                }
+            }
+            if (handle >= 0) {
+                index(handle, delivery.getActivity());
+            }
+        } else {
+            int handle = table.add(delivery.getActivity());
+            index(handle, delivery.getActivity());
+            if (delivery.isToFollowers()) {
+                followersTimelines.computeIfAbsent(delivery.getActivity().getActor(), k -> new FollowersTimeline(newTimeline())).log.append(handle);
+            } else {
+                for (String id : delivery.getRecipientIds()) {
+                    inboxes.computeIfAbsent(id, k -> new HandleLog(table)).append(handle);
+                }
+            }
+        }
+        // pushed once stored, so that a subscriber reading the inbox finds it there
+        if (!subscriptions.isEmpty()) {
+            publish(delivery);
+        }
+    }
+}
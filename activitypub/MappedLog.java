@@ -0,0 +1,484 @@
+package it.polito.activitypub;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable, append-only log of binary records, the storage of {@link ActivityLog} and {@link FollowGraphLog}.
+ * <p>
+ * The log is a directory of fixed-size segment files, each mapped in memory and filled
+ * with records: a 4-byte payload length, the CRC32C of the payload and the payload.
+ * A zero length marks the end of the written part of a segment; a record that does not fit
+ * starts the next segment. Positions are global: segment index times segment size plus offset.
+ * <p>
+ * Appending only copies the record into the mapped segment. Durability is a group commit:
+ * a background thread forces the written segments to disk and advances the durable position,
+ * so the appenders waiting at the same time share a single fsync. With a commit interval,
+ * the thread also waits that long for more records before each fsync.
+ * <p>
+ * Opening a log replays its records in order by scanning the segments sequentially.
+ * A record with a wrong length or checksum is taken as the torn tail of a crash:
+ * the log is truncated there, and so is a record the replay does not recognize.
+ * <p>
+ * A log is compacted by appending again the records still needed, possibly rewritten, after all the others,
+ * then moving its start after the old segments: the start is a marker file, and another marker
+ * written before the first copy tells the next open to drop the copies of an interrupted compaction.
+ * Closing the log forces what was appended and stops the committer; the segments are unmapped
+ * once collected, as a mapping cannot be released explicitly.
+ */
+final class MappedLog {
+
+    private static final int HEADER = 8;
+    private static final String SUFFIX = ".log";
+    // marker files: the first segment of a compacted log, and that of a compaction in progress
+    private static final String START = "first-segment";
+    private static final String PENDING = "first-segment.pending";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long commitIntervalNanos;
+    private final String name;
+
+    // guards the active segment and the written position
+    private final Object appending = new Object();
+    private MappedByteBuffer segment;
+    private int segmentIndex;
+    private long written;
+    private final List<MappedByteBuffer> sealed = new ArrayList<>();
+    private boolean closed;
+
+    // guards the durable position, also used to wake the committer and the waiting appenders
+    private final Object committing = new Object();
+    private long durable;
+    private IOException failure;
+    private Thread committer;
+
+    private MappedLog(Path directory, int segmentSize, Duration commitInterval, String name) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.commitIntervalNanos = commitInterval.toNanos();
+        this.name = name;
+    }
+
+    /**
+     * Opens the log in a directory, creating it if needed, and replays its records.
+     *
+     * @param directory the directory of the segments
+     * @param segmentSize the size of each segment file, the largest record must fit in it
+     * @param commitInterval how long the committer waits for more records before each fsync
+     * @param name the name of the log, for the committer thread and the errors
+     * @param firstSegment the first segment to replay, the older ones are deleted
+     * @param replay applies the payload of each record, in log order, and returns false
+     *        without applying it if it does not recognize the record
+     * @return the log, positioned after the last valid record
+     * @throws IOException if the segments cannot be read or created
+     */
+    static MappedLog open(Path directory, int segmentSize, Duration commitInterval, String name,
+            int firstSegment, Predicate<ByteBuffer> replay) throws IOException {
+        MappedLog log = new MappedLog(directory, segmentSize, commitInterval, name);
+        Files.createDirectories(directory);
+        log.recover(firstSegment, replay);
+        log.committer = new Thread(log::commit, name);
+        log.committer.setDaemon(true);
+        log.committer.start();
+        return log;
+    }
+
+    private Path segmentPath(int index) {
+        return directory.resolve("%012d%s".formatted(index, SUFFIX));
+    }
+
+    private MappedByteBuffer map(int index) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(index),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private List<Integer> segmentIndexes() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(p -> p.getFileName().toString())
+                    .filter(f -> f.endsWith(SUFFIX))
+                    .map(f -> Integer.parseInt(f.substring(0, f.length() - SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private void recover(int firstSegment, Predicate<ByteBuffer> replay) throws IOException {
+        int start = readMarker(START);
+        if (Files.exists(directory.resolve(PENDING))) {
+            int compacted = readMarker(PENDING);
+            if (compacted > start) {
+                // an interrupted compaction: its copies are incomplete, the records they copy are all there
+                for (int index : segmentIndexes()) {
+                    if (index >= compacted) {
+                        Files.delete(segmentPath(index));
+                    }
+                }
+            }
+            Files.delete(directory.resolve(PENDING));
+        }
+        firstSegment = Math.max(firstSegment, start);
+        List<Integer> indexes = segmentIndexes();
+        for (int i = 0; i < indexes.size(); i++) {
+            int index = indexes.get(i);
+            if (index < firstSegment) {
+                Files.delete(segmentPath(index));
+                continue;
+            }
+            long size = Files.size(segmentPath(index));
+            if (size != segmentSize) {
+                throw new IOException("Segment " + segmentPath(index) + " has " + size + " bytes instead of " + segmentSize);
+            }
+            MappedByteBuffer mapped = map(index);
+            int end = replay(mapped, replay);
+            boolean torn = end + 4 <= segmentSize && mapped.getInt(end) != 0;
+            if (torn || i == indexes.size() - 1) {
+                // the log continues here: clear the torn record and drop the segments after it
+                if (torn) {
+                    byte[] zeros = new byte[4096];
+                    for (int p = end; p < segmentSize; p += zeros.length) {
+                        mapped.put(p, zeros, 0, Math.min(zeros.length, segmentSize - p));
+                    }
+                }
+                for (int j = i + 1; j < indexes.size(); j++) {
+                    Files.delete(segmentPath(indexes.get(j)));
+                }
+                segment = mapped;
+                segmentIndex = index;
+                written = (long) index * segmentSize + end;
+                durable = written;
+                return;
+            }
+        }
+        segment = map(firstSegment);
+        segmentIndex = firstSegment;
+        written = (long) firstSegment * segmentSize;
+        durable = written;
+    }
+
+    /**
+     * Replays the valid records of a segment.
+     *
+     * @return the offset after the last valid record
+     */
+    private int replay(MappedByteBuffer mapped, Predicate<ByteBuffer> replay) {
+        CRC32C crc = new CRC32C();
+        int offset = 0;
+        while (offset + HEADER <= segmentSize) {
+            int length = mapped.getInt(offset);
+            if (length <= 0 || length > segmentSize - offset - HEADER) {
+                break;
+            }
+            ByteBuffer payload = mapped.slice(offset + HEADER, length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != mapped.getInt(offset + 4) || !replay.test(payload)) {
+                break;
+            }
+            offset += HEADER + length;
+        }
+        return offset;
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @param record the writer holding the payload
+     * @return the log position to wait for with {@link #awaitDurable(long)}
+     */
+    long append(WireWriter record) {
+        return append(record.toByteBuffer());
+    }
+
+    /**
+     * Appends a record returned by {@link #payload(WireWriter)}.
+     *
+     * @return the log position to wait for with {@link #awaitDurable(long)}
+     */
+    long append(ByteBuffer payload) {
+        int length = checkLength(payload);
+        CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+        synchronized (appending) {
+            if (closed) {
+                throw new IllegalStateException(name + " is closed");
+            }
+            int offset = (int) (written - (long) segmentIndex * segmentSize);
+            if (offset + HEADER + length > segmentSize) {
+                roll();
+                offset = 0;
+            }
+            segment.putInt(offset + 4, (int) crc.getValue());
+            segment.put(offset + HEADER, payload, payload.position(), length);
+            // the length goes last: a record is never visible before its payload
+            segment.putInt(offset, length);
+            written = (long) segmentIndex * segmentSize + offset + HEADER + length;
+            return written;
+        }
+    }
+
+    /**
+     * Encodes a record ahead of its append, so that a record the log cannot hold fails before
+     * the caller changes anything.
+     *
+     * @throws IllegalArgumentException if the record does not fit in a segment
+     */
+    ByteBuffer payload(WireWriter record) {
+        ByteBuffer payload = record.toByteBuffer();
+        checkLength(payload);
+        return payload;
+    }
+
+    private int checkLength(ByteBuffer payload) {
+        int length = payload.remaining();
+        if (length > segmentSize - HEADER) {
+            throw new IllegalArgumentException("Record of " + length + " bytes larger than the segments of " + name);
+        }
+        return length;
+    }
+
+    /**
+     * Starts a new segment, unless the active one is still empty.
+     * Every record appended before the call is in an older segment,
+     * every record appended after it is in the returned one or a newer one.
+     *
+     * @return the index of the active segment
+     */
+    int startSegment() {
+        synchronized (appending) {
+            if (closed) {
+                throw new IllegalStateException(name + " is closed");
+            }
+            if (written > (long) segmentIndex * segmentSize) {
+                roll();
+            }
+            return segmentIndex;
+        }
+    }
+
+    private void roll() {
+        try {
+            MappedByteBuffer next = map(segmentIndex + 1);
+            sealed.add(segment);
+            segment = next;
+            segmentIndex++;
+            written = (long) segmentIndex * segmentSize;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create segment " + (segmentIndex + 1) + " of " + name, e);
+        }
+    }
+
+    /**
+     * Compacts the log, if the records to keep take at most half of it: appends them again,
+     * in the same order and as rewritten, then deletes the segments they were read from.
+     * Must be called before any other append, as the records appended meanwhile would be lost.
+     *
+     * @param rewrite returns the payload to append in place of a record: the record itself,
+     *        a smaller one still holding what is needed, or null if nothing of it is; it is called
+     *        twice per record and must return the same payload each time
+     * @return whether the log was compacted
+     * @throws IOException if the segments cannot be read or the markers written
+     */
+    boolean compact(UnaryOperator<ByteBuffer> rewrite) throws IOException {
+        List<MappedByteBuffer> segments = new ArrayList<>();
+        for (int index : segmentIndexes()) {
+            segments.add(map(index));
+        }
+        long[] bytes = new long[2];
+        for (MappedByteBuffer mapped : segments) {
+            replay(mapped, payload -> {
+                bytes[0] += HEADER + payload.remaining();
+                ByteBuffer kept = rewrite.apply(payload);
+                if (kept != null) {
+                    bytes[1] += HEADER + kept.remaining();
+                }
+                return true;
+            });
+        }
+        if (bytes[0] == 0 || bytes[1] * 2 > bytes[0]) {
+            return false;
+        }
+        // nothing is appended meanwhile, the segments read are all before the new one
+        int end = startSegment();
+        writeMarker(PENDING, end);
+        for (MappedByteBuffer mapped : segments) {
+            replay(mapped, payload -> {
+                ByteBuffer kept = rewrite.apply(payload);
+                if (kept != null) {
+                    append(kept);
+                }
+                return true;
+            });
+        }
+        awaitDurable(written());
+        writeMarker(START, end);
+        Files.delete(directory.resolve(PENDING));
+        deleteBefore(end);
+        return true;
+    }
+
+    private int readMarker(String marker) throws IOException {
+        Path path = directory.resolve(marker);
+        return Files.exists(path) ? Integer.parseInt(Files.readString(path).trim()) : 0;
+    }
+
+    private void writeMarker(String marker, int segment) throws IOException {
+        Path temporary = directory.resolve(marker + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer content = ByteBuffer.wrap(Integer.toString(segment).getBytes(StandardCharsets.US_ASCII));
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(marker), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes the segments older than the given one.
+     *
+     * @param index the oldest segment to keep
+     * @throws IOException if a segment cannot be deleted
+     */
+    void deleteBefore(int index) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String f = file.getFileName().toString();
+                if (f.endsWith(SUFFIX) && Integer.parseInt(f.substring(0, f.length() - SUFFIX.length())) < index) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until the log is durable up to a position returned by an append.
+     *
+     * @param position the position
+     * @throws IllegalStateException if the log could not be forced to disk
+     */
+    void awaitDurable(long position) {
+        boolean interrupted = false;
+        IOException failed;
+        synchronized (committing) {
+            committing.notifyAll();
+            while (durable < position && failure == null) {
+                try {
+                    committing.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            failed = durable < position ? failure : null;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failed != null) {
+            throw new IllegalStateException(name + " is not durable", failed);
+        }
+    }
+
+    /**
+     * Closes the log: waits for the records appended so far to be durable, then stops the committer
+     * and drops the segments. Appending afterwards throws {@link IllegalStateException}.
+     *
+     * @throws IllegalStateException if the log could not be forced to disk
+     */
+    void close() {
+        long position;
+        synchronized (appending) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            position = written;
+        }
+        try {
+            awaitDurable(position);
+        } finally {
+            committer.interrupt();
+            boolean interrupted = false;
+            while (committer.isAlive()) {
+                try {
+                    committer.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (appending) {
+                segment = null;
+                sealed.clear();
+            }
+        }
+    }
+
+    private long written() {
+        synchronized (appending) {
+            return written;
+        }
+    }
+
+    /**
+     * Body of the committer thread: forces the segments written since the last commit,
+     * then releases every appender waiting for a position up to the forced one.
+     */
+    private void commit() {
+        try {
+            while (true) {
+                synchronized (committing) {
+                    while (durable >= written()) {
+                        committing.wait();
+                    }
+                }
+                if (commitIntervalNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(commitIntervalNanos);
+                }
+                long target;
+                List<MappedByteBuffer> dirty;
+                synchronized (appending) {
+                    target = written;
+                    dirty = new ArrayList<>(sealed);
+                    dirty.add(segment);
+                    sealed.clear();
+                }
+                for (MappedByteBuffer mapped : dirty) {
+                    mapped.force();
+                }
+                synchronized (committing) {
+                    durable = target;
+                    committing.notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            // interrupted by close, once everything appended is durable
+        } catch (RuntimeException e) {
+            synchronized (committing) {
+                failure = new IOException("Cannot force " + name, e);
+                committing.notifyAll();
+            }
+        }
+    }
+}
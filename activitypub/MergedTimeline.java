@@ -0,0 +1,169 @@
+package it.polito.activitypub;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazy newest-first merge of several activity logs.
+ * Each log is read backwards from a given position; at every step the merge
+ * returns the most recent of the activities at the head of the logs,
+ * so reading n activities costs O(n log k) for k logs.
+ */
+final class MergedTimeline implements Iterator<Activity> {
+
+    /**
+     * The positions {@code [from, to)} of a log in timestamp order; {@code to} may be past its size.
+     */
+    static final class Range {
+        private final HandleLog log;
+        private final int from;
+        private final int to;
+
+        Range(HandleLog log, int from, int to) {
+            this.log = log;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private static final class Head {
+        private final HandleLog log;
+        private final int stop;
+        private int next;
+        // the activity at next, read once so that an eviction cannot change it under the queue
+        private Activity current;
+
+        private Head(HandleLog log, int stop, int end) {
+            this.log = log;
+            this.stop = stop;
+            this.next = end - 1;
+        }
+
+        private Activity peek() {
+            return current;
+        }
+    }
+
+    // activities of different servers can share a timestamp: their time-ordered IDs break the tie
+    static final Comparator<Activity> NEWEST_FIRST =
+            Comparator.comparing(Activity::getTimestamp).thenComparing(Activity::getId).reversed();
+
+    private final PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> NEWEST_FIRST.compare(a.peek(), b.peek()));
+    private final Predicate<Activity> visible;
+    private Head positionalHead;
+    private Activity last;
+
+    /**
+     * Creates a merge of a positional log, read backwards from {@code end}, with ranges of other logs
+     * read backwards from their most recent activity older than a bound, in the {@link #NEWEST_FIRST} order.
+     *
+     * @param log the log whose position is tracked, may be null
+     * @param end the exclusive position to start reading the log from
+     * @param others the ranges of the other logs
+     * @param olderThanNanos the timestamp of the exclusive bound for the other logs, in nanoseconds since the epoch
+     * @param olderThanId the ID of the exclusive bound, null to only compare the timestamps
+     * @param visible the activities to return, the others are skipped; null for all
+     */
+    MergedTimeline(HandleLog log, int end, List<Range> others, long olderThanNanos, String olderThanId, Predicate<Activity> visible) {
+        this.visible = visible;
+        if (log != null) {
+            positionalHead = new Head(log, 0, Math.min(end, log.size()));
+            offer(positionalHead);
+        }
+        for (Range other : others) {
+            int size = Math.min(other.to, other.log.size());
+            int bound = olderThanNanos == Long.MAX_VALUE ? size
+                    : other.log.search(size, a -> !isOlder(a, olderThanNanos, olderThanId));
+            offer(new Head(other.log, other.from, bound));
+        }
+    }
+
+    private void offer(Head head) {
+        for (; head.next >= Math.max(head.stop, head.log.start()); head.next--) {
+            Activity activity = head.log.get(head.next);
+            if (activity == null) {
+                // evicted while reading, and so are the older entries
+                return;
+            }
+            if (visible == null || visible.test(activity)) {
+                head.current = activity;
+                heads.add(head);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    @Override
+    public Activity next() {
+        Head head = heads.poll();
+        if (head == null) {
+            throw new NoSuchElementException();
+        }
+        last = head.peek();
+        head.next--;
+        offer(head);
+        return last;
+    }
+
+    /**
+     * Returns the position in the positional log of the oldest activity not yet returned, plus one.
+     */
+    int position() {
+        return positionalHead == null ? 0 : positionalHead.next + 1;
+    }
+
+    /**
+     * Returns the timestamp of the last activity returned, in nanoseconds since the epoch.
+     */
+    long lastNanos() {
+        return last == null ? Long.MAX_VALUE : epochNanos(last);
+    }
+
+    /**
+     * Returns the ID of the last activity returned, null if none was.
+     */
+    String lastId() {
+        return last == null ? null : last.getId();
+    }
+
+    /**
+     * Checks whether an activity comes after a bound in the {@link #NEWEST_FIRST} order.
+     */
+    private static boolean isOlder(Activity activity, long nanos, String id) {
+        long time = epochNanos(activity);
+        if (time != nanos || id == null) {
+            return time < nanos;
+        }
+        return activity.getId().compareTo(id) < 0;
+    }
+
+    List<Activity> next(int limit) {
+        List<Activity> page = new ArrayList<>(limit);
+        while (page.size() < limit && hasNext()) {
+            page.add(next());
+        }
+        return page;
+    }
+
+    Stream<Activity> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    static long epochNanos(Activity activity) {
+        return activity.getTimestamp().getEpochSecond() * 1_000_000_000L + activity.getTimestamp().getNano();
+    }
+}
@@ -0,0 +1,89 @@
+package it.polito.activitypub;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Naming service that maps server names to the host and port of their {@link ServerEndpoint}.
+ * Resolving a name returns a {@link RemoteServer} stub, shared by all the callers,
+ * so every federation call goes through a socket even when both servers live in this JVM.
+ */
+public class NetworkNamingService implements NamingService, Closeable {
+    private final Map<String, InetSocketAddress> addresses = new ConcurrentHashMap<>();
+    private final Map<String, RemoteServer> stubs = new ConcurrentHashMap<>();
+    private final Map<String, ServerEndpoint> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * Registers the address of a server running elsewhere.
+     *
+     * @param name name of the server
+     * @param address host and port of its endpoint
+     */
+    public void registerAddress(String name, InetSocketAddress address) {
+        if (!address.equals(addresses.put(name, address))) {
+            RemoteServer stale = stubs.remove(name);
+            if (stale != null) {
+                stale.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the address registered for a server.
+     *
+     * @param name name of the server
+     * @return the address of its endpoint, if registered
+     */
+    public Optional<InetSocketAddress> lookupAddress(String name) {
+        return Optional.ofNullable(addresses.get(name));
+    }
+
+    /**
+     * Registers a server. A {@link RemoteServer} is registered with its address,
+     * any other server is exposed on a free loopback port first.
+     */
+    @Override
+    public void registerServer(String name, Server server) {
+        if (server instanceof RemoteServer remote) {
+            registerAddress(name, remote.getAddress());
+            return;
+        }
+        ServerEndpoint endpoint;
+        try {
+            endpoint = ServerEndpoint.open(server, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ServerEndpoint previous = endpoints.put(name, endpoint);
+        if (previous != null) {
+            previous.close();
+        }
+        registerAddress(name, endpoint.getAddress());
+    }
+
+    @Override
+    public Optional<Server> resolveServer(String name) {
+        InetSocketAddress address = addresses.get(name);
+        if (address == null) {
+            return Optional.empty();
+        }
+        return Optional.of(stubs.computeIfAbsent(name, n -> new RemoteServer(n, address)));
+    }
+
+    /**
+     * Closes the stubs and the endpoints opened by {@link #registerServer}.
+     */
+    @Override
+    public void close() {
+        stubs.values().forEach(RemoteServer::close);
+        stubs.clear();
+        endpoints.values().forEach(ServerEndpoint::close);
+        endpoints.clear();
+    }
+}
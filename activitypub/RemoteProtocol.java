@@ -0,0 +1,137 @@
+package it.polito.activitypub;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Request/response protocol spoken between {@link RemoteServer} and {@link ServerEndpoint}.
+ * <p>
+ * Every message is a frame: a 4-byte big-endian length followed by the payload.
+ * A request payload is the wire version, a varint request number chosen by the client,
+ * the operation code and the arguments; a response payload is the request number,
+ * a status and either the result or the error message. Responses may come back in
+ * any order, the request number matches them with their requests, so a single
+ * connection carries any number of outstanding calls.
+ * Arguments and results use the encodings of {@link WireCodec}; streams travel as lists.
+ */
+final class RemoteProtocol {
+
+    static final int MAX_FRAME = 64 << 20;
+
+    static final int CREATE_ACTOR = 1;
+    static final int GET_ACTOR = 2;
+    static final int LIST_ALL_ACTORS = 3;
+    static final int DELETE_ACTOR = 4;
+    static final int FOLLOW = 5;
+    static final int ADD_FOLLOWER = 6;
+    static final int UNFOLLOW = 7;
+    static final int REMOVE_FOLLOWER = 8;
+    static final int GET_FOLLOWERS = 9;
+    static final int GET_FOLLOWING = 10;
+    static final int IS_FOLLOWING = 11;
+    static final int CREATE_ACTIVITY = 12;
+    static final int FLUSH_DELIVERIES = 13;
+    static final int GET_ALL_ACTIVITIES = 14;
+    static final int GET_LATEST_ACTIVITIES = 15;
+    static final int GET_INBOX = 16;
+    static final int GET_INBOX_PAGE = 17;
+    static final int GET_OUTBOX = 18;
+    static final int GET_LATEST_OUTBOX = 19;
+    static final int RECEIVE_ACTIVITIES = 20;
+    static final int RECEIVE_FOLLOWERS_ACTIVITY = 21;
+    static final int FOLLOW_ALL = 22;
+    static final int ADD_FOLLOWERS = 23;
+    static final int UNFOLLOW_ALL = 24;
+    static final int REMOVE_FOLLOWERS = 25;
+    static final int ACTOR_DELETED = 26;
+    static final int SEARCH_ACTIVITIES = 27;
+
+    static final int OK = 0;
+    static final int ACTIVITYPUB_EXCEPTION = 1;
+    static final int ILLEGAL_ARGUMENT = 2;
+    static final int INTERRUPTED = 3;
+    static final int FAILURE = 4;
+    // followed by the reason, the retry-after nanoseconds and the maximum recipients of a DeliveryRejectedException
+    static final int REJECTED = 5;
+
+    private static final ActivityType[] TYPES = ActivityType.values();
+    private static final DeliveryRejectedException.Reason[] REASONS = DeliveryRejectedException.Reason.values();
+
+    private RemoteProtocol() {
+    }
+
+    /**
+     * Performs a request on the local server and writes its result.
+     *
+     * @param server the server exposed by the endpoint
+     * @param peer the caller, as identified by the endpoint
+     * @param op the operation code
+     * @param in the reader positioned on the arguments
+     * @param out the writer receiving the result
+     * @throws ActivityPubException if thrown by the server
+     * @throws InterruptedException if interrupted while flushing the deliveries
+     */
+    static void dispatch(Server server, String peer, int op, WireReader in, WireWriter out) throws ActivityPubException, InterruptedException {
+        switch (op) {
+            case CREATE_ACTOR -> out.writeActor(server.createActor(in.readString(), in.readOptionalString()));
+            case GET_ACTOR -> {
+                Actor actor = server.getActor(in.readString()).orElse(null);
+                out.writeBoolean(actor != null);
+                if (actor != null) {
+                    out.writeActor(actor);
+                }
+            }
+            case LIST_ALL_ACTORS -> out.writeActors(server.listAllActors());
+            case DELETE_ACTOR -> out.writeBoolean(server.deleteActor(in.readString()));
+            case FOLLOW -> out.writeBoolean(server.follow(in.readString(), in.readString()));
+            case ADD_FOLLOWER -> out.writeBoolean(server.addFollower(in.readString(), in.readString()));
+            case UNFOLLOW -> out.writeBoolean(server.unfollow(in.readString(), in.readString()));
+            case REMOVE_FOLLOWER -> out.writeBoolean(server.removeFollower(in.readString(), in.readString()));
+            case FOLLOW_ALL -> out.writeFollowResults(server.followAll(in.readString(), in.readStrings()));
+            case ADD_FOLLOWERS -> out.writeFollowResults(server.addFollowers(in.readString(), in.readStrings()));
+            case UNFOLLOW_ALL -> out.writeFollowResults(server.unfollowAll(in.readString(), in.readStrings()));
+            case REMOVE_FOLLOWERS -> out.writeFollowResults(server.removeFollowers(in.readString(), in.readStrings()));
+            case ACTOR_DELETED -> server.actorDeleted(in.readString(), in.readInstant(), in.readStrings(), in.readStrings());
+            case GET_FOLLOWERS -> out.writeActors(server.getFollowers(in.readString()));
+            case GET_FOLLOWING -> out.writeActors(server.getFollowing(in.readString()));
+            case IS_FOLLOWING -> out.writeBoolean(server.isFollowing(in.readString(), in.readString()));
+            case CREATE_ACTIVITY -> {
+                String actorId = in.readString();
+                int ordinal = in.readByte();
+                if (ordinal >= TYPES.length) {
+                    throw new IllegalArgumentException("Unknown activity type " + ordinal);
+                }
+                out.writeActivity(server.createActivity(actorId, TYPES[ordinal], in.readOptionalString()));
+            }
+            case FLUSH_DELIVERIES -> server.flushDeliveries();
+            case GET_ALL_ACTIVITIES -> out.writeActivities(list(server.getAllActivities(in.readOptionalInstant(), in.readOptionalInstant())));
+            case GET_LATEST_ACTIVITIES -> out.writeActivities(list(server.getLatestActivities(in.readVarInt())));
+            case GET_INBOX -> out.writeActivities(list(server.getInbox(in.readString())));
+            case GET_INBOX_PAGE -> out.writePage(server.getInbox(in.readString(), in.readOptionalString(), in.readVarInt()));
+            case SEARCH_ACTIVITIES -> out.writePage(server.searchActivities(in.readString(), in.readOptionalString(), in.readVarInt()));
+            case GET_OUTBOX -> out.writeActivities(list(server.getOutbox(in.readString(), in.readOptionalInstant(), in.readOptionalInstant())));
+            case GET_LATEST_OUTBOX -> out.writeActivities(list(server.getLatestOutbox(in.readString(), in.readVarInt())));
+            case RECEIVE_ACTIVITIES -> server.receiveActivities(in.readDeliveries(), peer);
+            case RECEIVE_FOLLOWERS_ACTIVITY -> server.receiveActivities(List.of(Delivery.toFollowers(in.readActivity())), peer);
+            default -> throw new IllegalArgumentException("Unknown operation " + op);
+        }
+    }
+
+    /**
+     * Reads the rest of a {@link #REJECTED} response.
+     */
+    static DeliveryRejectedException readRejection(String message, WireReader in) {
+        int ordinal = in.readByte();
+        if (ordinal >= REASONS.length) {
+            throw new IllegalArgumentException("Unknown rejection reason " + ordinal);
+        }
+        return new DeliveryRejectedException(message, REASONS[ordinal], Duration.ofNanos(in.readVarLong()),
+                in.readVarInt(), in.readVarInt());
+    }
+
+    private static List<Activity> list(Stream<Activity> activities) {
+        return activities.collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,427 @@
+package it.polito.activitypub;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Client stub of a server exposed by a {@link ServerEndpoint}.
+ * <p>
+ * All the calls share one connection, opened on first use and reopened after a failure.
+ * Requests are written as soon as they are made, without waiting for the responses
+ * of the previous ones, and a reader thread hands each response to its caller,
+ * so any number of threads can have calls outstanding at the same time.
+ * Transport failures and timeouts surface as {@link UncheckedIOException}.
+ */
+public final class RemoteServer implements Server, Closeable {
+
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(30);
+
+    private final String name;
+    private final InetSocketAddress address;
+    private final long timeoutNanos;
+    private final AtomicLong requests = new AtomicLong();
+    private final Object connecting = new Object();
+    private volatile Connection connection;
+    private volatile boolean closed;
+
+    /**
+     * Creates a stub, without connecting yet.
+     *
+     * @param name the name of the remote server
+     * @param address the address of its endpoint
+     */
+    public RemoteServer(String name, InetSocketAddress address) {
+        this(name, address, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Creates a stub, without connecting yet.
+     *
+     * @param name the name of the remote server
+     * @param address the address of its endpoint
+     * @param timeout the maximum wait for the response to a call
+     */
+    public RemoteServer(String name, InetSocketAddress address, Duration timeout) {
+        this.name = name;
+        this.address = address;
+        this.timeoutNanos = timeout.toNanos();
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Connection current = connection;
+        if (current != null) {
+            current.fail(new IOException("Closed"));
+        }
+    }
+
+    private Connection connection() throws IOException {
+        Connection current = connection;
+        if (current != null && current.channel.isOpen()) {
+            return current;
+        }
+        synchronized (connecting) {
+            if (closed) {
+                throw new IOException("Closed");
+            }
+            current = connection;
+            if (current == null || !current.channel.isOpen()) {
+                current = new Connection(SocketChannel.open(address));
+                connection = current;
+                current.reader.start();
+            }
+            return current;
+        }
+    }
+
+    private WireWriter request(int op) {
+        return new WireWriter().writeInt(0)
+                .writeByte(WireCodec.VERSION)
+                .writeVarLong(requests.incrementAndGet())
+                .writeByte(op);
+    }
+
+    /**
+     * Sends a request and waits for its response.
+     *
+     * @return the reader positioned on the result
+     */
+    private WireReader call(WireWriter request) throws ActivityPubException, InterruptedException {
+        ByteBuffer frame = request.toFrame();
+        long number = new WireReader(frame.duplicate().position(5)).readVarLong();
+        CompletableFuture<ByteBuffer> reply = new CompletableFuture<>();
+        ByteBuffer response;
+        Connection c = null;
+        try {
+            c = connection();
+            c.pending.put(number, reply);
+            if (c.failure != null) {
+                // failed after sweeping the outstanding calls, the response would never come
+                throw new IOException("Connection to " + name + " failed", c.failure);
+            }
+            c.send(frame);
+            response = reply.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (IOException e) {
+            if (c != null) {
+                c.pending.remove(number);
+            }
+            throw new UncheckedIOException(e);
+        } catch (ExecutionException e) {
+            throw new UncheckedIOException((IOException) e.getCause());
+        } catch (TimeoutException e) {
+            c.pending.remove(number);
+            throw new UncheckedIOException(new SocketTimeoutException("No response from " + name + " in " + Duration.ofNanos(timeoutNanos)));
+        }
+
+        WireReader in = new WireReader(response);
+        int status = in.readByte();
+        switch (status) {
+            case RemoteProtocol.OK:
+                return in;
+            case RemoteProtocol.ACTIVITYPUB_EXCEPTION:
+                throw new ActivityPubException(in.readString());
+            case RemoteProtocol.ILLEGAL_ARGUMENT:
+                throw new IllegalArgumentException(in.readString());
+            case RemoteProtocol.INTERRUPTED:
+                throw new InterruptedException(in.readString());
+            case RemoteProtocol.REJECTED:
+                throw RemoteProtocol.readRejection(in.readString(), in);
+            default:
+                throw new IllegalStateException("Call to " + name + " failed: " + in.readString());
+        }
+    }
+
+    /**
+     * Performs a call that cannot throw checked exceptions.
+     */
+    private WireReader invoke(WireWriter request) {
+        try {
+            return call(request);
+        } catch (ActivityPubException e) {
+            throw new IllegalStateException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new IOException("Interrupted while calling " + name, e));
+        }
+    }
+
+    private WireReader invokeChecked(WireWriter request) throws ActivityPubException {
+        try {
+            return call(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new IOException("Interrupted while calling " + name, e));
+        }
+    }
+
+    /**
+     * Returns the name the stub was created with, without calling the remote server.
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Actor createActor(String username, String displayName) throws ActivityPubException {
+        return invokeChecked(request(RemoteProtocol.CREATE_ACTOR).writeString(username).writeOptionalString(displayName)).readActor();
+    }
+
+    @Override
+    public Optional<Actor> getActor(String username) {
+        WireReader in = invoke(request(RemoteProtocol.GET_ACTOR).writeString(username));
+        return in.readBoolean() ? Optional.of(in.readActor()) : Optional.empty();
+    }
+
+    @Override
+    public List<Actor> listAllActors() {
+        return invoke(request(RemoteProtocol.LIST_ALL_ACTORS)).readActors();
+    }
+
+    @Override
+    public boolean deleteActor(String username) {
+        return invoke(request(RemoteProtocol.DELETE_ACTOR).writeString(username)).readBoolean();
+    }
+
+    @Override
+    public boolean follow(String followerId, String targetId) throws ActivityPubException {
+        return invokeChecked(request(RemoteProtocol.FOLLOW).writeString(followerId).writeString(targetId)).readBoolean();
+    }
+
+    @Override
+    public boolean addFollower(String followerId, String targetId) throws ActivityPubException {
+        return invokeChecked(request(RemoteProtocol.ADD_FOLLOWER).writeString(followerId).writeString(targetId)).readBoolean();
+    }
+
+    @Override
+    public boolean unfollow(String followerId, String targetId) throws ActivityPubException {
+        return invokeChecked(request(RemoteProtocol.UNFOLLOW).writeString(followerId).writeString(targetId)).readBoolean();
+    }
+
+    @Override
+    public boolean removeFollower(String followerId, String targetId) throws ActivityPubException {
+        return invokeChecked(request(RemoteProtocol.REMOVE_FOLLOWER).writeString(followerId).writeString(targetId)).readBoolean();
+    }
+
+    @Override
+    public void actorDeleted(String actorId, Instant deletedAt, Collection<String> followedIds, Collection<String> followerIds) {
+        invoke(request(RemoteProtocol.ACTOR_DELETED).writeString(actorId).writeInstant(deletedAt)
+                .writeStrings(followedIds).writeStrings(followerIds));
+    }
+
+    @Override
+    public Map<String, FollowResult> followAll(String followerId, Collection<String> targetIds) throws ActivityPubException {
+        return invokeChecked(request(RemoteProtocol.FOLLOW_ALL).writeString(followerId).writeStrings(targetIds)).readFollowResults();
+    }
+
+    @Override
+    public Map<String, FollowResult> addFollowers(String followerId, Collection<String> targetIds) {
+        return invoke(request(RemoteProtocol.ADD_FOLLOWERS).writeString(followerId).writeStrings(targetIds)).readFollowResults();
+    }
+
+    @Override
+    public Map<String, FollowResult> unfollowAll(String followerId, Collection<String> targetIds) throws ActivityPubException {
+        return invokeChecked(request(RemoteProtocol.UNFOLLOW_ALL).writeString(followerId).writeStrings(targetIds)).readFollowResults();
+    }
+
+    @Override
+    public Map<String, FollowResult> removeFollowers(String followerId, Collection<String> targetIds) {
+        return invoke(request(RemoteProtocol.REMOVE_FOLLOWERS).writeString(followerId).writeStrings(targetIds)).readFollowResults();
+    }
+
+    @Override
+    public List<Actor> getFollowers(String fullId) {
+        return invoke(request(RemoteProtocol.GET_FOLLOWERS).writeString(fullId)).readActors();
+    }
+
+    @Override
+    public List<Actor> getFollowing(String fullId) {
+        return invoke(request(RemoteProtocol.GET_FOLLOWING).writeString(fullId)).readActors();
+    }
+
+    @Override
+    public boolean isFollowing(String followerId, String targetId) {
+        return invoke(request(RemoteProtocol.IS_FOLLOWING).writeString(followerId).writeString(targetId)).readBoolean();
+    }
+
+    @Override
+    public Activity createActivity(String actorId, ActivityType type, String content) {
+        return invoke(request(RemoteProtocol.CREATE_ACTIVITY).writeString(actorId).writeByte(type.ordinal()).writeOptionalString(content)).readActivity();
+    }
+
+    @Override
+    public void flushDeliveries() throws InterruptedException {
+        try {
+            call(request(RemoteProtocol.FLUSH_DELIVERIES));
+        } catch (ActivityPubException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public Stream<Activity> getAllActivities() {
+        return getAllActivities(null, null);
+    }
+
+    @Override
+    public Stream<Activity> getAllActivities(Instant from, Instant to) {
+        return invoke(request(RemoteProtocol.GET_ALL_ACTIVITIES).writeOptionalInstant(from).writeOptionalInstant(to)).readActivities().stream();
+    }
+
+    @Override
+    public Stream<Activity> getLatestActivities(int count) {
+        return invoke(request(RemoteProtocol.GET_LATEST_ACTIVITIES).writeVarInt(count)).readActivities().stream();
+    }
+
+    @Override
+    public Stream<Activity> getInbox(String actorId) {
+        return invoke(request(RemoteProtocol.GET_INBOX).writeString(actorId)).readActivities().stream();
+    }
+
+    @Override
+    public ActivityPage getInbox(String actorId, String cursor, int limit) {
+        return invoke(request(RemoteProtocol.GET_INBOX_PAGE).writeString(actorId).writeOptionalString(cursor).writeVarInt(limit)).readPage();
+    }
+
+    @Override
+    public ActivityPage searchActivities(String query, String cursor, int limit) {
+        return invoke(request(RemoteProtocol.SEARCH_ACTIVITIES).writeString(query).writeOptionalString(cursor).writeVarInt(limit)).readPage();
+    }
+
+    @Override
+    public Stream<Activity> getOutbox(String actorId) {
+        return getOutbox(actorId, null, null);
+    }
+
+    @Override
+    public Stream<Activity> getOutbox(String actorId, Instant from, Instant to) {
+        return invoke(request(RemoteProtocol.GET_OUTBOX).writeString(actorId).writeOptionalInstant(from).writeOptionalInstant(to)).readActivities().stream();
+    }
+
+    @Override
+    public Stream<Activity> getLatestOutbox(String actorId, int count) {
+        return invoke(request(RemoteProtocol.GET_LATEST_OUTBOX).writeString(actorId).writeVarInt(count)).readActivities().stream();
+    }
+
+    @Override
+    public void receiveActivity(Activity activity, String... targetId) {
+        receiveActivities(List.of(new Delivery(activity, targetId)));
+    }
+
+    @Override
+    public void receiveActivities(List<Delivery> deliveries) {
+        invoke(request(RemoteProtocol.RECEIVE_ACTIVITIES).writeDeliveries(name, deliveries));
+    }
+
+    @Override
+    public void receiveFollowersActivity(Activity activity) {
+        invoke(request(RemoteProtocol.RECEIVE_FOLLOWERS_ACTIVITY).writeActivity(activity));
+    }
+
+    /**
+     * An open connection with the calls waiting for their responses.
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final Map<Long, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<>();
+        // set before the outstanding calls are failed, checked by the calls once registered
+        private volatile IOException failure;
+        private final Thread reader;
+
+        private Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            this.reader = new Thread(this::read, "remote-" + name);
+            this.reader.setDaemon(true);
+        }
+
+        private void send(ByteBuffer frame) throws IOException {
+            // frames must not interleave, but the callers do not wait for each other's responses
+            synchronized (this) {
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+            }
+        }
+
+        private void read() {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            try {
+                while (true) {
+                    header.clear();
+                    readFully(header);
+                    int length = header.getInt(0);
+                    if (length < 0 || length > RemoteProtocol.MAX_FRAME) {
+                        throw new IOException("Invalid frame length " + length);
+                    }
+                    ByteBuffer response = ByteBuffer.allocate(length);
+                    readFully(response);
+                    response.flip();
+                    long number = new WireReader(response).readVarLong();
+                    CompletableFuture<ByteBuffer> reply = pending.remove(number);
+                    if (reply != null) {
+                        reply.complete(response);
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                fail(new IOException("Malformed response from " + name, e));
+            }
+        }
+
+        private void readFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Connection to " + name + " closed");
+                }
+            }
+        }
+
+        /**
+         * Closes the connection and fails every outstanding call.
+         */
+        private void fail(IOException cause) {
+            if (failure == null) {
+                failure = cause;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // already broken
+            }
+            for (Long number : pending.keySet()) {
+                CompletableFuture<ByteBuffer> reply = pending.remove(number);
+                if (reply != null) {
+                    reply.completeExceptionally(cause);
+                }
+            }
+        }
+    }
+}
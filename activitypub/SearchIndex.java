@@ -0,0 +1,348 @@
+package it.polito.activitypub;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+
+/**
+ * Inverted index of the content of the activities of a server, for
+ * {@link Server#searchActivities(String, String, int)}.
+ * <p>
+ * Each term of {@link SearchQuery} maps to its postings: the sorted handles in the {@link ActivityTable}
+ * of the activities containing it. The activities are indexed as they are stored, so handles mostly
+ * arrive in order and are appended; the sorted dictionary serves the prefixes.
+ * A query walks its postings from the newest handle down, intersecting the clauses and the terms of each
+ * clause, taking the union of the terms of a prefix, and checks each candidate against its content:
+ * this confirms the sequences without storing the positions of the terms, and costs one page of activities.
+ * <p>
+ * Memory: 4 bytes per distinct term of each activity, with up to half again while the postings grow,
+ * plus about {@value #TERM_BYTES} bytes per distinct term of the server. Measured on posts of 130 characters
+ * drawn from a Zipf vocabulary of 50,000 words, the index takes 0.7 bytes per character of content
+ * at 800,000 posts, once the vocabulary has stopped growing, while the dictionary dominates small corpora:
+ * 0.9 bytes at 200,000 posts and 2.7 at 20,000. The content itself takes 1 or 2 bytes per character.
+ * The activities dropped by the table are removed lazily: a term compacts its postings when half of them are dropped.
+ */
+final class SearchIndex {
+
+    // string, skip list node and postings object of a term
+    static final int TERM_BYTES = 160;
+    private static final int WINDOW = 64;
+
+    private final ActivityTable table;
+    private final ConcurrentNavigableMap<String, Postings> terms = new ConcurrentSkipListMap<>();
+
+    SearchIndex(ActivityTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Indexes a stored activity; indexing it again does nothing.
+     */
+    void add(int handle, Activity activity) {
+        boolean added = false;
+        for (String term : new HashSet<>(SearchQuery.terms(activity.getContent()))) {
+            while (true) {
+                Postings postings = terms.computeIfAbsent(term, k -> new Postings());
+                int result = postings.add(handle);
+                if (result >= 0) {
+                    added |= result > 0;
+                    break;
+                }
+                // the postings were emptied meanwhile
+                terms.remove(term, postings);
+            }
+        }
+        if (added && table.get(handle) == null) {
+            // dropped before it was indexed, the table will not tell again
+            removed(activity);
+        }
+    }
+
+    /**
+     * Notes that an activity was dropped by the table.
+     */
+    void removed(Activity activity) {
+        for (String term : new HashSet<>(SearchQuery.terms(activity.getContent()))) {
+            Postings postings = terms.get(term);
+            if (postings != null && postings.removed(table)) {
+                terms.remove(term, postings);
+            }
+        }
+    }
+
+    long termCount() {
+        return terms.size();
+    }
+
+    /**
+     * @return the estimated size of the index, in bytes
+     */
+    long estimatedBytes() {
+        long bytes = 0;
+        for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+            bytes += TERM_BYTES + entry.getKey().length() + entry.getValue().capacity() * 4L;
+        }
+        return bytes;
+    }
+
+    /**
+     * Searches the indexed activities.
+     *
+     * @param query the parsed query
+     * @param before the handle the results are older than
+     * @param limit the maximum number of results
+     * @param filter the activities that can be returned, null for all
+     */
+    ActivityPage search(SearchQuery query, int before, int limit, Predicate<Activity> filter) {
+        List<Candidates> clauses = new ArrayList<>();
+        for (SearchQuery.Clause clause : query.clauses()) {
+            List<Candidates> sequence = new ArrayList<>();
+            for (int i = 0; i < clause.terms.size(); i++) {
+                String term = clause.terms.get(i);
+                Candidates candidates;
+                if (clause.prefix && i == clause.terms.size() - 1) {
+                    Collection<Postings> matching = terms.subMap(term, true, term + Character.MAX_VALUE, false).values();
+                    candidates = new Union(matching);
+                } else {
+                    Postings postings = terms.get(term);
+                    candidates = postings != null ? new Cursor(postings) : null;
+                }
+                if (candidates == null) {
+                    return new ActivityPage(List.of(), null);
+                }
+                sequence.add(candidates);
+            }
+            clauses.add(sequence.size() == 1 ? sequence.get(0) : new Intersection(sequence));
+        }
+        Candidates candidates = clauses.size() == 1 ? clauses.get(0) : new Intersection(clauses);
+        return page(table, candidates, query, before, limit, filter);
+    }
+
+    /**
+     * Searches the activities of a table without an index, checking each of them.
+     */
+    static ActivityPage scan(ActivityTable table, SearchQuery query, int before, int limit, Predicate<Activity> filter) {
+        int last = table.size() - 1;
+        return page(table, target -> Math.min(target, last), query, before, limit, filter);
+    }
+
+    private static ActivityPage page(ActivityTable table, Candidates candidates, SearchQuery query, int before, int limit,
+            Predicate<Activity> filter) {
+        List<Activity> page = new ArrayList<>(Math.min(limit, 64));
+        int last = -1;
+        for (int handle = candidates.floor(before - 1); handle >= 0; handle = candidates.floor(handle - 1)) {
+            Activity activity = table.get(handle);
+            if (activity == null || filter != null && !filter.test(activity) || !query.matches(activity.getContent())) {
+                continue;
+            }
+            if (page.size() == limit) {
+                // there is at least one more result
+                return new ActivityPage(page, Integer.toString(last, Character.MAX_RADIX));
+            }
+            page.add(activity);
+            last = handle;
+        }
+        return new ActivityPage(page, null);
+    }
+
+    /**
+     * Parses a cursor returned by {@link #search}.
+     *
+     * @return the handle the next results are older than, {@link Integer#MAX_VALUE} for a null cursor
+     */
+    static int before(String cursor) {
+        if (cursor == null) {
+            return Integer.MAX_VALUE;
+        }
+        try {
+            int handle = Integer.parseInt(cursor, Character.MAX_RADIX);
+            if (handle >= 0) {
+                return handle;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
+    }
+
+    /**
+     * Handles walked from the newest down.
+     */
+    @FunctionalInterface
+    private interface Candidates {
+        /**
+         * Finds the newest candidate not newer than a target; the targets of a walk never increase.
+         *
+         * @return the handle, or -1 if there is none
+         */
+        int floor(int target);
+    }
+
+    /**
+     * The sorted handles of the activities containing a term.
+     */
+    private static final class Postings {
+        private int[] handles = new int[2];
+        private int size;
+        private int dropped;
+        // set once emptied and removed from the dictionary
+        private boolean removed;
+
+        /**
+         * Inserts a handle, from the end since the handles mostly arrive in order.
+         *
+         * @return 1 if inserted, 0 if already there, -1 if the postings were removed from the dictionary
+         */
+        private synchronized int add(int handle) {
+            if (removed) {
+                return -1;
+            }
+            int i = size;
+            while (i > 0 && handles[i - 1] > handle) {
+                i--;
+            }
+            if (i > 0 && handles[i - 1] == handle) {
+                return 0;
+            }
+            if (size == handles.length) {
+                handles = Arrays.copyOf(handles, size + (size >> 1) + 1);
+            }
+            System.arraycopy(handles, i, handles, i + 1, size - i);
+            handles[i] = handle;
+            size++;
+            return 1;
+        }
+
+        /**
+         * Counts a dropped activity, and compacts the postings once half of them are dropped.
+         *
+         * @return true if the postings are now empty and must be removed from the dictionary
+         */
+        private synchronized boolean removed(ActivityTable table) {
+            if (++dropped * 2 < size) {
+                return false;
+            }
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (table.get(handles[i]) != null) {
+                    handles[kept++] = handles[i];
+                }
+            }
+            size = kept;
+            dropped = 0;
+            handles = Arrays.copyOf(handles, Math.max(2, kept + (kept >> 2)));
+            removed = kept == 0;
+            return removed;
+        }
+
+        private synchronized int capacity() {
+            return handles.length;
+        }
+
+        /**
+         * Copies the handles up to the newest not newer than a target into a window, oldest first.
+         *
+         * @return the number of handles copied, 0 if there is none
+         */
+        private synchronized int copyFloor(int target, int[] window) {
+            int floor = Arrays.binarySearch(handles, 0, size, target);
+            int end = floor >= 0 ? floor + 1 : -floor - 1;
+            int start = Math.max(0, end - window.length);
+            System.arraycopy(handles, start, window, 0, end - start);
+            return end - start;
+        }
+    }
+
+    /**
+     * Walks postings through a window, so that their lock is only taken once per window.
+     */
+    private static final class Cursor implements Candidates {
+        private final Postings postings;
+        private final int[] window = new int[WINDOW];
+        private int count;
+
+        private Cursor(Postings postings) {
+            this.postings = postings;
+        }
+
+        @Override
+        public int floor(int target) {
+            if (count > 0 && target >= window[0]) {
+                // the window ends with the floor of an earlier target, not lower than this one
+                int found = Arrays.binarySearch(window, 0, count, target);
+                return window[found >= 0 ? found : -found - 2];
+            }
+            if (target < 0) {
+                return -1;
+            }
+            count = postings.copyFloor(target, window);
+            return count > 0 ? window[count - 1] : -1;
+        }
+    }
+
+    /**
+     * The handles in any of several postings, as matched by a prefix.
+     */
+    private static final class Union implements Candidates {
+        // the newest candidate of each postings, newest first
+        private final PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) -> Integer.compare(b[0], a[0]));
+        private final List<Cursor> cursors = new ArrayList<>();
+
+        private Union(Collection<Postings> postings) {
+            for (Postings p : postings) {
+                heads.add(new int[] { Integer.MAX_VALUE, cursors.size() });
+                cursors.add(new Cursor(p));
+            }
+        }
+
+        @Override
+        public int floor(int target) {
+            while (!heads.isEmpty() && heads.peek()[0] > target) {
+                int[] head = heads.poll();
+                head[0] = cursors.get(head[1]).floor(target);
+                if (head[0] >= 0) {
+                    heads.add(head);
+                }
+            }
+            return heads.isEmpty() ? -1 : heads.peek()[0];
+        }
+    }
+
+    /**
+     * The handles in all of several candidates.
+     */
+    private static final class Intersection implements Candidates {
+        private final List<Candidates> parts;
+
+        private Intersection(List<Candidates> parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public int floor(int target) {
+            int candidate = target;
+            boolean agreed = false;
+            while (!agreed) {
+                agreed = true;
+                for (Candidates part : parts) {
+                    int floor = part.floor(candidate);
+                    if (floor < 0) {
+                        return -1;
+                    }
+                    if (floor < candidate) {
+                        candidate = floor;
+                        agreed = part == parts.get(0);
+                    }
+                }
+            }
+            return candidate;
+        }
+    }
+}
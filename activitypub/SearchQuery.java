@@ -0,0 +1,144 @@
+package it.polito.activitypub;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A parsed query of {@link Server#searchActivities(String, String, int)}.
+ * <p>
+ * The content of the activities is split into terms: the runs of letters and digits, in lower case,
+ * cut to {@value #MAX_TERM_LENGTH} characters. A query is a list of clauses, all of which must match:
+ * a word matches the activities with that term, a word ending with {@code *} those with a term
+ * starting with it, and words in double quotes those with the same terms in sequence.
+ * Every clause is a sequence of terms, the last of which may be a prefix, so the three kinds
+ * are matched the same way; a word made of several terms, as {@code e-mail}, is a sequence too.
+ */
+final class SearchQuery {
+
+    static final int MAX_TERM_LENGTH = 64;
+
+    /**
+     * A sequence of terms, the last of which is a prefix if {@code prefix} is set.
+     */
+    static final class Clause {
+        final List<String> terms;
+        final boolean prefix;
+
+        private Clause(List<String> terms, boolean prefix) {
+            this.terms = terms;
+            this.prefix = prefix;
+        }
+    }
+
+    private final List<Clause> clauses;
+
+    private SearchQuery(List<Clause> clauses) {
+        this.clauses = clauses;
+    }
+
+    List<Clause> clauses() {
+        return clauses;
+    }
+
+    /**
+     * Parses a query; an unclosed quote runs to the end of the query.
+     *
+     * @throws IllegalArgumentException if the query has no term
+     */
+    static SearchQuery parse(String query) {
+        if (query == null) {
+            throw new IllegalArgumentException("Query must not be null");
+        }
+        List<Clause> clauses = new ArrayList<>();
+        int i = 0;
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"') {
+                int close = query.indexOf('"', i + 1);
+                int end = close < 0 ? query.length() : close;
+                add(clauses, query.substring(i + 1, end), false);
+                i = end + 1;
+            } else {
+                int end = i;
+                while (end < query.length() && !Character.isWhitespace(query.charAt(end)) && query.charAt(end) != '"') {
+                    end++;
+                }
+                String word = query.substring(i, end);
+                boolean prefix = word.endsWith("*");
+                add(clauses, prefix ? word.substring(0, word.length() - 1) : word, prefix);
+                i = end;
+            }
+        }
+        if (clauses.isEmpty()) {
+            throw new IllegalArgumentException("Query has no term: " + query);
+        }
+        return new SearchQuery(clauses);
+    }
+
+    private static void add(List<Clause> clauses, String text, boolean prefix) {
+        List<String> terms = terms(text);
+        if (!terms.isEmpty()) {
+            clauses.add(new Clause(terms, prefix));
+        }
+    }
+
+    /**
+     * Splits a text into its terms, in order, repeated terms included.
+     */
+    static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i < text.length(); ) {
+            int c = text.codePointAt(i);
+            i += Character.charCount(c);
+            if (Character.isLetterOrDigit(c)) {
+                if (term.length() < MAX_TERM_LENGTH) {
+                    term.appendCodePoint(Character.toLowerCase(c));
+                }
+            } else if (term.length() > 0) {
+                terms.add(term.toString());
+                term.setLength(0);
+            }
+        }
+        if (term.length() > 0) {
+            terms.add(term.toString());
+        }
+        return terms;
+    }
+
+    /**
+     * @return true if the content matches all the clauses
+     */
+    boolean matches(String content) {
+        List<String> terms = terms(content);
+        for (Clause clause : clauses) {
+            if (!matches(clause, terms)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(Clause clause, List<String> terms) {
+        int length = clause.terms.size();
+        for (int start = 0; start + length <= terms.size(); start++) {
+            int i = 0;
+            while (i < length - 1 && terms.get(start + i).equals(clause.terms.get(i))) {
+                i++;
+            }
+            if (i == length - 1) {
+                String last = clause.terms.get(i);
+                String term = terms.get(start + i);
+                if (clause.prefix ? term.startsWith(last) : term.equals(last)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
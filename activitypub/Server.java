@@ -1,7 +1,11 @@
 package it.polito.activitypub;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Flow;
 import java.util.stream.Stream;
 
 public interface Server {
@@ -32,6 +36,16 @@ public interface Server {
      */
     Optional<Actor> getActor(String username);
 
+    /**
+     * Retrieves an actor by their parsed full ID.
+     *
+     * @param id the ID of the actor
+     * @return an Optional containing the Actor if found, or empty if not found
+     */
+    default Optional<Actor> getActor(ActorId id) {
+        return getActor(id.toString());
+    }
+
     /**
      * Lists all actors registered on this server.
      *
@@ -40,7 +54,8 @@ public interface Server {
     List<Actor> listAllActors();
 
     /**
-     * Deletes an actor from this server.
+     * Deletes an actor from this server, and removes it from the following and follower lists
+     * of the other actors. The servers of those actors get a single {@link #actorDeleted} call each.
      *
      * @param username the local username of the actor to delete
      * @return true if the actor was successfully deleted, false if the actor didn't exist
@@ -59,6 +74,13 @@ public interface Server {
      */
     boolean follow(String followerId, String targetId) throws ActivityPubException;
 
+    /**
+     * Establishes a follow relationship, see {@link #follow(String, String)}.
+     */
+    default boolean follow(ActorId followerId, ActorId targetId) throws ActivityPubException {
+        return follow(followerId.toString(), targetId.toString());
+    }
+
     /**
      * Adds a follower to a local actor's followers' list.
      * The target actor must be local to this server.
@@ -83,6 +105,13 @@ public interface Server {
      */
     boolean unfollow(String followerId, String targetId) throws ActivityPubException;
 
+    /**
+     * Removes a follow relationship, see {@link #unfollow(String, String)}.
+     */
+    default boolean unfollow(ActorId followerId, ActorId targetId) throws ActivityPubException {
+        return unfollow(followerId.toString(), targetId.toString());
+    }
+
     /**
      * Removes a follower from a local actor's followers' list.
      * The target actor must be local to this server.
@@ -95,6 +124,64 @@ public interface Server {
      */
     boolean removeFollower(String followerId, String targetId) throws ActivityPubException;
 
+    /**
+     * Removes the follow relations between a deleted actor and the actors of this server.
+     * This method is invoked by the {@link #deleteActor(String)} method of the deleted actor's server,
+     * once for each server holding such relations, with the relations taken from its own follow indexes.
+     * When the server hides the activities of deleted actors (see {@link ServerConfig#purgeInboxesOnActorDeletion(boolean)}),
+     * the activities of the actor up to its deletion disappear from the inboxes.
+     *
+     * @param actorId the full ID of the deleted actor
+     * @param deletedAt the time of the deletion
+     * @param followedIds the IDs of the actors of this server followed by the deleted actor
+     * @param followerIds the IDs of the actors of this server following the deleted actor
+     */
+    void actorDeleted(String actorId, Instant deletedAt, Collection<String> followedIds, Collection<String> followerIds);
+
+    /**
+     * Makes a local actor follow many actors at once.
+     * The targets are grouped by server, and each server is called once
+     * through {@link #addFollowers(String, Collection)}, instead of twice per target.
+     *
+     * @param followerId the ID of the following actor (must be local to this server)
+     * @param targetIds the IDs of the target actors
+     * @return the outcome for each distinct target ID, in the order they were given
+     * @throws ActivityPubException if the follower does not exist on this server
+     */
+    Map<String, FollowResult> followAll(String followerId, Collection<String> targetIds) throws ActivityPubException;
+
+    /**
+     * Adds a follower to many local actors at once.
+     * This method is invoked by the {@link #followAll(String, Collection)} method of the follower server.
+     *
+     * @param followerId the ID of the following actor
+     * @param targetIds the IDs of the target actors (must be local to this server)
+     * @return the outcome for each distinct target ID, in the order they were given
+     */
+    Map<String, FollowResult> addFollowers(String followerId, Collection<String> targetIds);
+
+    /**
+     * Makes a local actor unfollow many actors at once.
+     * The targets are grouped by server, and each server is called once
+     * through {@link #removeFollowers(String, Collection)}.
+     *
+     * @param followerId the ID of the following actor (must be local to this server)
+     * @param targetIds the IDs of the target actors
+     * @return the outcome for each distinct target ID, in the order they were given
+     * @throws ActivityPubException if the follower does not exist on this server
+     */
+    Map<String, FollowResult> unfollowAll(String followerId, Collection<String> targetIds) throws ActivityPubException;
+
+    /**
+     * Removes a follower from many local actors at once.
+     * This method is invoked by the {@link #unfollowAll(String, Collection)} method of the follower server.
+     *
+     * @param followerId the ID of the following actor
+     * @param targetIds the IDs of the target actors (must be local to this server)
+     * @return the outcome for each distinct target ID, in the order they were given
+     */
+    Map<String, FollowResult> removeFollowers(String followerId, Collection<String> targetIds);
+
     /**
      * Gets all actors who follow the specified actor.
      *
@@ -120,6 +207,13 @@ public interface Server {
      */
     boolean isFollowing(String followerId, String targetId);
 
+    /**
+     * Checks if a follow relationship exists, see {@link #isFollowing(String, String)}.
+     */
+    default boolean isFollowing(ActorId followerId, ActorId targetId) {
+        return isFollowing(followerId.toString(), targetId.toString());
+    }
+
     /**
      * Creates a new activity for an actor and delivers it to all their followers.
      * The activity is stored in the actor's outbox and automatically delivered to followers' inboxes.
@@ -131,6 +225,22 @@ public interface Server {
      */
     Activity createActivity(String actorId, ActivityType type, String content);
 
+    /**
+     * Creates a new activity, see {@link #createActivity(String, ActivityType, String)}.
+     */
+    default Activity createActivity(ActorId actorId, ActivityType type, String content) {
+        return createActivity(actorId.toString(), type, content);
+    }
+
+    /**
+     * Waits until all the deliveries started by {@link #createActivity} have reached the recipient servers.
+     * When deliveries are performed synchronously this method returns immediately.
+     * A server with an ingest queue also waits until the deliveries it received have been stored.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    void flushDeliveries() throws InterruptedException;
+
     /**
      * Gets all activities on this server.
      *
@@ -138,14 +248,91 @@ public interface Server {
      */
     Stream<Activity> getAllActivities();
 
+    /**
+     * Gets the activities created on this server in a time range, oldest first.
+     *
+     * @param from the inclusive lower bound of the timestamps, or null for no lower bound
+     * @param to the exclusive upper bound of the timestamps, or null for no upper bound
+     * @return a stream of the activities created in the range
+     */
+    Stream<Activity> getAllActivities(Instant from, Instant to);
+
+    /**
+     * Gets the most recent activities created on this server, most recent first.
+     *
+     * @param count the maximum number of activities
+     * @return a stream of at most count activities
+     */
+    Stream<Activity> getLatestActivities(int count);
+
     /**
      * Gets the inbox stream for a specific actor.
+     * The stream returns the most recent activities first.
      *
      * @param actorId the ID of the actor
      * @return a stream of activities in the actor's inbox
      */
     Stream<Activity> getInbox(String actorId);
 
+    /**
+     * Gets the inbox stream for a specific actor, see {@link #getInbox(String)}.
+     */
+    default Stream<Activity> getInbox(ActorId actorId) {
+        return getInbox(actorId.toString());
+    }
+
+    /**
+     * Gets a page of the inbox of a specific actor, most recent activities first.
+     * The cost of the call is proportional to the size of the page, not of the inbox.
+     *
+     * @param actorId the ID of the actor
+     * @param cursor the cursor returned with the previous page, or null to read the most recent activities
+     * @param limit the maximum number of activities in the page
+     * @return the page, with the cursor to read the older activities if any
+     * @throws IllegalArgumentException if the limit is not positive or the cursor is not valid
+     */
+    ActivityPage getInbox(String actorId, String cursor, int limit);
+
+    /**
+     * Searches the content of the activities created on or received by this server.
+     * The query is made of words, all of which must be found: a word ending with {@code *}
+     * also finds the longer words starting with it, and words in double quotes must be found in sequence.
+     * Words are the runs of letters and digits, compared regardless of case.
+     * With {@link ServerConfig#searchIndexEnabled(boolean)} the cost of the call depends on the
+     * matching activities, otherwise on all of them.
+     *
+     * @param query the words to search
+     * @param cursor the cursor returned with the previous page, or null to read the most recent activities
+     * @param limit the maximum number of activities in the page
+     * @return the page of matching activities, the most recently stored first, with the cursor to read the older ones if any
+     * @throws IllegalArgumentException if the query has no word, the limit is not positive or the cursor is not valid
+     */
+    default ActivityPage searchActivities(String query, String cursor, int limit) {
+        throw new UnsupportedOperationException("Search is not supported by " + getName());
+    }
+
+    /**
+     * Subscribes to the activities added to the inbox of a local actor from now on, instead of polling it.
+     * Each subscriber gets the activities as it requests them; those that arrive faster are buffered up to
+     * {@link ServerConfig#inboxSubscriptionBuffer(int)}, then dropped by {@link ServerConfig#inboxSubscriptionOverflow}.
+     * Subscribers are called on threads of the server, one call at a time, and never by the receive calls.
+     * The subscriptions complete when the actor is deleted.
+     *
+     * @param actorId the ID of the actor (must be local to this server)
+     * @return the publisher of the activities of the inbox
+     * @throws IllegalArgumentException if the actor is not found on this server
+     */
+    default Flow.Publisher<Activity> subscribeInbox(String actorId) {
+        throw new UnsupportedOperationException("Subscriptions are not supported by " + getName());
+    }
+
+    /**
+     * Subscribes to the inbox of a local actor, see {@link #subscribeInbox(String)}.
+     */
+    default Flow.Publisher<Activity> subscribeInbox(ActorId actorId) {
+        return subscribeInbox(actorId.toString());
+    }
+
     /**
      * Gets the outbox stream for a specific actor.
      *
@@ -154,12 +341,94 @@ public interface Server {
      */
     Stream<Activity> getOutbox(String actorId);
 
+    /**
+     * Gets the activities of the outbox of a specific actor in a time range, oldest first.
+     *
+     * @param actorId the ID of the actor
+     * @param from the inclusive lower bound of the timestamps, or null for no lower bound
+     * @param to the exclusive upper bound of the timestamps, or null for no upper bound
+     * @return a stream of the activities of the outbox in the range
+     */
+    Stream<Activity> getOutbox(String actorId, Instant from, Instant to);
+
+    /**
+     * Gets the most recent activities of the outbox of a specific actor, most recent first.
+     *
+     * @param actorId the ID of the actor
+     * @param count the maximum number of activities
+     * @return a stream of at most count activities
+     */
+    Stream<Activity> getLatestOutbox(String actorId, int count);
+
     /**
      * Receives an activity and stores it in the specified actor's inbox.
      * This method is called by other servers {@link #createActivity} method to deliver activities to followers.
      *
      * @param targetId the IDs of the recipient actors
      * @param activity the activity to be delivered to the inbox
+     * @throws DeliveryRejectedException if the server does not admit the delivery, see {@link ServerConfig#ingestRateLimit(double)}
      */
     void receiveActivity(Activity activity, String... targetId);
-}
\ No newline at end of file
+
+    /**
+     * Receives several activities with a single call and stores each of them in the inboxes of its recipients.
+     * This method is called by other servers to deliver in one batch the activities queued for this server.
+     *
+     * @param deliveries the activities with their recipient actors on this server
+     * @throws DeliveryRejectedException if the server does not admit the deliveries, none of which is stored
+     */
+    void receiveActivities(List<Delivery> deliveries);
+
+    /**
+     * Receives several activities sent by an origin identified by the transport that read them,
+     * such as the address of a connection. The limits on the deliveries are applied to that origin,
+     * instead of the servers the actors of the activities claim to belong to.
+     *
+     * @param deliveries the activities with their recipient actors on this server
+     * @param origin the sender of the activities as seen by the transport, or null if unknown
+     * @throws DeliveryRejectedException if the server does not admit the deliveries, none of which is stored
+     */
+    default void receiveActivities(List<Delivery> deliveries, String origin) {
+        receiveActivities(deliveries);
+    }
+
+    /**
+     * Receives an activity of a high-follower actor on behalf of all its followers on this server.
+     * The activity is stored once, and merged into the inboxes of the author's followers when they are read,
+     * instead of being added to each of them.
+     *
+     * @param activity the activity to be delivered to the followers of its author
+     * @throws DeliveryRejectedException if the server does not admit the delivery
+     */
+    void receiveFollowersActivity(Activity activity);
+
+    /**
+     * Retrieves the metrics of this server: delivery counters, latency histograms and size gauges.
+     * Servers created without {@link ServerConfig#metricsEnabled(boolean)} and stubs of remote servers have none.
+     *
+     * @return the metrics, or an empty optional if they are disabled
+     */
+    default Optional<ServerMetrics> getMetrics() {
+        return Optional.empty();
+    }
+
+    /**
+     * Retrieves the deliveries of this server that failed all their attempts,
+     * see {@link ServerConfig#deliveryMaxAttempts(int)}.
+     *
+     * @return the dead letters, or an empty optional if deliveries are neither asynchronous nor retried
+     */
+    default Optional<DeadLetters> getDeadLetters() {
+        return Optional.empty();
+    }
+
+    /**
+     * Releases the resources of this server. The deliveries still queued towards other servers are dropped
+     * and the retries stop, the deliveries received but not stored yet are stored, and the inbox subscriptions
+     * are completed. A server with a data directory then waits for its logs to be durable and stops their
+     * threads, and cannot store anything afterwards; it is also closed when the JVM shuts down.
+     * Servers without such resources do nothing.
+     */
+    default void close() {
+    }
+}
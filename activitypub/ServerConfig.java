@@ -0,0 +1,595 @@
+package it.polito.activitypub;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Tuning options for servers created through
+ * {@link ActivityPubUtilities#createServer(String, ServerConfig)}.
+ * The default configuration reproduces the behaviour of
+ * {@link ActivityPubUtilities#createServer(String)}.
+ */
+public class ServerConfig {
+    private boolean asyncDelivery = false;
+    private int deliveryQueueCapacity = 1024;
+    private int deliveryBatchSize = 64;
+    private Duration deliveryLinger = Duration.ZERO;
+    private int deliveryMaxAttempts = 1;
+    private Duration deliveryRetryBackoff = Duration.ofMillis(200);
+    private Duration deliveryMaxRetryBackoff = Duration.ofSeconds(30);
+    private int deadLetterCapacity = 1000;
+    private int receiveDedupCapacity = 0;
+    private double ingestRateLimit = 0;
+    private int ingestBurst = 1000;
+    private int ingestQueueCapacity = 0;
+    private int ingestThreads = 2;
+    private int maxRecipientsPerCall = Integer.MAX_VALUE;
+    private int fanOutOnReadThreshold = Integer.MAX_VALUE;
+    private NamingService namingService = null;
+    private Path dataDirectory = null;
+    private int logSegmentSize = 64 << 20;
+    private Duration logCommitInterval = Duration.ZERO;
+    private Duration followSnapshotInterval = Duration.ofMinutes(5);
+    private boolean metricsEnabled = false;
+    private boolean searchIndexEnabled = false;
+    private int inboxSubscriptionBuffer = 256;
+    private SubscriptionOverflow inboxSubscriptionOverflow = SubscriptionOverflow.DROP_OLDEST;
+    private boolean purgeInboxesOnActorDeletion = false;
+    private int inboxMaxEntries = Integer.MAX_VALUE;
+    private Duration inboxMaxAge = null;
+    private long inboxMemoryBudget = Long.MAX_VALUE;
+
+    /**
+     * Enables or disables asynchronous delivery.
+     * When enabled, {@link Server#createActivity} returns as soon as the activity
+     * is in the outbox and the deliveries have been queued, one queue per destination server.
+     *
+     * @param asyncDelivery whether deliveries are handed to background workers
+     * @return this configuration
+     */
+    public ServerConfig asyncDelivery(boolean asyncDelivery) {
+        this.asyncDelivery = asyncDelivery;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of pending deliveries per destination server.
+     * When a queue is full, {@link Server#createActivity} waits for free space.
+     *
+     * @param capacity the queue capacity, must be positive
+     * @return this configuration
+     */
+    public ServerConfig deliveryQueueCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + capacity);
+        }
+        this.deliveryQueueCapacity = capacity;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of activities sent to a destination server with a single call
+     * when deliveries are asynchronous.
+     *
+     * @param batchSize the maximum batch size, must be positive
+     * @return this configuration
+     */
+    public ServerConfig deliveryBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.deliveryBatchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Sets how long an asynchronous delivery may wait for other activities
+     * to the same server before its batch is sent.
+     * With the default of zero, only the deliveries already queued are coalesced.
+     *
+     * @param linger the maximum wait, not negative
+     * @return this configuration
+     */
+    public ServerConfig deliveryLinger(Duration linger) {
+        if (linger.isNegative()) {
+            throw new IllegalArgumentException("Linger must not be negative: " + linger);
+        }
+        this.deliveryLinger = linger;
+        return this;
+    }
+
+    /**
+     * Sets how many times a delivery is attempted before it is moved to the dead letters
+     * (see {@link Server#getDeadLetters()}). With more than one attempt, a failed batch is
+     * retried with exponential backoff: the deliveries to its destination wait behind it,
+     * and those queued while the queue of the destination is full go to the dead letters
+     * instead of blocking {@link Server#createActivity}. A synchronous delivery that fails
+     * is then queued for retry instead of failing the post.
+     * By default each delivery is attempted once.
+     *
+     * @param maxAttempts the maximum number of attempts, must be positive
+     * @return this configuration
+     */
+    public ServerConfig deliveryMaxAttempts(int maxAttempts) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("Max attempts must be positive: " + maxAttempts);
+        }
+        this.deliveryMaxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * Sets the wait before the first retry to a failing destination; it doubles with each
+     * consecutive failure, up to {@link #deliveryMaxRetryBackoff(Duration)}.
+     *
+     * @param backoff the first backoff, must be positive
+     * @return this configuration
+     */
+    public ServerConfig deliveryRetryBackoff(Duration backoff) {
+        if (backoff.isNegative() || backoff.isZero()) {
+            throw new IllegalArgumentException("Backoff must be positive: " + backoff);
+        }
+        this.deliveryRetryBackoff = backoff;
+        return this;
+    }
+
+    /**
+     * Sets the maximum wait between two retries to a failing destination.
+     *
+     * @param backoff the maximum backoff, must be positive
+     * @return this configuration
+     */
+    public ServerConfig deliveryMaxRetryBackoff(Duration backoff) {
+        if (backoff.isNegative() || backoff.isZero()) {
+            throw new IllegalArgumentException("Backoff must be positive: " + backoff);
+        }
+        this.deliveryMaxRetryBackoff = backoff;
+        return this;
+    }
+
+    /**
+     * Sets the number of failed deliveries kept for inspection and replay;
+     * past it the oldest are discarded.
+     *
+     * @param capacity the capacity of the dead letters, not negative
+     * @return this configuration
+     */
+    public ServerConfig deadLetterCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Dead letter capacity must not be negative: " + capacity);
+        }
+        this.deadLetterCapacity = capacity;
+        return this;
+    }
+
+    /**
+     * Sets how many received deliveries, by activity ID and recipient, the server remembers
+     * to ignore their duplicates, such as a retry of a delivery whose answer was lost.
+     * The filter keeps between one and two times that many entries, in 32 bytes each.
+     * By default duplicates are accepted: enable the filter on the servers receiving from
+     * servers that retry (see {@link #deliveryMaxAttempts(int)}).
+     *
+     * @param capacity the number of deliveries remembered, 0 to accept duplicates
+     * @return this configuration
+     */
+    public ServerConfig receiveDedupCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Dedup capacity must not be negative: " + capacity);
+        }
+        this.receiveDedupCapacity = capacity;
+        return this;
+    }
+
+    /**
+     * Limits the inbox entries each origin may deliver, with a token bucket per origin:
+     * a delivery costs one token per recipient, or one when it is addressed to the followers
+     * of its author. The origin of a call received by a {@link ServerEndpoint} is the address of the peer,
+     * that of a call made in the process is the server of the author. A call that would overdraw the
+     * bucket is rejected with a {@link DeliveryRejectedException} telling when to retry.
+     * By default the deliveries are not limited.
+     *
+     * @param entriesPerSecond the rate the buckets refill at, must be positive
+     * @return this configuration
+     */
+    public ServerConfig ingestRateLimit(double entriesPerSecond) {
+        if (!(entriesPerSecond > 0)) {
+            throw new IllegalArgumentException("Rate limit must be positive: " + entriesPerSecond);
+        }
+        this.ingestRateLimit = entriesPerSecond;
+        return this;
+    }
+
+    /**
+     * Sets the capacity of the token bucket of each origin, the largest burst it may deliver.
+     *
+     * @param burst the bucket capacity, must be positive
+     * @return this configuration
+     */
+    public ServerConfig ingestBurst(int burst) {
+        if (burst <= 0) {
+            throw new IllegalArgumentException("Burst must be positive: " + burst);
+        }
+        this.ingestBurst = burst;
+        return this;
+    }
+
+    /**
+     * Makes the server store the received deliveries on its own ingest workers:
+     * the receive calls return once the deliveries are queued, and are rejected with a
+     * {@link DeliveryRejectedException} when the queue is full, so that a flood of deliveries
+     * is bounded by the ingest workers instead of taking the threads of the server.
+     * {@link Server#flushDeliveries()} also waits for the queue to be drained.
+     * By default the deliveries are stored by the receive calls.
+     *
+     * @param capacity the maximum number of queued deliveries, 0 to store them in the receive calls
+     * @return this configuration
+     */
+    public ServerConfig ingestQueueCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Ingest queue capacity must not be negative: " + capacity);
+        }
+        this.ingestQueueCapacity = capacity;
+        return this;
+    }
+
+    /**
+     * Sets the number of ingest workers, see {@link #ingestQueueCapacity(int)}.
+     *
+     * @param threads the number of workers, must be positive
+     * @return this configuration
+     */
+    public ServerConfig ingestThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Ingest threads must be positive: " + threads);
+        }
+        this.ingestThreads = threads;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of recipients of a receive call, summed over its deliveries; a call carrying
+     * more is rejected with a {@link DeliveryRejectedException}, which the servers of this package
+     * handle by splitting their deliveries over several calls. By default the recipients are not limited.
+     *
+     * @param maxRecipients the maximum number of recipients, must be positive
+     * @return this configuration
+     */
+    public ServerConfig maxRecipientsPerCall(int maxRecipients) {
+        if (maxRecipients <= 0) {
+            throw new IllegalArgumentException("Max recipients must be positive: " + maxRecipients);
+        }
+        this.maxRecipientsPerCall = maxRecipients;
+        return this;
+    }
+
+    /**
+     * Sets the number of followers from which the activities of an actor are no longer
+     * pushed into each follower's inbox, but merged into the inboxes when they are read.
+     * By default every activity is pushed.
+     *
+     * @param threshold the minimum number of followers for fan-out on read, must be positive
+     * @return this configuration
+     */
+    public ServerConfig fanOutOnReadThreshold(int threshold) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("Threshold must be positive: " + threshold);
+        }
+        this.fanOutOnReadThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * Sets the naming service the server is registered with and resolves the other servers through,
+     * for instance a {@link CachingNamingService} in front of a remote directory.
+     * By default it is {@link ActivityPubUtilities#getNamingService()}.
+     *
+     * @param namingService the naming service
+     * @return this configuration
+     */
+    public ServerConfig namingService(NamingService namingService) {
+        this.namingService = namingService;
+        return this;
+    }
+
+    /**
+     * Sets the directory of the durable activity log and follow graph. Every activity created
+     * or received and every follow change is logged before the call returns, and a server
+     * created on the same directory rebuilds its outboxes, inboxes, activities and follow
+     * relations from there. Actors are not logged.
+     * By default the server keeps everything in memory only.
+     *
+     * @param dataDirectory the log directory, or null for no log
+     * @return this configuration
+     */
+    public ServerConfig dataDirectory(Path dataDirectory) {
+        this.dataDirectory = dataDirectory;
+        return this;
+    }
+
+    /**
+     * Sets the size of the memory-mapped segment files of the activity log.
+     * It bounds the size of a single activity and must not change between restarts.
+     *
+     * @param segmentSize the segment size in bytes, at least 4 KiB
+     * @return this configuration
+     */
+    public ServerConfig logSegmentSize(int segmentSize) {
+        if (segmentSize < 4096) {
+            throw new IllegalArgumentException("Segment size must be at least 4096: " + segmentSize);
+        }
+        this.logSegmentSize = segmentSize;
+        return this;
+    }
+
+    /**
+     * Sets how long the activity log waits for more records before forcing them to disk together.
+     * With the default of zero, the records appended while the previous fsync was running
+     * are forced together.
+     *
+     * @param interval the commit interval, not negative
+     * @return this configuration
+     */
+    public ServerConfig logCommitInterval(Duration interval) {
+        if (interval.isNegative()) {
+            throw new IllegalArgumentException("Commit interval must not be negative: " + interval);
+        }
+        this.logCommitInterval = interval;
+        return this;
+    }
+
+    /**
+     * Sets the delay between two background snapshots of the follow graph.
+     * Startup loads the latest snapshot and replays the follow changes logged after it.
+     *
+     * @param interval the snapshot interval, must be positive
+     * @return this configuration
+     */
+    public ServerConfig followSnapshotInterval(Duration interval) {
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("Snapshot interval must be positive: " + interval);
+        }
+        this.followSnapshotInterval = interval;
+        return this;
+    }
+
+    /**
+     * Enables or disables the metrics of the server, exposed by {@link Server#getMetrics()}.
+     * Disabled metrics cost nothing but a null check on each call.
+     *
+     * @param metricsEnabled whether the server records metrics
+     * @return this configuration
+     */
+    public ServerConfig metricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+        return this;
+    }
+
+    /**
+     * Makes the server keep an inverted index of the content of its activities, updated as they are
+     * created and received, so that {@link Server#searchActivities(String, String, int)} reads the
+     * matching activities only instead of checking all of them. The index takes about 4 bytes per
+     * distinct word of each activity, plus a fixed cost per distinct word of the server.
+     * By default there is no index.
+     *
+     * @param searchIndexEnabled whether the server indexes the content of its activities
+     * @return this configuration
+     */
+    public ServerConfig searchIndexEnabled(boolean searchIndexEnabled) {
+        this.searchIndexEnabled = searchIndexEnabled;
+        return this;
+    }
+
+    /**
+     * Sets the number of activities an inbox subscription buffers for a subscriber
+     * that has not requested them yet, see {@link Server#subscribeInbox(String)}.
+     *
+     * @param capacity the maximum number of buffered activities, must be positive
+     * @return this configuration
+     */
+    public ServerConfig inboxSubscriptionBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Subscription buffer must be positive: " + capacity);
+        }
+        this.inboxSubscriptionBuffer = capacity;
+        return this;
+    }
+
+    /**
+     * Sets what an inbox subscription drops when its buffer is full.
+     * By default the oldest buffered activities are dropped.
+     *
+     * @param overflow the overflow policy
+     * @return this configuration
+     */
+    public ServerConfig inboxSubscriptionOverflow(SubscriptionOverflow overflow) {
+        if (overflow == null) {
+            throw new IllegalArgumentException("Overflow policy must not be null");
+        }
+        this.inboxSubscriptionOverflow = overflow;
+        return this;
+    }
+
+    /**
+     * Enables or disables hiding the activities of deleted actors from the inboxes of the server.
+     * When an actor is deleted, its activities up to the deletion stop being returned by
+     * {@link Server#getInbox}; the deletion itself costs the same whatever the size of the inboxes,
+     * the activities are skipped when the inboxes are read.
+     * By default the activities already delivered stay in the inboxes.
+     *
+     * @param purge whether the activities of deleted actors are hidden
+     * @return this configuration
+     */
+    public ServerConfig purgeInboxesOnActorDeletion(boolean purge) {
+        this.purgeInboxesOnActorDeletion = purge;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of entries of each inbox: appending to a full inbox
+     * evicts its oldest entry. By default the inboxes are not limited.
+     *
+     * @param maxEntries the maximum number of entries, must be positive
+     * @return this configuration
+     */
+    public ServerConfig inboxMaxEntries(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Max entries must be positive: " + maxEntries);
+        }
+        this.inboxMaxEntries = maxEntries;
+        return this;
+    }
+
+    /**
+     * Sets the maximum age of the inbox entries, after which they are no longer returned
+     * by {@link Server#getInbox} and are evicted. Expired entries are evicted a few at a time
+     * when their inbox is appended to, and all at once when it is read.
+     * The outboxes and the activities of the server expire the same way.
+     * By default the entries do not expire.
+     *
+     * @param maxAge the maximum age of an activity, by its timestamp, must be positive
+     * @return this configuration
+     */
+    public ServerConfig inboxMaxAge(Duration maxAge) {
+        if (maxAge.isNegative() || maxAge.isZero()) {
+            throw new IllegalArgumentException("Max age must be positive: " + maxAge);
+        }
+        this.inboxMaxAge = maxAge;
+        return this;
+    }
+
+    /**
+     * Sets the memory budget of the inboxes of the server, in estimated bytes of the entries
+     * and of the activities they hold. The outboxes and the activities of the server are
+     * counted in the same budget. Over budget, the oldest entries across all of them are evicted
+     * first, a few for each entry appended, so no append stops the server for long.
+     * By default the inboxes have no budget.
+     *
+     * @param bytes the budget, must be positive
+     * @return this configuration
+     */
+    public ServerConfig inboxMemoryBudget(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive: " + bytes);
+        }
+        this.inboxMemoryBudget = bytes;
+        return this;
+    }
+
+    public boolean isAsyncDelivery() {
+        return asyncDelivery;
+    }
+
+    public int getDeliveryQueueCapacity() {
+        return deliveryQueueCapacity;
+    }
+
+    public int getDeliveryBatchSize() {
+        return deliveryBatchSize;
+    }
+
+    public Duration getDeliveryLinger() {
+        return deliveryLinger;
+    }
+
+    public int getDeliveryMaxAttempts() {
+        return deliveryMaxAttempts;
+    }
+
+    public Duration getDeliveryRetryBackoff() {
+        return deliveryRetryBackoff;
+    }
+
+    public Duration getDeliveryMaxRetryBackoff() {
+        return deliveryMaxRetryBackoff;
+    }
+
+    public int getDeadLetterCapacity() {
+        return deadLetterCapacity;
+    }
+
+    public int getReceiveDedupCapacity() {
+        return receiveDedupCapacity;
+    }
+
+    /**
+     * @return the refill rate of the ingest token buckets, 0 if the deliveries are not limited
+     */
+    public double getIngestRateLimit() {
+        return ingestRateLimit;
+    }
+
+    public int getIngestBurst() {
+        return ingestBurst;
+    }
+
+    public int getIngestQueueCapacity() {
+        return ingestQueueCapacity;
+    }
+
+    public int getIngestThreads() {
+        return ingestThreads;
+    }
+
+    public int getMaxRecipientsPerCall() {
+        return maxRecipientsPerCall;
+    }
+
+    public int getFanOutOnReadThreshold() {
+        return fanOutOnReadThreshold;
+    }
+
+    public Path getDataDirectory() {
+        return dataDirectory;
+    }
+
+    public int getLogSegmentSize() {
+        return logSegmentSize;
+    }
+
+    public Duration getLogCommitInterval() {
+        return logCommitInterval;
+    }
+
+    public Duration getFollowSnapshotInterval() {
+        return followSnapshotInterval;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public boolean isSearchIndexEnabled() {
+        return searchIndexEnabled;
+    }
+
+    public int getInboxSubscriptionBuffer() {
+        return inboxSubscriptionBuffer;
+    }
+
+    public SubscriptionOverflow getInboxSubscriptionOverflow() {
+        return inboxSubscriptionOverflow;
+    }
+
+    public boolean isPurgeInboxesOnActorDeletion() {
+        return purgeInboxesOnActorDeletion;
+    }
+
+    public int getInboxMaxEntries() {
+        return inboxMaxEntries;
+    }
+
+    /**
+     * @return the maximum age of the inbox entries, null if they do not expire
+     */
+    public Duration getInboxMaxAge() {
+        return inboxMaxAge;
+    }
+
+    public long getInboxMemoryBudget() {
+        return inboxMemoryBudget;
+    }
+
+    public NamingService getNamingService() {
+        return namingService != null ? namingService : ActivityPubUtilities.getNamingService();
+    }
+}
@@ -0,0 +1,309 @@
+package it.polito.activitypub;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exposes a server on a TCP port, to be called through {@link RemoteServer}.
+ * <p>
+ * A single selector thread accepts the connections, reads the request frames and writes
+ * the response frames, all with non-blocking I/O. The requests are performed by a pool
+ * of workers, so a slow call never delays the others on the same connection; the workers
+ * are not bounded because a call may federate with another server that calls back.
+ */
+public final class ServerEndpoint implements Closeable {
+
+    private static final int READ_BUFFER = 64 * 1024;
+
+    private final Server server;
+    private final ServerSocketChannel acceptor;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final Thread loop;
+    // connections with responses queued by the workers, to be written by the selector thread
+    private final Queue<Connection> writable = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    private ServerEndpoint(Server server, ServerSocketChannel acceptor, Selector selector) {
+        this.server = server;
+        this.acceptor = acceptor;
+        this.selector = selector;
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newCachedThreadPool(task -> {
+            Thread t = new Thread(task, "endpoint-" + server.getName() + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.loop = new Thread(this::run, "endpoint-" + server.getName());
+        this.loop.setDaemon(true);
+    }
+
+    /**
+     * Starts serving a server.
+     *
+     * @param server the server to expose
+     * @param address the address to listen on, port 0 chooses a free port
+     * @return the running endpoint
+     * @throws IOException if the address cannot be bound
+     */
+    public static ServerEndpoint open(Server server, InetSocketAddress address) throws IOException {
+        ServerSocketChannel acceptor = ServerSocketChannel.open();
+        Selector selector = null;
+        try {
+            acceptor.bind(address);
+            acceptor.configureBlocking(false);
+            selector = Selector.open();
+            acceptor.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            acceptor.close();
+            if (selector != null) {
+                selector.close();
+            }
+            throw e;
+        }
+        ServerEndpoint endpoint = new ServerEndpoint(server, acceptor, selector);
+        endpoint.loop.start();
+        return endpoint;
+    }
+
+    /**
+     * Returns the address the endpoint listens on, with the actual port.
+     */
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) acceptor.getLocalAddress();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stops accepting calls and closes every connection.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            loop.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                Connection connection;
+                while ((connection = writable.poll()) != null) {
+                    connection.write();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Connection c = (Connection) key.attachment();
+                        if (key.isReadable()) {
+                            c.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            c.write();
+                        }
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // the endpoint can no longer serve, fall through and release everything
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key);
+            }
+            try {
+                selector.close();
+                acceptor.close();
+            } catch (IOException e) {
+                // nothing left to release
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = acceptor.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // already broken
+        }
+    }
+
+    /**
+     * Performs a request on a worker and queues its response on the connection.
+     */
+    private void handle(Connection connection, ByteBuffer request) {
+        long number = -1;
+        WireWriter response = new WireWriter().writeInt(0);
+        try {
+            WireReader in = new WireReader(request);
+            int version = in.readByte();
+            number = in.readVarLong();
+            if (version != WireCodec.VERSION) {
+                throw new IllegalArgumentException("Unsupported wire version " + version);
+            }
+            int op = in.readByte();
+            response.writeVarLong(number).writeByte(RemoteProtocol.OK);
+            RemoteProtocol.dispatch(server, connection.peer, op, in, response);
+        } catch (ActivityPubException e) {
+            response = error(number, RemoteProtocol.ACTIVITYPUB_EXCEPTION, e);
+        } catch (IllegalArgumentException e) {
+            response = error(number, RemoteProtocol.ILLEGAL_ARGUMENT, e);
+        } catch (BufferUnderflowException e) {
+            response = error(number, RemoteProtocol.ILLEGAL_ARGUMENT, new IllegalArgumentException("Truncated request"));
+        } catch (InterruptedException e) {
+            response = error(number, RemoteProtocol.INTERRUPTED, e);
+        } catch (DeliveryRejectedException e) {
+            response = error(number, RemoteProtocol.REJECTED, e)
+                    .writeByte(e.getReason().ordinal())
+                    .writeVarLong(e.getRetryAfter().toNanos())
+                    .writeVarInt(e.getMaxRecipients())
+                    .writeVarInt(e.getMaxDeliveries());
+        } catch (RuntimeException e) {
+            response = error(number, RemoteProtocol.FAILURE, e);
+        }
+        if (number < 0) {
+            // not even the request number could be read, the caller cannot be answered
+            connection.close();
+            return;
+        }
+        connection.responses.add(response.toFrame());
+        writable.add(connection);
+        selector.wakeup();
+    }
+
+    private static WireWriter error(long number, int status, Exception e) {
+        return new WireWriter().writeInt(0)
+                .writeVarLong(number)
+                .writeByte(status)
+                .writeString(String.valueOf(e.getMessage()));
+    }
+
+    private class Connection {
+        private final SocketChannel channel;
+        // the origin of the deliveries read from the connection: the address, whatever the port
+        private final String peer;
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER);
+        private final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+
+        private Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            SocketAddress address = channel.getRemoteAddress();
+            this.peer = address instanceof InetSocketAddress inet ? inet.getAddress().getHostAddress() : String.valueOf(address);
+        }
+
+        /**
+         * Reads what is available and hands every complete frame to the workers.
+         */
+        private void read() {
+            try {
+                if (channel.read(in) < 0) {
+                    close();
+                    return;
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            in.flip();
+            while (in.remaining() >= 4) {
+                int length = in.getInt(in.position());
+                if (length < 0 || length > RemoteProtocol.MAX_FRAME) {
+                    close();
+                    return;
+                }
+                if (in.remaining() < 4 + length) {
+                    if (in.remaining() == in.capacity()) {
+                        // doubled as the bytes arrive, a header alone never allocates the largest frame
+                        in = ByteBuffer.allocate((int) Math.min(4L + length, 2L * in.capacity())).put(in);
+                        return;
+                    }
+                    break;
+                }
+                in.position(in.position() + 4);
+                byte[] frame = new byte[length];
+                in.get(frame);
+                workers.execute(() -> handle(this, ByteBuffer.wrap(frame)));
+            }
+            if (!in.hasRemaining() && in.capacity() > READ_BUFFER) {
+                // a large frame was read, the connection does not keep its buffer
+                in = ByteBuffer.allocate(READ_BUFFER);
+                return;
+            }
+            in.compact();
+        }
+
+        /**
+         * Writes the queued responses, then keeps waiting for writability only if some are left.
+         */
+        private void write() {
+            if (!key.isValid()) {
+                return;
+            }
+            try {
+                ByteBuffer head;
+                while ((head = responses.peek()) != null) {
+                    channel.write(head);
+                    if (head.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    responses.poll();
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void close() {
+            if (key != null) {
+                closeQuietly(key);
+            }
+        }
+    }
+}
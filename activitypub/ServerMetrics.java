@@ -0,0 +1,366 @@
+package it.polito.activitypub;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics of a server, available through {@link Server#getMetrics()} when enabled
+ * with {@link ServerConfig#metricsEnabled(boolean)}.
+ * <p>
+ * Counters are {@link LongAdder}s, so that threads updating them do not contend,
+ * and latencies are {@link LatencyHistogram}s. The gauges are computed from the
+ * server state when they are read, so they cost nothing to the server until then.
+ * A disabled server has no metrics object at all: its only cost is a null check.
+ */
+public final class ServerMetrics {
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private final LongAdder created = new LongAdder();
+    private final Map<String, Destination> destinations = new ConcurrentHashMap<>();
+    private final LatencyHistogram createActivity = new LatencyHistogram();
+    private final LatencyHistogram receiveActivity = new LatencyHistogram();
+    private final LatencyHistogram follow = new LatencyHistogram();
+    private final LongSupplier actors;
+    private final LongSupplier edges;
+    private final LongSupplier inboxEntries;
+    private final LongSupplier ingestQueued;
+    private final Map<DeliveryRejectedException.Reason, LongAdder> rejected = new EnumMap<>(DeliveryRejectedException.Reason.class);
+    // null when the inboxes are not bounded
+    private final InboxRetention retention;
+    // null when the server has no search index
+    private final SearchIndex searchIndex;
+    private final InboxSubscriptions subscriptions;
+
+    ServerMetrics(LongSupplier actors, LongSupplier edges, LongSupplier inboxEntries, LongSupplier ingestQueued,
+            InboxRetention retention, SearchIndex searchIndex, InboxSubscriptions subscriptions) {
+        this.actors = actors;
+        this.edges = edges;
+        this.inboxEntries = inboxEntries;
+        this.ingestQueued = ingestQueued;
+        this.retention = retention;
+        this.searchIndex = searchIndex;
+        this.subscriptions = subscriptions;
+        for (DeliveryRejectedException.Reason reason : DeliveryRejectedException.Reason.values()) {
+            rejected.put(reason, new LongAdder());
+        }
+    }
+
+    /**
+     * Counters of the deliveries towards one destination server.
+     */
+    private static final class Destination {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder delivered = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder retried = new LongAdder();
+        private final LongAdder deferred = new LongAdder();
+    }
+
+    private Destination destination(String serverName) {
+        Destination destination = destinations.get(serverName);
+        return destination != null ? destination : destinations.computeIfAbsent(serverName, k -> new Destination());
+    }
+
+    void activityCreated() {
+        created.increment();
+    }
+
+    /**
+     * Counts a call to a destination server carrying a number of activities.
+     */
+    void delivered(String serverName, int activities) {
+        Destination destination = destination(serverName);
+        destination.calls.increment();
+        destination.delivered.add(activities);
+    }
+
+    /**
+     * Counts activities that could not be delivered to a destination server.
+     */
+    void dropped(String serverName, int activities) {
+        destination(serverName).dropped.add(activities);
+    }
+
+    /**
+     * Counts activities whose delivery to a destination server failed and will be retried.
+     */
+    void retried(String serverName, int activities) {
+        destination(serverName).retried.add(activities);
+    }
+
+    /**
+     * Counts activities whose delivery was deferred because the destination server asked to wait.
+     */
+    void deferred(String serverName, int activities) {
+        destination(serverName).deferred.add(activities);
+    }
+
+    /**
+     * Counts a receive call that was not admitted.
+     */
+    void rejected(DeliveryRejectedException.Reason reason) {
+        rejected.get(reason).increment();
+    }
+
+    LatencyHistogram createActivityLatency() {
+        return createActivity;
+    }
+
+    LatencyHistogram receiveActivityLatency() {
+        return receiveActivity;
+    }
+
+    LatencyHistogram followLatency() {
+        return follow;
+    }
+
+    /**
+     * @return the number of activities created on the server
+     */
+    public long getActivitiesCreated() {
+        return created.sum();
+    }
+
+    /**
+     * @return the servers the server delivered to, or tried to
+     */
+    public Set<String> getDestinations() {
+        return Set.copyOf(destinations.keySet());
+    }
+
+    /**
+     * @param serverName a destination server
+     * @return the number of receive calls made to the server
+     */
+    public long getDeliveryCalls(String serverName) {
+        Destination destination = destinations.get(serverName);
+        return destination != null ? destination.calls.sum() : 0;
+    }
+
+    /**
+     * @param serverName a destination server
+     * @return the number of activities delivered to the server
+     */
+    public long getDelivered(String serverName) {
+        Destination destination = destinations.get(serverName);
+        return destination != null ? destination.delivered.sum() : 0;
+    }
+
+    /**
+     * @param serverName a destination server
+     * @return the number of activities that could not be delivered to the server,
+     *         because it could not be resolved or its receive call failed on every attempt
+     */
+    public long getDropped(String serverName) {
+        Destination destination = destinations.get(serverName);
+        return destination != null ? destination.dropped.sum() : 0;
+    }
+
+    /**
+     * @param serverName a destination server
+     * @return the number of failed deliveries to the server that were retried,
+     *         counting each retry of the same activity
+     */
+    public long getRetried(String serverName) {
+        Destination destination = destinations.get(serverName);
+        return destination != null ? destination.retried.sum() : 0;
+    }
+
+    /**
+     * @param serverName a destination server
+     * @return the number of deliveries to the server deferred because it was rate limiting or full,
+     *         counting each deferral of the same activity
+     */
+    public long getDeferred(String serverName) {
+        Destination destination = destinations.get(serverName);
+        return destination != null ? destination.deferred.sum() : 0;
+    }
+
+    /**
+     * @param reason why the calls were rejected
+     * @return the number of receive calls rejected by the server for that reason
+     */
+    public long getRejected(DeliveryRejectedException.Reason reason) {
+        return rejected.get(reason).sum();
+    }
+
+    /**
+     * @return the number of received deliveries waiting for the ingest workers,
+     *         see {@link ServerConfig#ingestQueueCapacity(int)}
+     */
+    public long getIngestQueued() {
+        return ingestQueued.getAsLong();
+    }
+
+    /**
+     * @return the latencies of {@link Server#createActivity}, fan-out included
+     */
+    public LatencyHistogram getCreateActivityLatency() {
+        return createActivity;
+    }
+
+    /**
+     * @return the latencies of the receive calls: {@link Server#receiveActivity},
+     *         {@link Server#receiveActivities} and {@link Server#receiveFollowersActivity}
+     */
+    public LatencyHistogram getReceiveActivityLatency() {
+        return receiveActivity;
+    }
+
+    /**
+     * @return the latencies of {@link Server#follow}
+     */
+    public LatencyHistogram getFollowLatency() {
+        return follow;
+    }
+
+    /**
+     * @return the number of actors of the server
+     */
+    public long getActorCount() {
+        return actors.getAsLong();
+    }
+
+    /**
+     * @return the number of follow edges stored by the server: the actors followed by its actors
+     *         plus the followers of its actors, so an edge between two local actors counts twice
+     */
+    public long getEdgeCount() {
+        return edges.getAsLong();
+    }
+
+    /**
+     * @return the number of entries in the inboxes of the server, not counting the
+     *         activities of high-follower actors merged into the inboxes when read
+     */
+    public long getInboxEntries() {
+        return inboxEntries.getAsLong();
+    }
+
+    /**
+     * @return the number of inbox entries evicted because their inbox was full,
+     *         see {@link ServerConfig#inboxMaxEntries(int)}
+     */
+    public long getInboxEvictedByCount() {
+        return retention != null ? retention.getEvictedByCount() : 0;
+    }
+
+    /**
+     * @return the number of inbox entries evicted because they expired,
+     *         see {@link ServerConfig#inboxMaxAge(java.time.Duration)}
+     */
+    public long getInboxEvictedByAge() {
+        return retention != null ? retention.getEvictedByAge() : 0;
+    }
+
+    /**
+     * @return the number of inbox entries evicted to stay within the memory budget,
+     *         see {@link ServerConfig#inboxMemoryBudget(long)}
+     */
+    public long getInboxEvictedByBudget() {
+        return retention != null ? retention.getEvictedByBudget() : 0;
+    }
+
+    /**
+     * @return the estimated bytes counted in the memory budget of the inboxes, outboxes and activities,
+     *         0 if the inboxes are not bounded
+     */
+    public long getInboxBytes() {
+        return retention != null ? retention.usedBytes() : 0;
+    }
+
+    /**
+     * @return the number of distinct terms in the search index, 0 without an index,
+     *         see {@link ServerConfig#searchIndexEnabled(boolean)}
+     */
+    public long getSearchIndexTerms() {
+        return searchIndex != null ? searchIndex.termCount() : 0;
+    }
+
+    /**
+     * @return the estimated bytes of the search index, 0 without an index
+     */
+    public long getSearchIndexBytes() {
+        return searchIndex != null ? searchIndex.estimatedBytes() : 0;
+    }
+
+    /**
+     * @return the number of subscriptions to the inboxes of the server, see {@link Server#subscribeInbox(String)}
+     */
+    public long getInboxSubscribers() {
+        return subscriptions.subscriberCount();
+    }
+
+    /**
+     * @return the number of activities dropped by inbox subscriptions with a full buffer
+     */
+    public long getInboxSubscriptionDropped() {
+        return subscriptions.droppedCount();
+    }
+
+    /**
+     * Exports the metrics as plain text, one {@code name value} line per metric,
+     * with the labels of the metric in braces after its name.
+     * Latencies are in microseconds.
+     *
+     * @return the text snapshot
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        line(text, "activities_created", "", created.sum());
+        Map<String, Destination> sorted = new TreeMap<>(destinations);
+        sorted.forEach((server, destination) -> {
+            String label = "{destination=\"" + server + "\"}";
+            line(text, "delivery_calls", label, destination.calls.sum());
+            line(text, "activities_delivered", label, destination.delivered.sum());
+            line(text, "activities_dropped", label, destination.dropped.sum());
+            line(text, "activities_retried", label, destination.retried.sum());
+            line(text, "activities_deferred", label, destination.deferred.sum());
+        });
+        rejected.forEach((reason, count) ->
+                line(text, "receive_rejected", "{reason=\"" + reason.name().toLowerCase() + "\"}", count.sum()));
+        line(text, "ingest_queued", "", getIngestQueued());
+        histogram(text, "create_activity_latency_us", createActivity);
+        histogram(text, "receive_activity_latency_us", receiveActivity);
+        histogram(text, "follow_latency_us", follow);
+        line(text, "actors", "", getActorCount());
+        line(text, "follow_edges", "", getEdgeCount());
+        line(text, "inbox_entries", "", getInboxEntries());
+        line(text, "inbox_subscribers", "", getInboxSubscribers());
+        line(text, "inbox_subscription_dropped", "", getInboxSubscriptionDropped());
+        if (retention != null) {
+            line(text, "inbox_evictions", "{cause=\"max_entries\"}", getInboxEvictedByCount());
+            line(text, "inbox_evictions", "{cause=\"max_age\"}", getInboxEvictedByAge());
+            line(text, "inbox_evictions", "{cause=\"memory_budget\"}", getInboxEvictedByBudget());
+            line(text, "inbox_bytes", "", getInboxBytes());
+        }
+        if (searchIndex != null) {
+            line(text, "search_index_terms", "", getSearchIndexTerms());
+            line(text, "search_index_bytes", "", getSearchIndexBytes());
+        }
+        return text.toString();
+    }
+
+    private static void histogram(StringBuilder text, String name, LatencyHistogram histogram) {
+        line(text, name + "_count", "", histogram.getCount());
+        for (double percentile : PERCENTILES) {
+            line(text, name, "{quantile=\"" + percentile / 100 + "\"}", micros(histogram.getPercentile(percentile)));
+        }
+        line(text, name + "_max", "", micros(histogram.getMax()));
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static void line(StringBuilder text, String name, String labels, long value) {
+        text.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+}
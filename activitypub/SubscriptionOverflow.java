@@ -0,0 +1,15 @@
+package it.polito.activitypub;
+
+/**
+ * What an inbox subscription does with a new activity when its buffer is full,
+ * because its subscriber requests activities slower than they arrive,
+ * see {@link ServerConfig#inboxSubscriptionOverflow(SubscriptionOverflow)}.
+ * The dropped activities stay in the inbox, where the subscriber can read them with
+ * {@link Server#getInbox(String, String, int)}.
+ */
+public enum SubscriptionOverflow {
+    /** The oldest buffered activity is dropped: the backlog is coalesced into the latest activities. */
+    DROP_OLDEST,
+    /** The new activity is dropped: the subscriber gets the activities up to the one that filled its buffer. */
+    DROP_NEWEST
+}
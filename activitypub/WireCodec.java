@@ -0,0 +1,199 @@
+package it.polito.activitypub;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Compact, versioned binary codec for the objects exchanged between servers.
+ * <p>
+ * Every message starts with the format version and a tag identifying its content.
+ * Integers are unsigned LEB128 varints, strings are a varint UTF-8 length followed by the bytes.
+ * An activity is a header byte (type ordinal, plus a flag when the ID is a canonical UUID,
+ * which is then written as 16 raw bytes), the actor ID as a symbol (written in full once
+ * per message, then as a varint back-reference), the content and the timestamp
+ * as epoch seconds and nanoseconds. An actor is its username, display name and server name.
+ * A delivery batch names the destination server once and writes the recipients hosted there
+ * as bare usernames. A page is its activities followed by its optional cursor.
+ * <p>
+ * Decoding reads straight from the given buffer, which is left positioned after the message.
+ */
+public final class WireCodec {
+
+    public static final int VERSION = 1;
+
+    static final int TAG_ACTIVITY = 1;
+    static final int TAG_ACTOR = 2;
+    static final int TAG_DELIVERIES = 3;
+    static final int TAG_PAGE = 4;
+    static final int UUID_ID = 0x80;
+
+    private WireCodec() {
+    }
+
+    /**
+     * Encodes an activity.
+     *
+     * @param activity the activity
+     * @return a buffer holding the encoded message
+     */
+    public static ByteBuffer encode(Activity activity) {
+        String content = activity.getContent();
+        return new WireWriter(64 + (content != null ? content.length() : 0))
+                .writeByte(VERSION).writeByte(TAG_ACTIVITY)
+                .writeActivity(activity)
+                .toByteBuffer();
+    }
+
+    /**
+     * Decodes an activity.
+     *
+     * @param buffer the buffer holding a message produced by {@link #encode(Activity)}
+     * @return the activity
+     * @throws IllegalArgumentException if the message is malformed or has a different version
+     */
+    public static Activity decodeActivity(ByteBuffer buffer) {
+        try {
+            return header(buffer, TAG_ACTIVITY).readActivity();
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated activity");
+        }
+    }
+
+    /**
+     * Encodes an actor.
+     *
+     * @param actor the actor
+     * @return a buffer holding the encoded message
+     */
+    public static ByteBuffer encode(Actor actor) {
+        return new WireWriter(64)
+                .writeByte(VERSION).writeByte(TAG_ACTOR)
+                .writeActor(actor)
+                .toByteBuffer();
+    }
+
+    /**
+     * Decodes an actor.
+     *
+     * @param buffer the buffer holding a message produced by {@link #encode(Actor)}
+     * @return the actor
+     * @throws IllegalArgumentException if the message is malformed or has a different version
+     */
+    public static Actor decodeActor(ByteBuffer buffer) {
+        try {
+            return header(buffer, TAG_ACTOR).readActor();
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated actor");
+        }
+    }
+
+    /**
+     * Encodes a batch of deliveries, as passed to {@link Server#receiveActivities(List)}.
+     *
+     * @param serverName the name of the destination server
+     * @param deliveries the deliveries
+     * @return a buffer holding the encoded message
+     */
+    public static ByteBuffer encode(String serverName, List<Delivery> deliveries) {
+        return new WireWriter(128 * deliveries.size() + 32)
+                .writeByte(VERSION).writeByte(TAG_DELIVERIES)
+                .writeDeliveries(serverName, deliveries)
+                .toByteBuffer();
+    }
+
+    /**
+     * Decodes a batch of deliveries.
+     *
+     * @param buffer the buffer holding a message produced by {@link #encode(String, List)}
+     * @return the deliveries
+     * @throws IllegalArgumentException if the message is malformed or has a different version
+     */
+    public static List<Delivery> decodeDeliveries(ByteBuffer buffer) {
+        try {
+            return header(buffer, TAG_DELIVERIES).readDeliveries();
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated deliveries");
+        }
+    }
+
+    /**
+     * Encodes a page of activities, as returned by {@link Server#getInbox(String, String, int)}.
+     *
+     * @param page the page
+     * @return a buffer holding the encoded message
+     */
+    public static ByteBuffer encode(ActivityPage page) {
+        return new WireWriter(128 * page.getActivities().size() + 32)
+                .writeByte(VERSION).writeByte(TAG_PAGE)
+                .writePage(page)
+                .toByteBuffer();
+    }
+
+    /**
+     * Decodes a page of activities.
+     *
+     * @param buffer the buffer holding a message produced by {@link #encode(ActivityPage)}
+     * @return the page
+     * @throws IllegalArgumentException if the message is malformed or has a different version
+     */
+    public static ActivityPage decodePage(ByteBuffer buffer) {
+        try {
+            return header(buffer, TAG_PAGE).readPage();
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated page");
+        }
+    }
+
+    private static WireReader header(ByteBuffer buffer, int tag) {
+        WireReader reader = new WireReader(buffer);
+        int version = reader.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported wire version " + version);
+        }
+        int actual = reader.readByte();
+        if (actual != tag) {
+            throw new IllegalArgumentException("Expected message " + tag + " but found " + actual);
+        }
+        return reader;
+    }
+
+    /**
+     * Parses an ID in the canonical lowercase UUID form.
+     *
+     * @return the UUID, or null if the ID is in any other form and must be sent as a string
+     */
+    static UUID parseUuid(String id) {
+        if (id.length() != 36) {
+            return null;
+        }
+        long msb = 0;
+        long lsb = 0;
+        int digits = 0;
+        for (int i = 0; i < 36; i++) {
+            char c = id.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return null;
+                }
+                continue;
+            }
+            int nibble;
+            if (c >= '0' && c <= '9') {
+                nibble = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                nibble = c - 'a' + 10;
+            } else {
+                return null;
+            }
+            if (digits < 16) {
+                msb = (msb << 4) | nibble;
+            } else {
+                lsb = (lsb << 4) | nibble;
+            }
+            digits++;
+        }
+        return new UUID(msb, lsb);
+    }
+}
@@ -0,0 +1,238 @@
+package it.polito.activitypub;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Decoder of the binary wire format described in {@link WireCodec}.
+ * Reads directly from the buffer: strings of heap buffers are decoded in place
+ * from the backing array, without intermediate copies.
+ */
+final class WireReader {
+
+    private static final ActivityType[] TYPES = ActivityType.values();
+    private static final FollowResult[] RESULTS = FollowResult.values();
+
+    private final ByteBuffer in;
+    private final List<String> symbols = new ArrayList<>();
+    private final Map<String, String> canonical;
+
+    WireReader(ByteBuffer in) {
+        this(in, null);
+    }
+
+    /**
+     * Creates a reader that returns a single instance for equal symbols across messages,
+     * so that the actor IDs of many decoded activities share their strings.
+     *
+     * @param in the buffer to read
+     * @param canonical the canonical instances, updated by the reader
+     */
+    WireReader(ByteBuffer in, Map<String, String> canonical) {
+        this.in = in;
+        this.canonical = canonical;
+    }
+
+    int readByte() {
+        return in.get() & 0xff;
+    }
+
+    boolean readBoolean() {
+        return in.get() != 0;
+    }
+
+    /**
+     * Reads a non-negative int: the fifth byte, if any, may only carry the bits 28 to 30,
+     * so a negative or longer varint is rejected instead of being used as a length.
+     */
+    int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 28; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        byte last = in.get();
+        if ((last & 0xff) > 0x07) {
+            throw new IllegalArgumentException("Malformed varint: negative or longer than 5 bytes");
+        }
+        return value | last << 28;
+    }
+
+    /**
+     * Reads a long of any sign: the tenth byte, if any, may only carry the bit 63.
+     */
+    long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 63; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        byte last = in.get();
+        if ((last & 0xff) > 0x01) {
+            throw new IllegalArgumentException("Malformed varlong: longer than 10 bytes");
+        }
+        return value | (long) last << 63;
+    }
+
+    /**
+     * Reads the number of elements that follow, each taking at least a byte,
+     * so that a malformed count is rejected before anything is allocated for it.
+     */
+    int readCount() {
+        int count = readVarInt();
+        if (count > in.remaining()) {
+            throw new IllegalArgumentException("Count " + count + " exceeds the buffer");
+        }
+        return count;
+    }
+
+    long readLong() {
+        return in.getLong();
+    }
+
+    String readString() {
+        int length = readVarInt();
+        if (length > in.remaining()) {
+            throw new IllegalArgumentException("String length " + length + " exceeds the buffer");
+        }
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    Instant readInstant() {
+        return Instant.ofEpochSecond(readVarLong(), readVarInt());
+    }
+
+    Instant readOptionalInstant() {
+        return readBoolean() ? readInstant() : null;
+    }
+
+    String readOptionalString() {
+        return readBoolean() ? readString() : null;
+    }
+
+    String readSymbol() {
+        int number = readVarInt();
+        if (number == 0) {
+            String value = readString();
+            if (canonical != null) {
+                value = canonical.computeIfAbsent(value, v -> v);
+            }
+            symbols.add(value);
+            return value;
+        }
+        if (number > symbols.size()) {
+            throw new IllegalArgumentException("Unknown back-reference " + number);
+        }
+        return symbols.get(number - 1);
+    }
+
+    Activity readActivity() {
+        int header = readByte();
+        int ordinal = header & ~WireCodec.UUID_ID;
+        if (ordinal >= TYPES.length) {
+            throw new IllegalArgumentException("Unknown activity type " + ordinal);
+        }
+        String id = (header & WireCodec.UUID_ID) != 0
+                ? new UUID(readLong(), readLong()).toString()
+                : readString();
+        String actor = readSymbol();
+        String content = readOptionalString();
+        Instant timestamp = readInstant();
+        return new Activity(id, TYPES[ordinal], actor, content, timestamp);
+    }
+
+    Actor readActor() {
+        return new Actor(readString(), readOptionalString(), readString());
+    }
+
+    List<Actor> readActors() {
+        int count = readCount();
+        List<Actor> actors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            actors.add(readActor());
+        }
+        return actors;
+    }
+
+    List<Activity> readActivities() {
+        int count = readCount();
+        List<Activity> activities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            activities.add(readActivity());
+        }
+        return activities;
+    }
+
+    ActivityPage readPage() {
+        List<Activity> activities = readActivities();
+        return new ActivityPage(activities, readOptionalString());
+    }
+
+    List<String> readStrings() {
+        int count = readCount();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readString());
+        }
+        return values;
+    }
+
+    Map<String, FollowResult> readFollowResults() {
+        int count = readCount();
+        Map<String, FollowResult> results = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String id = readString();
+            int ordinal = readByte();
+            if (ordinal >= RESULTS.length) {
+                throw new IllegalArgumentException("Unknown follow result " + ordinal);
+            }
+            results.put(id, RESULTS[ordinal]);
+        }
+        return results;
+    }
+
+    List<Delivery> readDeliveries() {
+        String suffix = "@" + readString();
+        int count = readCount();
+        List<Delivery> deliveries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            deliveries.add(readDelivery(suffix));
+        }
+        return deliveries;
+    }
+
+    Delivery readDelivery(String suffix) {
+        boolean toFollowers = readBoolean();
+        Activity activity = readActivity();
+        String[] recipients = new String[readCount()];
+        for (int r = 0; r < recipients.length; r++) {
+            recipients[r] = readBoolean() ? "@" + readString() + suffix : readString();
+        }
+        return toFollowers ? Delivery.toFollowers(activity) : new Delivery(activity, recipients);
+    }
+
+    boolean hasRemaining() {
+        return in.hasRemaining();
+    }
+}
@@ -0,0 +1,262 @@
+package it.polito.activitypub;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Encoder of the binary wire format described in {@link WireCodec}.
+ * Writes into a growable heap buffer.
+ */
+final class WireWriter {
+
+    private byte[] buf;
+    private int pos;
+    // strings already written in this message, by back-reference number
+    private final Map<String, Integer> symbols = new HashMap<>();
+
+    WireWriter() {
+        this(256);
+    }
+
+    WireWriter(int capacity) {
+        buf = new byte[capacity];
+    }
+
+    private void ensure(int bytes) {
+        if (pos + bytes > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + bytes));
+        }
+    }
+
+    WireWriter writeByte(int value) {
+        ensure(1);
+        buf[pos++] = (byte) value;
+        return this;
+    }
+
+    WireWriter writeBoolean(boolean value) {
+        return writeByte(value ? 1 : 0);
+    }
+
+    WireWriter writeVarInt(int value) {
+        ensure(5);
+        while ((value & ~0x7f) != 0) {
+            buf[pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return this;
+    }
+
+    WireWriter writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7fL) != 0) {
+            buf[pos++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return this;
+    }
+
+    WireWriter writeInt(int value) {
+        ensure(4);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            buf[pos++] = (byte) (value >>> shift);
+        }
+        return this;
+    }
+
+    WireWriter writeLong(long value) {
+        ensure(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buf[pos++] = (byte) (value >>> shift);
+        }
+        return this;
+    }
+
+    /**
+     * Writes a string as its UTF-8 length followed by its UTF-8 bytes;
+     * ASCII strings are copied directly without an intermediate array.
+     */
+    WireWriter writeString(String value) {
+        int length = value.length();
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; i++) {
+            ascii = value.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            writeVarInt(length);
+            ensure(length);
+            for (int i = 0; i < length; i++) {
+                buf[pos++] = (byte) value.charAt(i);
+            }
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+        return this;
+    }
+
+    /**
+     * Writes a nullable string: a presence flag followed by the string.
+     */
+    WireWriter writeOptionalString(String value) {
+        writeBoolean(value != null);
+        return value != null ? writeString(value) : this;
+    }
+
+    WireWriter writeInstant(Instant value) {
+        writeVarLong(value.getEpochSecond());
+        return writeVarInt(value.getNano());
+    }
+
+    /**
+     * Writes a nullable instant: a presence flag followed by the instant.
+     */
+    WireWriter writeOptionalInstant(Instant value) {
+        writeBoolean(value != null);
+        return value != null ? writeInstant(value) : this;
+    }
+
+    /**
+     * Writes a string that is likely to repeat within the message, such as an actor ID:
+     * the first occurrence is written in full, the following ones as a back-reference.
+     */
+    WireWriter writeSymbol(String value) {
+        Integer number = symbols.get(value);
+        if (number != null) {
+            return writeVarInt(number + 1);
+        }
+        symbols.put(value, symbols.size());
+        writeVarInt(0);
+        return writeString(value);
+    }
+
+    WireWriter writeActivity(Activity activity) {
+        UUID uuid = WireCodec.parseUuid(activity.getId());
+        if (uuid != null) {
+            writeByte(activity.getType().ordinal() | WireCodec.UUID_ID);
+            writeLong(uuid.getMostSignificantBits());
+            writeLong(uuid.getLeastSignificantBits());
+        } else {
+            writeByte(activity.getType().ordinal());
+            writeString(activity.getId());
+        }
+        writeSymbol(activity.getActor());
+        writeOptionalString(activity.getContent());
+        return writeInstant(activity.getTimestamp());
+    }
+
+    WireWriter writeActor(Actor actor) {
+        writeString(actor.getUsername());
+        writeOptionalString(actor.getDisplayName());
+        return writeString(actor.getActorId().getServerName());
+    }
+
+    WireWriter writeActors(List<Actor> actors) {
+        writeVarInt(actors.size());
+        for (Actor actor : actors) {
+            writeActor(actor);
+        }
+        return this;
+    }
+
+    WireWriter writeActivities(List<Activity> activities) {
+        writeVarInt(activities.size());
+        for (Activity activity : activities) {
+            writeActivity(activity);
+        }
+        return this;
+    }
+
+    WireWriter writePage(ActivityPage page) {
+        writeActivities(page.getActivities());
+        return writeOptionalString(page.getNextCursor().orElse(null));
+    }
+
+    /**
+     * Writes a batch of deliveries to a server.
+     * The recipients hosted on that server, usually all of them, are written as bare usernames.
+     */
+    WireWriter writeStrings(Collection<String> values) {
+        writeVarInt(values.size());
+        for (String value : values) {
+            writeString(value);
+        }
+        return this;
+    }
+
+    /**
+     * Writes the outcomes of a bulk follow change, as their ordinals in the order of the map.
+     */
+    WireWriter writeFollowResults(Map<String, FollowResult> results) {
+        writeVarInt(results.size());
+        for (Map.Entry<String, FollowResult> result : results.entrySet()) {
+            writeString(result.getKey());
+            writeByte(result.getValue().ordinal());
+        }
+        return this;
+    }
+
+    WireWriter writeDeliveries(String serverName, List<Delivery> deliveries) {
+        String suffix = "@" + serverName;
+        writeString(serverName);
+        writeVarInt(deliveries.size());
+        for (Delivery delivery : deliveries) {
+            writeDelivery(suffix, delivery);
+        }
+        return this;
+    }
+
+    /**
+     * Writes a delivery, with the recipients whose ID ends with the suffix as bare usernames.
+     */
+    WireWriter writeDelivery(String suffix, Delivery delivery) {
+        writeBoolean(delivery.isToFollowers());
+        writeActivity(delivery.getActivity());
+        writeVarInt(delivery.getRecipientIds().size());
+        for (String id : delivery.getRecipientIds()) {
+            if (id.startsWith("@") && id.endsWith(suffix) && id.indexOf('@', 1) == id.length() - suffix.length()) {
+                writeBoolean(true);
+                writeString(id.substring(1, id.length() - suffix.length()));
+            } else {
+                writeBoolean(false);
+                writeString(id);
+            }
+        }
+        return this;
+    }
+
+    int size() {
+        return pos;
+    }
+
+    /**
+     * Returns the bytes written so far as a length-prefixed frame, without copying them.
+     * The first four bytes must have been reserved with {@code writeInt(0)}.
+     */
+    ByteBuffer toFrame() {
+        int length = pos - 4;
+        for (int i = 0; i < 4; i++) {
+            buf[i] = (byte) (length >>> (24 - 8 * i));
+        }
+        return toByteBuffer();
+    }
+
+    /**
+     * Returns the bytes written so far, without copying them.
+     */
+    ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buf, 0, pos);
+    }
+}
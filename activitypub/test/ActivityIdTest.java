@@ -0,0 +1,102 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.InMemoryNamingService;
+import it.polito.activitypub.NamingService;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerConfig;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ActivityIdTest {
+
+    private static final String MASTO_POLITO = "ids.polito.it";
+    private static final String MASTO_UNITO = "ids.unito.it";
+
+    private Server polito;
+    private Server unito;
+    private Actor alice;
+    private Actor bob;
+
+    @Before
+    public void setup() throws ActivityPubException {
+        NamingService namingService = new InMemoryNamingService();
+        polito = ActivityPubUtilities.createServer(MASTO_POLITO, new ServerConfig().namingService(namingService));
+        unito = ActivityPubUtilities.createServer(MASTO_UNITO, new ServerConfig().namingService(namingService));
+        alice = polito.createActor("alice", "Alice Doe");
+        bob = unito.createActor("bob", "Bob Rossi");
+        unito.follow(bob.getFullId(), alice.getFullId());
+    }
+
+    @Test
+    public void testTimeOrderedIds() {
+        List<Activity> created = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            created.add(polito.createActivity(alice.getFullId(), ActivityType.CREATE, "Post " + i));
+        }
+
+        for (int i = 1; i < created.size(); i++) {
+            Activity previous = created.get(i - 1);
+            Activity next = created.get(i);
+            assertTrue(next.getTimestamp().isAfter(previous.getTimestamp()));
+            assertTrue(next.getId().compareTo(previous.getId()) > 0);
+        }
+        UUID uuid = UUID.fromString(created.get(0).getId());
+        assertEquals(7, uuid.version());
+        assertEquals(2, uuid.variant());
+    }
+
+    @Test
+    public void testNewestFirstWithoutPause() {
+        for (int i = 0; i < 100; i++) {
+            polito.createActivity(alice.getFullId(), ActivityType.CREATE, "Post " + i);
+        }
+
+        List<String> inbox = unito.getInbox(bob.getFullId()).map(Activity::getContent).collect(Collectors.toList());
+        List<String> outbox = polito.getOutbox(alice.getFullId()).map(Activity::getContent).collect(Collectors.toList());
+        Collections.reverse(outbox);
+        assertEquals(100, inbox.size());
+        assertEquals("Post 99", inbox.get(0));
+        assertEquals(outbox, inbox);
+    }
+
+    @Test
+    public void testUniqueAcrossThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<List<String>>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(() -> {
+                List<String> ids = new ArrayList<>();
+                for (int i = 0; i < 2000; i++) {
+                    ids.add(polito.createActivity(alice.getFullId(), ActivityType.LIKE, "Like").getId());
+                    ids.add(new Activity(ActivityType.LIKE, alice.getFullId(), "Like").getId());
+                }
+                return ids;
+            }));
+        }
+        Set<String> all = new HashSet<>();
+        for (Future<List<String>> future : futures) {
+            all.addAll(future.get());
+        }
+        executor.shutdown();
+
+        assertEquals(4 * 2 * 2000, all.size());
+    }
+}
@@ -0,0 +1,149 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.InMemoryNamingService;
+import it.polito.activitypub.NamingService;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerConfig;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ActorDeletionTest {
+
+    private static final String MASTO_POLITO = "delete.polito.it";
+    private static final String MASTO_UNITO = "delete.unito.it";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private NamingService namingService;
+    private Server polito;
+    private Server unito;
+    private Actor alice;
+    private Actor carla;
+    private Actor bob;
+    private Actor dave;
+    private final AtomicInteger deletionCalls = new AtomicInteger();
+
+    @Before
+    public void setup() throws ActivityPubException {
+        namingService = new InMemoryNamingService();
+        polito = ActivityPubUtilities.createServer(MASTO_POLITO, new ServerConfig().namingService(namingService).metricsEnabled(true));
+        createUnito(new ServerConfig());
+
+        alice = polito.createActor("alice", "Alice Doe");
+        carla = polito.createActor("carla", "Carla Bianchi");
+    }
+
+    private void createUnito(ServerConfig config) throws ActivityPubException {
+        config.namingService(namingService).metricsEnabled(true);
+        unito = new ServerProxy(ActivityPubUtilities.createServer(MASTO_UNITO, config)) {
+            @Override
+            public void actorDeleted(String actorId, Instant deletedAt, Collection<String> followedIds, Collection<String> followerIds) {
+                deletionCalls.incrementAndGet();
+                super.actorDeleted(actorId, deletedAt, followedIds, followerIds);
+            }
+        };
+        namingService.registerServer(MASTO_UNITO, unito);
+        bob = unito.createActor("bob", "Bob Rossi");
+        dave = unito.createActor("dave", "Dave Verdi");
+    }
+
+    private void followEachOther() throws ActivityPubException {
+        for (Actor other : List.of(bob, dave, carla)) {
+            polito.follow(alice.getFullId(), other.getFullId());
+        }
+        unito.follow(bob.getFullId(), alice.getFullId());
+        unito.follow(dave.getFullId(), alice.getFullId());
+        polito.follow(carla.getFullId(), alice.getFullId());
+    }
+
+    @Test
+    public void testEdgesRemovedEverywhere() throws ActivityPubException {
+        followEachOther();
+        assertEquals(4, unito.getMetrics().get().getEdgeCount());
+
+        assertTrue(polito.deleteActor("alice"));
+
+        assertEquals(1, deletionCalls.get());
+        assertEquals(0, unito.getMetrics().get().getEdgeCount());
+        assertEquals(0, polito.getMetrics().get().getEdgeCount());
+        assertEquals(List.of(), unito.getFollowing(bob.getFullId()));
+        assertEquals(List.of(), unito.getFollowers(dave.getFullId()));
+        assertEquals(List.of(), polito.getFollowers(carla.getFullId()));
+        assertFalse(polito.deleteActor("alice"));
+    }
+
+    @Test
+    public void testRecreatedActorStartsClean() throws ActivityPubException {
+        followEachOther();
+        polito.deleteActor("alice");
+
+        Actor again = polito.createActor("alice", "Alice Again");
+
+        assertEquals(List.of(), polito.getFollowers(again.getFullId()));
+        assertEquals(List.of(), polito.getFollowing(again.getFullId()));
+        assertFalse(unito.isFollowing(bob.getFullId(), again.getFullId()));
+        assertTrue(unito.follow(bob.getFullId(), again.getFullId()));
+    }
+
+    @Test
+    public void testInboxesKeptByDefault() throws ActivityPubException {
+        followEachOther();
+        polito.createActivity(alice.getFullId(), ActivityType.CREATE, "Hello");
+
+        polito.deleteActor("alice");
+
+        assertEquals(1, unito.getInbox(bob.getFullId()).count());
+    }
+
+    @Test
+    public void testInboxesPurged() throws ActivityPubException {
+        createUnito(new ServerConfig().purgeInboxesOnActorDeletion(true));
+        followEachOther();
+        Activity other = polito.createActivity(carla.getFullId(), ActivityType.CREATE, "From Carla");
+        unito.receiveActivity(other, bob.getFullId());
+        polito.createActivity(alice.getFullId(), ActivityType.CREATE, "Hello");
+        polito.createActivity(alice.getFullId(), ActivityType.LIKE, "Like");
+
+        polito.deleteActor("alice");
+
+        assertEquals(List.of(other), unito.getInbox(bob.getFullId()).toList());
+        assertEquals(List.of(other), unito.getInbox(bob.getFullId(), null, 10).getActivities());
+        assertEquals(2, polito.getInbox(carla.getFullId()).count());
+
+        // the activities of the new alice are shown
+        polito.createActor("alice", "Alice Again");
+        unito.follow(bob.getFullId(), alice.getFullId());
+        Activity after = polito.createActivity(alice.getFullId(), ActivityType.CREATE, "I am back");
+        assertEquals(List.of(after, other), unito.getInbox(bob.getFullId()).toList());
+    }
+
+    @Test
+    public void testPurgeSurvivesRestart() throws ActivityPubException {
+        ServerConfig durable = new ServerConfig().dataDirectory(folder.getRoot().toPath()).purgeInboxesOnActorDeletion(true);
+        createUnito(durable);
+        followEachOther();
+        polito.createActivity(alice.getFullId(), ActivityType.CREATE, "Hello");
+        polito.deleteActor("alice");
+
+        createUnito(durable);
+
+        assertEquals(0, unito.getInbox(bob.getFullId()).count());
+        assertEquals(List.of(), unito.getFollowing(bob.getFullId()));
+    }
+}
@@ -0,0 +1,100 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.ActorId;
+import it.polito.activitypub.InMemoryNamingService;
+import it.polito.activitypub.NamingService;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerConfig;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ActorIdTest {
+
+    private static final String MASTO_POLITO = "actorid.polito.it";
+    private static final String MASTO_UNITO = "actorid.unito.it";
+
+    private Server polito;
+    private Server unito;
+    private Actor alice;
+    private Actor bob;
+
+    @Before
+    public void setup() throws ActivityPubException {
+        NamingService namingService = new InMemoryNamingService();
+        polito = ActivityPubUtilities.createServer(MASTO_POLITO, new ServerConfig().namingService(namingService));
+        unito = ActivityPubUtilities.createServer(MASTO_UNITO, new ServerConfig().namingService(namingService));
+        alice = polito.createActor("alice", "Alice Doe");
+        bob = unito.createActor("bob", "Bob Rossi");
+    }
+
+    @Test
+    public void testParse() {
+        ActorId id = ActorId.of("@alice@" + MASTO_POLITO);
+
+        assertEquals("alice", id.getUsername());
+        assertEquals(MASTO_POLITO, id.getServerName());
+        assertEquals(alice.getFullId(), id.toString());
+        assertEquals(alice.getFullId().hashCode(), id.hashCode());
+        assertEquals(id, ActorId.of("alice", MASTO_POLITO));
+        assertEquals(id, alice.getActorId());
+    }
+
+    @Test
+    public void testKeptByActor() throws Exception {
+        ActorId id = bob.getActorId();
+        assertSame(id, bob.getActorId());
+        assertEquals(id, ActorId.of(new String(bob.getFullId().toCharArray())));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(id);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(id, in.readObject());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBareUsername() {
+        ActorId.of("alice");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingServer() {
+        ActorId.of("@alice@");
+    }
+
+    @Test
+    public void testServerOverloads() throws ActivityPubException {
+        ActorId aliceId = alice.getActorId();
+        ActorId bobId = bob.getActorId();
+
+        assertEquals(alice, polito.getActor(aliceId).get());
+        assertFalse(unito.getActor(aliceId).isPresent());
+
+        assertTrue(unito.follow(bobId, aliceId));
+        assertTrue(unito.isFollowing(bobId, aliceId));
+        polito.createActivity(aliceId, ActivityType.CREATE, "Hello");
+        List<String> inbox = unito.getInbox(bobId).map(Activity::getContent).collect(Collectors.toList());
+        assertEquals(List.of("Hello"), inbox);
+
+        assertTrue(unito.unfollow(bobId, aliceId));
+        assertFalse(unito.isFollowing(bobId.toString(), aliceId.toString()));
+    }
+}
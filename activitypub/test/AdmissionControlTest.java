@@ -0,0 +1,239 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.Delivery;
+import it.polito.activitypub.DeliveryRejectedException;
+import it.polito.activitypub.InMemoryNamingService;
+import it.polito.activitypub.NamingService;
+import it.polito.activitypub.RemoteServer;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerConfig;
+import it.polito.activitypub.ServerEndpoint;
+import it.polito.activitypub.ServerMetrics;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AdmissionControlTest {
+
+    private static final String MASTO_POLITO = "admission.polito.it";
+    private static final String MASTO_UNITO = "admission.unito.it";
+
+    private NamingService namingService;
+
+    @Before
+    public void setup() {
+        namingService = new InMemoryNamingService();
+    }
+
+    private Server unito(ServerConfig config) {
+        Server unito = ActivityPubUtilities.createServer(MASTO_UNITO, config.namingService(namingService).metricsEnabled(true));
+        namingService.registerServer(MASTO_UNITO, unito);
+        return unito;
+    }
+
+    private Server polito(ServerConfig config) throws ActivityPubException {
+        Server polito = ActivityPubUtilities.createServer(MASTO_POLITO, config.namingService(namingService).metricsEnabled(true));
+        namingService.registerServer(MASTO_POLITO, polito);
+        polito.createActor("alice", "Alice Doe");
+        return polito;
+    }
+
+    private static Activity like(String server, int i) {
+        return new Activity(ActivityType.LIKE, "@dave@" + server, "Like " + i);
+    }
+
+    private static DeliveryRejectedException rejected(Runnable call) {
+        try {
+            call.run();
+        } catch (DeliveryRejectedException e) {
+            return e;
+        }
+        throw new AssertionError("The call must be rejected");
+    }
+
+    private static List<String> inbox(Server server, String actorId) {
+        List<String> inbox = server.getInbox(actorId).map(Activity::getContent).collect(Collectors.toList());
+        Collections.reverse(inbox);
+        return inbox;
+    }
+
+    @Test
+    public void testConfigValidation() {
+        ServerConfig config = new ServerConfig();
+        for (Runnable invalid : List.<Runnable>of(() -> config.ingestRateLimit(0), () -> config.ingestBurst(0),
+                () -> config.ingestQueueCapacity(-1), () -> config.ingestThreads(0), () -> config.maxRecipientsPerCall(0))) {
+            try {
+                invalid.run();
+                fail("Invalid value accepted");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testRateLimitedPerOrigin() throws ActivityPubException {
+        Server unito = unito(new ServerConfig().ingestRateLimit(1).ingestBurst(3));
+        String bob = unito.createActor("bob", "Bob Rossi").getFullId();
+        String carla = unito.createActor("carla", "Carla Bianchi").getFullId();
+
+        unito.receiveActivity(like("admission.first.it", 0), bob);
+        unito.receiveActivity(like("admission.first.it", 1), bob, carla);
+        DeliveryRejectedException e = rejected(() -> unito.receiveActivity(like("admission.first.it", 2), bob));
+
+        assertEquals(DeliveryRejectedException.Reason.RATE_LIMITED, e.getReason());
+        assertTrue(e.getRetryAfter().toString(), e.getRetryAfter().compareTo(Duration.ZERO) > 0
+                && e.getRetryAfter().compareTo(Duration.ofSeconds(1)) <= 0);
+        // another origin has its own bucket
+        unito.receiveActivity(like("admission.second.it", 3), bob);
+
+        assertEquals(List.of("Like 0", "Like 1", "Like 3"), inbox(unito, bob));
+        assertEquals(1, unito.getMetrics().get().getRejected(DeliveryRejectedException.Reason.RATE_LIMITED));
+    }
+
+    @Test
+    public void testTooManyRecipientsSplitBySender() throws ActivityPubException {
+        Server unito = unito(new ServerConfig().maxRecipientsPerCall(2));
+        List<String> followers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            followers.add(unito.createActor("user" + i, "User " + i).getFullId());
+        }
+
+        DeliveryRejectedException e = rejected(() -> unito.receiveActivity(like("admission.other.it", 0),
+                followers.subList(0, 3).toArray(new String[0])));
+        assertEquals(DeliveryRejectedException.Reason.TOO_MANY_RECIPIENTS, e.getReason());
+        assertEquals(2, e.getMaxRecipients());
+        // the recipients are counted over the whole call
+        e = rejected(() -> unito.receiveActivities(List.of(
+                new Delivery(like("admission.other.it", 1), followers.get(0), followers.get(1)),
+                new Delivery(like("admission.other.it", 2), followers.get(2)))));
+        assertEquals(DeliveryRejectedException.Reason.TOO_MANY_RECIPIENTS, e.getReason());
+        assertEquals(0, unito.getInbox(followers.get(0)).count());
+
+        Server polito = polito(new ServerConfig());
+        for (String follower : followers) {
+            unito.follow(follower, "@alice@" + MASTO_POLITO);
+        }
+        polito.createActivity("alice", ActivityType.CREATE, "Hello");
+
+        for (String follower : followers) {
+            assertEquals(List.of("Hello"), inbox(unito, follower));
+        }
+    }
+
+    @Test
+    public void testQueueFullRejected() throws Exception {
+        Server unito = unito(new ServerConfig().ingestQueueCapacity(2));
+        String bob = unito.createActor("bob", "Bob Rossi").getFullId();
+        List<Delivery> three = List.of(new Delivery(like("admission.other.it", 0), bob),
+                new Delivery(like("admission.other.it", 1), bob), new Delivery(like("admission.other.it", 2), bob));
+
+        DeliveryRejectedException e = rejected(() -> unito.receiveActivities(three));
+        assertEquals(DeliveryRejectedException.Reason.QUEUE_FULL, e.getReason());
+        assertTrue(e.getRetryAfter().compareTo(Duration.ZERO) > 0);
+        assertEquals(2, e.getMaxDeliveries());
+
+        unito.receiveActivities(three.subList(0, 2));
+        unito.flushDeliveries();
+        assertEquals(List.of("Like 0", "Like 1"), inbox(unito, bob));
+        assertEquals(0, unito.getMetrics().get().getIngestQueued());
+    }
+
+    @Test
+    public void testDeferredDeliveriesArriveInOrder() throws Exception {
+        Server unito = unito(new ServerConfig().ingestRateLimit(500).ingestBurst(4).ingestQueueCapacity(8));
+        Actor bob = unito.createActor("bob", "Bob Rossi");
+        Server polito = polito(new ServerConfig().asyncDelivery(true).deliveryBatchSize(2));
+        unito.follow(bob.getFullId(), "@alice@" + MASTO_POLITO);
+
+        List<String> posted = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            posted.add(polito.createActivity("alice", ActivityType.CREATE, "Post " + i).getContent());
+        }
+        polito.flushDeliveries();
+        unito.flushDeliveries();
+
+        assertEquals(posted, inbox(unito, bob.getFullId()));
+        ServerMetrics metrics = polito.getMetrics().get();
+        assertTrue(metrics.getDeferred(MASTO_UNITO) > 0);
+        assertEquals(0, metrics.getDropped(MASTO_UNITO));
+        assertEquals(0, polito.getDeadLetters().get().size());
+    }
+
+    @Test
+    public void testBatchLargerThanIngestQueue() throws Exception {
+        Server unito = unito(new ServerConfig().ingestQueueCapacity(10));
+        Actor bob = unito.createActor("bob", "Bob Rossi");
+        Server polito = polito(new ServerConfig().asyncDelivery(true).deliveryLinger(Duration.ofMillis(50)));
+        unito.follow(bob.getFullId(), "@alice@" + MASTO_POLITO);
+
+        List<String> posted = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            posted.add(polito.createActivity("alice", ActivityType.CREATE, "Post " + i).getContent());
+        }
+        polito.flushDeliveries();
+        unito.flushDeliveries();
+
+        assertEquals(posted, inbox(unito, bob.getFullId()));
+        ServerMetrics metrics = polito.getMetrics().get();
+        assertEquals(30, metrics.getDelivered(MASTO_UNITO));
+        assertEquals(0, polito.getDeadLetters().get().size());
+    }
+
+    @Test
+    public void testRejectionOverSocket() throws ActivityPubException, IOException {
+        Server unito = ActivityPubUtilities.createServer(MASTO_UNITO, new ServerConfig().namingService(namingService)
+                .maxRecipientsPerCall(1).ingestRateLimit(1).ingestBurst(1));
+        String bob = unito.createActor("bob", "Bob Rossi").getFullId();
+        String carla = unito.createActor("carla", "Carla Bianchi").getFullId();
+        try (ServerEndpoint endpoint = ServerEndpoint.open(unito, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                RemoteServer remote = new RemoteServer(MASTO_UNITO, endpoint.getAddress())) {
+            DeliveryRejectedException e = rejected(() -> remote.receiveActivity(like("admission.other.it", 0), bob, carla));
+            assertEquals(DeliveryRejectedException.Reason.TOO_MANY_RECIPIENTS, e.getReason());
+            assertEquals(1, e.getMaxRecipients());
+            assertEquals(Integer.MAX_VALUE, e.getMaxDeliveries());
+
+            remote.receiveActivity(like("admission.other.it", 1), bob);
+            e = rejected(() -> remote.receiveActivity(like("admission.other.it", 2), bob));
+            assertEquals(DeliveryRejectedException.Reason.RATE_LIMITED, e.getReason());
+            assertTrue(e.getRetryAfter().compareTo(Duration.ZERO) > 0);
+        }
+        assertEquals(List.of("Like 1"), inbox(unito, bob));
+    }
+
+    @Test
+    public void testRateLimitedPerPeer() throws ActivityPubException, IOException {
+        Server unito = ActivityPubUtilities.createServer(MASTO_UNITO, new ServerConfig().namingService(namingService)
+                .ingestRateLimit(1).ingestBurst(2));
+        String bob = unito.createActor("bob", "Bob Rossi").getFullId();
+        try (ServerEndpoint endpoint = ServerEndpoint.open(unito, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                RemoteServer remote = new RemoteServer(MASTO_UNITO, endpoint.getAddress())) {
+            remote.receiveActivity(like("admission.first.it", 0), bob);
+            remote.receiveFollowersActivity(like("admission.second.it", 1));
+            // the actors of the activities do not choose the bucket, the connection does
+            DeliveryRejectedException e = rejected(() -> remote.receiveActivity(like("admission.third.it", 2), bob));
+            assertEquals(DeliveryRejectedException.Reason.RATE_LIMITED, e.getReason());
+        }
+        // in the process, a peer named by the caller has its own bucket
+        unito.receiveActivities(List.of(new Delivery(like("admission.third.it", 3), bob)), "10.0.0.1");
+        rejected(() -> unito.receiveActivities(List.of(new Delivery(like("admission.third.it", 4), bob),
+                new Delivery(like("admission.third.it", 5), bob), new Delivery(like("admission.third.it", 6), bob)), "10.0.0.1"));
+        assertEquals(List.of("Like 0", "Like 3"), inbox(unito, bob));
+    }
+}
@@ -0,0 +1,84 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.NamingService;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerConfig;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+public class AsyncDeliveryTest {
+
+    private static final String MASTO_POLITO = "async.polito.it";
+    private static final String MASTO_UNITO = "async.unito.it";
+    private static final String MASTO_SLOW = "async.slow.it";
+
+    private NamingService namingService;
+    private Server polito;
+    private Server unito;
+    private Actor alice;
+    private Actor carla;
+
+    @Before
+    public void setup() throws ActivityPubException {
+        namingService = ActivityPubUtilities.getNamingService();
+        polito = ActivityPubUtilities.createServer(MASTO_POLITO, new ServerConfig().asyncDelivery(true));
+        unito = ActivityPubUtilities.createServer(MASTO_UNITO);
+
+        alice = polito.createActor("alice", "Alice Doe");
+        carla = unito.createActor("carla", "Carla Bianchi");
+    }
+
+    @Test
+    public void testFlushDelivers() throws Exception {
+        unito.follow(carla.getFullId(), alice.getFullId());
+        polito.follow(alice.getFullId(), alice.getFullId());
+
+        Activity post = polito.createActivity(alice.getFullId(), ActivityType.CREATE, "Hello");
+        polito.flushDeliveries();
+
+        assertEquals(List.of(post), unito.getInbox(carla.getFullId()).toList());
+        assertEquals(List.of(post), polito.getInbox(alice.getFullId()).toList());
+    }
+
+    @Test
+    public void testSlowServerDoesNotBlockPosts() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Server slow = new ServerProxy(ActivityPubUtilities.createServer(MASTO_SLOW)) {
+            @Override
+            public void receiveActivity(Activity activity, String... targetId) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.receiveActivity(activity, targetId);
+            }
+        };
+        namingService.registerServer(MASTO_SLOW, slow);
+        Actor dave = slow.createActor("dave", "Dave Rossi");
+        slow.follow(dave.getFullId(), alice.getFullId());
+        unito.follow(carla.getFullId(), alice.getFullId());
+
+        for (int i = 0; i < 10; i++) {
+            polito.createActivity(alice.getFullId(), ActivityType.CREATE, "post " + i);
+        }
+        assertEquals(10, polito.getOutbox(alice.getFullId()).count());
+
+        release.countDown();
+        polito.flushDeliveries();
+
+        assertEquals(10, slow.getInbox(dave.getFullId()).count());
+        List<Activity> inbox = unito.getInbox(carla.getFullId()).toList();
+        assertEquals(10, inbox.size());
+        assertEquals("post 9", inbox.get(0).getContent());
+    }
+}
@@ -0,0 +1,93 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.Delivery;
+import it.polito.activitypub.NamingService;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerConfig;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+public class BatchDeliveryTest {
+
+    private static final String MASTO_POLITO = "batch.polito.it";
+    private static final String MASTO_UNITO = "batch.unito.it";
+    private static final int AUTHORS = 10;
+
+    private Server unito;
+    private Actor carla;
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger delivered = new AtomicInteger();
+
+    @Before
+    public void setup() throws ActivityPubException {
+        NamingService namingService = ActivityPubUtilities.getNamingService();
+        unito = new ServerProxy(ActivityPubUtilities.createServer(MASTO_UNITO)) {
+            @Override
+            public void receiveActivity(Activity activity, String... targetId) {
+                calls.incrementAndGet();
+                delivered.incrementAndGet();
+                super.receiveActivity(activity, targetId);
+            }
+
+            @Override
+            public void receiveActivities(List<Delivery> deliveries) {
+                calls.incrementAndGet();
+                delivered.addAndGet(deliveries.size());
+                super.receiveActivities(deliveries);
+            }
+        };
+        namingService.registerServer(MASTO_UNITO, unito);
+        carla = unito.createActor("carla", "Carla Bianchi");
+    }
+
+    @Test
+    public void testCoalescedPerDestination() throws Exception {
+        Server polito = ActivityPubUtilities.createServer(MASTO_POLITO, new ServerConfig()
+                .asyncDelivery(true)
+                .deliveryBatchSize(100)
+                .deliveryLinger(Duration.ofSeconds(1)));
+        for (int i = 0; i < AUTHORS; i++) {
+            Actor author = polito.createActor("author" + i, "Author " + i);
+            unito.follow(carla.getFullId(), author.getFullId());
+        }
+
+        for (int i = 0; i < AUTHORS; i++) {
+            polito.createActivity("author" + i, ActivityType.CREATE, "post " + i);
+        }
+        polito.flushDeliveries();
+
+        assertEquals(1, calls.get());
+        assertEquals(AUTHORS, delivered.get());
+        List<Activity> inbox = unito.getInbox(carla.getFullId()).toList();
+        assertEquals(AUTHORS, inbox.size());
+        assertEquals("post 9", inbox.get(0).getContent());
+    }
+
+    @Test
+    public void testBatchSizeCap() throws Exception {
+        Server polito = ActivityPubUtilities.createServer(MASTO_POLITO, new ServerConfig()
+                .asyncDelivery(true)
+                .deliveryBatchSize(4)
+                .deliveryLinger(Duration.ofSeconds(1)));
+        Actor author = polito.createActor("author", "Author");
+        unito.follow(carla.getFullId(), author.getFullId());
+
+        for (int i = 0; i < 8; i++) {
+            polito.createActivity(author.getFullId(), ActivityType.CREATE, "post " + i);
+        }
+        polito.flushDeliveries();
+
+        assertEquals(2, calls.get());
+        assertEquals(8, unito.getInbox(carla.getFullId()).count());
+    }
+}
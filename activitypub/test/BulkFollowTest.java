@@ -0,0 +1,135 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.FollowResult;
+import it.polito.activitypub.InMemoryNamingService;
+import it.polito.activitypub.NamingService;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerConfig;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkFollowTest {
+
+    private static final String MASTO_POLITO = "bulk.polito.it";
+    private static final String MASTO_UNITO = "bulk.unito.it";
+    private static final String MASTO_BROKEN = "bulk.broken.it";
+
+    private NamingService namingService;
+    private ServerConfig config;
+    private Server polito;
+    private Server unito;
+    private Actor alice;
+    private final AtomicInteger unitoCalls = new AtomicInteger();
+
+    @Before
+    public void setup() throws ActivityPubException {
+        namingService = new InMemoryNamingService();
+        config = new ServerConfig().namingService(namingService);
+        polito = ActivityPubUtilities.createServer(MASTO_POLITO, config);
+        // counts the calls that reach unito
+        unito = new ServerProxy(ActivityPubUtilities.createServer(MASTO_UNITO, config)) {
+            @Override
+            public Optional<Actor> getActor(String username) {
+                unitoCalls.incrementAndGet();
+                return super.getActor(username);
+            }
+
+            @Override
+            public boolean addFollower(String followerId, String targetId) throws ActivityPubException {
+                unitoCalls.incrementAndGet();
+                return super.addFollower(followerId, targetId);
+            }
+
+            @Override
+            public Map<String, FollowResult> addFollowers(String followerId, Collection<String> targetIds) {
+                unitoCalls.incrementAndGet();
+                return super.addFollowers(followerId, targetIds);
+            }
+        };
+        namingService.registerServer(MASTO_UNITO, unito);
+
+        alice = polito.createActor("alice", "Alice Doe");
+        polito.createActor("carla", "Carla Bianchi");
+        for (int i = 0; i < 100; i++) {
+            unito.createActor("user" + i, "User " + i);
+        }
+    }
+
+    @Test
+    public void testOneCallPerServer() throws ActivityPubException {
+        List<String> targets = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            targets.add("@user" + i + "@" + MASTO_UNITO);
+        }
+        targets.add("carla");
+        unitoCalls.set(0);
+
+        Map<String, FollowResult> results = polito.followAll(alice.getFullId(), targets);
+
+        assertEquals(1, unitoCalls.get());
+        assertEquals(targets, List.copyOf(results.keySet()));
+        assertTrue(results.values().stream().allMatch(r -> r == FollowResult.CHANGED));
+        assertEquals(101, polito.getFollowing(alice.getFullId()).size());
+        assertTrue(polito.isFollowing(alice.getFullId(), "@user42@" + MASTO_UNITO));
+        assertEquals(List.of(alice), unito.getFollowers("@user42@" + MASTO_UNITO));
+        assertEquals(List.of(alice), polito.getFollowers("carla"));
+    }
+
+    @Test
+    public void testResultPerTarget() throws ActivityPubException {
+        Server broken = new ServerProxy(ActivityPubUtilities.createServer(MASTO_BROKEN, config)) {
+            @Override
+            public Map<String, FollowResult> addFollowers(String followerId, Collection<String> targetIds) {
+                throw new IllegalStateException("Server down");
+            }
+        };
+        namingService.registerServer(MASTO_BROKEN, broken);
+        broken.createActor("dave", "Dave Verdi");
+        polito.follow(alice.getFullId(), "@user1@" + MASTO_UNITO);
+
+        String user0 = "@user0@" + MASTO_UNITO;
+        String user1 = "@user1@" + MASTO_UNITO;
+        String ghost = "@ghost@" + MASTO_UNITO;
+        String dave = "@dave@" + MASTO_BROKEN;
+        String lost = "@someone@lost.server.it";
+        Map<String, FollowResult> results = polito.followAll(alice.getFullId(), List.of(user0, user1, ghost, dave, lost, user0));
+
+        assertEquals(Map.of(user0, FollowResult.CHANGED, user1, FollowResult.UNCHANGED, ghost, FollowResult.NO_SUCH_ACTOR,
+                dave, FollowResult.FAILED, lost, FollowResult.NO_SUCH_SERVER), results);
+        assertEquals(2, polito.getFollowing(alice.getFullId()).size());
+        assertFalse(polito.isFollowing(alice.getFullId(), dave));
+    }
+
+    @Test
+    public void testUnfollowAll() throws ActivityPubException {
+        String user0 = "@user0@" + MASTO_UNITO;
+        String user1 = "@user1@" + MASTO_UNITO;
+        String user2 = "@user2@" + MASTO_UNITO;
+        polito.followAll(alice.getFullId(), List.of(user0, user1, "carla"));
+
+        Map<String, FollowResult> results = polito.unfollowAll(alice.getFullId(), List.of(user0, user2, "carla"));
+
+        assertEquals(Map.of(user0, FollowResult.CHANGED, user2, FollowResult.UNCHANGED, "carla", FollowResult.CHANGED), results);
+        assertEquals(List.of(unito.getActor(user1).get()), polito.getFollowing(alice.getFullId()));
+        assertEquals(List.of(), unito.getFollowers(user0));
+        assertEquals(List.of(), polito.getFollowers("carla"));
+    }
+
+    @Test(expected = ActivityPubException.class)
+    public void testUnknownFollower() throws ActivityPubException {
+        polito.followAll("@nobody@" + MASTO_POLITO, List.of("carla"));
+    }
+}
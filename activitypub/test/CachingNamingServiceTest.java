@@ -0,0 +1,168 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.CachingNamingService;
+import it.polito.activitypub.DelayedNamingService;
+import it.polito.activitypub.InMemoryNamingService;
+import it.polito.activitypub.NamingService;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerConfig;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CachingNamingServiceTest {
+
+    private static final String MASTO_POLITO = "cache.polito.it";
+    private static final String MASTO_UNITO = "cache.unito.it";
+    private static final String MASTO_UNIMI = "cache.unimi.it";
+
+    private DelayedNamingService directory;
+    private CachingNamingService cache;
+    private Server unito;
+
+    @Before
+    public void setup() throws ActivityPubException {
+        directory = new DelayedNamingService(ActivityPubUtilities.getNamingService(), Duration.ofMillis(2));
+        cache = new CachingNamingService(directory, Duration.ofMinutes(1), Duration.ofMillis(50));
+        unito = ActivityPubUtilities.createServer(MASTO_UNITO);
+        for (int i = 0; i < 20; i++) {
+            unito.createActor("user" + i, "User " + i);
+        }
+    }
+
+    private void publish(Server server) throws ActivityPubException {
+        Actor alice = server.createActor("alice", "Alice Doe");
+        for (int i = 0; i < 20; i++) {
+            unito.follow("user" + i, alice.getFullId());
+        }
+        for (int i = 0; i < 10; i++) {
+            server.createActivity(alice.getFullId(), ActivityType.CREATE, "Post " + i);
+            server.getFollowers(alice.getFullId());
+        }
+    }
+
+    @Test
+    public void testCacheSavesLookups() throws ActivityPubException {
+        Server uncached = ActivityPubUtilities.createServer(MASTO_UNIMI, new ServerConfig().namingService(directory));
+        long before = directory.getLookups();
+        publish(uncached);
+        long withoutCache = directory.getLookups() - before;
+
+        Server polito = ActivityPubUtilities.createServer(MASTO_POLITO, new ServerConfig().namingService(cache));
+        before = directory.getLookups();
+        publish(polito);
+        long withCache = directory.getLookups() - before;
+
+        // each activity is delivered once and each getFollowers resolves the follower server once
+        assertEquals(20, withoutCache);
+        assertEquals(1, withCache);
+        assertEquals(1, cache.getMisses());
+        assertEquals(19, cache.getHits());
+        // both servers delivered their 10 activities
+        assertEquals(20, unito.getInbox("user0").count());
+    }
+
+    @Test
+    public void testNegativeCaching() throws InterruptedException {
+        assertFalse(cache.resolveServer("cache.unknown.it").isPresent());
+        assertFalse(cache.resolveServer("cache.unknown.it").isPresent());
+        assertEquals(1, directory.getLookups());
+
+        Thread.sleep(100);
+        assertFalse(cache.resolveServer("cache.unknown.it").isPresent());
+        assertEquals(2, directory.getLookups());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testRegisterInvalidates() {
+        assertSame(unito, cache.resolveServer(MASTO_UNITO).get());
+        Server replacement = ActivityPubUtilities.createServer(MASTO_UNITO);
+        // registered behind the cache's back: the stale entry is still served
+        assertSame(unito, cache.resolveServer(MASTO_UNITO).get());
+
+        cache.registerServer(MASTO_UNITO, replacement);
+        assertSame(replacement, cache.resolveServer(MASTO_UNITO).get());
+    }
+
+    @Test
+    public void testMissDoesNotOverwriteInvalidation() throws InterruptedException {
+        NamingService names = new InMemoryNamingService();
+        CountDownLatch resolved = new CountDownLatch(1);
+        CountDownLatch invalidated = new CountDownLatch(1);
+        CachingNamingService blocking = new CachingNamingService(new NamingService() {
+            @Override
+            public void registerServer(String name, Server server) {
+                names.registerServer(name, server);
+            }
+
+            @Override
+            public Optional<Server> resolveServer(String name) {
+                Optional<Server> server = names.resolveServer(name);
+                if (resolved.getCount() > 0) {
+                    resolved.countDown();
+                    try {
+                        invalidated.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return server;
+            }
+        }, Duration.ofMinutes(1), Duration.ofMinutes(1));
+
+        AtomicReference<Optional<Server>> stale = new AtomicReference<>();
+        Thread miss = new Thread(() -> stale.set(blocking.resolveServer(MASTO_POLITO)));
+        miss.start();
+        resolved.await();
+        Server polito = ActivityPubUtilities.createServer(MASTO_POLITO);
+        blocking.registerServer(MASTO_POLITO, polito);
+        invalidated.countDown();
+        miss.join();
+
+        // the miss got the answer from before the registration, but did not remember it
+        assertFalse(stale.get().isPresent());
+        assertSame(polito, blocking.resolveServer(MASTO_POLITO).get());
+    }
+
+    @Test
+    public void testBoundedSize() {
+        CachingNamingService bounded = new CachingNamingService(directory, Duration.ofMinutes(1), Duration.ofMinutes(1), 8);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(bounded.resolveServer("cache" + i + ".unknown.it").isPresent());
+            assertTrue(bounded.size() <= 8);
+        }
+    }
+
+    @Test
+    public void testExpiredEntriesRemoved() throws InterruptedException {
+        CachingNamingService bounded = new CachingNamingService(directory, Duration.ofMinutes(1), Duration.ofMillis(50), 4);
+        for (int i = 0; i < 4; i++) {
+            assertFalse(bounded.resolveServer("cache" + i + ".unknown.it").isPresent());
+        }
+        Thread.sleep(100);
+        // the expired negative entries are swept by the first one over the bound
+        assertSame(unito, bounded.resolveServer(MASTO_UNITO).get());
+        assertEquals(1, bounded.size());
+
+        // an entry expired when looked up again is removed, if the resolution is not remembered
+        CachingNamingService positiveOnly = new CachingNamingService(directory, Duration.ofMinutes(1), Duration.ZERO);
+        positiveOnly.invalidate("cache.unknown.it");
+        assertEquals(1, positiveOnly.size());
+        assertFalse(positiveOnly.resolveServer("cache.unknown.it").isPresent());
+        assertEquals(0, positiveOnly.size());
+    }
+}
@@ -0,0 +1,192 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerConfig;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrencyStressTest {
+
+    private static final String MASTO_POLITO = "stress.polito.it";
+    private static final String MASTO_UNITO = "stress.unito.it";
+    private static final int THREADS = 8;
+    private static final int READERS_PER_THREAD = 25;
+    private static final int POSTS_PER_AUTHOR = 200;
+    private static final int RECIPIENTS = 4;
+
+    private Server polito;
+    private Server unito;
+    private ExecutorService pool;
+
+    @Before
+    public void setup() throws ActivityPubException {
+        polito = ActivityPubUtilities.createServer(MASTO_POLITO, new ServerConfig().asyncDelivery(true));
+        unito = ActivityPubUtilities.createServer(MASTO_UNITO);
+        pool = Executors.newFixedThreadPool(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            polito.createActor("author" + t, "Author " + t);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    private void runAll(List<Callable<Void>> tasks) throws Exception {
+        for (Future<Void> f : pool.invokeAll(tasks)) {
+            f.get();
+        }
+    }
+
+    @Test
+    public void testConcurrentCreateActor() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            tasks.add(() -> {
+                try {
+                    unito.createActor("same", "Same");
+                    created.incrementAndGet();
+                } catch (ActivityPubException e) {
+                    // expected for all threads but one
+                }
+                return null;
+            });
+        }
+        runAll(tasks);
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    public void testConcurrentPostsStayOrdered() throws Exception {
+        List<Callable<Void>> posts = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            // two threads per author: the posts of an author race too
+            String author = "author" + t / 2;
+            posts.add(() -> {
+                for (int i = 0; i < POSTS_PER_AUTHOR; i++) {
+                    polito.createActivity(author, ActivityType.CREATE, "post " + i);
+                }
+                return null;
+            });
+        }
+        runAll(posts);
+
+        List<Activity> all = polito.getAllActivities().collect(Collectors.toList());
+        assertEquals(THREADS * POSTS_PER_AUTHOR, all.size());
+        assertIncreasing(all);
+        for (int a = 0; a < THREADS / 2; a++) {
+            List<Activity> outbox = polito.getOutbox("author" + a).collect(Collectors.toList());
+            assertEquals(2 * POSTS_PER_AUTHOR, outbox.size());
+            assertIncreasing(outbox);
+        }
+        // the time ranges are binary searched
+        Instant middle = all.get(all.size() / 2).getTimestamp();
+        assertEquals(all.size() / 2, polito.getAllActivities(null, middle).count());
+    }
+
+    private static void assertIncreasing(List<Activity> activities) {
+        for (int i = 1; i < activities.size(); i++) {
+            assertTrue(activities.get(i - 1).getTimestamp().isBefore(activities.get(i).getTimestamp()));
+        }
+    }
+
+    @Test
+    public void testConcurrentReceivesForSameRecipients() throws Exception {
+        String[] recipients = new String[RECIPIENTS];
+        for (int r = 0; r < RECIPIENTS; r++) {
+            recipients[r] = unito.createActor("recipient" + r, "Recipient " + r).getFullId();
+        }
+        List<List<Activity>> sent = new ArrayList<>();
+        List<Callable<Void>> receives = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            List<Activity> activities = new ArrayList<>();
+            for (int i = 0; i < POSTS_PER_AUTHOR; i++) {
+                activities.add(new Activity(ActivityType.CREATE, ActivityPubUtilities.fullId("author" + t, MASTO_POLITO), "post " + i));
+            }
+            sent.add(activities);
+            receives.add(() -> {
+                for (int i = 0; i < activities.size(); i++) {
+                    unito.receiveActivity(activities.get(i), recipients);
+                    // readers scan the same inboxes while they are appended to
+                    unito.getInbox(recipients[i % RECIPIENTS]).count();
+                }
+                return null;
+            });
+        }
+        runAll(receives);
+
+        Set<String> expected = sent.stream().flatMap(List::stream).map(Activity::getId).collect(Collectors.toSet());
+        for (String recipient : recipients) {
+            List<String> inbox = unito.getInbox(recipient).map(Activity::getId).collect(Collectors.toList());
+            // none lost, none twice
+            assertEquals(expected.size(), inbox.size());
+            assertEquals(expected, new HashSet<>(inbox));
+        }
+    }
+
+    @Test
+    public void testNoLostUpdates() throws Exception {
+        List<Callable<Void>> follows = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int first = t * READERS_PER_THREAD;
+            follows.add(() -> {
+                for (int r = first; r < first + READERS_PER_THREAD; r++) {
+                    String reader = unito.createActor("reader" + r, "Reader " + r).getFullId();
+                    for (int a = 0; a < THREADS; a++) {
+                        unito.follow(reader, ActivityPubUtilities.fullId("author" + a, MASTO_POLITO));
+                    }
+                }
+                return null;
+            });
+        }
+        runAll(follows);
+
+        for (int a = 0; a < THREADS; a++) {
+            assertEquals(THREADS * READERS_PER_THREAD, polito.getFollowers("author" + a).size());
+        }
+
+        List<Callable<Void>> posts = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            String author = "author" + t;
+            posts.add(() -> {
+                for (int i = 0; i < POSTS_PER_AUTHOR; i++) {
+                    polito.createActivity(author, ActivityType.CREATE, author + " post " + i);
+                    // readers scan the inboxes while the deliveries are appended
+                    unito.getInbox("reader" + i % (THREADS * READERS_PER_THREAD)).count();
+                }
+                return null;
+            });
+        }
+        runAll(posts);
+        polito.flushDeliveries();
+
+        assertEquals(THREADS * POSTS_PER_AUTHOR, polito.getAllActivities().count());
+        for (int a = 0; a < THREADS; a++) {
+            assertEquals(POSTS_PER_AUTHOR, polito.getOutbox("author" + a).count());
+        }
+        for (int r = 0; r < THREADS * READERS_PER_THREAD; r++) {
+            assertEquals(THREADS * POSTS_PER_AUTHOR, unito.getInbox("reader" + r).count());
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerConfig;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DurableLogTest {
+
+    private static final String MASTO_POLITO = "log.polito.it";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerConfig config;
+
+    @Before
+    public void setup() {
+        config = new ServerConfig().dataDirectory(folder.getRoot().toPath());
+    }
+
+    /**
+     * Simulates a restart: a new server on the same log, whose actors are created again.
+     */
+    private Server restart() throws ActivityPubException {
+        Server server = ActivityPubUtilities.createServer(MASTO_POLITO, config);
+        server.createActor("alice", "Alice Doe");
+        server.createActor("bob", "Bob Rossi");
+        return server;
+    }
+
+    private static List<Activity> list(Stream<Activity> activities) {
+        return activities.collect(Collectors.toList());
+    }
+
+    @Test
+    public void testRestartRebuildsTimelines() throws ActivityPubException {
+        Server polito = restart();
+        polito.follow("bob", "@alice@" + MASTO_POLITO);
+        for (int i = 0; i < 3; i++) {
+            polito.createActivity("alice", ActivityType.CREATE, "Post " + i);
+        }
+        List<Activity> outbox = list(polito.getOutbox("alice"));
+        List<Activity> inbox = list(polito.getInbox("bob"));
+        assertEquals(3, inbox.size());
+
+        Server restarted = restart();
+
+        assertEquals(outbox, list(restarted.getOutbox("alice")));
+        assertEquals(outbox, list(restarted.getAllActivities()));
+        assertEquals(inbox, list(restarted.getInbox("bob")));
+        Activity next = restarted.createActivity("bob", ActivityType.CREATE, "After restart");
+        assertTrue(next.getTimestamp().isAfter(outbox.get(2).getTimestamp()));
+    }
+
+    @Test
+    public void testRestartKeepsFollowPeriods() throws ActivityPubException {
+        // alice's activities go to her own timeline, merged into bob's inbox while he follows her
+        config.fanOutOnReadThreshold(1);
+        Server polito = restart();
+        polito.follow("bob", "alice");
+        polito.createActivity("alice", ActivityType.CREATE, "One");
+        polito.unfollow("bob", "alice");
+        polito.createActivity("alice", ActivityType.CREATE, "Two");
+        polito.follow("bob", "alice");
+        polito.createActivity("alice", ActivityType.CREATE, "Three");
+        List<String> inbox = polito.getInbox("bob").map(Activity::getContent).collect(Collectors.toList());
+        assertEquals(List.of("Three", "One"), inbox);
+
+        Server restarted = restart();
+        assertEquals(inbox, restarted.getInbox("bob").map(Activity::getContent).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testSegmentsRoll() throws ActivityPubException {
+        config.logSegmentSize(4096);
+        Server polito = restart();
+        for (int i = 0; i < 200; i++) {
+            polito.createActivity("alice", ActivityType.CREATE, "A post long enough to fill a few segments " + i);
+        }
+
+        assertTrue(folder.getRoot().list((dir, file) -> file.endsWith(".log")).length > 2);
+        Server restarted = restart();
+        assertEquals(200, restarted.getOutbox("alice").count());
+        assertEquals("A post long enough to fill a few segments 199", restarted.getLatestOutbox("alice", 1).findFirst().get().getContent());
+    }
+
+    @Test
+    public void testFailedAppendPublishesNothing() throws ActivityPubException {
+        config.logSegmentSize(4096);
+        Server polito = restart();
+        polito.createActivity("alice", ActivityType.LIKE, null);
+        try {
+            polito.createActivity("alice", ActivityType.CREATE, "x".repeat(8192));
+            fail("A record larger than a segment must be refused");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        Activity next = polito.createActivity("alice", ActivityType.CREATE, "After");
+
+        List<Activity> outbox = list(polito.getOutbox("alice"));
+        assertEquals(2, outbox.size());
+        assertEquals(outbox, list(polito.getAllActivities()));
+        assertEquals(next, outbox.get(1));
+        Server restarted = restart();
+        assertEquals(outbox, list(restarted.getOutbox("alice")));
+        assertEquals(null, list(restarted.getOutbox("alice")).get(0).getContent());
+    }
+
+    @Test
+    public void testTornTailIsTruncated() throws ActivityPubException, IOException {
+        Server polito = restart();
+        for (int i = 0; i < 5; i++) {
+            polito.createActivity("alice", ActivityType.CREATE, "Post " + i);
+        }
+
+        // corrupt the payload of the last record, as an interrupted write would
+        File segment = new File(folder.getRoot(), "000000000000.log");
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            long offset = 0;
+            long last = 0;
+            int length;
+            while ((length = readInt(file, offset)) > 0) {
+                last = offset;
+                offset += 8 + length;
+            }
+            file.seek(last + 8 + 3);
+            int b = file.read();
+            file.seek(last + 8 + 3);
+            file.write(b ^ 0xff);
+        }
+
+        Server restarted = restart();
+        assertEquals(4, restarted.getOutbox("alice").count());
+        restarted.createActivity("alice", ActivityType.CREATE, "Post 5");
+
+        assertEquals(List.of("Post 5", "Post 3"), restart().getLatestOutbox("alice", 2)
+                .map(Activity::getContent).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testUnknownRecordIsTruncated() throws ActivityPubException, IOException {
+        Server polito = restart();
+        for (int i = 0; i < 3; i++) {
+            polito.createActivity("alice", ActivityType.CREATE, "Post " + i);
+        }
+        polito.close();
+
+        // a well-formed record of a type this version does not know, as a newer version could write
+        File segment = new File(folder.getRoot(), "000000000000.log");
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            long offset = 0;
+            int length;
+            while ((length = readInt(file, offset)) > 0) {
+                offset += 8 + length;
+            }
+            byte[] payload = { 99, 1, 2, 3 };
+            CRC32C crc = new CRC32C();
+            crc.update(payload);
+            file.seek(offset);
+            file.writeInt(payload.length);
+            file.writeInt((int) crc.getValue());
+            file.write(payload);
+        }
+
+        Server restarted = restart();
+        assertEquals(3, restarted.getOutbox("alice").count());
+        restarted.createActivity("alice", ActivityType.CREATE, "Post 3");
+        restarted.close();
+        assertEquals(4, restart().getOutbox("alice").count());
+    }
+
+    @Test
+    public void testClosedServerStoresNothing() throws ActivityPubException {
+        Server polito = restart();
+        polito.createActivity("alice", ActivityType.CREATE, "Before closing");
+        polito.close();
+        polito.close();
+        try {
+            polito.createActivity("alice", ActivityType.CREATE, "After closing");
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // the log is closed
+        }
+
+        Server restarted = restart();
+        assertEquals(List.of("Before closing"), restarted.getOutbox("alice").map(Activity::getContent).collect(Collectors.toList()));
+        restarted.close();
+    }
+
+    @Test
+    public void testRestartCompactsEvictedActivities() throws ActivityPubException {
+        config.logSegmentSize(4096).inboxMaxEntries(5);
+        Server polito = restart();
+        for (int i = 0; i < 200; i++) {
+            polito.receiveActivity(new Activity(ActivityType.CREATE, "@carla@log.unito.it", "A post long enough to fill a few segments " + i), "@bob@" + MASTO_POLITO);
+        }
+        List<Activity> inbox = list(polito.getInbox("bob"));
+        assertEquals(5, inbox.size());
+        polito.close();
+        int segments = folder.getRoot().list((dir, file) -> file.endsWith(".log")).length;
+        assertTrue(segments > 2);
+
+        Server restarted = restart();
+        assertEquals(inbox, list(restarted.getInbox("bob")));
+        assertTrue(folder.getRoot().list((dir, file) -> file.endsWith(".log")).length < segments);
+        restarted.receiveActivity(new Activity(ActivityType.CREATE, "@carla@log.unito.it", "After compacting"), "@bob@" + MASTO_POLITO);
+        restarted.close();
+
+        assertEquals("After compacting", restart().getInbox("bob").findFirst().get().getContent());
+    }
+
+    @Test
+    public void testCompactionKeepsOnlyRetainingRecipients() throws ActivityPubException {
+        config.logSegmentSize(4096).inboxMaxEntries(5).metricsEnabled(true);
+        Server polito = restart();
+        polito.receiveActivity(new Activity(ActivityType.CREATE, "@carla@log.unito.it", "Shared"),
+                "@alice@" + MASTO_POLITO, "@bob@" + MASTO_POLITO);
+        for (int i = 0; i < 200; i++) {
+            polito.receiveActivity(new Activity(ActivityType.CREATE, "@carla@log.unito.it", "A post long enough to fill a few segments " + i), "@bob@" + MASTO_POLITO);
+        }
+        List<Activity> inbox = list(polito.getInbox("bob"));
+        polito.close();
+        restart().close();
+
+        // bob evicted the shared activity, the compacted log no longer gives it to him
+        Server restarted = restart();
+        assertEquals(inbox, list(restarted.getInbox("bob")));
+        assertEquals(List.of("Shared"), restarted.getInbox("alice").map(Activity::getContent).collect(Collectors.toList()));
+        assertEquals(0, restarted.getMetrics().get().getInboxEvictedByCount());
+    }
+
+    @Test
+    public void testInterruptedCompactionIsRolledBack() throws ActivityPubException, IOException {
+        Server polito = restart();
+        for (int i = 0; i < 3; i++) {
+            polito.createActivity("alice", ActivityType.CREATE, "Post " + i);
+        }
+        polito.close();
+
+        // the copies of a compaction that did not get to move the start of the log
+        Path root = folder.getRoot().toPath();
+        Files.copy(root.resolve("000000000000.log"), root.resolve("000000000001.log"));
+        Files.writeString(root.resolve("first-segment.pending"), "1");
+
+        Server restarted = restart();
+        assertEquals(3, restarted.getOutbox("alice").count());
+        restarted.close();
+        assertFalse(Files.exists(root.resolve("000000000001.log")));
+    }
+
+    private static int readInt(RandomAccessFile file, long offset) throws IOException {
+        file.seek(offset);
+        return file.readInt();
+    }
+}
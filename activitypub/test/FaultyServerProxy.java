@@ -0,0 +1,129 @@
+package it.polito.activitypub.test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.Delivery;
+import it.polito.activitypub.Server;
+
+/**
+ * A {@link ServerProxy} whose receive calls fail or are delayed on demand,
+ * standing in for an unreliable network in the delivery tests.
+ * A call can fail before reaching the server, as if it were unreachable,
+ * or after, as if its answer were lost.
+ */
+public class FaultyServerProxy extends ServerProxy {
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger failBefore = new AtomicInteger();
+    private final AtomicInteger failAfter = new AtomicInteger();
+    private volatile boolean down;
+    // guarded by this
+    private double dropRate;
+    private Random random = new Random(0);
+    private volatile Duration delay = Duration.ZERO;
+
+    FaultyServerProxy(Server remote) {
+        super(remote);
+    }
+
+    /**
+     * Makes the next receive calls fail without reaching the server.
+     */
+    public FaultyServerProxy failNext(int count) {
+        failBefore.set(count);
+        return this;
+    }
+
+    /**
+     * Makes the next receive calls fail after the server received the activities.
+     */
+    public FaultyServerProxy failNextAfterDelivery(int count) {
+        failAfter.set(count);
+        return this;
+    }
+
+    /**
+     * Makes every receive call fail until the server is up again.
+     */
+    public FaultyServerProxy down(boolean down) {
+        this.down = down;
+        return this;
+    }
+
+    /**
+     * Makes a random share of the receive calls fail, with a reproducible sequence.
+     */
+    public synchronized FaultyServerProxy dropRate(double rate, long seed) {
+        this.random = new Random(seed);
+        this.dropRate = rate;
+        return this;
+    }
+
+    /**
+     * Delays each receive call.
+     */
+    public FaultyServerProxy delay(Duration delay) {
+        this.delay = delay;
+        return this;
+    }
+
+    public int getCalls() {
+        return calls.get();
+    }
+
+    public int getFailures() {
+        return failures.get();
+    }
+
+    private void before() {
+        calls.incrementAndGet();
+        if (!delay.isZero()) {
+            try {
+                Thread.sleep(delay.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        boolean drop;
+        synchronized (this) {
+            drop = dropRate > 0 && random.nextDouble() < dropRate;
+        }
+        if (down || drop || failBefore.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            failures.incrementAndGet();
+            throw new IllegalStateException("Connection refused");
+        }
+    }
+
+    private void after() {
+        if (failAfter.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            failures.incrementAndGet();
+            throw new IllegalStateException("Connection reset");
+        }
+    }
+
+    @Override
+    public void receiveActivity(Activity activity, String... targetId) {
+        before();
+        super.receiveActivity(activity, targetId);
+        after();
+    }
+
+    @Override
+    public void receiveActivities(List<Delivery> deliveries) {
+        before();
+        super.receiveActivities(deliveries);
+        after();
+    }
+
+    @Override
+    public void receiveFollowersActivity(Activity activity) {
+        before();
+        super.receiveFollowersActivity(activity);
+        after();
+    }
+}
@@ -0,0 +1,101 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerConfig;
+import java.io.File;
+import java.time.Duration;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FollowGraphLogTest {
+
+    private static final String MASTO_POLITO = "graph.polito.it";
+    private static final String STAR = "@star@" + MASTO_POLITO;
+    private static final int FANS = 5000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerConfig config;
+
+    @Before
+    public void setup() {
+        config = new ServerConfig()
+                .dataDirectory(folder.getRoot().toPath())
+                .logSegmentSize(1 << 20);
+    }
+
+    /**
+     * Simulates a restart: a new server on the same data directory, whose actors are created again.
+     */
+    private Server restart() throws ActivityPubException {
+        Server server = ActivityPubUtilities.createServer(MASTO_POLITO, config);
+        server.createActor("star", "Star");
+        for (int i = 0; i < FANS; i++) {
+            server.createActor("fan" + i, "Fan " + i);
+        }
+        return server;
+    }
+
+    private File[] snapshots() {
+        return new File(folder.getRoot(), "follows").listFiles((dir, name) -> name.endsWith(".snapshot"));
+    }
+
+    @Test
+    public void testReplayWithoutSnapshot() throws ActivityPubException {
+        Server polito = restart();
+        for (int i = 0; i < 10; i++) {
+            polito.follow("fan" + i, STAR);
+        }
+        polito.unfollow("fan3", STAR);
+        polito.follow("star", "@fan7@" + MASTO_POLITO);
+
+        Server restarted = restart();
+
+        assertEquals(9, restarted.getFollowers(STAR).size());
+        assertFalse(restarted.isFollowing("fan3", STAR));
+        assertTrue(restarted.isFollowing("fan4", STAR));
+        assertEquals(1, restarted.getFollowing(STAR).size());
+        assertEquals(0, snapshots().length);
+    }
+
+    @Test
+    public void testSnapshotThenLogTail() throws Exception {
+        config.followSnapshotInterval(Duration.ofMillis(20));
+        Server polito = restart();
+        for (int i = 0; i < FANS; i++) {
+            polito.follow("fan" + i, STAR);
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (snapshots().length == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // let the last snapshot of the follows finish: the first server keeps running next to the restarted ones
+        Thread.sleep(300);
+        assertEquals(1, snapshots().length);
+        assertFalse(new File(folder.getRoot(), "follows/000000000000.log").exists());
+
+        // the first server is left idle, the next ones only snapshot hourly:
+        // their changes are only in the log tail
+        config.followSnapshotInterval(Duration.ofHours(1));
+        Server restarted = restart();
+        assertEquals(FANS, restarted.getFollowers(STAR).size());
+        for (int i = 0; i < FANS; i += 2) {
+            restarted.unfollow("fan" + i, STAR);
+        }
+
+        Server again = restart();
+        assertEquals(FANS / 2, again.getFollowers(STAR).size());
+        assertTrue(again.isFollowing("fan4999", STAR));
+        assertFalse(again.isFollowing("fan4998", STAR));
+        assertEquals(1, again.getFollowing("fan1").size());
+    }
+}
@@ -0,0 +1,95 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.NamingService;
+import it.polito.activitypub.Server;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FollowerIndexTest {
+
+    private static final String MASTO_POLITO = "index.polito.it";
+    private static final String MASTO_UNITO = "index.unito.it";
+
+    private Server polito;
+    private Server unito;
+    private Actor alice;
+    private final AtomicInteger getActorCalls = new AtomicInteger();
+    private final AtomicInteger receiveCalls = new AtomicInteger();
+
+    @Before
+    public void setup() throws ActivityPubException {
+        NamingService namingService = ActivityPubUtilities.getNamingService();
+        polito = ActivityPubUtilities.createServer(MASTO_POLITO);
+        unito = new ServerProxy(ActivityPubUtilities.createServer(MASTO_UNITO)) {
+            @Override
+            public Optional<Actor> getActor(String username) {
+                getActorCalls.incrementAndGet();
+                return super.getActor(username);
+            }
+
+            @Override
+            public void receiveActivity(Activity activity, String... targetId) {
+                receiveCalls.incrementAndGet();
+                super.receiveActivity(activity, targetId);
+            }
+        };
+        namingService.registerServer(MASTO_UNITO, unito);
+
+        alice = polito.createActor("alice", "Alice Doe");
+        for (int i = 0; i < 20; i++) {
+            Actor follower = unito.createActor("user" + i, "User " + i);
+            unito.follow(follower.getFullId(), alice.getFullId());
+        }
+    }
+
+    @Test
+    public void testFanOutWithoutFollowerResolution() {
+        getActorCalls.set(0);
+        polito.createActivity(alice.getFullId(), ActivityType.CREATE, "Hello");
+
+        assertEquals(1, receiveCalls.get());
+        assertEquals(0, getActorCalls.get());
+        assertEquals(1, unito.getInbox("user7").count());
+    }
+
+    @Test
+    public void testUnfollowUpdatesIndex() throws ActivityPubException {
+        unito.unfollow("user3", alice.getFullId());
+        polito.createActivity(alice.getFullId(), ActivityType.CREATE, "Hello");
+
+        assertEquals(19, polito.getFollowers(alice.getFullId()).size());
+        assertEquals(0, unito.getInbox("user3").count());
+        assertEquals(1, unito.getInbox("user4").count());
+    }
+
+    @Test
+    public void testLargeFollowerSet() throws ActivityPubException {
+        Actor star = polito.createActor("star", "Star");
+        for (int i = 0; i < 5000; i++) {
+            Actor follower = polito.createActor("fan" + i, "Fan " + i);
+            polito.follow(follower.getFullId(), star.getFullId());
+        }
+        for (int i = 0; i < 5000; i += 2) {
+            polito.unfollow("fan" + i, star.getFullId());
+        }
+
+        assertEquals(2500, polito.getFollowers(star.getFullId()).size());
+        assertTrue(polito.isFollowing("fan4999", star.getFullId()));
+        assertFalse(polito.isFollowing("fan4998", star.getFullId()));
+
+        polito.createActivity(star.getFullId(), ActivityType.CREATE, "Hello fans");
+        assertEquals(1, polito.getInbox("fan1").count());
+        assertEquals(0, polito.getInbox("fan2").count());
+    }
+}
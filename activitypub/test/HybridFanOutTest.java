@@ -0,0 +1,183 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPage;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.NamingService;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerConfig;
+import java.lang.reflect.Field;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class HybridFanOutTest {
+
+    private static final String MASTO_POLITO = "hybrid.polito.it";
+    private static final String MASTO_UNITO = "hybrid.unito.it";
+
+    private Server polito;
+    private Server unito;
+    private Actor star;
+    private Actor bob;
+    private final AtomicInteger pushed = new AtomicInteger();
+    private final AtomicInteger onRead = new AtomicInteger();
+
+    @Before
+    public void setup() throws ActivityPubException {
+        NamingService namingService = ActivityPubUtilities.getNamingService();
+        polito = ActivityPubUtilities.createServer(MASTO_POLITO, new ServerConfig().fanOutOnReadThreshold(3));
+        unito = new ServerProxy(ActivityPubUtilities.createServer(MASTO_UNITO, new ServerConfig().fanOutOnReadThreshold(3))) {
+            @Override
+            public void receiveActivity(Activity activity, String... targetId) {
+                pushed.incrementAndGet();
+                super.receiveActivity(activity, targetId);
+            }
+
+            @Override
+            public void receiveFollowersActivity(Activity activity) {
+                onRead.incrementAndGet();
+                super.receiveFollowersActivity(activity);
+            }
+        };
+        namingService.registerServer(MASTO_UNITO, unito);
+
+        star = polito.createActor("star", "Star");
+        bob = polito.createActor("bob", "Bob Smith");
+        for (int i = 0; i < 3; i++) {
+            Actor reader = unito.createActor("reader" + i, "Reader " + i);
+            unito.follow(reader.getFullId(), star.getFullId());
+        }
+        unito.follow("reader0", bob.getFullId());
+        polito.follow(bob.getFullId(), star.getFullId());
+    }
+
+    @Test
+    public void testMergedNewestFirst() {
+        List<Activity> expected = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            expected.add(0, polito.createActivity((i % 2 == 0 ? star : bob).getFullId(), ActivityType.CREATE, "post " + i));
+        }
+
+        assertEquals(3, onRead.get());
+        assertEquals(3, pushed.get());
+        assertEquals(expected, unito.getInbox("reader0").toList());
+        assertEquals(3, unito.getInbox("reader1").count());
+        assertEquals(3, polito.getInbox(bob.getFullId()).count());
+    }
+
+    @Test
+    public void testMergedPages() {
+        List<Activity> expected = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            expected.add(0, polito.createActivity((i % 3 == 0 ? bob : star).getFullId(), ActivityType.CREATE, "post " + i));
+        }
+
+        List<Activity> read = new ArrayList<>();
+        String cursor = null;
+        do {
+            ActivityPage page = unito.getInbox("reader0", cursor, 2);
+            read.addAll(page.getActivities());
+            cursor = page.getNextCursor().orElse(null);
+        } while (cursor != null);
+        assertEquals(expected, read);
+    }
+
+    @Test
+    public void testPagesAcrossTimestampTies() throws ReflectiveOperationException {
+        // activities of different authors merged from their timelines, with the same timestamp
+        Field timestamp = Activity.class.getField("timestamp");
+        timestamp.setAccessible(true);
+        Instant now = Instant.now();
+        List<Activity> tied = new ArrayList<>();
+        for (Actor author : List.of(star, bob, star, bob)) {
+            Activity activity = new Activity(ActivityType.CREATE, author.getFullId(), "tied");
+            timestamp.set(activity, now);
+            unito.receiveFollowersActivity(activity);
+            tied.add(activity);
+        }
+
+        Set<Activity> read = new HashSet<>();
+        String cursor = null;
+        do {
+            ActivityPage page = unito.getInbox("reader0", cursor, 1);
+            read.addAll(page.getActivities());
+            cursor = page.getNextCursor().orElse(null);
+        } while (cursor != null);
+        assertEquals(new HashSet<>(tied), read);
+    }
+
+    /**
+     * Follows and unfollows star around its posts.
+     *
+     * @return the inboxes of reader0, of reader2 that unfollows, and of a reader that follows late
+     */
+    private static List<List<String>> followPeriods(Server authors, Server readers) throws ActivityPubException {
+        String starId = "@star@" + authors.getName();
+        readers.createActor("late", "Late Reader");
+        authors.createActivity(starId, ActivityType.CREATE, "before");
+        readers.follow("late", starId);
+        authors.createActivity(starId, ActivityType.CREATE, "during");
+        readers.unfollow("reader2", starId);
+        authors.createActivity(starId, ActivityType.CREATE, "after");
+
+        List<List<String>> inboxes = new ArrayList<>();
+        for (String reader : List.of("reader0", "reader2", "late")) {
+            List<String> contents = readers.getInbox(reader).map(Activity::getContent).collect(Collectors.toList());
+            List<String> paged = new ArrayList<>();
+            String cursor = null;
+            do {
+                ActivityPage page = readers.getInbox(reader, cursor, 1);
+                page.getActivities().forEach(activity -> paged.add(activity.getContent()));
+                cursor = page.getNextCursor().orElse(null);
+            } while (cursor != null);
+            assertEquals(contents, paged);
+            inboxes.add(contents);
+        }
+        return inboxes;
+    }
+
+    @Test
+    public void testFollowPeriodsAsIfPushed() throws ActivityPubException {
+        Server pushAuthors = ActivityPubUtilities.createServer("hybrid.push.polito.it", new ServerConfig().fanOutOnReadThreshold(100));
+        Server pushReaders = ActivityPubUtilities.createServer("hybrid.push.unito.it");
+        pushAuthors.createActor("star", "Star");
+        for (int i = 0; i < 3; i++) {
+            pushReaders.createActor("reader" + i, "Reader " + i);
+            pushReaders.follow("reader" + i, "@star@hybrid.push.polito.it");
+        }
+
+        List<List<String>> pushedInboxes = followPeriods(pushAuthors, pushReaders);
+        List<List<String>> mergedInboxes = followPeriods(polito, unito);
+
+        assertEquals(3, onRead.get());
+        assertEquals(0, pushed.get());
+        assertEquals(List.of(List.of("after", "during", "before"), List.of("during", "before"), List.of("after", "during")),
+                mergedInboxes);
+        assertEquals(pushedInboxes, mergedInboxes);
+    }
+
+    @Test
+    public void testFollowAgain() throws ActivityPubException {
+        polito.createActivity(star.getFullId(), ActivityType.CREATE, "one");
+        unito.unfollow("reader1", star.getFullId());
+        polito.createActivity(star.getFullId(), ActivityType.CREATE, "two");
+        unito.follow("reader1", star.getFullId());
+        polito.createActivity(star.getFullId(), ActivityType.CREATE, "three");
+
+        assertEquals(List.of("three", "one"), unito.getInbox("reader1").map(Activity::getContent).collect(Collectors.toList()));
+        assertFalse(unito.getInbox("reader0", null, 10).getActivities().isEmpty());
+    }
+}
@@ -0,0 +1,94 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPage;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.Server;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class InboxPaginationTest {
+
+    private static final String MASTO_POLITO = "pages.polito.it";
+
+    private Server polito;
+    private Actor alice;
+    private Actor bob;
+    private final List<Activity> posts = new ArrayList<>();
+
+    @Before
+    public void setup() throws ActivityPubException {
+        polito = ActivityPubUtilities.createServer(MASTO_POLITO);
+        alice = polito.createActor("alice", "Alice Doe");
+        bob = polito.createActor("bob", "Bob Smith");
+        polito.follow(alice.getFullId(), bob.getFullId());
+        for (int i = 0; i < 25; i++) {
+            posts.add(polito.createActivity(bob.getFullId(), ActivityType.CREATE, "post " + i));
+        }
+    }
+
+    @Test
+    public void testPagesNewestFirst() {
+        ActivityPage first = polito.getInbox(alice.getFullId(), null, 10);
+        assertEquals(10, first.getActivities().size());
+        assertEquals(posts.get(24), first.getActivities().get(0));
+        assertTrue(first.getNextCursor().isPresent());
+
+        ActivityPage second = polito.getInbox(alice.getFullId(), first.getNextCursor().get(), 10);
+        assertEquals(posts.get(14), second.getActivities().get(0));
+
+        ActivityPage third = polito.getInbox(alice.getFullId(), second.getNextCursor().get(), 10);
+        assertEquals(5, third.getActivities().size());
+        assertEquals(posts.get(0), third.getActivities().get(4));
+        assertFalse(third.getNextCursor().isPresent());
+    }
+
+    @Test
+    public void testCursorIsStableWhileInboxGrows() {
+        ActivityPage first = polito.getInbox(alice.getFullId(), null, 20);
+        polito.createActivity(bob.getFullId(), ActivityType.CREATE, "newer");
+
+        ActivityPage second = polito.getInbox(alice.getFullId(), first.getNextCursor().get(), 20);
+        assertEquals(5, second.getActivities().size());
+        assertEquals(posts.get(4), second.getActivities().get(0));
+    }
+
+    @Test
+    public void testStreamMatchesPages() {
+        List<Activity> streamed = polito.getInbox(alice.getFullId()).limit(10).toList();
+        assertEquals(polito.getInbox(alice.getFullId(), null, 10).getActivities(), streamed);
+    }
+
+    @Test
+    public void testLargeInbox() {
+        Activity shared = new Activity(ActivityType.ANNOUNCE, bob.getFullId(), "shared");
+        for (int i = 0; i < 3000; i++) {
+            polito.receiveActivity(i % 2 == 0 ? shared : new Activity(ActivityType.LIKE, bob.getFullId(), "like " + i),
+                    alice.getFullId(), bob.getFullId());
+        }
+
+        assertEquals(3025, polito.getInbox(alice.getFullId()).count());
+        assertEquals(3000, polito.getInbox(bob.getFullId()).count());
+        ActivityPage page = polito.getInbox(bob.getFullId(), null, 2);
+        assertEquals("like 2999", page.getActivities().get(0).getContent());
+        assertEquals(shared, page.getActivities().get(1));
+        assertEquals(posts.get(0), polito.getInbox(alice.getFullId()).reduce((a, b) -> b).get());
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> polito.getInbox(alice.getFullId(), null, 0));
+        assertThrows(IllegalArgumentException.class, () -> polito.getInbox(alice.getFullId(), "not a cursor!", 10));
+        assertTrue(polito.getInbox(bob.getFullId(), null, 10).getActivities().isEmpty());
+    }
+}
@@ -0,0 +1,269 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.InMemoryNamingService;
+import it.polito.activitypub.NamingService;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerConfig;
+import it.polito.activitypub.SubscriptionOverflow;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InboxSubscriptionTest {
+
+    private static final String MASTO_POLITO = "subscribe.polito.it";
+    private static final String MASTO_UNITO = "subscribe.unito.it";
+    private static final String COMPLETE = "<complete>";
+
+    private NamingService namingService;
+    private Server unito;
+    private String bob;
+
+    @Before
+    public void setup() throws ActivityPubException {
+        namingService = new InMemoryNamingService();
+        unito = server(MASTO_UNITO, new ServerConfig().inboxSubscriptionBuffer(3));
+        bob = unito.createActor("bob", "Bob Rossi").getFullId();
+    }
+
+    private Server server(String name, ServerConfig config) {
+        Server server = ActivityPubUtilities.createServer(name, config.namingService(namingService).metricsEnabled(true));
+        namingService.registerServer(name, server);
+        return server;
+    }
+
+    /**
+     * Records the signals it gets, and requests nothing until told to.
+     */
+    private static class Recorder implements Flow.Subscriber<Activity> {
+        private final BlockingQueue<String> signals = new LinkedBlockingQueue<>();
+        private volatile Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Activity item) {
+            signals.add(item.getContent());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            signals.add(throwable.getClass().getSimpleName());
+        }
+
+        @Override
+        public void onComplete() {
+            signals.add(COMPLETE);
+        }
+
+        private List<String> take(int count) throws InterruptedException {
+            List<String> taken = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String signal = signals.poll(5, TimeUnit.SECONDS);
+                if (signal == null) {
+                    fail("Only got " + taken);
+                }
+                taken.add(signal);
+            }
+            return taken;
+        }
+
+        private void assertQuiet() throws InterruptedException {
+            assertNull(signals.poll(50, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private Recorder subscribe(Server server, String actorId) {
+        Recorder recorder = new Recorder();
+        server.subscribeInbox(actorId).subscribe(recorder);
+        return recorder;
+    }
+
+    private void receive(String... contents) {
+        for (String content : contents) {
+            unito.receiveActivity(new Activity(ActivityType.CREATE, "@dave@subscribe.other.it", content), bob);
+        }
+    }
+
+    @Test
+    public void testPushedOnDemand() throws InterruptedException {
+        Recorder recorder = subscribe(unito, bob);
+        receive("One", "Two");
+        recorder.assertQuiet();
+
+        recorder.subscription.request(1);
+        assertEquals(List.of("One"), recorder.take(1));
+        recorder.assertQuiet();
+
+        recorder.subscription.request(Long.MAX_VALUE);
+        receive("Three");
+        assertEquals(List.of("Two", "Three"), recorder.take(2));
+        assertEquals(3, unito.getInbox(bob).count());
+    }
+
+    @Test
+    public void testSlowSubscriberDropsOldest() throws InterruptedException {
+        Recorder recorder = subscribe(unito, bob);
+        receive("0", "1", "2", "3", "4", "5");
+
+        recorder.subscription.request(10);
+        assertEquals(List.of("3", "4", "5"), recorder.take(3));
+        recorder.assertQuiet();
+        assertEquals(3, unito.getMetrics().get().getInboxSubscriptionDropped());
+        // the dropped activities are still in the inbox
+        assertEquals(6, unito.getInbox(bob).count());
+    }
+
+    @Test
+    public void testSlowSubscriberDropsNewest() throws InterruptedException, ActivityPubException {
+        Server polito = server(MASTO_POLITO, new ServerConfig().inboxSubscriptionBuffer(2)
+                .inboxSubscriptionOverflow(SubscriptionOverflow.DROP_NEWEST));
+        String carla = polito.createActor("carla", "Carla Bianchi").getFullId();
+        Recorder recorder = subscribe(polito, carla);
+        for (int i = 0; i < 5; i++) {
+            polito.receiveActivity(new Activity(ActivityType.CREATE, "@dave@subscribe.other.it", "Post " + i), carla);
+        }
+
+        recorder.subscription.request(10);
+        assertEquals(List.of("Post 0", "Post 1"), recorder.take(2));
+        recorder.assertQuiet();
+    }
+
+    @Test
+    public void testFederatedAndFanOutOnReadActivities() throws ActivityPubException, InterruptedException {
+        Server polito = server(MASTO_POLITO, new ServerConfig().fanOutOnReadThreshold(2));
+        polito.createActor("alice", "Alice Doe");
+        polito.createActor("star", "Star");
+        String carla = unito.createActor("carla", "Carla Bianchi").getFullId();
+        unito.follow(bob, "@alice@" + MASTO_POLITO);
+        unito.follow(bob, "@star@" + MASTO_POLITO);
+        unito.follow(carla, "@star@" + MASTO_POLITO);
+        Recorder recorder = subscribe(unito, bob);
+        recorder.subscription.request(Long.MAX_VALUE);
+        Recorder other = subscribe(unito, carla);
+        other.subscription.request(Long.MAX_VALUE);
+
+        polito.createActivity("alice", ActivityType.CREATE, "From Alice");
+        // star has enough followers to be delivered once to unito, and merged into their inboxes
+        polito.createActivity("star", ActivityType.CREATE, "From Star");
+
+        assertEquals(List.of("From Alice", "From Star"), recorder.take(2));
+        assertEquals(List.of("From Star"), other.take(1));
+        other.assertQuiet();
+    }
+
+    @Test
+    public void testFanOutOnReadFollowsChangedWhileSubscribed() throws ActivityPubException, InterruptedException {
+        Server polito = server(MASTO_POLITO, new ServerConfig().fanOutOnReadThreshold(2));
+        polito.createActor("star", "Star");
+        String star = "@star@" + MASTO_POLITO;
+        String carla = unito.createActor("carla", "Carla Bianchi").getFullId();
+        String dave = unito.createActor("dave", "Dave Verdi").getFullId();
+        unito.follow(carla, star);
+        unito.follow(dave, star);
+        Recorder recorder = subscribe(unito, bob);
+        recorder.subscription.request(Long.MAX_VALUE);
+        Recorder other = subscribe(unito, carla);
+        other.subscription.request(Long.MAX_VALUE);
+
+        polito.createActivity("star", ActivityType.CREATE, "Before");
+        unito.follow(bob, star);
+        unito.unfollow(carla, star);
+        polito.createActivity("star", ActivityType.CREATE, "After");
+        assertEquals(List.of("After"), recorder.take(1));
+        assertEquals(List.of("Before"), other.take(1));
+        other.assertQuiet();
+
+        // subscribed again after the last subscription was cancelled
+        recorder.subscription.cancel();
+        Recorder again = subscribe(unito, bob);
+        again.subscription.request(Long.MAX_VALUE);
+        polito.createActivity("star", ActivityType.CREATE, "Again");
+        assertEquals(List.of("Again"), again.take(1));
+        recorder.assertQuiet();
+    }
+
+    @Test
+    public void testCancelledAndIdleSubscriptions() throws InterruptedException, ActivityPubException {
+        Server idleServer = server("subscribe.idle.it", new ServerConfig());
+        List<String> actors = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            actors.add(idleServer.createActor("user" + i, "User " + i).getFullId());
+        }
+        List<Recorder> idle = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            idle.add(subscribe(idleServer, actors.get(i % actors.size())));
+        }
+        assertEquals(10_000, idleServer.getMetrics().get().getInboxSubscribers());
+        // idle subscriptions take no thread
+        assertTrue(Thread.getAllStackTraces().keySet().stream().noneMatch(t -> t.getName().startsWith("inbox-subscribe.idle.it")));
+
+        Activity activity = new Activity(ActivityType.CREATE, "@dave@subscribe.other.it", "Buffered");
+        idleServer.receiveActivity(activity, actors.get(0));
+        Recorder first = idle.get(0);
+        first.subscription.request(1);
+        assertEquals(List.of("Buffered"), first.take(1));
+
+        idle.forEach(recorder -> recorder.subscription.cancel());
+        assertEquals(0, idleServer.getMetrics().get().getInboxSubscribers());
+        first.subscription.request(1);
+        idleServer.receiveActivity(new Activity(ActivityType.CREATE, "@dave@subscribe.other.it", "Ignored"), actors.get(0));
+        first.assertQuiet();
+    }
+
+    @Test
+    public void testCompletedWhenActorDeleted() throws InterruptedException {
+        Recorder recorder = subscribe(unito, bob);
+        receive("Last");
+        unito.deleteActor("bob");
+        recorder.assertQuiet();
+
+        recorder.subscription.request(5);
+        assertEquals(List.of("Last", COMPLETE), recorder.take(2));
+    }
+
+    @Test
+    public void testCompletedWhenServerClosed() throws InterruptedException {
+        Recorder recorder = subscribe(unito, bob);
+        receive("Last");
+        unito.close();
+        recorder.assertQuiet();
+
+        // the workers are stopped, the requesting thread passes the signals on
+        recorder.subscription.request(5);
+        assertEquals(List.of("Last", COMPLETE), recorder.take(2));
+        assertEquals(0, unito.getMetrics().get().getInboxSubscribers());
+    }
+
+    @Test
+    public void testInvalidRequests() throws InterruptedException {
+        try {
+            unito.subscribeInbox("@nobody@" + MASTO_UNITO);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // not a local actor
+        }
+        Recorder recorder = subscribe(unito, bob);
+        recorder.subscription.request(0);
+        assertEquals(List.of("IllegalArgumentException"), recorder.take(1));
+        receive("Ignored");
+        recorder.assertQuiet();
+    }
+}
@@ -0,0 +1,125 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.InMemoryNamingService;
+import it.polito.activitypub.LatencyHistogram;
+import it.polito.activitypub.NamingService;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerConfig;
+import it.polito.activitypub.ServerMetrics;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+
+    private static final String MASTO_POLITO = "metrics.polito.it";
+    private static final String MASTO_UNITO = "metrics.unito.it";
+    private static final String MASTO_BROKEN = "metrics.broken.it";
+
+    private NamingService namingService;
+    private ServerConfig config;
+    private Server polito;
+    private Server unito;
+    private Actor alice;
+    private Actor bob;
+    private Actor carla;
+
+    @Before
+    public void setup() throws ActivityPubException {
+        namingService = new InMemoryNamingService();
+        config = new ServerConfig().namingService(namingService).metricsEnabled(true);
+        polito = ActivityPubUtilities.createServer(MASTO_POLITO, config);
+        unito = ActivityPubUtilities.createServer(MASTO_UNITO, new ServerConfig().namingService(namingService));
+
+        alice = polito.createActor("alice", "Alice Doe");
+        carla = polito.createActor("carla", "Carla Bianchi");
+        bob = unito.createActor("bob", "Bob Rossi");
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        assertFalse(unito.getMetrics().isPresent());
+        assertTrue(polito.getMetrics().isPresent());
+    }
+
+    @Test
+    public void testCountersAndGauges() throws ActivityPubException {
+        polito.follow(carla.getFullId(), alice.getFullId());
+        unito.follow(bob.getFullId(), alice.getFullId());
+        for (int i = 0; i < 3; i++) {
+            polito.createActivity(alice.getFullId(), ActivityType.CREATE, "Post " + i);
+        }
+
+        ServerMetrics metrics = polito.getMetrics().get();
+        assertEquals(3, metrics.getActivitiesCreated());
+        assertEquals(3, metrics.getDelivered(MASTO_UNITO));
+        assertEquals(3, metrics.getDeliveryCalls(MASTO_UNITO));
+        assertEquals(3, metrics.getDelivered(MASTO_POLITO));
+        assertEquals(0, metrics.getDropped(MASTO_UNITO));
+
+        assertEquals(3, metrics.getCreateActivityLatency().getCount());
+        assertEquals(3, metrics.getReceiveActivityLatency().getCount());
+        assertEquals(1, metrics.getFollowLatency().getCount());
+
+        assertEquals(2, metrics.getActorCount());
+        // carla follows alice, and alice is followed by carla and bob
+        assertEquals(3, metrics.getEdgeCount());
+        assertEquals(3, metrics.getInboxEntries());
+
+        String text = metrics.toText();
+        assertTrue(text, text.contains("activities_created 3\n"));
+        assertTrue(text, text.contains("activities_delivered{destination=\"" + MASTO_UNITO + "\"} 3\n"));
+        assertTrue(text, text.contains("create_activity_latency_us{quantile=\"0.99\"} "));
+        assertTrue(text, text.contains("inbox_entries 3\n"));
+    }
+
+    @Test
+    public void testDroppedWhenReceiveFails() throws Exception {
+        Server broken = new ServerProxy(ActivityPubUtilities.createServer(MASTO_BROKEN, new ServerConfig().namingService(namingService))) {
+            @Override
+            public void receiveActivity(Activity activity, String... targetId) {
+                throw new IllegalStateException("Server down");
+            }
+        };
+        namingService.registerServer(MASTO_BROKEN, broken);
+        Actor dave = broken.createActor("dave", "Dave Verdi");
+        broken.follow(dave.getFullId(), alice.getFullId());
+        unito.follow(bob.getFullId(), alice.getFullId());
+
+        Server async = ActivityPubUtilities.createServer("metrics.async.it", new ServerConfig()
+                .namingService(namingService).metricsEnabled(true).asyncDelivery(true));
+        Actor erin = async.createActor("erin", "Erin Neri");
+        broken.follow(dave.getFullId(), erin.getFullId());
+        unito.follow(bob.getFullId(), erin.getFullId());
+
+        async.createActivity(erin.getFullId(), ActivityType.CREATE, "Hello");
+        async.flushDeliveries();
+
+        ServerMetrics metrics = async.getMetrics().get();
+        assertEquals(1, metrics.getDropped(MASTO_BROKEN));
+        assertEquals(0, metrics.getDelivered(MASTO_BROKEN));
+        assertEquals(1, metrics.getDelivered(MASTO_UNITO));
+    }
+
+    @Test
+    public void testPercentiles() throws ActivityPubException {
+        for (int i = 0; i < 200; i++) {
+            polito.createActivity(alice.getFullId(), ActivityType.LIKE, "Like " + i);
+        }
+        LatencyHistogram latency = polito.getMetrics().get().getCreateActivityLatency();
+
+        assertEquals(200, latency.getCount());
+        assertTrue(latency.getPercentile(50) > 0);
+        assertTrue(latency.getPercentile(50) <= latency.getPercentile(99));
+        assertTrue(latency.getPercentile(99) <= latency.getMax());
+        assertTrue(latency.getMean() <= latency.getMax());
+    }
+}
@@ -0,0 +1,214 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.DeadLetter;
+import it.polito.activitypub.DeadLetters;
+import it.polito.activitypub.InMemoryNamingService;
+import it.polito.activitypub.NamingService;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerConfig;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReliableDeliveryTest {
+
+    private static final String MASTO_POLITO = "reliable.polito.it";
+    private static final String MASTO_UNITO = "reliable.unito.it";
+
+    private NamingService namingService;
+    private FaultyServerProxy unito;
+    private Actor bob;
+
+    @Before
+    public void setup() throws ActivityPubException {
+        namingService = new InMemoryNamingService();
+        unito = new FaultyServerProxy(ActivityPubUtilities.createServer(MASTO_UNITO,
+                new ServerConfig().namingService(namingService).receiveDedupCapacity(1024)));
+        namingService.registerServer(MASTO_UNITO, unito);
+        bob = unito.createActor("bob", "Bob Rossi");
+    }
+
+    private Server polito(ServerConfig config) throws ActivityPubException {
+        Server polito = ActivityPubUtilities.createServer(MASTO_POLITO, config.namingService(namingService)
+                .deliveryRetryBackoff(Duration.ofMillis(5)).deliveryMaxRetryBackoff(Duration.ofMillis(50)));
+        Actor alice = polito.createActor("alice", "Alice Doe");
+        unito.follow(bob.getFullId(), alice.getFullId());
+        return polito;
+    }
+
+    private static List<String> post(Server polito, int count) {
+        List<String> posted = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            posted.add(polito.createActivity("alice", ActivityType.CREATE, "Post " + i).getContent());
+        }
+        return posted;
+    }
+
+    private List<String> inbox() {
+        List<String> inbox = unito.getInbox(bob.getFullId()).map(Activity::getContent).collect(Collectors.toList());
+        Collections.reverse(inbox);
+        return inbox;
+    }
+
+    @Test
+    public void testRetriedUntilDelivered() throws Exception {
+        Server polito = polito(new ServerConfig().asyncDelivery(true).deliveryMaxAttempts(3).metricsEnabled(true));
+        unito.failNext(2);
+
+        List<String> posted = post(polito, 1);
+        polito.flushDeliveries();
+
+        assertEquals(posted, inbox());
+        assertEquals(3, unito.getCalls());
+        assertEquals(2, polito.getMetrics().get().getRetried(MASTO_UNITO));
+        assertEquals(0, polito.getDeadLetters().get().size());
+    }
+
+    @Test
+    public void testDeadLettersReplayed() throws Exception {
+        Server polito = polito(new ServerConfig().asyncDelivery(true).deliveryMaxAttempts(2).deliveryBatchSize(1).metricsEnabled(true));
+        unito.down(true);
+
+        List<String> posted = post(polito, 3);
+        polito.flushDeliveries();
+
+        DeadLetters deadLetters = polito.getDeadLetters().get();
+        List<DeadLetter> letters = deadLetters.list();
+        assertEquals(3, letters.size());
+        assertEquals(MASTO_UNITO, letters.get(0).getServerName());
+        assertEquals(2, letters.get(0).getAttempts());
+        assertEquals("Post 0", letters.get(0).getDelivery().getActivity().getContent());
+        assertTrue(letters.get(0).getError().contains("Connection refused"));
+        assertEquals(3, polito.getMetrics().get().getDropped(MASTO_UNITO));
+        assertTrue(inbox().isEmpty());
+
+        unito.down(false);
+        assertEquals(3, deadLetters.replay(MASTO_UNITO));
+        polito.flushDeliveries();
+
+        assertEquals(posted, inbox());
+        assertEquals(0, deadLetters.size());
+    }
+
+    @Test
+    public void testSynchronousDeliveryQueuedForRetry() throws Exception {
+        Server polito = polito(new ServerConfig().deliveryMaxAttempts(5));
+        unito.down(true);
+
+        // the post does not fail with the recipient server
+        List<String> posted = post(polito, 2);
+        Thread.sleep(20);
+        unito.down(false);
+        polito.flushDeliveries();
+
+        assertEquals(posted, inbox());
+    }
+
+    @Test
+    public void testSynchronousDeliveryWaitsBehindRetries() throws Exception {
+        Server polito = polito(new ServerConfig().deliveryMaxAttempts(5));
+        unito.down(true);
+        List<String> posted = post(polito, 1);
+        while (unito.getFailures() < 4) {
+            Thread.sleep(1);
+        }
+        unito.down(false);
+
+        // the posts after the failed one are queued behind it, backing off, instead of overtaking it
+        for (int i = 1; i < 10; i++) {
+            posted.add(polito.createActivity("alice", ActivityType.CREATE, "Post " + i).getContent());
+        }
+        polito.flushDeliveries();
+
+        assertEquals(posted, inbox());
+    }
+
+    @Test
+    public void testCloseStopsRetries() throws Exception {
+        Server polito = polito(new ServerConfig().asyncDelivery(true).deliveryMaxAttempts(100).metricsEnabled(true));
+        unito.down(true);
+        post(polito, 3);
+        while (unito.getFailures() < 2) {
+            Thread.sleep(1);
+        }
+
+        polito.close();
+        polito.flushDeliveries();
+        int calls = unito.getCalls();
+        Thread.sleep(100);
+
+        assertEquals(calls, unito.getCalls());
+        assertEquals(3, polito.getMetrics().get().getDropped(MASTO_UNITO));
+    }
+
+    @Test
+    public void testSynchronousFailureWithoutRetries() throws ActivityPubException {
+        Server polito = polito(new ServerConfig());
+        unito.down(true);
+
+        try {
+            polito.createActivity("alice", ActivityType.CREATE, "Lost");
+        } catch (IllegalStateException e) {
+            assertFalse(polito.getDeadLetters().isPresent());
+            return;
+        }
+        throw new AssertionError("The delivery failure must reach the caller");
+    }
+
+    @Test
+    public void testLostAnswerNotDuplicated() throws Exception {
+        Server polito = polito(new ServerConfig().asyncDelivery(true).deliveryMaxAttempts(3));
+        unito.failNextAfterDelivery(1);
+
+        List<String> posted = post(polito, 1);
+        polito.flushDeliveries();
+
+        assertEquals(2, unito.getCalls());
+        assertEquals(posted, inbox());
+    }
+
+    @Test
+    public void testFlakyServerGetsEachActivityOnceInOrder() throws Exception {
+        Server polito = polito(new ServerConfig().asyncDelivery(true).deliveryMaxAttempts(20).deliveryBatchSize(4));
+        unito.dropRate(0.3, 42).delay(Duration.ofMillis(1));
+
+        List<String> posted = post(polito, 50);
+        polito.flushDeliveries();
+
+        assertTrue(unito.getFailures() > 0);
+        assertEquals(posted, inbox());
+        assertEquals(0, polito.getDeadLetters().get().size());
+    }
+
+    @Test
+    public void testDuplicateFilterIsBounded() throws ActivityPubException {
+        Server small = ActivityPubUtilities.createServer("reliable.small.it",
+                new ServerConfig().namingService(namingService).receiveDedupCapacity(16));
+        String carla = small.createActor("carla", "Carla Bianchi").getFullId();
+        Activity activity = new Activity(ActivityType.LIKE, "@dave@reliable.other.it", "Like");
+
+        small.receiveActivity(activity, carla);
+        small.receiveActivity(activity, carla);
+        assertEquals(1, small.getInbox(carla).count());
+
+        // forgotten once enough other deliveries were received
+        for (int i = 0; i < 1000; i++) {
+            small.receiveActivity(new Activity(ActivityType.LIKE, "@dave@reliable.other.it", "Like " + i), carla);
+        }
+        small.receiveActivity(activity, carla);
+        assertEquals(1002, small.getInbox(carla).count());
+    }
+}
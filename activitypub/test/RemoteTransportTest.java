@@ -0,0 +1,208 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPage;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.FollowResult;
+import it.polito.activitypub.NamingService;
+import it.polito.activitypub.NetworkNamingService;
+import it.polito.activitypub.RemoteServer;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerEndpoint;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RemoteTransportTest {
+
+    private static final String MASTO_POLITO = "net.polito.it";
+    private static final String MASTO_UNITO = "net.unito.it";
+
+    private Server polito;
+    private ServerEndpoint endpoint;
+    private RemoteServer unito;
+    private Actor alice;
+
+    @Before
+    public void setup() throws ActivityPubException, IOException {
+        NamingService namingService = ActivityPubUtilities.getNamingService();
+        polito = ActivityPubUtilities.createServer(MASTO_POLITO);
+        endpoint = ServerEndpoint.open(ActivityPubUtilities.createServer(MASTO_UNITO),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        unito = new RemoteServer(MASTO_UNITO, endpoint.getAddress());
+        namingService.registerServer(MASTO_UNITO, unito);
+
+        alice = polito.createActor("alice", "Alice Doe");
+    }
+
+    @After
+    public void teardown() {
+        unito.close();
+        endpoint.close();
+    }
+
+    @Test
+    public void testFederationOverSocket() throws ActivityPubException {
+        Actor bob = unito.createActor("bob", "Bob Rossi");
+        assertEquals("@bob@" + MASTO_UNITO, bob.getFullId());
+        assertTrue(unito.follow("bob", alice.getFullId()));
+        assertTrue(unito.isFollowing("bob", alice.getFullId()));
+        assertEquals(List.of(bob), polito.getFollowers(alice.getFullId()));
+
+        Activity sent = polito.createActivity(alice.getFullId(), ActivityType.CREATE, "Hello over TCP");
+
+        assertEquals(List.of(sent), unito.getInbox(bob.getFullId()).toList());
+        ActivityPage page = unito.getInbox("bob", null, 10);
+        assertEquals(List.of(sent), page.getActivities());
+        assertFalse(page.getNextCursor().isPresent());
+        assertEquals(Optional.of(bob), unito.getActor("bob"));
+        assertFalse(unito.getActor("nobody").isPresent());
+    }
+
+    @Test
+    public void testNullFieldsOverSocket() throws ActivityPubException {
+        Actor bob = unito.createActor("bob", null);
+        assertEquals(null, bob.getDisplayName());
+        Activity like = unito.createActivity(bob.getFullId(), ActivityType.LIKE, null);
+        assertEquals(null, like.getContent());
+
+        unito.follow(bob.getFullId(), alice.getFullId());
+        Activity sent = polito.createActivity(alice.getFullId(), ActivityType.LIKE, null);
+        assertEquals(List.of(sent), unito.getInbox(bob.getFullId()).toList());
+        assertEquals(null, unito.getInbox(bob.getFullId()).findFirst().get().getContent());
+    }
+
+    @Test
+    public void testBulkFollowOverSocket() throws ActivityPubException {
+        unito.createActor("bob", "Bob Rossi");
+        unito.createActor("carla", "Carla Bianchi");
+        Actor dave = polito.createActor("dave", "Dave Verdi");
+
+        Map<String, FollowResult> results = polito.followAll(dave.getFullId(),
+                List.of("@bob@" + MASTO_UNITO, "@carla@" + MASTO_UNITO, "@nobody@" + MASTO_UNITO));
+
+        assertEquals(List.of(FollowResult.CHANGED, FollowResult.CHANGED, FollowResult.NO_SUCH_ACTOR), List.copyOf(results.values()));
+        assertEquals(List.of(dave), unito.getFollowers("carla"));
+        assertEquals(Map.of("@bob@" + MASTO_UNITO, FollowResult.CHANGED),
+                polito.unfollowAll(dave.getFullId(), List.of("@bob@" + MASTO_UNITO)));
+        assertEquals(List.of(), unito.getFollowers("bob"));
+    }
+
+    @Test
+    public void testErrorsAreRethrown() throws ActivityPubException {
+        unito.createActor("carla", "Carla Bianchi");
+        try {
+            unito.createActor("carla", "Carla Bis");
+            fail("Expected ActivityPubException");
+        } catch (ActivityPubException e) {
+            // duplicate username
+        }
+        try {
+            unito.getInbox("carla", "not a cursor", 10);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // malformed cursor
+        }
+    }
+
+    @Test
+    public void testSearchOverSocket() throws ActivityPubException {
+        unito.createActor("bob", "Bob Rossi");
+        unito.follow("bob", alice.getFullId());
+        Activity first = polito.createActivity(alice.getFullId(), ActivityType.CREATE, "Search me");
+        Activity second = polito.createActivity(alice.getFullId(), ActivityType.CREATE, "Search me too");
+
+        ActivityPage page = unito.searchActivities("search", null, 1);
+        assertEquals(List.of(second), page.getActivities());
+        page = unito.searchActivities("search", page.getNextCursor().get(), 1);
+        assertEquals(List.of(first), page.getActivities());
+        assertFalse(page.getNextCursor().isPresent());
+    }
+
+    @Test
+    public void testFramesLargerThanTheReadBuffer() throws ActivityPubException {
+        unito.createActor("bob", "Bob Rossi");
+        unito.follow("bob", alice.getFullId());
+        String content = "x".repeat(300_000);
+
+        polito.createActivity(alice.getFullId(), ActivityType.CREATE, content);
+
+        assertEquals(content, unito.getInbox("bob").findFirst().get().getContent());
+    }
+
+    @Test
+    public void testAnnouncedFrameLengthNotTrusted() throws ActivityPubException, IOException {
+        try (Socket socket = new Socket(endpoint.getAddress().getAddress(), endpoint.getAddress().getPort())) {
+            // the largest frame announced, but only a few bytes of it sent
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(64 << 20);
+            out.write(new byte[16]);
+            out.flush();
+            unito.createActor("bob", "Bob Rossi");
+        }
+        assertTrue(unito.getActor("bob").isPresent());
+    }
+
+    @Test
+    public void testConcurrentCallsShareOneConnection() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            unito.createActor("user" + i, "User " + i);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(pool.submit(() -> {
+                    int found = 0;
+                    for (int i = 0; i < 200; i++) {
+                        String username = "user" + (i % 50);
+                        Optional<Actor> actor = unito.getActor(username);
+                        if (actor.isPresent() && actor.get().getUsername().equals(username)) {
+                            found++;
+                        }
+                    }
+                    return found;
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(200, result.get().intValue());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testNetworkNamingService() throws ActivityPubException {
+        try (NetworkNamingService names = new NetworkNamingService()) {
+            names.registerServer("net.unimi.it", ActivityPubUtilities.createServer("net.unimi.it"));
+
+            assertTrue(names.lookupAddress("net.unimi.it").get().getAddress().isLoopbackAddress());
+            assertFalse(names.resolveServer("net.unknown.it").isPresent());
+            Server unimi = names.resolveServer("net.unimi.it").get();
+            assertTrue(unimi instanceof RemoteServer);
+            unimi.createActor("dario", "Dario Verdi");
+            assertEquals(1, unimi.listAllActors().size());
+        }
+    }
+}
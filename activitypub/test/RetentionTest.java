@@ -0,0 +1,231 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPage;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.InMemoryNamingService;
+import it.polito.activitypub.NamingService;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerConfig;
+import it.polito.activitypub.ServerMetrics;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetentionTest {
+
+    private static final String MASTO_POLITO = "retention.polito.it";
+    private static final String MASTO_UNITO = "retention.unito.it";
+
+    private NamingService namingService;
+    private Server polito;
+    private Actor alice;
+    private int posts;
+
+    @Before
+    public void setup() throws ActivityPubException {
+        namingService = new InMemoryNamingService();
+        polito = ActivityPubUtilities.createServer(MASTO_POLITO, new ServerConfig().namingService(namingService));
+        alice = polito.createActor("alice", "Alice Doe");
+    }
+
+    private Server unito(ServerConfig config) {
+        return ActivityPubUtilities.createServer(MASTO_UNITO, config.namingService(namingService).metricsEnabled(true));
+    }
+
+    private void post(int count) {
+        for (int i = 0; i < count; i++) {
+            polito.createActivity(alice.getFullId(), ActivityType.CREATE, "Post " + posts++);
+        }
+    }
+
+    private static List<String> inbox(Server server, Actor actor) {
+        return server.getInbox(actor.getFullId()).map(Activity::getContent).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testMaxEntries() throws ActivityPubException {
+        Server unito = unito(new ServerConfig().inboxMaxEntries(5));
+        Actor bob = unito.createActor("bob", "Bob Rossi");
+        unito.follow(bob.getFullId(), alice.getFullId());
+
+        post(12);
+
+        assertEquals(List.of("Post 11", "Post 10", "Post 9", "Post 8", "Post 7"), inbox(unito, bob));
+        ServerMetrics metrics = unito.getMetrics().get();
+        assertEquals(7, metrics.getInboxEvictedByCount());
+        assertEquals(5, metrics.getInboxEntries());
+        assertTrue(metrics.toText(), metrics.toText().contains("inbox_evictions{cause=\"max_entries\"} 7\n"));
+    }
+
+    @Test
+    public void testCursorAcrossEviction() throws ActivityPubException {
+        Server unito = unito(new ServerConfig().inboxMaxEntries(4));
+        Actor bob = unito.createActor("bob", "Bob Rossi");
+        unito.follow(bob.getFullId(), alice.getFullId());
+        post(4);
+
+        ActivityPage first = unito.getInbox(bob.getFullId(), null, 2);
+        assertEquals("Post 3", first.getActivities().get(0).getContent());
+        // evicts Post 0 and Post 1, the next page stops at what is left
+        post(2);
+        ActivityPage second = unito.getInbox(bob.getFullId(), first.getNextCursor().get(), 2);
+        assertEquals(0, second.getActivities().size());
+        assertFalse(second.getNextCursor().isPresent());
+        assertEquals(List.of("Post 5", "Post 4", "Post 3", "Post 2"), inbox(unito, bob));
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        Server unito = unito(new ServerConfig().inboxMaxAge(Duration.ofMillis(200)));
+        Actor bob = unito.createActor("bob", "Bob Rossi");
+        unito.follow(bob.getFullId(), alice.getFullId());
+
+        post(3);
+        assertEquals(3, inbox(unito, bob).size());
+        Thread.sleep(300);
+        post(1);
+
+        assertEquals(List.of("Post 3"), inbox(unito, bob));
+        ServerMetrics metrics = unito.getMetrics().get();
+        assertEquals(3, metrics.getInboxEvictedByAge());
+        assertEquals(1, metrics.getInboxEntries());
+    }
+
+    @Test
+    public void testBudgetWithoutContent() throws ActivityPubException {
+        Server unito = unito(new ServerConfig().inboxMemoryBudget(64 << 10));
+        Actor bob = unito.createActor("bob", "Bob Rossi");
+        unito.follow(bob.getFullId(), alice.getFullId());
+
+        polito.createActivity(alice.getFullId(), ActivityType.LIKE, null);
+        post(1);
+
+        assertEquals(Arrays.asList("Post 0", null), inbox(unito, bob));
+        assertTrue(unito.getMetrics().get().getInboxBytes() > 0);
+    }
+
+    @Test
+    public void testBudgetEvictsOldestFirst() throws ActivityPubException {
+        Server unito = unito(new ServerConfig().inboxMemoryBudget(64 << 10));
+        Actor bob = unito.createActor("bob", "Bob Rossi");
+        Actor dave = unito.createActor("dave", "Dave Verdi");
+        Actor carla = polito.createActor("carla", "Carla Bianchi");
+        unito.follow(bob.getFullId(), alice.getFullId());
+
+        post(200);
+        // dave only gets the newer activities of another actor
+        unito.follow(dave.getFullId(), carla.getFullId());
+        for (int i = 0; i < 200; i++) {
+            polito.createActivity(carla.getFullId(), ActivityType.CREATE, "Carla " + i);
+        }
+
+        ServerMetrics metrics = unito.getMetrics().get();
+        long evicted = metrics.getInboxEvictedByBudget();
+        assertTrue(metrics.getInboxBytes() <= 64 << 10);
+        assertTrue(evicted > 0 && evicted < 200);
+        // bob's entries arrived first, so they are the ones evicted
+        assertEquals(200, inbox(unito, dave).size());
+        List<String> bobInbox = inbox(unito, bob);
+        assertEquals(200 - evicted, bobInbox.size());
+        assertEquals("Post 199", bobInbox.get(0));
+        assertEquals("Post " + evicted, bobInbox.get(bobInbox.size() - 1));
+    }
+
+    @Test
+    public void testDeletedActorReleasesBudget() throws ActivityPubException {
+        Server unito = unito(new ServerConfig().inboxMemoryBudget(64 << 10));
+        for (int round = 0; round < 50; round++) {
+            Actor bob = unito.createActor("bob" + round, "Bob Rossi");
+            unito.receiveActivity(new Activity(ActivityType.CREATE, "@carla@retention.other.it", "Post " + round), bob.getFullId());
+            assertTrue(unito.deleteActor(bob.getUsername()));
+        }
+        Actor dave = unito.createActor("dave", "Dave Verdi");
+        unito.receiveActivity(new Activity(ActivityType.CREATE, "@carla@retention.other.it", "Kept"), dave.getFullId());
+
+        ServerMetrics metrics = unito.getMetrics().get();
+        assertEquals(1, metrics.getInboxEntries());
+        assertEquals(0, metrics.getInboxEvictedByBudget());
+        assertEquals(List.of("Kept"), inbox(unito, dave));
+    }
+
+    @Test
+    public void testBudgetWithMaxEntries() throws ActivityPubException {
+        Server unito = unito(new ServerConfig().inboxMaxEntries(5).inboxMemoryBudget(64 << 10));
+        Actor bob = unito.createActor("bob", "Bob Rossi");
+        Actor dave = unito.createActor("dave", "Dave Verdi");
+
+        // far more arrivals than the budget could queue, each evicting one entry by number
+        for (int i = 0; i < 50_000; i++) {
+            Actor recipient = i % 2 == 0 ? bob : dave;
+            unito.receiveActivity(new Activity(ActivityType.CREATE, "@carla@retention.other.it", "Post " + i), recipient.getFullId());
+        }
+
+        ServerMetrics metrics = unito.getMetrics().get();
+        assertEquals(0, metrics.getInboxEvictedByBudget());
+        assertEquals(10, metrics.getInboxEntries());
+        assertTrue("bytes " + metrics.getInboxBytes(), metrics.getInboxBytes() < 16 << 10);
+        assertEquals(List.of("Post 49998", "Post 49996", "Post 49994", "Post 49992", "Post 49990"), inbox(unito, bob));
+    }
+
+    @Test
+    public void testOutboxesExpire() throws Exception {
+        Server unito = unito(new ServerConfig().inboxMaxAge(Duration.ofMillis(200)));
+        Actor carla = unito.createActor("carla", "Carla Bianchi");
+        for (int i = 0; i < 3; i++) {
+            unito.createActivity(carla.getFullId(), ActivityType.CREATE, "Old " + i);
+        }
+        Thread.sleep(300);
+        Activity recent = unito.createActivity(carla.getFullId(), ActivityType.CREATE, "Recent");
+
+        assertEquals(List.of(recent), unito.getOutbox(carla.getFullId()).collect(Collectors.toList()));
+        assertEquals(List.of(recent), unito.getAllActivities().collect(Collectors.toList()));
+        assertEquals(List.of(recent), unito.getAllActivities(recent.getTimestamp().minusSeconds(10), null).collect(Collectors.toList()));
+        assertEquals(6, unito.getMetrics().get().getInboxEvictedByAge());
+    }
+
+    @Test
+    public void testBudgetBoundsEveryTimeline() throws ActivityPubException {
+        Server unito = unito(new ServerConfig().inboxMemoryBudget(64 << 10));
+        Actor carla = unito.createActor("carla", "Carla Bianchi");
+        for (int i = 0; i < 2000; i++) {
+            unito.createActivity(carla.getFullId(), ActivityType.CREATE, "Carla " + i);
+            unito.receiveFollowersActivity(new Activity(ActivityType.CREATE, "@star@retention.other.it", "Star " + i));
+        }
+
+        ServerMetrics metrics = unito.getMetrics().get();
+        assertTrue("bytes " + metrics.getInboxBytes(), metrics.getInboxBytes() <= 64 << 10);
+        assertTrue(metrics.getInboxEvictedByBudget() > 0);
+        List<String> outbox = unito.getOutbox(carla.getFullId()).map(Activity::getContent).collect(Collectors.toList());
+        assertTrue(outbox.size() < 2000);
+        assertEquals("Carla 1999", outbox.get(outbox.size() - 1));
+        assertEquals(outbox.size(), unito.getAllActivities().count());
+    }
+
+    @Test
+    public void testReceivedActivitiesReleased() throws ActivityPubException {
+        Server unito = unito(new ServerConfig().inboxMaxEntries(1));
+        Actor bob = unito.createActor("bob", "Bob Rossi");
+        Actor dave = unito.createActor("dave", "Dave Verdi");
+        unito.follow(bob.getFullId(), alice.getFullId());
+        unito.follow(dave.getFullId(), alice.getFullId());
+
+        post(100);
+
+        // only the last activity is still held, by both inboxes
+        long bytes = unito.getMetrics().get().getInboxBytes();
+        assertTrue("bytes " + bytes, bytes < 1000);
+        assertEquals(List.of("Post 99"), inbox(unito, bob));
+        assertEquals(List.of("Post 99"), inbox(unito, dave));
+    }
+}
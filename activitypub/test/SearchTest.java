@@ -0,0 +1,178 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPage;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.InMemoryNamingService;
+import it.polito.activitypub.NamingService;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerConfig;
+import it.polito.activitypub.ServerMetrics;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SearchTest {
+
+    private static final String MASTO_POLITO = "search.polito.it";
+    private static final String MASTO_UNITO = "search.unito.it";
+
+    private NamingService namingService;
+
+    @Before
+    public void setup() {
+        namingService = new InMemoryNamingService();
+    }
+
+    private Server server(String name, ServerConfig config) {
+        Server server = ActivityPubUtilities.createServer(name, config.namingService(namingService));
+        namingService.registerServer(name, server);
+        return server;
+    }
+
+    private static List<String> search(Server server, String query) {
+        return server.searchActivities(query, null, 100).getActivities().stream()
+                .map(Activity::getContent).collect(Collectors.toList());
+    }
+
+    private void checkQueries(boolean indexed) throws ActivityPubException {
+        Server polito = server(MASTO_POLITO + indexed, new ServerConfig().searchIndexEnabled(indexed));
+        polito.createActor("alice", "Alice Doe");
+        for (String content : List.of("The quick brown fox", "A brown dog, quick as a fox",
+                "Searching for FOXES", "quick-brown coffee", "Nothing to see")) {
+            polito.createActivity("alice", ActivityType.CREATE, content);
+        }
+
+        assertEquals(List.of("quick-brown coffee", "A brown dog, quick as a fox", "The quick brown fox"), search(polito, "brown"));
+        assertEquals(List.of("A brown dog, quick as a fox", "The quick brown fox"), search(polito, "Fox"));
+        assertEquals(List.of("Searching for FOXES", "A brown dog, quick as a fox", "The quick brown fox"), search(polito, "fox*"));
+        assertEquals(List.of("quick-brown coffee", "The quick brown fox"), search(polito, "\"quick brown\""));
+        assertEquals(List.of("quick-brown coffee", "The quick brown fox"), search(polito, "quick-brown"));
+        assertEquals(List.of("A brown dog, quick as a fox"), search(polito, "dog quick fox"));
+        assertEquals(List.of("The quick brown fox"), search(polito, "\"brown fox\" qui*"));
+        assertEquals(List.of(), search(polito, "\"fox quick\""));
+        assertEquals(List.of(), search(polito, "cat"));
+        assertEquals(List.of(), search(polito, "z*"));
+    }
+
+    @Test
+    public void testQueriesWithIndex() throws ActivityPubException {
+        checkQueries(true);
+    }
+
+    @Test
+    public void testQueriesWithoutIndex() throws ActivityPubException {
+        checkQueries(false);
+    }
+
+    @Test
+    public void testPagesNewestFirst() throws ActivityPubException {
+        Server polito = server(MASTO_POLITO, new ServerConfig().searchIndexEnabled(true));
+        polito.createActor("alice", "Alice Doe");
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            polito.createActivity("alice", ActivityType.CREATE, "Match " + i);
+            polito.createActivity("alice", ActivityType.CREATE, "Other " + i);
+            expected.add(0, "Match " + i);
+        }
+
+        List<String> read = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            ActivityPage page = polito.searchActivities("match", cursor, 10);
+            page.getActivities().forEach(activity -> read.add(activity.getContent()));
+            cursor = page.getNextCursor().orElse(null);
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(expected, read);
+        assertEquals(3, pages);
+        assertFalse(polito.searchActivities("match", null, 25).getNextCursor().isPresent());
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        Server polito = server(MASTO_POLITO, new ServerConfig().searchIndexEnabled(true));
+        for (Runnable invalid : List.<Runnable>of(() -> polito.searchActivities("  \"\" -- ", null, 10),
+                () -> polito.searchActivities("word", null, 0), () -> polito.searchActivities("word", "not a cursor", 10))) {
+            try {
+                invalid.run();
+                fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testReceivedActivitiesIndexed() throws ActivityPubException {
+        Server polito = server(MASTO_POLITO, new ServerConfig());
+        Server unito = server(MASTO_UNITO, new ServerConfig().searchIndexEnabled(true).fanOutOnReadThreshold(2));
+        polito.createActor("alice", "Alice Doe");
+        polito.createActor("dave", "Dave Verdi");
+        Actor bob = unito.createActor("bob", "Bob Rossi");
+        Actor carla = unito.createActor("carla", "Carla Bianchi");
+        unito.follow(bob.getFullId(), "@alice@" + MASTO_POLITO);
+        unito.follow(bob.getFullId(), "@dave@" + MASTO_POLITO);
+        unito.follow(carla.getFullId(), "@dave@" + MASTO_POLITO);
+
+        polito.createActivity("alice", ActivityType.CREATE, "Federated hello");
+        polito.createActivity("dave", ActivityType.CREATE, "Hello to all my followers");
+        unito.createActivity("bob", ActivityType.CREATE, "Local hello");
+
+        assertEquals(List.of("Local hello", "Hello to all my followers", "Federated hello"), search(unito, "hello"));
+        assertEquals(List.of("Federated hello"), search(polito, "federated"));
+    }
+
+    @Test
+    public void testDroppedActivitiesLeaveTheIndex() throws ActivityPubException {
+        Server unito = server(MASTO_UNITO, new ServerConfig().searchIndexEnabled(true).inboxMaxEntries(2).metricsEnabled(true));
+        String bob = unito.createActor("bob", "Bob Rossi").getFullId();
+        for (int i = 0; i < 10; i++) {
+            unito.receiveActivity(new Activity(ActivityType.CREATE, "@dave@search.other.it", "Word " + i), bob);
+        }
+
+        assertEquals(List.of("Word 9", "Word 8"), search(unito, "word"));
+        assertEquals(List.of(), search(unito, "3"));
+        ServerMetrics metrics = unito.getMetrics().get();
+        // "word", "8" and "9"
+        assertEquals(3, metrics.getSearchIndexTerms());
+        assertTrue(metrics.toText().contains("search_index_terms 3\n"));
+    }
+
+    @Test
+    public void testSameResultsWithAndWithoutIndex() throws ActivityPubException {
+        Server indexed = server(MASTO_POLITO, new ServerConfig().searchIndexEnabled(true));
+        Server scanned = server(MASTO_UNITO, new ServerConfig());
+        indexed.createActor("alice", "Alice Doe");
+        scanned.createActor("alice", "Alice Doe");
+        String[] words = { "red", "green", "blue", "bluebird", "fox", "dog", "cat", "catalog" };
+        Random random = new Random(7);
+        for (int i = 0; i < 300; i++) {
+            StringBuilder content = new StringBuilder();
+            for (int w = 0; w < 4; w++) {
+                content.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            indexed.createActivity("alice", ActivityType.CREATE, content + "#" + i);
+            scanned.createActivity("alice", ActivityType.CREATE, content + "#" + i);
+        }
+
+        for (String query : List.of("red", "blue*", "cat*", "\"green fox\"", "dog \"red red\"", "bl* ca*", "\"blue bird\"")) {
+            assertEquals(query, search(scanned, query), search(indexed, query));
+        }
+        assertEquals(Optional.empty(), indexed.searchActivities("zebra", null, 5).getNextCursor());
+    }
+}
@@ -0,0 +1,154 @@
+package it.polito.activitypub.test;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPage;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.Delivery;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.WireCodec;
+
+/**
+ * A {@link ServerProxy} that passes every activity, actor and delivery batch
+ * through the {@link WireCodec}, in both directions, as a remote server would.
+ * It counts the encoded bytes so that the cost of federation can be measured.
+ */
+public class SerializingServerProxy extends ServerProxy {
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+
+    SerializingServerProxy(Server remote) {
+        super(remote);
+    }
+
+    public long getBytesTransferred() {
+        return bytes.get();
+    }
+
+    public long getMessagesTransferred() {
+        return messages.get();
+    }
+
+    private ByteBuffer count(ByteBuffer buffer) {
+        bytes.addAndGet(buffer.remaining());
+        messages.incrementAndGet();
+        return buffer;
+    }
+
+    private Actor copy(Actor actor) {
+        return WireCodec.decodeActor(count(WireCodec.encode(actor)));
+    }
+
+    private Activity copy(Activity activity) {
+        return WireCodec.decodeActivity(count(WireCodec.encode(activity)));
+    }
+
+    private List<Actor> copyActors(List<Actor> actors) {
+        return actors.stream().map(this::copy).collect(Collectors.toList());
+    }
+
+    private Stream<Activity> copyActivities(Stream<Activity> activities) {
+        return activities.map(this::copy);
+    }
+
+    @Override
+    public Actor createActor(String username, String displayName) throws ActivityPubException {
+        return copy(super.createActor(username, displayName));
+    }
+
+    @Override
+    public Optional<Actor> getActor(String username) {
+        return super.getActor(username).map(this::copy);
+    }
+
+    @Override
+    public List<Actor> listAllActors() {
+        return copyActors(super.listAllActors());
+    }
+
+    @Override
+    public List<Actor> getFollowers(String fullId) {
+        return copyActors(super.getFollowers(fullId));
+    }
+
+    @Override
+    public List<Actor> getFollowing(String fullId) {
+        return copyActors(super.getFollowing(fullId));
+    }
+
+    @Override
+    public Activity createActivity(String actorId, ActivityType type, String content) {
+        return copy(super.createActivity(actorId, type, content));
+    }
+
+    @Override
+    public Stream<Activity> getAllActivities() {
+        return copyActivities(super.getAllActivities());
+    }
+
+    @Override
+    public Stream<Activity> getAllActivities(Instant from, Instant to) {
+        return copyActivities(super.getAllActivities(from, to));
+    }
+
+    @Override
+    public Stream<Activity> getLatestActivities(int count) {
+        return copyActivities(super.getLatestActivities(count));
+    }
+
+    @Override
+    public Stream<Activity> getInbox(String actorId) {
+        return copyActivities(super.getInbox(actorId));
+    }
+
+    @Override
+    public ActivityPage getInbox(String actorId, String cursor, int limit) {
+        return WireCodec.decodePage(count(WireCodec.encode(super.getInbox(actorId, cursor, limit))));
+    }
+
+    @Override
+    public ActivityPage searchActivities(String query, String cursor, int limit) {
+        return WireCodec.decodePage(count(WireCodec.encode(super.searchActivities(query, cursor, limit))));
+    }
+
+    @Override
+    public Stream<Activity> getOutbox(String actorId) {
+        return copyActivities(super.getOutbox(actorId));
+    }
+
+    @Override
+    public Stream<Activity> getOutbox(String actorId, Instant from, Instant to) {
+        return copyActivities(super.getOutbox(actorId, from, to));
+    }
+
+    @Override
+    public Stream<Activity> getLatestOutbox(String actorId, int count) {
+        return copyActivities(super.getLatestOutbox(actorId, count));
+    }
+
+    @Override
+    public void receiveActivity(Activity activity, String... targetId) {
+        Delivery delivery = WireCodec.decodeDeliveries(count(WireCodec.encode(getName(), List.of(new Delivery(activity, targetId))))).get(0);
+        super.receiveActivity(delivery.getActivity(), delivery.getRecipientIds().toArray(new String[0]));
+    }
+
+    @Override
+    public void receiveActivities(List<Delivery> deliveries) {
+        super.receiveActivities(WireCodec.decodeDeliveries(count(WireCodec.encode(getName(), deliveries))));
+    }
+
+    @Override
+    public void receiveFollowersActivity(Activity activity) {
+        super.receiveFollowersActivity(copy(activity));
+    }
+}
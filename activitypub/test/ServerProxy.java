@@ -1,14 +1,23 @@
 package it.polito.activitypub.test;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Flow;
 import java.util.stream.Stream;
 
 import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPage;
 import it.polito.activitypub.ActivityPubException;
 import it.polito.activitypub.ActivityType;
 import it.polito.activitypub.Actor;
+import it.polito.activitypub.DeadLetters;
+import it.polito.activitypub.Delivery;
+import it.polito.activitypub.FollowResult;
 import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerMetrics;
 
 public class ServerProxy implements Server {
 
@@ -63,6 +72,31 @@ public class ServerProxy implements Server {
         return remote.removeFollower(followerId, targetId);
     }
 
+    @Override
+    public void actorDeleted(String actorId, Instant deletedAt, Collection<String> followedIds, Collection<String> followerIds) {
+        remote.actorDeleted(actorId, deletedAt, followedIds, followerIds);
+    }
+
+    @Override
+    public Map<String, FollowResult> followAll(String followerId, Collection<String> targetIds) throws ActivityPubException {
+        return remote.followAll(followerId, targetIds);
+    }
+
+    @Override
+    public Map<String, FollowResult> addFollowers(String followerId, Collection<String> targetIds) {
+        return remote.addFollowers(followerId, targetIds);
+    }
+
+    @Override
+    public Map<String, FollowResult> unfollowAll(String followerId, Collection<String> targetIds) throws ActivityPubException {
+        return remote.unfollowAll(followerId, targetIds);
+    }
+
+    @Override
+    public Map<String, FollowResult> removeFollowers(String followerId, Collection<String> targetIds) {
+        return remote.removeFollowers(followerId, targetIds);
+    }
+
     @Override
     public List<Actor> getFollowers(String fullId) {
         return remote.getFollowers(fullId);
@@ -70,7 +104,7 @@ public class ServerProxy implements Server {
 
     @Override
     public List<Actor> getFollowing(String fullId) {
-        return remote.getFollowers(fullId);
+        return remote.getFollowing(fullId);
     }
 
     @Override
@@ -83,24 +117,93 @@ public class ServerProxy implements Server {
         return remote.createActivity(actorId, type, content);
     }
 
+    @Override
+    public void flushDeliveries() throws InterruptedException {
+        remote.flushDeliveries();
+    }
+
     @Override
     public Stream<Activity> getAllActivities() {
         return remote.getAllActivities();
     }
 
+    @Override
+    public Stream<Activity> getAllActivities(Instant from, Instant to) {
+        return remote.getAllActivities(from, to);
+    }
+
+    @Override
+    public Stream<Activity> getLatestActivities(int count) {
+        return remote.getLatestActivities(count);
+    }
+
     @Override
     public Stream<Activity> getInbox(String actorId) {
         return remote.getInbox(actorId);
     }
 
+    @Override
+    public ActivityPage getInbox(String actorId, String cursor, int limit) {
+        return remote.getInbox(actorId, cursor, limit);
+    }
+
+    @Override
+    public ActivityPage searchActivities(String query, String cursor, int limit) {
+        return remote.searchActivities(query, cursor, limit);
+    }
+
+    @Override
+    public Flow.Publisher<Activity> subscribeInbox(String actorId) {
+        return remote.subscribeInbox(actorId);
+    }
+
     @Override
     public Stream<Activity> getOutbox(String actorId) {
         return remote.getOutbox(actorId);
     }
 
+    @Override
+    public Stream<Activity> getOutbox(String actorId, Instant from, Instant to) {
+        return remote.getOutbox(actorId, from, to);
+    }
+
+    @Override
+    public Stream<Activity> getLatestOutbox(String actorId, int count) {
+        return remote.getLatestOutbox(actorId, count);
+    }
+
     @Override
     public void receiveActivity(Activity activity, String... targetId) {
         remote.receiveActivity(activity, targetId);
     }
 
+    @Override
+    public void receiveActivities(List<Delivery> deliveries) {
+        remote.receiveActivities(deliveries);
+    }
+
+    @Override
+    public void receiveActivities(List<Delivery> deliveries, String origin) {
+        remote.receiveActivities(deliveries, origin);
+    }
+
+    @Override
+    public void receiveFollowersActivity(Activity activity) {
+        remote.receiveFollowersActivity(activity);
+    }
+
+    @Override
+    public Optional<ServerMetrics> getMetrics() {
+        return remote.getMetrics();
+    }
+
+    @Override
+    public Optional<DeadLetters> getDeadLetters() {
+        return remote.getDeadLetters();
+    }
+
+    @Override
+    public void close() {
+        remote.close();
+    }
 }
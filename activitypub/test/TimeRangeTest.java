@@ -0,0 +1,69 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.Server;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimeRangeTest {
+
+    private static final String MASTO_POLITO = "range.polito.it";
+
+    private Server polito;
+    private Actor alice;
+    private Actor bob;
+    private final List<Activity> alicePosts = new ArrayList<>();
+    private final List<Activity> allPosts = new ArrayList<>();
+
+    @Before
+    public void setup() throws ActivityPubException {
+        polito = ActivityPubUtilities.createServer(MASTO_POLITO);
+        alice = polito.createActor("alice", "Alice Doe");
+        bob = polito.createActor("bob", "Bob Smith");
+        for (int i = 0; i < 10; i++) {
+            Activity a = polito.createActivity(alice.getFullId(), ActivityType.CREATE, "alice " + i);
+            alicePosts.add(a);
+            allPosts.add(a);
+            allPosts.add(polito.createActivity(bob.getFullId(), ActivityType.LIKE, "bob " + i));
+        }
+    }
+
+    @Test
+    public void testOutboxRange() {
+        List<Activity> range = polito.getOutbox(alice.getFullId(),
+                alicePosts.get(3).getTimestamp(), alicePosts.get(7).getTimestamp()).toList();
+        assertEquals(alicePosts.subList(3, 7), range);
+
+        assertEquals(alicePosts.subList(8, 10),
+                polito.getOutbox(alice.getFullId(), alicePosts.get(8).getTimestamp(), null).toList());
+        assertEquals(alicePosts.subList(0, 2),
+                polito.getOutbox(alice.getFullId(), null, alicePosts.get(2).getTimestamp()).toList());
+        assertTrue(polito.getOutbox(alice.getFullId(),
+                alicePosts.get(5).getTimestamp(), alicePosts.get(5).getTimestamp()).toList().isEmpty());
+    }
+
+    @Test
+    public void testAllActivitiesRange() {
+        List<Activity> range = polito.getAllActivities(allPosts.get(5).getTimestamp(), null).toList();
+        assertEquals(allPosts.subList(5, allPosts.size()), range);
+    }
+
+    @Test
+    public void testLatest() {
+        List<Activity> latest = polito.getLatestOutbox(alice.getFullId(), 3).toList();
+        assertEquals(List.of(alicePosts.get(9), alicePosts.get(8), alicePosts.get(7)), latest);
+
+        List<Activity> all = polito.getLatestActivities(2).toList();
+        assertEquals(List.of(allPosts.get(19), allPosts.get(18)), all);
+        assertEquals(0, polito.getLatestOutbox("nobody", 3).count());
+    }
+}
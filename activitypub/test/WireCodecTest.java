@@ -0,0 +1,144 @@
+package it.polito.activitypub.test;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.Delivery;
+import it.polito.activitypub.NamingService;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.WireCodec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class WireCodecTest {
+
+    private static final String MASTO_POLITO = "wire.polito.it";
+    private static final String MASTO_UNITO = "wire.unito.it";
+
+    private Server polito;
+    private Actor alice;
+
+    @Before
+    public void setup() throws ActivityPubException {
+        polito = ActivityPubUtilities.createServer(MASTO_POLITO);
+        alice = polito.createActor("alice", "Alice Doe");
+    }
+
+    @Test
+    public void testActivityRoundTrip() {
+        Activity activity = new Activity(ActivityType.ANNOUNCE, alice.getFullId(), "Ciao, perch\u00e9 no? \ud83d\ude00");
+        Activity decoded = WireCodec.decodeActivity(WireCodec.encode(activity));
+
+        assertEquals(activity.getId(), decoded.getId());
+        assertEquals(activity.getType(), decoded.getType());
+        assertEquals(activity.getActor(), decoded.getActor());
+        assertEquals(activity.getContent(), decoded.getContent());
+        assertEquals(activity.getTimestamp(), decoded.getTimestamp());
+    }
+
+    @Test
+    public void testNullFieldsRoundTrip() throws ActivityPubException {
+        Activity activity = new Activity(ActivityType.LIKE, alice.getFullId(), null);
+        Actor nameless = polito.createActor("nameless", null);
+
+        assertEquals(null, WireCodec.decodeActivity(WireCodec.encode(activity)).getContent());
+        assertEquals(activity, WireCodec.decodeDeliveries(WireCodec.encode(MASTO_UNITO,
+                List.of(Delivery.toFollowers(activity)))).get(0).getActivity());
+        assertEquals(null, WireCodec.decodeActor(WireCodec.encode(nameless)).getDisplayName());
+    }
+
+    @Test
+    public void testActorRoundTripFromDirectBuffer() {
+        ByteBuffer heap = WireCodec.encode(alice);
+        ByteBuffer direct = ByteBuffer.allocateDirect(heap.remaining()).put(heap).flip();
+        Actor decoded = WireCodec.decodeActor(direct);
+
+        assertEquals(alice, decoded);
+        assertEquals(alice.getUsername(), decoded.getUsername());
+        assertEquals(alice.getDisplayName(), decoded.getDisplayName());
+        assertEquals(0, direct.remaining());
+    }
+
+    @Test
+    public void testDeliveriesRoundTrip() {
+        Activity post = new Activity(ActivityType.CREATE, alice.getFullId(), "post");
+        List<Delivery> batch = List.of(
+                new Delivery(post, "@bob@" + MASTO_UNITO, "@carla@" + MASTO_UNITO, "@dave@elsewhere.it"),
+                Delivery.toFollowers(post));
+        List<Delivery> decoded = WireCodec.decodeDeliveries(WireCodec.encode(MASTO_UNITO, batch));
+
+        assertEquals(2, decoded.size());
+        assertEquals(batch.get(0).getRecipientIds(), decoded.get(0).getRecipientIds());
+        assertEquals(post, decoded.get(0).getActivity());
+        assertTrue(decoded.get(1).isToFollowers());
+    }
+
+    @Test
+    public void testMalformedInput() {
+        ByteBuffer encoded = WireCodec.encode(alice);
+        ByteBuffer wrongVersion = ByteBuffer.wrap(new byte[] { 99, 2 });
+        ByteBuffer truncated = ByteBuffer.wrap(encoded.array(), 0, encoded.remaining() - 3);
+
+        assertThrows(IllegalArgumentException.class, () -> WireCodec.decodeActor(wrongVersion));
+        assertThrows(IllegalArgumentException.class, () -> WireCodec.decodeActor(truncated));
+        assertThrows(IllegalArgumentException.class, () -> WireCodec.decodeActivity(WireCodec.encode(alice)));
+    }
+
+    @Test
+    public void testMalformedLengths() {
+        byte version = (byte) WireCodec.VERSION;
+        // a 5-byte varint decoding to -1, then an overlong one, as the length of the first string of an actor
+        ByteBuffer negative = ByteBuffer.wrap(new byte[] { version, 2, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f, 'a' });
+        ByteBuffer overlong = ByteBuffer.wrap(new byte[] { version, 2, (byte) 0x81, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x00 });
+        // a batch of deliveries announcing 2^28 of them
+        ByteBuffer count = ByteBuffer.wrap(new byte[] { version, 3, 1, 'x', (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01 });
+
+        assertThrows(IllegalArgumentException.class, () -> WireCodec.decodeActor(negative));
+        assertThrows(IllegalArgumentException.class, () -> WireCodec.decodeActor(overlong));
+        assertThrows(IllegalArgumentException.class, () -> WireCodec.decodeDeliveries(count));
+    }
+
+    @Test
+    public void testSmallerThanJavaSerialization() throws IOException {
+        List<Delivery> batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Activity post = new Activity(ActivityType.CREATE, alice.getFullId(), "post number " + i);
+            batch.add(new Delivery(post, "@bob@" + MASTO_UNITO, "@carla@" + MASTO_UNITO));
+        }
+        ByteArrayOutputStream java = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(java)) {
+            out.writeObject(new ArrayList<>(batch));
+        }
+        int wire = WireCodec.encode(MASTO_UNITO, batch).remaining();
+
+        assertTrue(wire * 3 < java.size());
+    }
+
+    @Test
+    public void testFederationThroughCodec() throws ActivityPubException {
+        NamingService namingService = ActivityPubUtilities.getNamingService();
+        SerializingServerProxy unito = new SerializingServerProxy(ActivityPubUtilities.createServer(MASTO_UNITO));
+        namingService.registerServer(MASTO_UNITO, unito);
+        Actor carla = unito.createActor("carla", "Carla Bianchi");
+
+        polito.follow(alice.getFullId(), carla.getFullId());
+        unito.follow(carla.getFullId(), alice.getFullId());
+        Activity post = polito.createActivity(alice.getFullId(), ActivityType.CREATE, "Hi from Alice");
+
+        assertEquals(List.of(post), unito.getInbox(carla.getFullId()).toList());
+        assertEquals(List.of(alice), unito.getFollowing(carla.getFullId()));
+        assertTrue(unito.getBytesTransferred() > 0);
+    }
+}
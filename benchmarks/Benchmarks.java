@@ -0,0 +1,83 @@
+package it.polito.activitypub.benchmarks;
+
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityPubUtilities;
+import it.polito.activitypub.InMemoryNamingService;
+import it.polito.activitypub.NamingService;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerConfig;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmark jar: runs the JMH benchmarks selected on the command line,
+ * with the standard JMH options, always adding the GC profiler so that the allocation
+ * rate per operation is reported next to the time.
+ * <pre>
+ * mvn -B package -DskipTests
+ * java -jar benchmarks/target/benchmarks.jar                  # everything
+ * java -jar benchmarks/target/benchmarks.jar FanOut -p servers=50
+ * </pre>
+ * Every benchmark class has a single-threaded method and a multi-threaded one,
+ * whose name ends with {@code Threads}.
+ */
+public final class Benchmarks {
+
+    static final int THREADS = 4;
+
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions command = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder()
+                .parent(command)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+    /**
+     * Creates a set of servers registered in a private naming service,
+     * so that each trial starts from empty servers.
+     *
+     * @param prefix the first label of the server names
+     * @param count the number of servers
+     * @return the servers, named {@code prefix0.bench}, {@code prefix1.bench}...
+     */
+    static Server[] servers(String prefix, int count) {
+        return servers(prefix, count, new ServerConfig());
+    }
+
+    /**
+     * Creates a set of servers with the given configuration, whose naming service is replaced.
+     */
+    static Server[] servers(String prefix, int count, ServerConfig config) {
+        NamingService naming = new InMemoryNamingService();
+        config.namingService(naming);
+        Server[] servers = new Server[count];
+        for (int i = 0; i < count; i++) {
+            servers[i] = ActivityPubUtilities.createServer(prefix + i + ".bench", config);
+        }
+        return servers;
+    }
+
+    /**
+     * Creates {@code count} actors spread round-robin across the servers,
+     * all following the target.
+     *
+     * @return the full IDs of the followers
+     */
+    static String[] followers(Server[] servers, String targetId, int count) throws ActivityPubException {
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            Server server = servers[i % servers.length];
+            ids[i] = server.createActor("fan" + i, "Fan " + i).getFullId();
+            server.follow(ids[i], targetId);
+        }
+        return ids;
+    }
+}
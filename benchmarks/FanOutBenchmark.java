@@ -0,0 +1,68 @@
+package it.polito.activitypub.benchmarks;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Server;
+import it.polito.activitypub.ServerConfig;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Server#createActivity} by an actor whose followers are spread across the servers.
+ * The servers are rebuilt before each iteration, so the inboxes do not grow without bound.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class FanOutBenchmark {
+
+    @Param({ "10", "1000", "100000" })
+    int followers;
+
+    @Param({ "1", "50" })
+    int servers;
+
+    // the cost of the metrics, which must be nil when disabled
+    @Param({ "false", "true" })
+    boolean metrics;
+
+    private Server author;
+    private String authorId;
+
+    @Setup(Level.Iteration)
+    public void setup() throws ActivityPubException {
+        Server[] all = Benchmarks.servers("fanout", servers, new ServerConfig().metricsEnabled(metrics));
+        author = all[0];
+        authorId = author.createActor("author", "Author").getFullId();
+        Benchmarks.followers(all, authorId, followers);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Activity createActivity() {
+        return author.createActivity(authorId, ActivityType.CREATE, "Hello followers");
+    }
+
+    @Benchmark
+    @Threads(Benchmarks.THREADS)
+    public Activity createActivityThreads() {
+        return author.createActivity(authorId, ActivityType.CREATE, "Hello followers");
+    }
+}
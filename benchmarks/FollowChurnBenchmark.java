@@ -0,0 +1,83 @@
+package it.polito.activitypub.benchmarks;
+
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.Server;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Server#follow} immediately followed by {@link Server#unfollow}, cycling over
+ * a set of targets. Each thread has its own follower, all the threads share the targets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class FollowChurnBenchmark {
+
+    @Param({ "1000" })
+    int targets;
+
+    @Param({ "false", "true" })
+    boolean remote;
+
+    private Server home;
+    private String[] targetIds;
+    private final AtomicInteger threads = new AtomicInteger();
+
+    @Setup
+    public void setup() throws ActivityPubException {
+        Server[] all = Benchmarks.servers("churn", 2);
+        home = all[0];
+        Server targetServer = remote ? all[1] : all[0];
+        targetIds = new String[targets];
+        for (int i = 0; i < targets; i++) {
+            targetIds[i] = targetServer.createActor("target" + i, "Target " + i).getFullId();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Follower {
+        String id;
+        int next;
+
+        @Setup
+        public void setup(FollowChurnBenchmark benchmark) throws ActivityPubException {
+            int n = benchmark.threads.getAndIncrement();
+            id = benchmark.home.createActor("follower" + n, "Follower " + n).getFullId();
+        }
+    }
+
+    private boolean churn(Follower follower) throws ActivityPubException {
+        String target = targetIds[follower.next];
+        follower.next = (follower.next + 1) % targetIds.length;
+        return home.follow(follower.id, target) & home.unfollow(follower.id, target);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean followUnfollow(Follower follower) throws ActivityPubException {
+        return churn(follower);
+    }
+
+    @Benchmark
+    @Threads(Benchmarks.THREADS)
+    public boolean followUnfollowThreads(Follower follower) throws ActivityPubException {
+        return churn(follower);
+    }
+}
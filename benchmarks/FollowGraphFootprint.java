@@ -0,0 +1,120 @@
+package it.polito.activitypub.benchmarks;
+
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.Server;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Retained heap of the follow graph, compared with the maps of ID strings it replaced:
+ * {@code following} by follower and {@code followers} by target and home server,
+ * both holding the {@code Set<String>} of the other ends. The followers of each target
+ * are drawn from a larger population of actors, all on the same server, and the ID strings
+ * are created before measuring, so only the edges are counted, with the interner of the server.
+ * <p>
+ * Not a JMH benchmark: it measures the heap used after a full GC, before and after adding the edges.
+ * <pre>
+ * java -Xmx4g -cp benchmarks/target/benchmarks.jar it.polito.activitypub.benchmarks.FollowGraphFootprint 1000000 10000000
+ * </pre>
+ */
+public final class FollowGraphFootprint {
+
+    private static final int TARGETS = 20_000;
+    private static final int ACTORS = 200_000;
+
+    private FollowGraphFootprint() {
+    }
+
+    public static void main(String[] args) throws ActivityPubException, InterruptedException {
+        System.out.printf("%12s %28s %28s%n", "edges", "Map<String, Set<String>>", "Server follow graph");
+        for (String arg : args.length == 0 ? new String[] { "1000000" } : args) {
+            int edges = Integer.parseInt(arg);
+            long maps = measureMaps(edges);
+            long server = measureServer(edges);
+            System.out.printf("%12d %17.1f MB %5.1f B/e %17.1f MB %5.1f B/e%n", edges,
+                    maps / 1e6, (double) maps / edges, server / 1e6, (double) server / edges);
+        }
+    }
+
+    /**
+     * The follower and the target of every edge, drawn the same way for both layouts; duplicates are skipped by both.
+     */
+    private static int[] drawFollowers(int edges) {
+        Random random = new Random(42);
+        int[] followers = new int[edges];
+        for (int i = 0; i < edges; i++) {
+            followers[i] = random.nextInt(ACTORS);
+        }
+        return followers;
+    }
+
+    private static long measureMaps(int edges) throws InterruptedException {
+        String[] actorIds = new String[ACTORS];
+        for (int i = 0; i < ACTORS; i++) {
+            actorIds[i] = "@user" + i + "@footprint0.bench";
+        }
+        String[] targetIds = new String[TARGETS];
+        for (int i = 0; i < TARGETS; i++) {
+            targetIds[i] = "@target" + i + "@footprint0.bench";
+        }
+        int[] followers = drawFollowers(edges);
+        long before = usedHeap();
+        ConcurrentMap<String, Set<String>> following = new ConcurrentHashMap<>();
+        ConcurrentMap<String, ConcurrentMap<String, Set<String>>> followersMap = new ConcurrentHashMap<>();
+        for (int i = 0; i < edges; i++) {
+            String follower = actorIds[followers[i]];
+            String target = targetIds[i % TARGETS];
+            following.computeIfAbsent(follower, k -> ConcurrentHashMap.newKeySet()).add(target);
+            followersMap.computeIfAbsent(target, k -> new ConcurrentHashMap<>())
+                    .computeIfAbsent("footprint0.bench", k -> ConcurrentHashMap.newKeySet()).add(follower);
+        }
+        long used = usedHeap() - before;
+        // keep everything reachable until measured
+        if (following.size() + followersMap.size() + actorIds.length + targetIds.length == 0) {
+            throw new AssertionError();
+        }
+        return used;
+    }
+
+    private static long measureServer(int edges) throws ActivityPubException, InterruptedException {
+        Server server = Benchmarks.servers("footprint", 1)[0];
+        String[] actorIds = new String[ACTORS];
+        for (int i = 0; i < ACTORS; i++) {
+            actorIds[i] = server.createActor("user" + i, "User " + i).getFullId();
+        }
+        String[] targetIds = new String[TARGETS];
+        for (int i = 0; i < TARGETS; i++) {
+            targetIds[i] = server.createActor("target" + i, "Target " + i).getFullId();
+        }
+        int[] followers = drawFollowers(edges);
+        long before = usedHeap();
+        for (int i = 0; i < edges; i++) {
+            server.follow(actorIds[followers[i]], targetIds[i % TARGETS]);
+        }
+        long used = usedHeap() - before;
+        if (server.listAllActors().size() + followers.length == 0) {
+            throw new AssertionError();
+        }
+        return used;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        // a few rounds, until the collections stop freeing anything
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+            long now = memory.getHeapMemoryUsage().getUsed();
+            if (now >= used) {
+                break;
+            }
+            used = now;
+        }
+        return used;
+    }
+}
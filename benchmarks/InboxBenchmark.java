@@ -0,0 +1,76 @@
+package it.polito.activitypub.benchmarks;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPage;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Delivery;
+import it.polito.activitypub.Server;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * First page of {@link Server#getInbox(String, String, int)} on a large inbox.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class InboxBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @Param({ "10000", "1000000" })
+    int inboxSize;
+
+    @Param({ "20" })
+    int pageSize;
+
+    private Server server;
+    private String readerId;
+
+    @Setup
+    public void setup() throws ActivityPubException {
+        Server[] all = Benchmarks.servers("inbox", 1);
+        server = all[0];
+        readerId = server.createActor("reader", "Reader").getFullId();
+        String authorId = "@author@elsewhere.bench";
+        List<Delivery> batch = new ArrayList<>(BATCH);
+        for (int i = 0; i < inboxSize; i++) {
+            batch.add(new Delivery(new Activity(ActivityType.CREATE, authorId, "Post " + i), readerId));
+            if (batch.size() == BATCH) {
+                server.receiveActivities(batch);
+                batch.clear();
+            }
+        }
+        server.receiveActivities(batch);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ActivityPage firstPage() {
+        return server.getInbox(readerId, null, pageSize);
+    }
+
+    @Benchmark
+    @Threads(Benchmarks.THREADS)
+    public ActivityPage firstPageThreads() {
+        return server.getInbox(readerId, null, pageSize);
+    }
+}
@@ -0,0 +1,69 @@
+package it.polito.activitypub.benchmarks;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Server;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Server#receiveActivity} addressed to many local recipients at once,
+ * a share of which are unknown to the server. The server is rebuilt before
+ * each iteration, so the inboxes do not grow without bound.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class ReceiveBenchmark {
+
+    @Param({ "100", "10000" })
+    int recipients;
+
+    @Param({ "0", "10" })
+    int unknownPercent;
+
+    private Server server;
+    private String[] recipientIds;
+    private Activity activity;
+
+    @Setup(Level.Iteration)
+    public void setup() throws ActivityPubException {
+        server = Benchmarks.servers("receive", 1)[0];
+        recipientIds = new String[recipients];
+        for (int i = 0; i < recipients; i++) {
+            recipientIds[i] = i * 100 < unknownPercent * recipients
+                    ? "@ghost" + i + "@" + server.getName()
+                    : server.createActor("reader" + i, "Reader " + i).getFullId();
+        }
+        activity = new Activity(ActivityType.CREATE, "@author@elsewhere.bench", "Hello readers");
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void receiveActivity() {
+        server.receiveActivity(activity, recipientIds);
+    }
+
+    @Benchmark
+    @Threads(Benchmarks.THREADS)
+    public void receiveActivityThreads() {
+        server.receiveActivity(activity, recipientIds);
+    }
+}
@@ -0,0 +1,64 @@
+package it.polito.activitypub.benchmarks;
+
+import it.polito.activitypub.ActivityPubException;
+import it.polito.activitypub.Actor;
+import it.polito.activitypub.Server;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Server#getFollowers} of an actor whose followers live on other servers,
+ * so that every follower is resolved through the naming service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class RemoteFollowersBenchmark {
+
+    @Param({ "100", "10000" })
+    int followers;
+
+    @Param({ "1", "50" })
+    int servers;
+
+    private Server home;
+    private String targetId;
+
+    @Setup
+    public void setup() throws ActivityPubException {
+        Server[] all = Benchmarks.servers("followers", servers + 1);
+        home = all[0];
+        targetId = home.createActor("target", "Target").getFullId();
+        Server[] remote = new Server[servers];
+        System.arraycopy(all, 1, remote, 0, servers);
+        Benchmarks.followers(remote, targetId, followers);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<Actor> getFollowers() {
+        return home.getFollowers(targetId);
+    }
+
+    @Benchmark
+    @Threads(Benchmarks.THREADS)
+    public List<Actor> getFollowersThreads() {
+        return home.getFollowers(targetId);
+    }
+}
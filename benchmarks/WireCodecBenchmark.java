@@ -0,0 +1,110 @@
+package it.polito.activitypub.benchmarks;
+
+import it.polito.activitypub.Activity;
+import it.polito.activitypub.ActivityType;
+import it.polito.activitypub.Delivery;
+import it.polito.activitypub.WireCodec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding of a batch of deliveries, as sent to {@link it.polito.activitypub.Server#receiveActivities},
+ * with the {@link WireCodec} and with Java serialization of the same list.
+ * Each delivery has a few recipients on the destination server, all the activities have the same author.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class WireCodecBenchmark {
+
+    private static final String DESTINATION = "codec1.bench";
+
+    @Param({ "1", "100" })
+    int deliveries;
+
+    @Param({ "wire", "java" })
+    String codec;
+
+    private List<Delivery> batch;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        batch = new ArrayList<>();
+        for (int i = 0; i < deliveries; i++) {
+            Activity activity = new Activity(ActivityType.CREATE, "@author@codec0.bench", "Post number " + i);
+            batch.add(new Delivery(activity, "@bob@" + DESTINATION, "@carla@" + DESTINATION, "@dave@" + DESTINATION));
+        }
+        ByteBuffer buffer = encode();
+        encoded = new byte[buffer.remaining()];
+        buffer.get(encoded);
+    }
+
+    private ByteBuffer encode() throws IOException {
+        if (codec.equals("wire")) {
+            return WireCodec.encode(DESTINATION, batch);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(batch);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Delivery> decode() throws IOException, ClassNotFoundException {
+        if (codec.equals("wire")) {
+            return WireCodec.decodeDeliveries(ByteBuffer.wrap(encoded));
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(encoded))) {
+            return (List<Delivery>) in.readObject();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ByteBuffer encodeBatch() throws IOException {
+        return encode();
+    }
+
+    @Benchmark
+    @Threads(Benchmarks.THREADS)
+    public ByteBuffer encodeBatchThreads() throws IOException {
+        return encode();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<Delivery> decodeBatch() throws IOException, ClassNotFoundException {
+        return decode();
+    }
+
+    @Benchmark
+    @Threads(Benchmarks.THREADS)
+    public List<Delivery> decodeBatchThreads() throws IOException, ClassNotFoundException {
+        return decode();
+    }
+}